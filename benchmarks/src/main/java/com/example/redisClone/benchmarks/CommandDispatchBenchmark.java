@@ -0,0 +1,111 @@
+package com.example.redisClone.benchmarks;
+
+import com.example.redisClone.Main;
+import com.example.redisClone.config.Config;
+import com.example.redisClone.rdb.RDBconfig;
+import com.example.redisClone.replication.Replication;
+import com.example.redisClone.resp.RespArgs;
+import com.example.redisClone.resp.RespBuffer;
+import com.example.redisClone.resp.RespParser;
+import com.example.redisClone.resp.RespProtocolException;
+import com.example.redisClone.server.CommandTable;
+import com.example.redisClone.server.ServerContext;
+import com.example.redisClone.store.Evictor;
+import com.example.redisClone.store.ExpiryEngine;
+import com.example.redisClone.store.Keyspace;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The per-command work of handleReadableKeys once the bytes are in: parse a frame, look the
+ * command up in the CommandTable, execute it under the execution and key locks, and encode
+ * the reply. Only the socket read and the reply write are left out, so the score is what the
+ * server spends per command on top of the network.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandDispatchBenchmark {
+    private static final int PIPELINE = 64;
+    private static final int KEYS = 10_000;
+
+    @Param({ "GET", "SET", "INCR", "HSET" })
+    public String command;
+
+    private ServerContext server;
+    private final RespParser parser = new RespParser();
+    private final RespBuffer out = new RespBuffer(64 * 1024);
+    private ByteBuffer input;
+
+    @Setup
+    public void setup() throws RespProtocolException {
+        // Wired like Main.main, without persistence.
+        Config config = new Config();
+        server = new ServerContext(new RDBconfig("/tmp", "bench-dispatch.rdb"), config);
+        server.keyspace = new Keyspace();
+        server.keyspace.setEncodingLimits(config.encodingLimits);
+        server.expiryEngine = new ExpiryEngine(server.keyspace, server.clock, config.activeExpireEffort);
+        server.evictor = new Evictor(server.keyspace, server.clock);
+        server.evictor.configure(config.maxMemory, config.maxMemoryPolicy, config.maxMemorySamples);
+        server.replication = new Replication(server.keyspace, config, "/tmp");
+
+        StringBuilder preload = new StringBuilder();
+        for (int i = 0; i < KEYS; i++) {
+            preload.append(frame("SET", "key:" + i, "value-" + i));
+        }
+        dispatchAll(ByteBuffer.wrap(preload.toString().getBytes(StandardCharsets.US_ASCII)));
+
+        StringBuilder frames = new StringBuilder();
+        for (int i = 0; i < PIPELINE; i++) {
+            String key = "key:" + (i * 157 % KEYS);
+            switch (command) {
+                case "GET" -> frames.append(frame("GET", key));
+                case "SET" -> frames.append(frame("SET", key, "value-" + i));
+                case "INCR" -> frames.append(frame("INCR", "counter:" + (i % 16)));
+                default -> frames.append(frame("HSET", "hash:" + (i % 16), "field:" + i, "value"));
+            }
+        }
+        input = ByteBuffer.wrap(frames.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public int dispatch() throws RespProtocolException {
+        input.rewind();
+        out.clear();
+        dispatchAll(input);
+        return out.length();
+    }
+
+    private void dispatchAll(ByteBuffer buffer) throws RespProtocolException {
+        RespArgs args;
+        while ((args = parser.parse(buffer)) != null) {
+            String name = CommandTable.lookup(args);
+            Main.executeCommand(name, args, server, out, false);
+        }
+    }
+
+    private static String frame(String... argv) {
+        StringBuilder frame = new StringBuilder("*").append(argv.length).append("\r\n");
+        for (String arg : argv) {
+            frame.append('$').append(arg.length()).append("\r\n").append(arg).append("\r\n");
+        }
+        return frame.toString();
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.redisClone.benchmarks;
+
+import com.example.redisClone.RedisStoreObject;
+import com.example.redisClone.store.Clock;
+import com.example.redisClone.store.ExpiryEngine;
+import com.example.redisClone.store.Keyspace;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Expiry checks: the lazy check every read of a volatile key pays, and one active expiry
+ * cycle (ExpiryEngine.runCycle, as serverCron runs it) over a keyspace where a given share
+ * of the volatile keys is already stale.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 30)
+@Fork(1)
+public class ExpiryBenchmark {
+    private static final int KEYS = 100_000;
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Param({ "10", "50", "100" })
+    public int stalePercent;
+
+    /**
+     * A clock stopped at NOW, so which keys are stale does not depend on when the benchmark runs.
+     * Nanoseconds still advance, so the cycle's CPU budget works as in the server.
+     */
+    private static final Clock FIXED = new Clock() {
+        @Override
+        public long millis() {
+            return NOW;
+        }
+
+        @Override
+        public long nanos() {
+            return System.nanoTime();
+        }
+    };
+
+    private final byte[] value = "value".getBytes(StandardCharsets.US_ASCII);
+    private Keyspace keyspace;
+    private ExpiryEngine engine;
+    private String[] keys;
+
+    @Setup(Level.Trial)
+    public void keys() {
+        keys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "volatile:" + i;
+        }
+    }
+
+    /**
+     * Rebuilds the keyspace before every call, since a cycle deletes what it measures.
+     * Live keys expire an hour after NOW.
+     */
+    @Setup(Level.Invocation)
+    public void populate() {
+        keyspace = new Keyspace();
+        keyspace.clock = FIXED;
+        for (int i = 0; i < KEYS; i++) {
+            boolean stale = i % 100 < stalePercent;
+            long expiration = stale ? NOW - 1 : NOW + 3_600_000;
+            keyspace.put(keys[i], keyspace.createValue(value), expiration);
+        }
+        engine = new ExpiryEngine(keyspace, FIXED, 1);
+    }
+
+    /**
+     * One active expiry cycle with serverCron's 100ms period.
+     */
+    @Benchmark
+    public int activeCycle() {
+        return engine.runCycle(100);
+    }
+
+    /**
+     * Reads of volatile keys: a stale key is deleted on the spot, a live one is returned.
+     */
+    @Benchmark
+    public int lazyCheckAll() {
+        int live = 0;
+        for (int i = 0; i < KEYS; i++) {
+            RedisStoreObject found = keyspace.get(keys[i], NOW);
+            if (found != null) {
+                live++;
+            }
+        }
+        return live;
+    }
+}
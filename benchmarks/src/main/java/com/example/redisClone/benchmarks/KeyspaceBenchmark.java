@@ -0,0 +1,93 @@
+package com.example.redisClone.benchmarks;
+
+import com.example.redisClone.RedisStoreObject;
+import com.example.redisClone.store.Keyspace;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * GET and SET on the Keyspace itself: segment lock, dict probe, LRU/LFU touch and memory
+ * accounting, without the protocol around them. The contended variants run on several
+ * threads against the same keyspace, as the reactors of --io-threads do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyspaceBenchmark {
+    @Param({ "10000", "1000000" })
+    public int keyCount;
+
+    private Keyspace keyspace;
+    private String[] keys;
+    private String[] missingKeys;
+    private byte[] value;
+
+    /**
+     * Each thread walks the keys from its own offset, with a stride that is coprime to the
+     * key count so every key is visited.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = (int) (Thread.currentThread().getId() * 7919);
+
+        int next(int bound) {
+            next = (next + 40503) % bound;
+            return next;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        keyspace = new Keyspace();
+        keys = new String[keyCount];
+        missingKeys = new String[keyCount];
+        value = "value-of-sixteen".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "key:" + i;
+            missingKeys[i] = "missing:" + i;
+            keyspace.put(keys[i], keyspace.createValue(value), Long.MAX_VALUE);
+        }
+    }
+
+    @Benchmark
+    public RedisStoreObject getHit(Cursor cursor) {
+        return keyspace.get(keys[cursor.next(keyCount)], System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public RedisStoreObject getMiss(Cursor cursor) {
+        return keyspace.get(missingKeys[cursor.next(keyCount)], System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public RedisStoreObject set(Cursor cursor) {
+        return keyspace.put(keys[cursor.next(keyCount)], keyspace.createValue(value), Long.MAX_VALUE);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public RedisStoreObject getHitContended(Cursor cursor) {
+        return keyspace.get(keys[cursor.next(keyCount)], System.currentTimeMillis());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public RedisStoreObject setContended(Cursor cursor) {
+        return keyspace.put(keys[cursor.next(keyCount)], keyspace.createValue(value), Long.MAX_VALUE);
+    }
+}
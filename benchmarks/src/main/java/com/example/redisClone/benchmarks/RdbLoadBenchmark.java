@@ -0,0 +1,93 @@
+package com.example.redisClone.benchmarks;
+
+import com.example.redisClone.RedisStoreObject;
+import com.example.redisClone.rdb.RDBconfig;
+import com.example.redisClone.rdb.RDBconfigHandler;
+import com.example.redisClone.rdb.RdbSaver;
+import com.example.redisClone.store.Keyspace;
+import com.example.redisClone.types.EncodingLimits;
+import com.example.redisClone.types.HashValue;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * RDBconfigHandler.loadRDB on a dump generated once per trial by the server's own RdbSaver:
+ * a mix of integer, short and long strings, a tenth of them with a TTL, plus small hashes,
+ * so every common encoding goes through the decoder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class RdbLoadBenchmark {
+    @Param({ "100000", "1000000" })
+    public int keyCount;
+
+    private File directory;
+    private RDBconfig rdbConfig;
+
+    @Setup(Level.Trial)
+    public void writeDump() throws IOException {
+        directory = Files.createTempDirectory("rdb-bench").toFile();
+        rdbConfig = new RDBconfig(directory.getPath(), "dump.rdb");
+        Keyspace keyspace = new Keyspace();
+        EncodingLimits limits = keyspace.encodingLimits();
+        byte[] longValue = "v".repeat(200).getBytes(StandardCharsets.US_ASCII);
+        long ttl = System.currentTimeMillis() + 86_400_000L; // Still live when the dump is loaded.
+        for (int i = 0; i < keyCount; i++) {
+            String key = "key:" + i;
+            long expiration = i % 10 == 0 ? ttl : Long.MAX_VALUE;
+            switch (i % 4) {
+                case 0 -> keyspace.put(key,
+                        keyspace.createValue(Integer.toString(i).getBytes(StandardCharsets.US_ASCII)), expiration);
+                case 1 -> keyspace.put(key,
+                        keyspace.createValue(("value-" + i).getBytes(StandardCharsets.US_ASCII)), expiration);
+                case 2 -> keyspace.put(key, keyspace.createValue(longValue), expiration);
+                default -> keyspace.modify(key, RedisStoreObject.TYPE_HASH, System.currentTimeMillis(),
+                        HashValue::new, collection -> {
+                            HashValue hash = (HashValue) collection;
+                            for (int f = 0; f < 8; f++) {
+                                hash.set(("field" + f).getBytes(StandardCharsets.US_ASCII),
+                                        ("value" + f).getBytes(StandardCharsets.US_ASCII), limits);
+                            }
+                            return null;
+                        });
+            }
+        }
+        new RdbSaver(rdbConfig, keyspace).save();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDump() {
+        new File(directory, "dump.rdb").delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public Keyspace load() throws IOException {
+        Keyspace keyspace = new Keyspace();
+        RDBconfigHandler.loadRDB(rdbConfig, keyspace);
+        if (keyspace.size() != keyCount) {
+            throw new IllegalStateException("Loaded " + keyspace.size() + " keys, expected " + keyCount);
+        }
+        return keyspace;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.redisClone.benchmarks;
+
+import com.example.redisClone.resp.RespArgs;
+import com.example.redisClone.resp.RespParser;
+import com.example.redisClone.resp.RespProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing a read buffer of pipelined commands, as processInput does after each socket read.
+ * Scores are per command: every invocation parses PIPELINE frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RespParserBenchmark {
+    private static final int PIPELINE = 64;
+
+    @Param({ "16", "1024" })
+    public int valueSize;
+
+    private final RespParser parser = new RespParser();
+    private ByteBuffer multiBulk;
+    private ByteBuffer inline;
+
+    @Setup
+    public void setup() {
+        String value = "x".repeat(valueSize);
+        StringBuilder frames = new StringBuilder();
+        StringBuilder inlineFrames = new StringBuilder();
+        for (int i = 0; i < PIPELINE; i++) {
+            String key = "key:" + i;
+            frames.append("*3\r\n$3\r\nSET\r\n$").append(key.length()).append("\r\n").append(key)
+                    .append("\r\n$").append(valueSize).append("\r\n").append(value).append("\r\n");
+            inlineFrames.append("SET ").append(key).append(' ').append(value).append("\r\n");
+        }
+        multiBulk = ByteBuffer.wrap(frames.toString().getBytes(StandardCharsets.US_ASCII));
+        inline = ByteBuffer.wrap(inlineFrames.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public void multiBulk(Blackhole blackhole) throws RespProtocolException {
+        parseAll(multiBulk, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public void inline(Blackhole blackhole) throws RespProtocolException {
+        parseAll(inline, blackhole);
+    }
+
+    private void parseAll(ByteBuffer buffer, Blackhole blackhole) throws RespProtocolException {
+        buffer.rewind();
+        RespArgs args;
+        while ((args = parser.parse(buffer)) != null) {
+            blackhole.consume(args.length(2));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.redisClone;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The server log, written to stdout by a background thread.
+ * System.out.println takes a lock and flushes on every line, so at high connection churn the
+ * connect and disconnect messages alone would serialise the reactors on stdout. Here a caller
+ * only adds the line to a lock-free queue; the writer thread batches whatever has queued into
+ * one write. If the writer falls behind, lines beyond MAX_PENDING are dropped (and counted)
+ * rather than blocking the event loop or growing the heap.
+ */
+public final class Log {
+    private static final int MAX_PENDING = 64 * 1024;
+    // How long the writer sleeps when the queue is empty; also the most a line waits to be written.
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pending = new AtomicInteger();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 64 * 1024);
+
+    static {
+        Thread writer = new Thread(() -> {
+            while (true) {
+                if (!drain()) {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+            }
+        }, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        // Lines still queued when the JVM exits are written out first.
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::drain, "log-flush"));
+    }
+
+    private Log() {
+    }
+
+    /**
+     * Queues a line for the log. Never blocks.
+     * @param line The message, without a line terminator.
+     */
+    public static void info(String line) {
+        if (pending.incrementAndGet() > MAX_PENDING) {
+            pending.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        queue.add(line);
+    }
+
+    /**
+     * @return How many lines were dropped because the writer could not keep up.
+     */
+    public static long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Writes every queued line with a single flush.
+     * @return false if there was nothing to write.
+     */
+    private static synchronized boolean drain() {
+        String line = queue.poll();
+        if (line == null) {
+            return false;
+        }
+        try {
+            do {
+                pending.decrementAndGet();
+                out.write(line);
+                out.write(System.lineSeparator());
+            } while ((line = queue.poll()) != null);
+            out.flush();
+        } catch (IOException e) {
+            // Nowhere left to report it; the lines are lost.
+        }
+        return true;
+    }
+}
@@ -1,20 +1,52 @@
 package com.example.redisClone;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.HashMap;
-import java.util.Set;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
 
+import com.example.redisClone.aof.AppendOnlyFile;
+import com.example.redisClone.cluster.ClusterBus;
+import com.example.redisClone.cluster.ClusterNode;
+import com.example.redisClone.cluster.ClusterState;
+import com.example.redisClone.cluster.HashSlot;
+import com.example.redisClone.cluster.Migration;
+import com.example.redisClone.config.Config;
+import com.example.redisClone.config.ConfigHandler;
+import com.example.redisClone.metrics.SlowLog;
 import com.example.redisClone.rdb.RDBconfig;
 import com.example.redisClone.rdb.RDBconfigHandler;
+import com.example.redisClone.rdb.RdbSaver;
+import com.example.redisClone.replication.MasterLink;
+import com.example.redisClone.replication.ReplicaState;
+import com.example.redisClone.replication.Replication;
+import com.example.redisClone.resp.RespArgs;
+import com.example.redisClone.resp.RespProtocolException;
+import com.example.redisClone.resp.RespWriter;
+import com.example.redisClone.server.ClientConnection;
+import com.example.redisClone.server.ClientTracking;
+import com.example.redisClone.server.CommandTable;
+import com.example.redisClone.server.Reactor;
+import com.example.redisClone.server.ServerContext;
+import com.example.redisClone.store.Evictor;
+import com.example.redisClone.store.ExpiryEngine;
+import com.example.redisClone.store.GlobPattern;
+import com.example.redisClone.store.Keyspace;
+import com.example.redisClone.store.SegmentStore;
+import com.example.redisClone.store.TieredStorage;
+import com.example.redisClone.types.EncodingLimits;
+import com.example.redisClone.types.HashValue;
+import com.example.redisClone.types.ListValue;
+import com.example.redisClone.types.SetValue;
+import com.example.redisClone.types.ZSetValue;
 
 /**
  * The main entry point for the Redis Clone server.
@@ -22,6 +54,25 @@ import com.example.redisClone.rdb.RDBconfigHandler;
  * concurrently.
  */
 public class Main {
+    private static final byte[] SET = "SET".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PXAT = "PXAT".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DEL = "DEL".getBytes(StandardCharsets.US_ASCII);
+    // The Redis version we answer HELLO with, so clients enable the features we have.
+    private static final String REDIS_VERSION = "7.2.0";
+    // Keys walked by KEYS per event-loop pass.
+    private static final int KEYS_STEP = 1000;
+    // The sections of INFO with no argument, and of INFO all.
+    private static final String[] INFO_DEFAULT_SECTIONS = { "clients", "memory", "persistence", "stats",
+            "replication", "cluster", "keyspace" };
+    private static final String[] INFO_ALL_SECTIONS = { "clients", "memory", "persistence", "stats",
+            "replication", "commandstats", "latencystats", "cluster", "keyspace" };
+    // Swallows the replies of commands nobody waits for (AOF replay, the master's stream).
+    private static final RespWriter DISCARD = new RespWriter() {
+        @Override
+        public void write(byte[] data, int offset, int length) {
+        }
+    };
+
     /**
      * Main method to start the server.
      * 
@@ -34,8 +85,6 @@ public class Main {
         String role = "master";
         String masterHost = "";
         String masterPort = "";
-        String master_replid = "8371b4fb1155b71f4a04d3e1bc3e18c4a990aeeb";
-        String master_repl_offest = "0";
 
         // --- Configuration Parsing ---
         // Default values for RDB configuration.
@@ -43,13 +92,91 @@ public class Main {
         String dataBaseFileName = "Tdump.rdb";
         // Loop through command-line arguments to find --dir and --dbfilename.
         int port = 6379; // Standard Redis port.
+        // Number of reactor threads doing network I/O.
+        int ioThreads = 1;
+        // Settings beyond RDB and replication (e.g. client-output-buffer-limit).
+        Config config = new Config();
+        // "save" policies, applied to the RDB configuration once it exists; null keeps the defaults.
+        String savePolicies = null;
         for (int i = 0; i < args.length - 1; i++) {
             if (args[i].equals("--dir")) {
                 directory = args[i + 1];
             } else if (args[i].equals("--dbfilename")) {
                 dataBaseFileName = args[i + 1];
+            } else if (args[i].equals("--save")) {
+                savePolicies = args[i + 1];
             } else if (args[i].equals("--port")) {
                 port = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--io-threads")) {
+                ioThreads = Math.max(1, Integer.parseInt(args[i + 1]));
+            } else if (args[i].equals("--maxmemory")) {
+                config.maxMemory = ConfigHandler.parseMemory(args[i + 1]);
+            } else if (args[i].equals("--maxmemory-policy")) {
+                config.maxMemoryPolicy = args[i + 1].toLowerCase();
+            } else if (args[i].equals("--maxmemory-samples")) {
+                config.maxMemorySamples = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--offheap-value-threshold")) {
+                config.offHeapValueThreshold = (int) ConfigHandler.parseMemory(args[i + 1]);
+            } else if (args[i].equals("--tiered-storage")) {
+                config.tieredStorage = args[i + 1].equalsIgnoreCase("yes");
+            } else if (args[i].equals("--tiered-hot-budget")) {
+                config.tieredHotBudget = ConfigHandler.parseMemory(args[i + 1]);
+            } else if (args[i].equals("--tiered-min-value-size")) {
+                config.tieredMinValueSize = (int) ConfigHandler.parseMemory(args[i + 1]);
+            } else if (args[i].equals("--tiered-segment-size")) {
+                config.tieredSegmentSize = ConfigHandler.parseMemory(args[i + 1]);
+            } else if (args[i].equals("--tiered-compact-percentage")) {
+                config.tieredCompactPercentage = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--tracking-table-max-keys")) {
+                config.trackingTableMaxKeys = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--busy-reply-threshold")) {
+                config.busyReplyThreshold = Long.parseLong(args[i + 1]);
+            } else if (args[i].equals("--appendonly")) {
+                config.appendOnly = args[i + 1].equalsIgnoreCase("yes");
+            } else if (args[i].equals("--appendfsync")) {
+                config.appendFsync = args[i + 1].toLowerCase();
+            } else if (args[i].equals("--appendfilename")) {
+                config.appendFilename = args[i + 1];
+            } else if (args[i].equals("--auto-aof-rewrite-percentage")) {
+                config.autoAofRewritePercentage = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--auto-aof-rewrite-min-size")) {
+                config.autoAofRewriteMinSize = ConfigHandler.parseMemory(args[i + 1]);
+            } else if (args[i].equals("--replica-read-only")) {
+                config.replicaReadOnly = args[i + 1].equalsIgnoreCase("yes");
+            } else if (args[i].equals("--repl-backlog-size")) {
+                config.replBacklogSize = ConfigHandler.parseMemory(args[i + 1]);
+            } else if (args[i].equals("--cluster-enabled")) {
+                config.clusterEnabled = args[i + 1].equalsIgnoreCase("yes");
+            } else if (args[i].equals("--cluster-config-file")) {
+                config.clusterConfigFile = args[i + 1];
+            } else if (args[i].equals("--cluster-announce-ip")) {
+                config.clusterAnnounceIp = args[i + 1];
+            } else if (args[i].equals("--cluster-node-timeout")) {
+                config.clusterNodeTimeout = Long.parseLong(args[i + 1]);
+            } else if (args[i].equals("--hash-max-listpack-entries")) {
+                config.encodingLimits.hashMaxListpackEntries = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--hash-max-listpack-value")) {
+                config.encodingLimits.hashMaxListpackValue = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--set-max-listpack-entries")) {
+                config.encodingLimits.setMaxListpackEntries = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--set-max-listpack-value")) {
+                config.encodingLimits.setMaxListpackValue = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--zset-max-listpack-entries")) {
+                config.encodingLimits.zsetMaxListpackEntries = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--zset-max-listpack-value")) {
+                config.encodingLimits.zsetMaxListpackValue = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--list-max-listpack-size")) {
+                config.encodingLimits.listMaxListpackSize = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--loading-serve-reads")) {
+                config.loadingServeReads = args[i + 1].equalsIgnoreCase("yes");
+            } else if (args[i].equals("--slowlog-log-slower-than")) {
+                config.slowlogLogSlowerThan = Long.parseLong(args[i + 1]);
+            } else if (args[i].equals("--slowlog-max-len")) {
+                config.slowlogMaxLen = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--active-expire-effort")) {
+                config.activeExpireEffort = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--client-output-buffer-limit")) {
+                ConfigHandler.setClientOutputBufferLimit(config, args[i + 1]);
             } else if (args[i].equals("--replicaof")) {
                 // for agrument like "localhost 6379"
                 String[] replicaOfArgs = args[i + 1].split(" ");
@@ -58,284 +185,2198 @@ public class Main {
                 role = "slave"; // is this flag is present, then the role is slave
             }
         }
-        if (role.equals("slave")) {
-            final String finalMasterHost = masterHost;
-            final String finalMasterPort = masterPort;
-            final int finalPort = port;
-            new Thread(() -> {
-                try {
-                    // create socket to connect to master server
-                    Socket masterSocket = new Socket(finalMasterHost, Integer.parseInt(finalMasterPort));
-                    OutputStream outputStream = masterSocket.getOutputStream();
-                    InputStream inputStream = masterSocket.getInputStream();
-                    byte[] buffer = new byte[1024];
-                    // command is a RESP Array *\1\r\n$4\r\nPING\r\n
-                    // handshake part 1 PING
-                    String pingCommand = "*1\r\n$4\r\nPING\r\n";
-                    outputStream.write(pingCommand.getBytes());
-                    // wait for and read the +PONG
-                    inputStream.read(buffer);
-
-                    // handshake part 2 REPLCONF port
-                    String replconfPortCmd = "*3\r\n$8\r\nREPLCONF\r\n$14\r\nlistening-port\r\n$4\r\n" + finalPort + "\r\n";
-                    outputStream.write(replconfPortCmd.getBytes());
-                    // wait for and read the +OK response
-                    inputStream.read(buffer);
-
-                    // handshake part 3 REPLCONF capa
-                    // the replica sends its capaibilities
-                    String replconfCapaCmd = "*3\r\n$8\r\nREPLCONF\r\n$4\r\ncapa\r\n$6\r\npsync2\r\n";
-                    outputStream.write(replconfCapaCmd.getBytes());
-                    // wait for and read the +OK response
-                    inputStream.read(buffer);
-
-                    //handshake part 4 psync
-                    //replica now asks from the master's data
-                    String psyncCmd = "*3\r\n$5\r\nPSYNC\r\n$1\r\n?\r\n$2\r\n-1\r\n";
-                    outputStream.write(psyncCmd.getBytes());
-                    inputStream.read(buffer);
-
-                    System.out.println("Successfully completed handshake with master");
-
-                    masterSocket.close();
-                } catch (IOException e) {
-                    System.out.println("Failed to connect to master: " + e.getMessage());
-                }
-            }).start();
-        }
         // Create a configuration object to hold these values.
         RDBconfig rdbConfig = new RDBconfig(directory, dataBaseFileName);
+        if (savePolicies != null) {
+            rdbConfig.setSavePolicies(savePolicies);
+        }
+        ServerContext server = new ServerContext(rdbConfig, config);
+        server.role = role;
 
-        System.out.println("Logs from your program will appear here!");
-
-        // --- Non-Blocking Server Setup ---
-        // Selector allows us to manage multiple channels (connections) with a single
-        // thread.
-        Selector selector = Selector.open();
+        Log.info("Logs from your program will appear here!");
 
-        // Create a non-blocking server socket channel.
+        // --- Server Socket Setup ---
         ServerSocketChannel serverSocket = ServerSocketChannel.open();
         serverSocket.bind(new InetSocketAddress(port));
-        serverSocket.configureBlocking(false);
-        // Register the server socket to accept incoming connections.
-        serverSocket.register(selector, SelectionKey.OP_ACCEPT);
-        System.out.println("Stared redis server on port " + port);
-
-        // A reusable buffer for reading data from clients.
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        Log.info("Stared redis server on port " + port);
 
         // --- Data Storage ---
-        // A map to hold partial commands from clients.
-        HashMap<SocketChannel, StringBuilder> clientBuffers = new HashMap<>();
-        // The main in-memory store for Redis data, loaded from the RDB file.
-        HashMap<String, RedisStoreObject> redisStore = RDBconfigHandler.loadRDB(rdbConfig);
-        if (redisStore == null) { // Safety check in case loading fails.
-            redisStore = new HashMap<>();
+        // The main in-memory store for Redis data, loaded from the AOF or the RDB file.
+        server.keyspace = new Keyspace();
+        server.keyspace.clock = server.clock;
+        server.keyspace.setOffHeapThreshold(config.offHeapValueThreshold);
+        server.keyspace.setEncodingLimits(config.encodingLimits);
+        // Every write, expiry and eviction invalidates the key for clients caching it.
+        server.keyspace.setModifiedKeyListener(server.tracking::keyModified);
+        server.expiryEngine = new ExpiryEngine(server.keyspace, server.clock, config.activeExpireEffort);
+        server.evictor = new Evictor(server.keyspace, server.clock);
+        server.evictor.configure(config.maxMemory, config.maxMemoryPolicy, config.maxMemorySamples);
+        // An evicted key is deleted for good: the AOF and the replicas get a DEL, or a reload would bring
+        // it back and a replica (which never evicts on its own) would keep it.
+        server.evictor.setEvictionListener(key -> propagateEviction(server, key));
+        if (config.tieredStorage) {
+            // Started before loading, so a dataset larger than the hot tier spills as it loads.
+            server.tiered = new TieredStorage(server.keyspace,
+                    new SegmentStore(new File(directory, "tiered"), config.tieredSegmentSize), server.clock,
+                    config.tieredHotBudget, config.tieredMinValueSize, config.tieredCompactPercentage);
+            server.keyspace.enableTieredStorage(server.tiered);
+            Thread tiering = new Thread(server.tiered, "tiered-storage");
+            tiering.setDaemon(true);
+            tiering.start();
+        }
+        if (config.clusterEnabled) {
+            // Keys are indexed by hash slot as they are loaded, for slot migration.
+            server.keyspace.enableSlotIndex();
+            server.cluster = new ClusterState(new File(directory, config.clusterConfigFile),
+                    config.clusterAnnounceIp, port);
+            Thread bus = new Thread(new ClusterBus(server.cluster, config.clusterNodeTimeout), "cluster-bus");
+            bus.setDaemon(true);
+            bus.start();
         }
+        // Created before loading: replayed AOF commands pass through propagate(), which feeds it
+        // (a no-op until a replica connects).
+        server.replication = new Replication(server.keyspace, config, directory);
+        server.rdbSaver = new RdbSaver(rdbConfig, server.keyspace);
+        // Until the dataset is loaded, clients get -LOADING (see processInput).
+        server.loadProgress.begin();
 
-        // --- Main Event Loop ---
-        // This loop continuously waits for and processes I/O events.
+        // A replica links to its master only once its own data is loaded: a full resync replaces it.
+        boolean replica = role.equals("slave");
+        String linkHost = masterHost;
+        int linkPort = replica ? Integer.parseInt(masterPort) : 0;
+        int listeningPort = port;
+
+        // --- Event Loops ---
+        // Each reactor has its own Selector, letting one thread manage many connections.
+        // They start before the data is loaded, so the port answers right away whatever the dataset size.
+        if (ioThreads == 1) {
+            // A single reactor accepts and serves every connection on this thread.
+            Reactor reactor = new Reactor(server);
+            reactor.runsCron = true;
+            startLoading(server, replica ? () -> startMasterLink(server, linkHost, linkPort, listeningPort, reactor)
+                    : null);
+            serverSocket.configureBlocking(false);
+            reactor.listen(serverSocket);
+            reactor.run();
+            return;
+        }
+        Reactor[] reactors = new Reactor[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            reactors[i] = new Reactor(server);
+            reactors[i].runsCron = i == 0;
+            new Thread(reactors[i], "io-thread-" + i).start();
+        }
+        startLoading(server, replica ? () -> startMasterLink(server, linkHost, linkPort, listeningPort, reactors[0])
+                : null);
+        // This thread becomes the acceptor, handing connections to the reactors round-robin.
+        int next = 0;
         while (true) {
-            selector.select(); // Blocks until at least one channel is ready for an I/O operation.
-            Set<SelectionKey> selectedKeys = selector.selectedKeys(); // Get the set of ready keys.
+            SocketChannel client = serverSocket.accept(); // Blocking accept.
+            reactors[next].assign(client);
+            next = (next + 1) % ioThreads;
+        }
+    }
 
-            for (SelectionKey key : selectedKeys) {
-                // Check if a new client is trying to connect.
-                if (key.isAcceptable()) {
-                    handleAcceptableKeys(clientBuffers, key, selector);
+    /**
+     * Starts the replica's connection to its master (--replicaof); the stream is applied by reactor.
+     */
+    private static void startMasterLink(ServerContext server, String host, int port, int listeningPort,
+            Reactor reactor) {
+        server.masterLink = new MasterLink(host, port, listeningPort, server, reactor);
+        Thread link = new Thread(server.masterLink, "replica-sync");
+        link.setDaemon(true);
+        link.start();
+    }
+
+    /**
+     * Loads the dataset on a background thread: the AOF if it is on and exists (like Redis, the
+     * more complete record wins), the RDB file otherwise. Keys land in the keyspace batch by batch
+     * while the reactors answer -LOADING; then the AOF is opened for writing and the server
+     * leaves the loading state.
+     * 
+     * @param server    The shared server state, already in the loading state.
+     * @param afterLoad Run once the data is loaded (a replica's master link), or null.
+     */
+    private static void startLoading(ServerContext server, Runnable afterLoad) {
+        Config config = server.config;
+        Thread loader = new Thread(() -> {
+            File aofFile = new File(server.rdbConfig.directory, config.appendFilename);
+            boolean aofExists = aofFile.exists();
+            if (config.appendOnly && aofExists) {
+                loadAppendOnlyFile(aofFile, server);
+            } else {
+                try {
+                    RDBconfigHandler.loadRDB(server.rdbConfig, server.keyspace, server.loadProgress);
+                } catch (IOException e) {
+                    // Serving a partial dataset, and later saving it over the good parts of the file, is worse.
+                    Log.info("Fatal error loading the DB: " + e.getMessage() + ". Exiting.");
+                    System.exit(1);
+                }
+            }
+            server.keyspace.clearDirty(server.keyspace.dirty()); // Loaded data is already on disk.
+            if (config.appendOnly) {
+                try {
+                    server.aof = new AppendOnlyFile(aofFile, config.appendFsync, server.keyspace);
+                } catch (IOException e) {
+                    Log.info("Can't open the append only file: " + e.getMessage());
+                    System.exit(1);
                 }
-                // Check if an existing client has sent data.
-                else if (key.isReadable()) {
-                    handleReadableKeys(buffer, clientBuffers, key, redisStore, rdbConfig, role, master_replid,
-                            master_repl_offest);
+                if (!aofExists && server.keyspace.size() > 0) {
+                    // Turning AOF on over existing RDB data: write it all to the new log first.
+                    server.executionLock.writeLock().lock();
+                    try {
+                        server.aof.startRewrite();
+                    } finally {
+                        server.executionLock.writeLock().unlock();
+                    }
                 }
             }
+            // A volatile write: a reactor that sees loading over also sees the AOF set up above.
+            server.loadProgress.finish();
+            Log.info("Ready to accept connections");
+            if (afterLoad != null) {
+                afterLoad.run();
+            }
+        }, "loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Rebuilds the keyspace by executing every command of the append-only file.
+     * Runs before the AOF is opened for writing, so replayed commands are not logged again.
+     * 
+     * @param aofFile The AOF file.
+     * @param server  The shared server state.
+     */
+    private static void loadAppendOnlyFile(File aofFile, ServerContext server) {
+        long startNanos = System.nanoTime();
+        try {
+            long commands = AppendOnlyFile.replay(aofFile,
+                    args -> executeCommand(CommandTable.lookup(args), args, server, DISCARD, true),
+                    server.loadProgress);
+            Log.info("DB loaded from append only file: " + commands + " commands, "
+                    + server.keyspace.size() + " keys in " + (System.nanoTime() - startNanos) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            Log.info("Error reading the append only file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the commands executed during this event-loop pass to the append-only file
+     * (and waits for fsync with appendfsync always). Called by each reactor before it sends replies.
+     * 
+     * @param server The shared server state.
+     */
+    public static void flushAppendOnlyFile(ServerContext server) {
+        if (server.aof == null) {
+            return;
+        }
+        boolean failedBefore = server.aof.writeFailed();
+        try {
+            server.aof.flush();
+            if (failedBefore && !server.aof.writeFailed()) {
+                Log.info("AOF write error looks solved, accepting writes again");
+            }
+        } catch (IOException e) {
+            if (!failedBefore) {
+                // Logged once: serverCron retries every 100ms until the disk accepts the write.
+                Log.info("Error writing to the AOF file: " + e.getMessage());
+            }
         }
     }
 
     /**
-     * Handles new client connections.
+     * Sets up a freshly accepted connection and registers it with a reactor.
+     * Must run on the reactor's own thread.
      * 
-     * @param clientBuffers Map to store client-specific data buffers.
-     * @param key           The selection key representing the server socket.
-     * @param selector      The main selector.
+     * @param reactor The reactor that will own the connection.
+     * @param client  The accepted socket.
      * @throws IOException If an I/O error occurs.
      */
-    public static void handleAcceptableKeys(HashMap<SocketChannel, StringBuilder> clientBuffers, SelectionKey key,
-            Selector selector) throws IOException {
-        ServerSocketChannel server = (ServerSocketChannel) key.channel();
-        SocketChannel client = server.accept(); // Accept the new connection.
-        if (client != null) {
-            client.configureBlocking(false); // Set the client socket to non-blocking.
-            client.register(selector, SelectionKey.OP_READ); // Register the client to listen for readable data.
-            System.out.println("New client connected " + client.getRemoteAddress());
-            clientBuffers.put(client, new StringBuilder()); // Create a buffer for this client's commands.
-        }
+    public static void registerClient(Reactor reactor, SocketChannel client) throws IOException {
+        client.configureBlocking(false); // Set the client socket to non-blocking.
+        // Disable Nagle: pipelined replies go out in several writes, and delayed ACKs would stall them.
+        client.socket().setTcpNoDelay(true);
+        // Fails if the peer already reset the connection: before anything is registered, so the
+        // caller only has to close the socket.
+        InetSocketAddress address = (InetSocketAddress) client.getRemoteAddress();
+        ClientConnection connection = new ClientConnection(client, reactor.bufferPool);
+        // Register the client to listen for readable data.
+        connection.selectionKey = client.register(reactor.selector, SelectionKey.OP_READ);
+        connection.address = address.getHostString() + ":" + address.getPort();
+        connection.id = reactor.server.nextClientId.getAndIncrement();
+        connection.reactor = reactor;
+        reactor.server.clients.put(connection.id, connection);
+        reactor.server.metrics.connectionsReceived.increment();
+        reactor.server.metrics.connectedClients.incrementAndGet();
+        Log.info("New client connected " + address);
+        reactor.clients.put(client, connection); // Keep the parser and output state for this client.
     }
 
     /**
-     * Handles reading data from a client and processing any complete commands.
+     * Handles reading data from a client and processing all complete commands.
+     * Bytes are read straight into the connection's own buffer and parsed in place,
+     * so a partial command is kept as-is until the rest of it arrives.
      * 
-     * @param buffer        A shared buffer for reading data from the socket.
-     * @param clientBuffers Map of client-specific command buffers.
-     * @param key           The selection key for the readable client channel.
-     * @param redisStore    The main in-memory data store.
-     * @param rdbConfig     The server's RDB configuration.
+     * @param reactor The reactor that owns the connection.
+     * @param key     The selection key for the readable client channel.
+     * @param server  The shared server state.
      * @throws IOException If an I/O error occurs.
      */
-    public static void handleReadableKeys(ByteBuffer buffer, HashMap<SocketChannel, StringBuilder> clientBuffers,
-            SelectionKey key, HashMap<String, RedisStoreObject> redisStore, RDBconfig rdbConfig, String role,
-            String master_replid, String master_repl_offset) throws IOException {
+    public static void handleReadableKeys(Reactor reactor, SelectionKey key, ServerContext server)
+            throws IOException {
         SocketChannel client = (SocketChannel) key.channel();
-        buffer.clear(); // Prepare the buffer for a new read.
+        ClientConnection connection = reactor.clients.get(client);
 
-        int bytesRead = client.read(buffer);
+        ByteBuffer input = connection.prepareForRead();
+        int bytesRead = client.read(input);
+        input.flip(); // Back to read mode: position = first unparsed byte.
 
         // If bytesRead is -1, the client has closed the connection.
         if (bytesRead == -1) {
-            System.out.println("Client disconnected " + client.getRemoteAddress());
-            client.close();
-            clientBuffers.remove(client);
+            closeClient(reactor, connection);
+            return;
+        }
+        server.metrics.netInputBytes.add(bytesRead);
+        processInput(reactor, connection, server);
+    }
+
+    /**
+     * Executes the complete commands in a connection's input buffer and schedules their replies.
+     * Stops early while the connection is blocked (WAIT); it is called again when it unblocks.
+     * 
+     * @param reactor    The reactor that owns the connection.
+     * @param connection The connection whose input is processed.
+     * @param server     The shared server state.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void processInput(Reactor reactor, ClientConnection connection, ServerContext server)
+            throws IOException {
+        SocketChannel client = connection.channel;
+        ByteBuffer input = connection.inputBuffer;
+
+        // --- Pipelining ---
+        // Execute every complete frame in the buffer; a partial trailing frame stays for the next read.
+        while (!connection.blocked) {
+            int frameStart = input.position();
+            RespArgs args;
+            try {
+                args = connection.parser.parse(input);
+            } catch (RespProtocolException e) {
+                // The stream can't be resynchronised after a protocol error, so reply and drop the client.
+                connection.queueReply(("-ERR Protocol error: " + e.getMessage() + "\r\n").getBytes());
+                server.metrics.netOutputBytes.add(connection.flush());
+                closeClient(reactor, connection);
+                return;
+            }
+            if (args == null) {
+                break; // No complete command left; wait for more bytes.
+            }
+
+            String command = CommandTable.lookup(args);
+            long start = System.nanoTime();
+            if (connection.master != null) {
+                // The replication stream: apply, and count its bytes towards our replication offset.
+                applyFromMaster(connection, command, args, server);
+                connection.master.processed(input.position() - frameStart);
+            } else if (server.loadProgress.loading()
+                    && !CommandTable.isAllowedWhileLoading(command, server.config.loadingServeReads)) {
+                connection.replyWriter().error("LOADING Redis is loading the dataset in memory");
+                server.metrics.rejected(command);
+                start = -1;
+            } else if (server.cluster != null && redirect(connection, command, args, server)) {
+                // Answered with -MOVED, -ASK or another cluster error.
+                server.metrics.rejected(command);
+                start = -1;
+            } else if (connection.protocol == 2 && connection.subscriptions() > 0
+                    && (command.equals("PING") || !CommandTable.isAllowedWhileSubscribed(command))) {
+                // A RESP2 subscriber's connection carries messages; replies would be mistaken for them.
+                RespWriter out = connection.replyWriter();
+                if (command.equals("PING")) {
+                    out.arrayHeader(2);
+                    out.bulk("pong");
+                    out.bulk(args.count() > 1 ? args.string(1) : "");
+                } else {
+                    out.error("ERR Can't execute '" + args.string(0).toLowerCase() + "': only (P|S)SUBSCRIBE / "
+                            + "(P|S)UNSUBSCRIBE / PING / QUIT / RESET are allowed in this context");
+                    server.metrics.rejected(command);
+                    start = -1;
+                }
+            } else if (CommandTable.isConnectionCommand(command)) {
+                try {
+                    handleConnectionCommand(reactor, connection, command, args, server);
+                } catch (NumberFormatException e) {
+                    connection.replyWriter().error("ERR value is not an integer or out of range");
+                    server.metrics.failed(command);
+                } catch (RuntimeException e) {
+                    Log.info("Command " + command + " failed: " + e);
+                    connection.replyWriter().error("ERR " + String.valueOf(e.getMessage())
+                            .replace('\r', ' ').replace('\n', ' '));
+                    server.metrics.failed(command);
+                }
+            } else {
+                if (connection.tracking && CommandTable.isReadOnly(command)) {
+                    // Before the read, so a write racing with it still invalidates what the client caches.
+                    server.tracking.remember(connection, command, args);
+                }
+                // The reply is encoded straight into the connection's pooled output chunks.
+                if (!executeCommand(command, args, server, connection.replyWriter(), false)) {
+                    start = -1; // Refused; counted in rejected_calls instead.
+                }
+            }
+            if (start != -1) {
+                // Calls, latency histogram and slow log; args are still valid until the next parse.
+                server.metrics.call(command, args, System.nanoTime() - start, connection.address);
+            }
+            if (!command.equals("ASKING")) {
+                connection.asking = false; // ASKING applies to the next command only.
+            }
+            if (connection.cachingNext != 0
+                    && !(command.equals("CLIENT") && args.count() > 1 && args.equalsIgnoreCase(1, "CACHING"))) {
+                connection.cachingNext = 0; // So does CLIENT CACHING.
+            }
+        }
+
+        // A client that keeps sending commands but never reads the replies is dropped
+        // before its output queue can exhaust the heap.
+        if (connection.outputLimitReached(server.config, System.currentTimeMillis())) {
+            Log.info("Client closed for overcoming of output buffer limits " + client.getRemoteAddress());
+            closeClient(reactor, connection);
             return;
         }
 
-        buffer.flip(); // Switch buffer from write mode to read mode.
+        // Replies are not written here: they are sent in one gathered write at the end of the
+        // event-loop pass, however many commands the client pipelined.
+        if (connection.hasPendingReplies() && !connection.flushScheduled) {
+            connection.flushScheduled = true;
+            reactor.pendingWrites.add(connection);
+        }
+    }
 
-        if (buffer.remaining() > 0) {
-            byte[] data = new byte[buffer.remaining()];
-            buffer.get(data);
-            String input = new String(data);
-            // Append incoming data to this client's specific buffer.
-            clientBuffers.get(client).append(input);
+    /**
+     * Continues writing replies to a client whose socket was full.
+     * 
+     * @param reactor The reactor that owns the connection.
+     * @param key     The selection key for the writable client channel.
+     * @param server  The shared server state.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static void handleWritableKeys(Reactor reactor, SelectionKey key, ServerContext server)
+            throws IOException {
+        ClientConnection connection = reactor.clients.get((SocketChannel) key.channel());
+        server.metrics.netOutputBytes.add(connection.flush());
+        if (connection.outputLimitReached(server.config, System.currentTimeMillis())) {
+            closeClient(reactor, connection);
+        }
+    }
 
-            String fullInputString = clientBuffers.get(client).toString();
+    /**
+     * Background housekeeping, called every 100ms by one reactor (Redis's serverCron).
+     * 
+     * @param server The shared server state.
+     */
+    public static void serverCron(ServerContext server) {
+        // Samples for the instantaneous_* rates of INFO stats.
+        server.metrics.sample(System.currentTimeMillis());
+        // Reclaim expired keys that nobody reads, within a bounded CPU budget.
+        server.expiryEngine.runCycle(Reactor.CRON_INTERVAL_MS);
+        // Finish incremental rehashes even when no commands touch the keyspace.
+        server.keyspace.rehashIdle(100);
+        // Writes are refused after a failed AOF write, so nothing else would retry the buffered commands.
+        if (server.aof != null && server.aof.writeFailed()) {
+            flushAppendOnlyFile(server);
+        }
+        if (server.loadProgress.loading()) {
+            return; // Nothing is saved, rewritten or sent to replicas from a half-loaded dataset.
+        }
+        // Recycle off-heap slices of deleted values; the write lock guarantees nobody still reads them.
+        server.executionLock.writeLock().lock();
+        try {
+            server.keyspace.reclaimOffHeap();
+            // Snapshot when a save policy says so; the write lock makes the snapshot point-in-time.
+            if (server.rdbSaver.shouldSave(System.currentTimeMillis())) {
+                server.rdbSaver.backgroundSave();
+            }
+            // Full resyncs whose replicas had to wait for another snapshot to finish.
+            server.replication.startFullSync();
+            // Start a rewrite that was scheduled behind a save, or that the AOF's growth calls for.
+            if (server.aof != null && server.aof.shouldRewrite(server.config.autoAofRewritePercentage,
+                    server.config.autoAofRewriteMinSize)) {
+                server.aof.startRewrite();
+            }
+        } finally {
+            server.executionLock.writeLock().unlock();
+        }
+    }
 
-            // Simple RESP parsing: split the command by CRLF.
-            String[] lines = fullInputString.split("\r\n");
-            // Check if we have a complete command array (*<argc>\r\n...).
-            if (lines.length >= 3 && lines[0].startsWith("*")) {
-                String command = lines[2].trim().toUpperCase(); // The command is usually the 3rd line.
+    /**
+     * Closes a client connection and forgets its state.
+     * 
+     * @param reactor    The reactor that owns the connection.
+     * @param connection The connection to close.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static void closeClient(Reactor reactor, ClientConnection connection) throws IOException {
+        if (connection.channel.isOpen()) {
+            Log.info("Client disconnected " + connection.channel.getRemoteAddress());
+            if (connection.master == null) {
+                reactor.server.metrics.connectedClients.decrementAndGet();
+            }
+        }
+        if (connection.replica != null) {
+            reactor.server.replication.removeReplica(connection.replica);
+            connection.replica = null;
+        }
+        if (connection.master != null) {
+            connection.master.connection = null;
+            connection.master.disconnected();
+            connection.master = null;
+        }
+        if (connection.id != 0) {
+            reactor.server.clients.remove(connection.id);
+            reactor.server.tracking.disable(connection);
+            reactor.server.pubSub.unsubscribeAll(connection);
+        }
+        reactor.clients.remove(connection.channel);
+        connection.close();
+    }
 
-                boolean handled = false;
-                String responseToSend = null; // This will hold the final response string.
+    /**
+     * Applies one command of the master's replication stream. Replies are discarded;
+     * REPLCONF GETACK, which the master sends to learn our offset, only requests an ACK.
+     */
+    private static void applyFromMaster(ClientConnection connection, String command, RespArgs args,
+            ServerContext server) {
+        if (command.equals("REPLCONF") && args.count() >= 2 && args.equalsIgnoreCase(1, "GETACK")) {
+            connection.master.requestAck(); // Answered at the end of the pass (serviceReplication).
+            return;
+        }
+        if (command.equals("PUBLISH") && args.count() == 3) {
+            server.pubSub.publish(null, args); // Our own subscribers hear the master's messages too.
+            return;
+        }
+        executeCommand(command, args, server, DISCARD, true);
+    }
 
-                // --- Refactored Command Handling Logic ---
-                // Each case now prepares the response, but doesn't send it.
-                switch (command) {
-                    case "PING" -> {
-                        responseToSend = "+PONG\r\n";
-                        handled = true;
-                    }
+    /**
+     * Routes a client command in cluster mode: a command whose keys hash to a slot served by another
+     * node is answered with -MOVED, and a key of a slot being migrated that is no longer here with
+     * -ASK, like Redis's getNodeByQuery. Keyless commands are always served.
+     * 
+     * @return true if the command must not run here; an error reply was written.
+     */
+    private static boolean redirect(ClientConnection connection, String command, RespArgs args,
+            ServerContext server) {
+        int lastKey = CommandTable.lastKey(command, args);
+        if (lastKey == 0) {
+            return false;
+        }
+        RespWriter out = connection.replyWriter();
+        int firstKey = CommandTable.firstKey(command);
+        int slot = HashSlot.of(args.string(firstKey));
+        for (int i = firstKey + 1; i <= lastKey; i++) {
+            if (HashSlot.of(args.string(i)) != slot) {
+                out.error("CROSSSLOT Keys in request don't hash to the same slot");
+                return true;
+            }
+        }
+        ClusterState cluster = server.cluster;
+        ClusterNode owner = cluster.owner(slot);
+        if (owner == null) {
+            out.error("CLUSTERDOWN Hash slot not served");
+            return true;
+        }
+        if (owner.myself) {
+            ClusterNode target = cluster.migratingTo(slot);
+            if (target == null) {
+                return false;
+            }
+            // Keys already moved are served by the target; the client must ask it for them.
+            int missing = 0;
+            long now = server.clock.millis();
+            for (int i = firstKey; i <= lastKey; i++) {
+                if (server.keyspace.get(args.string(i), now) == null) {
+                    missing++;
+                }
+            }
+            if (missing == 0) {
+                return false;
+            }
+            if (missing < lastKey - firstKey + 1) {
+                out.error("TRYAGAIN Multiple keys request during rehashing of slot");
+            } else {
+                out.error("ASK " + slot + " " + target.host + ":" + target.port);
+            }
+            return true;
+        }
+        if (connection.asking && cluster.importingFrom(slot) != null) {
+            return false; // Sent here by -ASK while the slot is moving to us.
+        }
+        out.error("MOVED " + slot + " " + owner.host + ":" + owner.port);
+        return true;
+    }
 
-                    case "ECHO" -> {
-                        if (lines.length >= 5) {
-                            String messageToEcho = lines[4];
-                            responseToSend = "$" + messageToEcho.length() + "\r\n" + messageToEcho + "\r\n";
-                            handled = true;
+    /**
+     * Handles the commands that act on the connection rather than the keyspace:
+     * the replica handshake (REPLCONF, PSYNC), WAIT, HELLO and CLIENT, Pub/Sub, and the cluster commands.
+     */
+    private static void handleConnectionCommand(Reactor reactor, ClientConnection connection, String command,
+            RespArgs args, ServerContext server) throws IOException {
+        RespWriter out = connection.replyWriter();
+        Replication replication = server.replication;
+        try {
+            switch (command) {
+                case "REPLCONF" -> {
+                    if (args.count() < 3) {
+                        out.error("ERR wrong number of arguments for 'replconf' command");
+                    } else if (args.equalsIgnoreCase(1, "listening-port")) {
+                        connection.replicaListeningPort = (int) args.parseLong(2);
+                        out.ok();
+                    } else if (args.equalsIgnoreCase(1, "ACK")) {
+                        // Replicas report their offset; there is no reply.
+                        if (connection.replica != null) {
+                            replication.ack(connection.replica, args.parseLong(2));
                         }
+                    } else {
+                        out.ok(); // capa and other options need nothing from us.
                     }
+                }
 
-                    case "SET" -> {
-                        if (lines.length >= 7) {
-                            long expiry = Long.MAX_VALUE; // Default: no expiry.
-                            // Check for PX (milliseconds) option.
-                            if (lines.length >= 11 && lines[8].equalsIgnoreCase("PX")) {
-                                expiry = Long.parseLong(lines[10]) + System.currentTimeMillis();
-                            }
-                            redisStore.put(lines[4], new RedisStoreObject(lines[6], expiry));
-                            responseToSend = "+OK\r\n";
-                            handled = true;
-                        }
+                case "PSYNC" -> {
+                    if (args.count() < 3) {
+                        out.error("ERR wrong number of arguments for 'psync' command");
+                        return;
+                    }
+                    if (connection.replica != null) {
+                        return; // Already a replica; ignore, as Redis does.
+                    }
+                    String address = ((InetSocketAddress) connection.channel.getRemoteAddress()).getAddress()
+                            .getHostAddress();
+                    connection.clientClass = Config.CLIENT_CLASS_REPLICA;
+                    // The stream offset and the snapshot of a full resync must be one point in time.
+                    server.executionLock.writeLock().lock();
+                    try {
+                        connection.replica = replication.psync(connection, reactor, address, args.string(1),
+                                args.parseLong(2), out);
+                        replication.startFullSync();
+                    } finally {
+                        server.executionLock.writeLock().unlock();
+                    }
+                }
+
+                case "WAIT" -> {
+                    if (args.count() < 3) {
+                        out.error("ERR wrong number of arguments for 'wait' command");
+                        return;
+                    }
+                    if (server.masterLink != null) {
+                        out.error("ERR WAIT cannot be used with replica instances.");
+                        return;
+                    }
+                    int replicaCount = (int) args.parseLong(1);
+                    long timeout = args.parseLong(2);
+                    if (timeout < 0) {
+                        // Not "no timeout": that is 0, and a typo must not block the client for good.
+                        out.error("ERR timeout is negative");
+                        return;
                     }
+                    long offset = replication.masterOffset();
+                    if (replication.acknowledged(offset) >= replicaCount) {
+                        out.integer(replication.acknowledged(offset));
+                        return;
+                    }
+                    // Block the client; serviceReplication() replies once enough replicas have caught up.
+                    connection.blocked = true;
+                    replication.addWait(connection, reactor, offset, replicaCount,
+                            timeout > 0 ? System.currentTimeMillis() + timeout : 0);
+                }
 
-                    case "GET" -> {
-                        if (lines.length >= 5) {
-                            String keyToGet = lines[4];
-                            RedisStoreObject storedObject = redisStore.get(keyToGet);
-                            if (storedObject == null) { // Key doesn't exist.
-                                responseToSend = "$-1\r\n";
-                            } else {
-                                long expiryTime = storedObject.expiration;
-                                // Check if the key has a real expiry and if it's in the past.
-                                if (expiryTime != Long.MAX_VALUE && expiryTime < System.currentTimeMillis()) {
-                                    redisStore.remove(keyToGet); // Remove the expired key.
-                                    responseToSend = "$-1\r\n"; // Respond as if it doesn't exist.
-                                } else {
-                                    String value = storedObject.value;
-                                    responseToSend = "$" + value.length() + "\r\n" + value + "\r\n";
-                                }
-                            }
-                            handled = true;
-                        }
+                case "KEYS" -> {
+                    if (args.count() < 2) {
+                        out.error("ERR wrong number of arguments for 'keys' command");
+                        return;
+                    }
+                    // The keyspace is walked a step per event-loop pass, so the other clients of this
+                    // reactor keep being served; this client is blocked until the reply is complete.
+                    GlobPattern pattern = new GlobPattern(args.string(1));
+                    long[] cursor = { 0 };
+                    List<String> matches = new ArrayList<>();
+                    long shrinks = server.keyspace.shrinks();
+                    if (!keysStep(connection, server, pattern, cursor, matches, shrinks)) {
+                        connection.blocked = true;
+                        reactor.execute(() -> continueKeys(reactor, connection, pattern, cursor, matches, shrinks));
                     }
+                }
 
-                    case "CONFIG" -> {
-                        if (lines.length >= 7 && lines[4].equalsIgnoreCase("GET")) {
-                            String configKey = lines[6];
-                            String value = rdbConfig.get(configKey);
-                            if (value != null) {
-                                // Format as a RESP array of [key, value]
-                                responseToSend = "*2\r\n$" + configKey.length() + "\r\n" + configKey + "\r\n$"
-                                        + value.length() + "\r\n" + value + "\r\n";
-                            } else {
-                                // Format as a RESP array of [key, NIL]
-                                responseToSend = "*2\r\n$" + configKey.length() + "\r\n" + configKey + "\r\n$-1\r\n";
-                            }
-                            handled = true;
-                        }
+                case "ASKING" -> {
+                    if (server.cluster == null) {
+                        out.error("ERR This instance has cluster support disabled");
+                        return;
+                    }
+                    connection.asking = true;
+                    out.ok();
+                }
+
+                case "HELLO" -> hello(connection, args, server, out);
+
+                case "SUBSCRIBE", "PSUBSCRIBE" -> {
+                    if (args.count() < 2) {
+                        out.error("ERR wrong number of arguments for '" + command.toLowerCase() + "' command");
+                    } else if (command.equals("SUBSCRIBE")) {
+                        server.pubSub.subscribe(connection, args, out);
+                    } else {
+                        server.pubSub.psubscribe(connection, args, out);
+                    }
+                }
+
+                case "UNSUBSCRIBE" -> server.pubSub.unsubscribe(connection, args, out);
+
+                case "PUNSUBSCRIBE" -> server.pubSub.punsubscribe(connection, args, out);
+
+                case "PUBLISH" -> {
+                    if (args.count() != 3) {
+                        out.error("ERR wrong number of arguments for 'publish' command");
+                        return;
+                    }
+                    out.integer(server.pubSub.publish(reactor, args));
+                    // Replicas deliver it to their own subscribers; the AOF has no use for it.
+                    server.replication.feed(args);
+                }
+
+                case "PUBSUB" -> {
+                    if (args.count() < 2) {
+                        out.error("ERR wrong number of arguments for 'pubsub' command");
+                        return;
+                    }
+                    server.pubSub.pubsubCommand(args, out);
+                }
+
+                case "CLIENT" -> {
+                    if (args.count() < 2) {
+                        out.error("ERR wrong number of arguments for 'client' command");
+                        return;
+                    }
+                    handleClient(connection, args, server, out);
+                }
+
+                case "CLUSTER" -> {
+                    if (server.cluster == null) {
+                        out.error("ERR This instance has cluster support disabled");
+                        return;
+                    }
+                    if (args.count() < 2) {
+                        out.error("ERR wrong number of arguments for 'cluster' command");
+                        return;
                     }
+                    handleCluster(connection, args, server, out);
+                }
 
-                    case "KEYS" -> {
-                        if (lines.length >= 5 && lines[4].equals("*")) {
-                            Set<String> keys = redisStore.keySet();
-                            StringBuilder responseBuilder = new StringBuilder();
-                            // Format as a RESP array of all keys.
-                            responseBuilder.append("*").append(keys.size()).append("\r\n");
-                            for (String k : keys) {
-                                responseBuilder.append("$").append(k.length()).append("\r\n");
-                                responseBuilder.append(k).append("\r\n");
+                case "MIGRATE" -> {
+                    // MIGRATE host port key|"" destination-db timeout [COPY] [REPLACE] [KEYS key...]
+                    if (args.count() < 6) {
+                        out.error("ERR wrong number of arguments for 'migrate' command");
+                        return;
+                    }
+                    if (args.parseLong(4) != 0) {
+                        out.error("ERR DB index is out of range");
+                        return;
+                    }
+                    int timeout = (int) args.parseLong(5);
+                    boolean copy = false;
+                    List<String> keys = new ArrayList<>();
+                    for (int i = 6; i < args.count(); i++) {
+                        if (args.equalsIgnoreCase(i, "COPY")) {
+                            copy = true;
+                        } else if (args.equalsIgnoreCase(i, "KEYS")) {
+                            for (int j = i + 1; j < args.count(); j++) {
+                                keys.add(args.string(j));
                             }
-                            responseToSend = responseBuilder.toString();
-                            handled = true;
+                            break;
+                        } else if (!args.equalsIgnoreCase(i, "REPLACE")) {
+                            out.error("ERR syntax error");
+                            return;
                         }
                     }
+                    if (keys.isEmpty()) {
+                        keys.add(args.string(3));
+                    }
+                    // The transfer runs on its own thread; the client is blocked until it ends.
+                    connection.blocked = true;
+                    Migration migration = new Migration(server, args.string(1), (int) args.parseLong(2),
+                            timeout > 0 ? timeout : 1000, copy, keys,
+                            reply -> reactor.execute(() -> finishBlockedCommand(reactor, connection, reply)));
+                    new Thread(migration, "cluster-migrate").start();
+                }
 
-                    case "INFO" -> {
-                        if (lines.length >= 5 && lines[4].equalsIgnoreCase("replication")) {
-                            // build reponse line by line
-                            StringBuilder infoBuilder = new StringBuilder();
-                            infoBuilder.append("role:").append(role);
+                default -> out.error("ERR unknown or invalid command '" + args.string(0) + "'");
+            }
+        } catch (NumberFormatException e) {
+            out.error("ERR value is not an integer or out of range");
+        }
+    }
 
-                            // only add master specificinfo if the role is master
-                            if (role.equals("master")) {
-                                infoBuilder.append("\n");
-                                infoBuilder.append("master_replid:").append(master_replid);
-                                infoBuilder.append("\n");
-                                infoBuilder.append("master_repl_offset:").append(master_repl_offset);
-                            }
-                            String infoContent = infoBuilder.toString();
+    /**
+     * HELLO [protover [AUTH username password] [SETNAME name]]: switches between RESP2 and RESP3
+     * and describes the server. RESP3 only changes how push messages are sent (invalidations).
+     */
+    private static void hello(ClientConnection connection, RespArgs args, ServerContext server, RespWriter out) {
+        int protocol = connection.protocol;
+        String name = null;
+        if (args.count() >= 2) {
+            long requested = args.parseLong(1);
+            if (requested != 2 && requested != 3) {
+                out.error("NOPROTO unsupported protocol version");
+                return;
+            }
+            protocol = (int) requested;
+        }
+        for (int i = 2; i < args.count(); i++) {
+            if (args.equalsIgnoreCase(i, "AUTH") && i + 2 < args.count()) {
+                i += 2; // There are no passwords to check.
+            } else if (args.equalsIgnoreCase(i, "SETNAME") && i + 1 < args.count()) {
+                name = args.string(++i);
+                if (name.contains(" ")) {
+                    out.error("ERR Client names cannot contain spaces, newlines or special characters.");
+                    return;
+                }
+            } else {
+                out.error("ERR Syntax error in HELLO option '" + args.string(i) + "'");
+                return;
+            }
+        }
+        connection.protocol = protocol;
+        if (name != null) {
+            connection.name = name;
+        }
+        if (protocol >= 3) {
+            out.mapHeader(7);
+        } else {
+            out.arrayHeader(14);
+        }
+        out.bulk("server");
+        out.bulk("redis");
+        out.bulk("version");
+        out.bulk(REDIS_VERSION);
+        out.bulk("proto");
+        out.integer(protocol);
+        out.bulk("id");
+        out.integer(connection.id);
+        out.bulk("mode");
+        out.bulk(server.cluster != null ? "cluster" : "standalone");
+        out.bulk("role");
+        out.bulk(server.masterLink != null ? "replica" : "master");
+        out.bulk("modules");
+        out.arrayHeader(0);
+    }
 
-                            // format the
-                            responseToSend = "$" + infoContent.length() + "\r\n" + infoContent + "\r\n";
-                            handled = true;
+    /**
+     * The CLIENT subcommands: ID, GETNAME, SETNAME, and client-side caching (TRACKING, CACHING,
+     * GETREDIR, TRACKINGINFO).
+     */
+    private static void handleClient(ClientConnection connection, RespArgs args, ServerContext server,
+            RespWriter out) {
+        String subcommand = args.string(1).toUpperCase();
+        switch (subcommand) {
+            case "ID" -> out.integer(connection.id);
+            case "GETNAME" -> {
+                if (connection.name.isEmpty()) {
+                    out.nullBulk();
+                } else {
+                    out.bulk(connection.name);
+                }
+            }
+            case "SETNAME" -> {
+                if (args.count() != 3) {
+                    out.error("ERR wrong number of arguments for 'client|setname' command");
+                } else if (args.string(2).contains(" ")) {
+                    out.error("ERR Client names cannot contain spaces, newlines or special characters.");
+                } else {
+                    connection.name = args.string(2);
+                    out.ok();
+                }
+            }
+            case "TRACKING" -> clientTracking(connection, args, server, out);
+            case "CACHING" -> {
+                if (args.count() != 3) {
+                    out.error("ERR wrong number of arguments for 'client|caching' command");
+                } else if (!connection.tracking) {
+                    out.error("ERR CLIENT CACHING can be called only when the client is in tracking mode "
+                            + "with OPTIN or OPTOUT mode enabled");
+                } else if (args.equalsIgnoreCase(2, "yes")) {
+                    if (connection.trackingMode != ClientTracking.MODE_OPTIN) {
+                        out.error("ERR CLIENT CACHING YES is only valid when tracking is enabled in OPTIN mode.");
+                        return;
+                    }
+                    connection.cachingNext = 1;
+                    out.ok();
+                } else if (args.equalsIgnoreCase(2, "no")) {
+                    if (connection.trackingMode != ClientTracking.MODE_OPTOUT) {
+                        out.error("ERR CLIENT CACHING NO is only valid when tracking is enabled in OPTOUT mode.");
+                        return;
+                    }
+                    connection.cachingNext = -1;
+                    out.ok();
+                } else {
+                    out.error("ERR syntax error");
+                }
+            }
+            case "GETREDIR" -> out.integer(!connection.tracking ? -1 : connection.trackingRedirect);
+            case "TRACKINGINFO" -> {
+                List<String> flags = new ArrayList<>();
+                if (!connection.tracking) {
+                    flags.add("off");
+                } else {
+                    flags.add("on");
+                    switch (connection.trackingMode) {
+                        case ClientTracking.MODE_BCAST -> flags.add("bcast");
+                        case ClientTracking.MODE_OPTIN -> flags.add("optin");
+                        case ClientTracking.MODE_OPTOUT -> flags.add("optout");
+                        default -> {
                         }
                     }
+                    if (connection.cachingNext == 1) {
+                        flags.add("caching-yes");
+                    } else if (connection.cachingNext == -1) {
+                        flags.add("caching-no");
+                    }
+                    if (connection.trackingRedirect != 0 && !server.clients.containsKey(connection.trackingRedirect)) {
+                        flags.add("broken_redirect");
+                    }
+                }
+                out.arrayHeader(6);
+                out.bulk("flags");
+                out.arrayHeader(flags.size());
+                for (String flag : flags) {
+                    out.bulk(flag);
                 }
+                out.bulk("redirect");
+                out.integer(!connection.tracking ? -1 : connection.trackingRedirect);
+                out.bulk("prefixes");
+                List<String> prefixes = connection.tracking ? connection.trackingPrefixes : List.of();
+                out.arrayHeader(prefixes.size());
+                for (String prefix : prefixes) {
+                    out.bulk(prefix);
+                }
+            }
+            default -> out.error("ERR unknown subcommand '" + args.string(1) + "'. Try CLIENT HELP.");
+        }
+    }
 
-                // --- Centralized Response Sending ---
-                // All responses are sent from this single point for consistency.
-                if (responseToSend != null) {
-                    client.write(ByteBuffer.wrap(responseToSend.getBytes()));
+    /**
+     * CLIENT TRACKING ON|OFF [REDIRECT id] [PREFIX prefix ...] [BCAST] [OPTIN] [OPTOUT], with the
+     * checks and error messages of Redis. NOLOOP is not supported. As in Redis, a RESP2 client may
+     * turn tracking on without REDIRECT, but is never sent invalidations: RESP2 can only carry them
+     * as Pub/Sub messages to a redirect target subscribed to __redis__:invalidate.
+     */
+    private static void clientTracking(ClientConnection connection, RespArgs args, ServerContext server,
+            RespWriter out) {
+        if (args.count() < 3) {
+            out.error("ERR wrong number of arguments for 'client|tracking' command");
+            return;
+        }
+        boolean on;
+        if (args.equalsIgnoreCase(2, "on")) {
+            on = true;
+        } else if (args.equalsIgnoreCase(2, "off")) {
+            on = false;
+        } else {
+            out.error("ERR syntax error");
+            return;
+        }
+        long redirect = 0;
+        boolean bcast = false;
+        boolean optin = false;
+        boolean optout = false;
+        List<String> prefixes = new ArrayList<>();
+        for (int i = 3; i < args.count(); i++) {
+            if (args.equalsIgnoreCase(i, "REDIRECT") && i + 1 < args.count()) {
+                redirect = args.parseLong(++i);
+                if (redirect == connection.id) {
+                    redirect = 0; // Redirecting to itself is the default.
+                } else if (!server.clients.containsKey(redirect)) {
+                    out.error("ERR The client ID you want redirect to does not exist");
+                    return;
+                }
+            } else if (args.equalsIgnoreCase(i, "BCAST")) {
+                bcast = true;
+            } else if (args.equalsIgnoreCase(i, "OPTIN")) {
+                optin = true;
+            } else if (args.equalsIgnoreCase(i, "OPTOUT")) {
+                optout = true;
+            } else if (args.equalsIgnoreCase(i, "PREFIX") && i + 1 < args.count()) {
+                prefixes.add(args.string(++i));
+            } else {
+                out.error("ERR syntax error");
+                return;
+            }
+        }
+        if (!on) {
+            server.tracking.disable(connection);
+            connection.cachingNext = 0;
+            out.ok();
+            return;
+        }
+        if (!bcast && !prefixes.isEmpty()) {
+            out.error("ERR PREFIX option requires BCAST mode to be enabled");
+            return;
+        }
+        if (connection.tracking && (connection.trackingMode == ClientTracking.MODE_BCAST) != bcast) {
+            out.error("ERR You can't switch BCAST mode on/off before disabling tracking for this client, "
+                    + "and then re-enabling it with a different mode.");
+            return;
+        }
+        if (optin && optout) {
+            out.error("ERR You can't use both OPTIN and OPTOUT");
+            return;
+        }
+        if (bcast && (optin || optout)) {
+            out.error("ERR OPTIN and OPTOUT are not compatible with BCAST");
+            return;
+        }
+        if (connection.tracking && ((optin && connection.trackingMode == ClientTracking.MODE_OPTOUT)
+                || (optout && connection.trackingMode == ClientTracking.MODE_OPTIN))) {
+            out.error("ERR You can't switch OPTIN/OPTOUT mode before disabling tracking for this client, "
+                    + "and then re-enabling it with a different mode.");
+            return;
+        }
+        if (bcast) {
+            // A client's prefixes may not overlap, or a key would be invalidated twice.
+            List<String> all = new ArrayList<>(connection.tracking ? connection.trackingPrefixes : List.of());
+            if (prefixes.isEmpty()) {
+                prefixes.add("");
+            }
+            for (String prefix : prefixes) {
+                for (String other : all) {
+                    if (!prefix.equals(other) && (prefix.startsWith(other) || other.startsWith(prefix))) {
+                        out.error("ERR Prefix '" + prefix + "' overlaps with an existing prefix '" + other
+                                + "'. Prefixes for a single client must not overlap.");
+                        return;
+                    }
+                }
+                if (!all.contains(prefix)) {
+                    all.add(prefix);
                 }
+            }
+            prefixes = all;
+        }
+        connection.trackingRedirect = redirect;
+        connection.trackingMode = bcast ? ClientTracking.MODE_BCAST
+                : optin ? ClientTracking.MODE_OPTIN : optout ? ClientTracking.MODE_OPTOUT : ClientTracking.MODE_DEFAULT;
+        connection.trackingPrefixes = List.copyOf(prefixes);
+        server.tracking.enable(connection);
+        out.ok();
+    }
 
-                if (!handled) {
-                    // Respond with an error for unknown commands.
-                    String errorResponse = "-ERR unknown or invalid command '" + command + "'\r\n";
-                    client.write(ByteBuffer.wrap(errorResponse.getBytes()));
+    /**
+     * The CLUSTER subcommands.
+     */
+    private static void handleCluster(ClientConnection connection, RespArgs args, ServerContext server,
+            RespWriter out) throws IOException {
+        ClusterState cluster = server.cluster;
+        try {
+            if (args.equalsIgnoreCase(1, "INFO")) {
+                out.bulk(cluster.info());
+            } else if (args.equalsIgnoreCase(1, "MYID")) {
+                out.bulk(cluster.myself().id);
+            } else if (args.equalsIgnoreCase(1, "NODES")) {
+                out.bulk(cluster.nodesInfo());
+            } else if (args.equalsIgnoreCase(1, "SLOTS")) {
+                cluster.writeSlots(out);
+            } else if (args.equalsIgnoreCase(1, "SHARDS")) {
+                cluster.writeShards(out);
+            } else if (args.equalsIgnoreCase(1, "KEYSLOT") && args.count() == 3) {
+                out.integer(HashSlot.of(args.string(2)));
+            } else if (args.equalsIgnoreCase(1, "COUNTKEYSINSLOT") && args.count() == 3) {
+                out.integer(server.keyspace.slotIndex().count(parseSlot(args, 2)));
+            } else if (args.equalsIgnoreCase(1, "GETKEYSINSLOT") && args.count() == 4) {
+                List<String> keys = server.keyspace.slotIndex().keys(parseSlot(args, 2), (int) args.parseLong(3));
+                out.arrayHeader(keys.size());
+                for (String key : keys) {
+                    out.bulk(key);
+                }
+            } else if ((args.equalsIgnoreCase(1, "ADDSLOTS") || args.equalsIgnoreCase(1, "DELSLOTS"))
+                    && args.count() >= 3) {
+                int[] slots = new int[args.count() - 2];
+                for (int i = 2; i < args.count(); i++) {
+                    slots[i - 2] = parseSlot(args, i);
+                }
+                if (args.equalsIgnoreCase(1, "ADDSLOTS")) {
+                    cluster.addSlots(slots);
+                } else {
+                    cluster.delSlots(slots);
+                }
+                out.ok();
+            } else if ((args.equalsIgnoreCase(1, "ADDSLOTSRANGE") || args.equalsIgnoreCase(1, "DELSLOTSRANGE"))
+                    && args.count() >= 4 && args.count() % 2 == 0) {
+                List<Integer> slots = new ArrayList<>();
+                for (int i = 2; i < args.count(); i += 2) {
+                    int first = parseSlot(args, i);
+                    int last = parseSlot(args, i + 1);
+                    if (first > last) {
+                        throw new IllegalArgumentException("start slot number " + first
+                                + " is greater than end slot number " + last);
+                    }
+                    for (int slot = first; slot <= last; slot++) {
+                        slots.add(slot);
+                    }
+                }
+                int[] array = slots.stream().mapToInt(Integer::intValue).toArray();
+                if (args.equalsIgnoreCase(1, "ADDSLOTSRANGE")) {
+                    cluster.addSlots(array);
+                } else {
+                    cluster.delSlots(array);
                 }
+                out.ok();
+            } else if (args.equalsIgnoreCase(1, "SETSLOT") && args.count() >= 4) {
+                int slot = parseSlot(args, 2);
+                if (args.equalsIgnoreCase(3, "STABLE")) {
+                    cluster.setStable(slot);
+                } else if (args.count() != 5) {
+                    throw new IllegalArgumentException("Invalid CLUSTER SETSLOT action or number of arguments");
+                } else if (args.equalsIgnoreCase(3, "MIGRATING")) {
+                    cluster.setMigrating(slot, args.string(4));
+                } else if (args.equalsIgnoreCase(3, "IMPORTING")) {
+                    cluster.setImporting(slot, args.string(4));
+                } else if (args.equalsIgnoreCase(3, "NODE")) {
+                    cluster.setNode(slot, args.string(4), server.keyspace.slotIndex().count(slot));
+                } else {
+                    throw new IllegalArgumentException("Invalid CLUSTER SETSLOT action or number of arguments");
+                }
+                out.ok();
+            } else if (args.equalsIgnoreCase(1, "MEET") && args.count() >= 4) {
+                cluster.meet(args.string(2), (int) args.parseLong(3));
+                out.ok();
+            } else if (args.equalsIgnoreCase(1, "FORGET") && args.count() == 3) {
+                cluster.forget(args.string(2));
+                out.ok();
+            } else if (args.equalsIgnoreCase(1, "GOSSIP") && args.count() >= 7) {
+                // A cluster bus message from another node (ClusterBus); the reply is our own gossip.
+                List<String> fields = new ArrayList<>(args.count() - 2);
+                for (int i = 2; i < args.count(); i++) {
+                    fields.add(args.string(i));
+                }
+                String host = ((InetSocketAddress) connection.channel.getRemoteAddress()).getAddress()
+                        .getHostAddress();
+                cluster.receiveGossip(fields, host);
+                List<String> gossip = cluster.gossip();
+                out.arrayHeader(gossip.size());
+                for (String field : gossip) {
+                    out.bulk(field);
+                }
+            } else {
+                out.error("ERR unknown subcommand or wrong number of arguments for '" + args.string(1) + "'");
+            }
+        } catch (IllegalArgumentException e) {
+            out.error("ERR " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return Argument i as a hash slot.
+     * @throws IllegalArgumentException If it is not a valid slot number.
+     */
+    private static int parseSlot(RespArgs args, int i) {
+        long slot;
+        try {
+            slot = args.parseLong(i);
+        } catch (NumberFormatException e) {
+            slot = -1;
+        }
+        if (slot < 0 || slot >= HashSlot.SLOTS) {
+            throw new IllegalArgumentException("Invalid or out of range slot");
+        }
+        return (int) slot;
+    }
+
+    /**
+     * Replies to a client blocked by a command that finished on another thread (MIGRATE) and
+     * resumes its pipelined commands. Runs on the client's reactor.
+     * 
+     * @param reactor    The reactor that owns the connection.
+     * @param connection The blocked client.
+     * @param reply      The reply line, without CRLF.
+     */
+    public static void finishBlockedCommand(Reactor reactor, ClientConnection connection, String reply) {
+        if (!connection.channel.isOpen()) {
+            return;
+        }
+        connection.queueReply((reply + "\r\n").getBytes(StandardCharsets.UTF_8));
+        resumeBlockedClient(reactor, connection);
+    }
 
-                // Clear the client's buffer now that a command has been processed.
-                clientBuffers.get(client).setLength(0);
+    /**
+     * Unblocks a client whose reply has been written, runs the commands it pipelined meanwhile,
+     * and schedules the flush. Runs on the client's reactor.
+     */
+    private static void resumeBlockedClient(Reactor reactor, ClientConnection connection) {
+        connection.blocked = false;
+        try {
+            processInput(reactor, connection, reactor.server);
+            if (connection.hasPendingReplies() && !connection.flushScheduled) {
+                connection.flushScheduled = true;
+                reactor.pendingWrites.add(connection);
+            }
+        } catch (IOException e) {
+            closeQuietly(reactor, connection);
+        }
+    }
+
+    /**
+     * One step of KEYS: walks about KEYS_STEP keys, collecting those that match, and once the
+     * whole keyspace has been walked writes the reply.
+     * 
+     * @param cursor  The keyspace scan cursor, updated in place.
+     * @param matches The keys matched so far (references to the keyspace's own Strings).
+     * @param shrinks Keyspace.shrinks() when the walk began.
+     * @return true if the walk is complete and the reply has been written.
+     */
+    private static boolean keysStep(ClientConnection connection, ServerContext server, GlobPattern pattern,
+            long[] cursor, List<String> matches, long shrinks) {
+        server.executionLock.readLock().lock();
+        try {
+            cursor[0] = server.keyspace.scan(cursor[0], KEYS_STEP, server.clock.millis(), (key, value) -> {
+                if (pattern.matches(key)) {
+                    matches.add(key);
+                }
+            });
+        } finally {
+            server.executionLock.readLock().unlock();
+        }
+        if (cursor[0] != 0) {
+            return false;
+        }
+        List<String> keys = matches;
+        if (server.keyspace.shrinks() != shrinks) {
+            // Like SCAN, a walk that spans a shrinking table can see a key twice; KEYS must not.
+            keys = new ArrayList<>(new LinkedHashSet<>(matches));
+        }
+        // Bulk by bulk into the connection's output chunks: never one buffer for the whole reply.
+        RespWriter out = connection.replyWriter();
+        out.arrayHeader(keys.size());
+        for (String key : keys) {
+            out.bulk(key);
+        }
+        return true;
+    }
+
+    /**
+     * Continues a KEYS on the next event-loop pass, until it completes or its client goes away.
+     */
+    private static void continueKeys(Reactor reactor, ClientConnection connection, GlobPattern pattern,
+            long[] cursor, List<String> matches, long shrinks) {
+        if (!connection.channel.isOpen()) {
+            return;
+        }
+        if (keysStep(connection, reactor.server, pattern, cursor, matches, shrinks)) {
+            resumeBlockedClient(reactor, connection);
+        } else {
+            reactor.execute(() -> continueKeys(reactor, connection, pattern, cursor, matches, shrinks));
+        }
+    }
+
+    /**
+     * Deletes a key copied to another node by MIGRATE, unless it was written to in the meantime,
+     * and propagates the deletion to the AOF and the replicas.
+     * 
+     * @param server         The shared server state.
+     * @param key            The migrated key.
+     * @param expected       The value that was sent.
+     * @param expectedNumber The value's number when it was sent (INT values change in place).
+     * @return true if the key was deleted; false if it changed and must be sent again.
+     */
+    public static boolean removeMigratedKey(ServerContext server, String key, RedisStoreObject expected,
+            long expectedNumber) {
+        server.executionLock.readLock().lock();
+        try {
+            Lock keyLock = server.keyspace.keyLock(key);
+            keyLock.lock();
+            try {
+                if (!server.keyspace.removeIfSame(key, expected, expectedNumber)) {
+                    return false;
+                }
+                byte[][] argv = { DEL, key.getBytes(StandardCharsets.ISO_8859_1) };
+                if (server.aof != null) {
+                    server.aof.append(argv);
+                }
+                server.replication.feed(argv);
+                return true;
+            } finally {
+                keyLock.unlock();
+            }
+        } finally {
+            server.executionLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Attaches the master connection, after the handshake done by the MasterLink thread,
+     * to a reactor. Runs on the reactor's thread.
+     * 
+     * @param reactor  The reactor that will own the connection.
+     * @param channel  The connected, non-blocking socket.
+     * @param leftover Stream bytes already received during the handshake.
+     * @param link     The master link to notify when the connection closes.
+     */
+    public static void attachMaster(Reactor reactor, SocketChannel channel, ByteBuffer leftover, MasterLink link) {
+        try {
+            ClientConnection connection = new ClientConnection(channel, reactor.bufferPool);
+            connection.master = link;
+            link.connection = connection;
+            if (leftover.hasRemaining()) {
+                connection.inputBuffer = ByteBuffer.allocate(Math.max(leftover.remaining(), 16 * 1024));
+                connection.inputBuffer.put(leftover).flip();
+            }
+            connection.selectionKey = channel.register(reactor.selector, SelectionKey.OP_READ);
+            reactor.clients.put(channel, connection);
+            processInput(reactor, connection, reactor.server);
+        } catch (IOException e) {
+            Log.info("Failed to attach the master connection: " + e.getMessage());
+            link.disconnected();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Already failing; the link reconnects.
+            }
+        }
+    }
+
+    /**
+     * Replication work for one reactor, once per event-loop pass: moves the write stream
+     * (or the RDB of a full resync) to the replicas it owns, answers WAITs that are satisfied
+     * or timed out, wakes other reactors whose replicas have new stream data and, on a replica,
+     * sends the master at most one REPLCONF ACK for everything applied in the pass.
+     * 
+     * @param reactor The calling reactor.
+     * @param server  The shared server state.
+     */
+    public static void serviceReplication(Reactor reactor, ServerContext server) {
+        Replication replication = server.replication;
+        long now = System.currentTimeMillis();
+        MasterLink link = server.masterLink;
+        if (link != null && link.reactor == reactor && link.connection != null && link.ackDue(now)) {
+            ClientConnection connection = link.connection;
+            RespWriter out = connection.replyWriter();
+            out.arrayHeader(3);
+            out.bulk("REPLCONF");
+            out.bulk("ACK");
+            out.bulk(link.offset());
+            link.ackSent(now);
+            if (!connection.flushScheduled) {
+                connection.flushScheduled = true;
+                reactor.pendingWrites.add(connection);
+            }
+        }
+        for (ReplicaState replica : replication.replicas()) {
+            if (replica.reactor != reactor) {
+                continue;
+            }
+            ClientConnection connection = replica.connection;
+            try {
+                if (!replication.service(replica) || connection.outputLimitReached(server.config, now)) {
+                    closeClient(reactor, connection);
+                    continue;
+                }
+            } catch (IOException e) {
+                closeQuietly(reactor, connection);
+                continue;
+            }
+            if (connection.hasPendingReplies() && !connection.flushScheduled) {
+                connection.flushScheduled = true;
+                reactor.pendingWrites.add(connection);
+            }
+        }
+        for (Replication.WaitRequest wait : replication.completedWaits(reactor, now)) {
+            ClientConnection connection = wait.connection;
+            if (!connection.channel.isOpen()) {
+                continue;
+            }
+            connection.replyWriter().integer(replication.acknowledged(wait.offset));
+            connection.blocked = false;
+            try {
+                processInput(reactor, connection, server); // Commands pipelined after the WAIT.
+            } catch (IOException e) {
+                closeQuietly(reactor, connection);
+            }
+        }
+        replication.wakeReplicas(reactor);
+    }
+
+    /**
+     * Closes a client after an error, when there is nobody to report a failure to close it to.
+     */
+    public static void closeQuietly(Reactor reactor, ClientConnection connection) {
+        try {
+            closeClient(reactor, connection);
+        } catch (IOException ignored) {
+            // The connection is gone either way.
+        }
+    }
+
+    /**
+     * Executes one parsed command against the store.
+     * 
+     * Single-key commands share the execution lock and rely on the keyspace's segment locks;
+     * keyspace-wide commands hold it exclusively (see ServerContext).
+     * 
+     * @param command    The canonical command name (CommandTable.lookup).
+     * @param args       The command and its arguments, as slices of the input buffer.
+     * @param server     The shared server state (store, configuration, replication info).
+     * @param out        Where the RESP-encoded reply is written.
+     * @param replicated true for commands from the AOF or the master, which are applied
+     *                   unconditionally (no maxmemory check), like Redis's loading and master clients.
+     * @return false if the command was refused without running (unknown, wrong arguments,
+     *         READONLY or OOM), which does not count as a call in INFO commandstats.
+     */
+    public static boolean executeCommand(String command, RespArgs args, ServerContext server, RespWriter out,
+            boolean replicated) {
+        Keyspace keyspace = server.keyspace;
+        Lock lock = CommandTable.isKeyspaceWide(command) ? server.executionLock.writeLock()
+                : server.executionLock.readLock();
+        lock.lock();
+        try {
+            // Commands that can grow the dataset first make room under maxmemory, like Redis's denyoom.
+            // A replica's data comes from its master; its own clients may only read.
+            if (!replicated && server.masterLink != null && server.config.replicaReadOnly
+                    && CommandTable.isWrite(command)) {
+                out.error("READONLY You can't write against a read only replica.");
+                server.metrics.rejected(command);
+                return false;
+            }
+            // A write that cannot be logged must not be acknowledged (Redis's MISCONF).
+            String aofError = server.aof != null && !replicated && CommandTable.isWrite(command)
+                    ? server.aof.writeError()
+                    : null;
+            if (aofError != null) {
+                out.error("MISCONF Errors writing to the AOF file: " + aofError);
+                server.metrics.rejected(command);
+                return false;
+            }
+            if (!replicated && CommandTable.isDenyOom(command) && !server.evictor.performEvictions()) {
+                out.error("OOM command not allowed when used memory > 'maxmemory'.");
+                server.metrics.rejected(command);
+                return false;
+            }
+            // A write and its propagation happen under the key's lock, so the AOF
+            // records writes to a key in the order they were applied. Multi-key writes lock each key in turn.
+            // Collection reads hold it too, since collections are changed in place.
+            int firstKey = CommandTable.firstKey(command);
+            Lock keyLock = ((CommandTable.isWrite(command) && !CommandTable.isMultiKey(command))
+                    || CommandTable.isCollectionRead(command)) && args.count() > firstKey
+                            ? keyspace.keyLock(args.string(firstKey))
+                            : null;
+            if (keyLock != null) {
+                keyLock.lock();
+            }
+            try {
+                if (!executeCommand(command, args, server, keyspace, out)) {
+                    // Respond with an error for unknown commands.
+                    out.error("ERR unknown or invalid command '" + args.string(0) + "'");
+                    server.metrics.rejected(command);
+                    return false;
+                }
+            } finally {
+                if (keyLock != null) {
+                    keyLock.unlock();
+                }
+            }
+        } catch (WrongTypeException e) {
+            out.error(e.getMessage());
+            server.metrics.failed(command);
+        } catch (NumberFormatException e) {
+            out.error("ERR value is not an integer or out of range");
+            server.metrics.failed(command);
+        } catch (ArithmeticException e) {
+            out.error("ERR increment or decrement would overflow");
+            server.metrics.failed(command);
+        } catch (RuntimeException e) {
+            // A bug in one command must cost its caller a reply, not the reactor its thread.
+            Log.info("Command " + command + " failed: " + e);
+            out.error("ERR " + String.valueOf(e.getMessage()).replace('\r', ' ').replace('\n', ' '));
+            server.metrics.failed(command);
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Propagates a write command, as it was received, to the AOF and the replicas.
+     */
+    private static void propagate(ServerContext server, RespArgs args) {
+        if (server.aof != null) {
+            server.aof.append(args);
+        }
+        server.replication.feed(args);
+    }
+
+    /**
+     * Propagates an evicted key as a DEL, the way removeMigratedKey propagates a migrated one.
+     * Runs under the key's lock (see Evictor.setEvictionListener).
+     */
+    private static void propagateEviction(ServerContext server, String key) {
+        byte[][] argv = { DEL, key.getBytes(StandardCharsets.ISO_8859_1) };
+        if (server.aof != null) {
+            server.aof.append(argv);
+        }
+        server.replication.feed(argv);
+    }
+
+    /**
+     * Propagates a SET. A relative expiry is rewritten as an absolute PXAT time, so replaying
+     * the log later, or applying it on a lagging replica, does not extend the key's life.
+     */
+    private static void propagateSet(ServerContext server, RespArgs args, byte[] value, long expiry) {
+        if (expiry == Long.MAX_VALUE) {
+            propagate(server, args);
+            return;
+        }
+        byte[][] argv = { SET, args.bytes(1), value, PXAT, Long.toString(expiry).getBytes(StandardCharsets.US_ASCII) };
+        if (server.aof != null) {
+            server.aof.append(argv);
+        }
+        server.replication.feed(argv);
+    }
+
+    /**
+     * ZADD key [NX|XX] [GT|LT] [CH] [INCR] score member [score member ...]
+     * All scores are parsed before anything changes, so an invalid one leaves the set untouched.
+     */
+    private static void zadd(RespArgs args, ServerContext server, Keyspace keyspace, RespWriter out) {
+        int flags = 0;
+        boolean changed = false;
+        int first = 2;
+        for (; first < args.count(); first++) {
+            if (args.equalsIgnoreCase(first, "NX")) {
+                flags |= ZSetValue.NX;
+            } else if (args.equalsIgnoreCase(first, "XX")) {
+                flags |= ZSetValue.XX;
+            } else if (args.equalsIgnoreCase(first, "GT")) {
+                flags |= ZSetValue.GT;
+            } else if (args.equalsIgnoreCase(first, "LT")) {
+                flags |= ZSetValue.LT;
+            } else if (args.equalsIgnoreCase(first, "INCR")) {
+                flags |= ZSetValue.INCR;
+            } else if (args.equalsIgnoreCase(first, "CH")) {
+                changed = true;
+            } else {
+                break;
+            }
+        }
+        int pairs = (args.count() - first) / 2;
+        boolean incr = (flags & ZSetValue.INCR) != 0;
+        if (pairs == 0 || (args.count() - first) % 2 != 0) {
+            out.error("ERR syntax error");
+            return;
+        }
+        if ((flags & ZSetValue.NX) != 0 && (flags & ZSetValue.XX) != 0) {
+            out.error("ERR XX and NX options at the same time are not compatible");
+            return;
+        }
+        if (((flags & ZSetValue.GT) != 0 && (flags & ZSetValue.LT) != 0)
+                || ((flags & ZSetValue.NX) != 0 && (flags & (ZSetValue.GT | ZSetValue.LT)) != 0)) {
+            out.error("ERR GT, LT, and/or NX options at the same time are not compatible");
+            return;
+        }
+        if (incr && pairs > 1) {
+            out.error("ERR INCR option supports a single increment-element pair");
+            return;
+        }
+        double[] scores = new double[pairs];
+        try {
+            for (int i = 0; i < pairs; i++) {
+                scores[i] = ZSetValue.parseScore(args.bytes(first + 2 * i));
+            }
+        } catch (NumberFormatException e) {
+            out.error("ERR value is not a valid float");
+            return;
+        }
+        int start = first;
+        int options = flags;
+        EncodingLimits limits = keyspace.encodingLimits();
+        double[] newScore = new double[1];
+        // Added, updated, and whether INCR produced NaN.
+        int[] counts = new int[3];
+        int[] lastResult = { ZSetValue.NOP };
+        keyspace.modify(args.string(1), RedisStoreObject.TYPE_ZSET, server.clock.millis(),
+                (flags & ZSetValue.XX) != 0 ? null : ZSetValue::new, collection -> {
+                    ZSetValue zset = (ZSetValue) collection;
+                    for (int i = 0; i < pairs; i++) {
+                        int result = zset.add(args.bytes(start + 2 * i + 1), scores[i], options, newScore, limits);
+                        lastResult[0] = result;
+                        if (result == ZSetValue.ADDED) {
+                            counts[0]++;
+                        } else if (result == ZSetValue.UPDATED) {
+                            counts[1]++;
+                        } else if (result == ZSetValue.NAN) {
+                            counts[2]++;
+                        }
+                    }
+                    return null;
+                });
+        if (counts[0] + counts[1] > 0) {
+            propagate(server, args);
+        }
+        if (counts[2] > 0) {
+            out.error("ERR resulting score is not a number (NaN)");
+        } else if (incr) {
+            // INCR replies with the new score, or nil when NX, XX, GT or LT prevented the update.
+            if (lastResult[0] == ZSetValue.NOP) {
+                out.nullBulk();
+            } else {
+                out.bulk(ZSetValue.formatScore(newScore[0]));
+            }
+        } else {
+            out.integer(counts[0] + (changed ? counts[1] : 0));
+        }
+    }
+
+    /**
+     * ZRANGE key start stop [BYSCORE] [REV] [LIMIT offset count] [WITHSCORES], and
+     * ZRANGEBYSCORE key min max [WITHSCORES] [LIMIT offset count].
+     */
+    private static void zrange(String command, RespArgs args, ServerContext server, Keyspace keyspace,
+            RespWriter out) {
+        boolean byScore = command.equals("ZRANGEBYSCORE");
+        boolean reverse = false;
+        boolean withScores = false;
+        boolean hasLimit = false;
+        long offset = 0;
+        long limit = -1;
+        for (int i = 4; i < args.count(); i++) {
+            if (command.equals("ZRANGE") && args.equalsIgnoreCase(i, "BYSCORE")) {
+                byScore = true;
+            } else if (command.equals("ZRANGE") && args.equalsIgnoreCase(i, "REV")) {
+                reverse = true;
+            } else if (args.equalsIgnoreCase(i, "WITHSCORES")) {
+                withScores = true;
+            } else if (args.equalsIgnoreCase(i, "LIMIT") && i + 2 < args.count()) {
+                offset = args.parseLong(i + 1);
+                limit = args.parseLong(i + 2);
+                hasLimit = true;
+                i += 2;
+            } else {
+                out.error("ERR syntax error");
+                return;
+            }
+        }
+        if (hasLimit && !byScore) {
+            out.error("ERR syntax error, LIMIT is only supported in combination with either BYSCORE or BYLEX");
+            return;
+        }
+        List<ZSetValue.Entry> entries = List.of();
+        if (byScore) {
+            ZSetValue.ScoreRange range;
+            try {
+                // With REV the range is given from max to min.
+                range = reverse ? ZSetValue.ScoreRange.parse(args.bytes(3), args.bytes(2))
+                        : ZSetValue.ScoreRange.parse(args.bytes(2), args.bytes(3));
+            } catch (NumberFormatException e) {
+                out.error("ERR min or max is not a float");
+                return;
+            }
+            ZSetValue zset = (ZSetValue) keyspace.getCollection(args.string(1), RedisStoreObject.TYPE_ZSET,
+                    server.clock.millis());
+            if (zset != null && offset >= 0) {
+                entries = zset.rangeByScore(range, reverse, offset, limit < 0 ? -1 : limit);
+            }
+        } else {
+            long start = args.parseLong(2);
+            long stop = args.parseLong(3);
+            ZSetValue zset = (ZSetValue) keyspace.getCollection(args.string(1), RedisStoreObject.TYPE_ZSET,
+                    server.clock.millis());
+            long[] range = zset != null ? rankRange(start, stop, zset.size()) : null;
+            if (range != null) {
+                entries = zset.rangeByRank(range[0], range[1], reverse);
+            }
+        }
+        out.arrayHeader(entries.size() * (withScores ? 2 : 1));
+        for (ZSetValue.Entry entry : entries) {
+            out.bulk(entry.member);
+            if (withScores) {
+                out.bulk(ZSetValue.formatScore(entry.score));
+            }
+        }
+    }
+
+    /**
+     * Resolves LRANGE/ZRANGE indexes, where negative ones count from the end.
+     * @return The inclusive range clamped to the collection, or null if it is empty.
+     */
+    private static long[] rankRange(long start, long stop, long size) {
+        if (start < 0) {
+            start += size;
+        }
+        if (stop < 0) {
+            stop += size;
+        }
+        start = Math.max(start, 0);
+        stop = Math.min(stop, size - 1);
+        return start > stop ? null : new long[] { start, stop };
+    }
+
+    private static void writeArray(RespWriter out, List<byte[]> elements) {
+        out.arrayHeader(elements.size());
+        for (byte[] element : elements) {
+            out.bulk(element);
+        }
+    }
+
+    /**
+     * @return true if the command was recognised and a reply was written.
+     */
+    private static boolean executeCommand(String command, RespArgs args, ServerContext server, Keyspace keyspace,
+            RespWriter out) {
+        // Each case writes its reply straight into out.
+        // The command name is matched against the raw bytes, without building a String.
+        switch (command) {
+            case "PING" -> out.simpleString("PONG");
+
+            case "ECHO" -> {
+                if (args.count() < 2) {
+                    return false;
+                }
+                out.bulk(args.bytes(1));
+            }
+
+            case "SET" -> {
+                if (args.count() < 3) {
+                    return false;
+                }
+                long expiry = Long.MAX_VALUE; // Default: no expiry.
+                // Check for PX (milliseconds) and PXAT (Unix time in milliseconds) options.
+                if (args.count() >= 5 && args.equalsIgnoreCase(3, "PX")) {
+                    expiry = args.parseLong(4) + server.clock.millis();
+                } else if (args.count() >= 5 && args.equalsIgnoreCase(3, "PXAT")) {
+                    expiry = args.parseLong(4);
+                }
+                // The value is kept as bytes, in the most compact encoding that fits it.
+                byte[] value = args.bytes(2);
+                keyspace.put(args.string(1), keyspace.createValue(value), expiry);
+                propagateSet(server, args, value, expiry);
+                out.ok();
+            }
+
+            case "GET" -> {
+                if (args.count() < 2) {
+                    return false;
+                }
+                // Expired keys are removed by the keyspace and reported as missing.
+                RedisStoreObject storedObject = keyspace.get(args.string(1), server.clock.millis());
+                if (storedObject == null) { // Key doesn't exist.
+                    out.nullBulk();
+                } else {
+                    storedObject.writeTo(out);
+                }
+            }
+
+            case "INCR", "DECR", "INCRBY", "DECRBY" -> {
+                boolean by = command.endsWith("BY");
+                if (args.count() < (by ? 3 : 2)) {
+                    return false;
+                }
+                long delta = by ? args.parseLong(2) : 1;
+                if (command.startsWith("DECR")) {
+                    if (delta == Long.MIN_VALUE) {
+                        throw new ArithmeticException("decrement would overflow");
+                    }
+                    delta = -delta;
+                }
+                out.integer(keyspace.incrementBy(args.string(1), delta, server.clock.millis()));
+                propagate(server, args);
+            }
+
+            case "DEL" -> {
+                if (args.count() < 2) {
+                    return false;
+                }
+                long now = server.clock.millis();
+                int deleted = 0;
+                for (int i = 1; i < args.count(); i++) {
+                    String key = args.string(i);
+                    Lock keyLock = keyspace.keyLock(key);
+                    keyLock.lock();
+                    try {
+                        // An expired key counts as already gone.
+                        if (keyspace.get(key, now) != null && keyspace.remove(key) != null) {
+                            deleted++;
+                            byte[][] argv = { DEL, args.bytes(i) };
+                            if (server.aof != null) {
+                                server.aof.append(argv);
+                            }
+                            server.replication.feed(argv);
+                        }
+                    } finally {
+                        keyLock.unlock();
+                    }
+                }
+                out.integer(deleted);
+            }
+
+            case "HSET" -> {
+                if (args.count() < 4 || args.count() % 2 != 0) {
+                    return false;
+                }
+                EncodingLimits limits = keyspace.encodingLimits();
+                int added = keyspace.modify(args.string(1), RedisStoreObject.TYPE_HASH, server.clock.millis(),
+                        HashValue::new, collection -> {
+                            HashValue hash = (HashValue) collection;
+                            int count = 0;
+                            for (int i = 2; i < args.count(); i += 2) {
+                                if (hash.set(args.bytes(i), args.bytes(i + 1), limits)) {
+                                    count++;
+                                }
+                            }
+                            return count;
+                        });
+                propagate(server, args);
+                out.integer(added);
+            }
+
+            case "HGET" -> {
+                if (args.count() < 3) {
+                    return false;
+                }
+                HashValue hash = (HashValue) keyspace.getCollection(args.string(1), RedisStoreObject.TYPE_HASH,
+                        server.clock.millis());
+                byte[] value = hash != null ? hash.get(args.bytes(2)) : null;
+                if (value == null) {
+                    out.nullBulk();
+                } else {
+                    out.bulk(value);
+                }
+            }
+
+            case "HGETALL" -> {
+                if (args.count() < 2) {
+                    return false;
+                }
+                HashValue hash = (HashValue) keyspace.getCollection(args.string(1), RedisStoreObject.TYPE_HASH,
+                        server.clock.millis());
+                writeArray(out, hash != null ? hash.entries() : List.of());
+            }
+
+            case "LPUSH", "RPUSH" -> {
+                if (args.count() < 3) {
+                    return false;
+                }
+                boolean atHead = command.equals("LPUSH");
+                EncodingLimits limits = keyspace.encodingLimits();
+                int length = keyspace.modify(args.string(1), RedisStoreObject.TYPE_LIST, server.clock.millis(),
+                        ListValue::new, collection -> {
+                            ListValue list = (ListValue) collection;
+                            for (int i = 2; i < args.count(); i++) {
+                                list.push(args.bytes(i), atHead, limits);
+                            }
+                            return list.size();
+                        });
+                propagate(server, args);
+                out.integer(length);
+            }
+
+            case "LPOP" -> {
+                if (args.count() < 2) {
+                    return false;
+                }
+                // Without a count LPOP replies with one element; with a count, with an array.
+                boolean withCount = args.count() >= 3;
+                long count = withCount ? args.parseLong(2) : 1;
+                if (count < 0) {
+                    out.error("ERR value is out of range, must be positive");
+                    return true;
+                }
+                EncodingLimits limits = keyspace.encodingLimits();
+                List<byte[]> popped = keyspace.modify(args.string(1), RedisStoreObject.TYPE_LIST,
+                        server.clock.millis(), null, collection -> {
+                            ListValue list = (ListValue) collection;
+                            List<byte[]> elements = new ArrayList<>((int) Math.min(count, list.size()));
+                            while (elements.size() < count) {
+                                byte[] element = list.pop(true, limits);
+                                if (element == null) {
+                                    break;
+                                }
+                                elements.add(element);
+                            }
+                            return elements;
+                        });
+                if (popped == null) {
+                    if (withCount) {
+                        out.nullArray();
+                    } else {
+                        out.nullBulk();
+                    }
+                    return true;
+                }
+                if (!popped.isEmpty()) {
+                    propagate(server, args);
+                }
+                if (withCount) {
+                    writeArray(out, popped);
+                } else {
+                    out.bulk(popped.get(0));
+                }
+            }
+
+            case "LRANGE" -> {
+                if (args.count() < 4) {
+                    return false;
+                }
+                long start = args.parseLong(2);
+                long stop = args.parseLong(3);
+                ListValue list = (ListValue) keyspace.getCollection(args.string(1), RedisStoreObject.TYPE_LIST,
+                        server.clock.millis());
+                long[] range = list != null ? rankRange(start, stop, list.size()) : null;
+                writeArray(out, range != null ? list.range(range[0], range[1]) : List.of());
+            }
+
+            case "SADD" -> {
+                if (args.count() < 3) {
+                    return false;
+                }
+                EncodingLimits limits = keyspace.encodingLimits();
+                int added = keyspace.modify(args.string(1), RedisStoreObject.TYPE_SET, server.clock.millis(),
+                        SetValue::new, collection -> {
+                            SetValue set = (SetValue) collection;
+                            int count = 0;
+                            for (int i = 2; i < args.count(); i++) {
+                                if (set.add(args.bytes(i), limits)) {
+                                    count++;
+                                }
+                            }
+                            return count;
+                        });
+                if (added > 0) {
+                    propagate(server, args);
+                }
+                out.integer(added);
+            }
+
+            case "SMEMBERS" -> {
+                if (args.count() < 2) {
+                    return false;
+                }
+                SetValue set = (SetValue) keyspace.getCollection(args.string(1), RedisStoreObject.TYPE_SET,
+                        server.clock.millis());
+                writeArray(out, set != null ? set.members() : List.of());
+            }
+
+            case "SISMEMBER" -> {
+                if (args.count() < 3) {
+                    return false;
+                }
+                SetValue set = (SetValue) keyspace.getCollection(args.string(1), RedisStoreObject.TYPE_SET,
+                        server.clock.millis());
+                out.integer(set != null && set.contains(args.bytes(2)) ? 1 : 0);
+            }
+
+            case "ZADD" -> {
+                if (args.count() < 4) {
+                    return false;
+                }
+                zadd(args, server, keyspace, out);
+            }
+
+            case "ZRANGE", "ZRANGEBYSCORE" -> {
+                if (args.count() < 4) {
+                    return false;
+                }
+                zrange(command, args, server, keyspace, out);
+            }
+
+            case "TYPE" -> {
+                if (args.count() < 2) {
+                    return false;
+                }
+                RedisStoreObject value = keyspace.get(args.string(1), server.clock.millis());
+                out.simpleString(value != null ? value.typeName() : "none");
+            }
+
+            case "OBJECT" -> {
+                if (args.count() < 3 || !args.equalsIgnoreCase(1, "ENCODING")) {
+                    return false;
+                }
+                RedisStoreObject value = keyspace.get(args.string(2), server.clock.millis());
+                if (value == null) {
+                    out.nullBulk();
+                } else {
+                    out.bulk(value.encodingName());
+                }
+            }
+
+            case "PEXPIREAT" -> {
+                if (args.count() < 3) {
+                    return false;
+                }
+                boolean set = keyspace.setExpiration(args.string(1), args.parseLong(2), server.clock.millis());
+                if (set) {
+                    propagate(server, args);
+                }
+                out.integer(set ? 1 : 0);
+            }
+
+            case "SAVE" -> {
+                if (server.rdbSaver.inProgress()) {
+                    out.error("ERR Background save already in progress");
+                    return true;
+                }
+                try {
+                    server.rdbSaver.save();
+                    out.ok();
+                } catch (IllegalStateException e) {
+                    out.error("ERR " + e.getMessage());
+                } catch (IOException e) {
+                    Log.info("Error saving DB on disk: " + e.getMessage());
+                    out.error("ERR " + e.getMessage());
+                }
+            }
+
+            case "BGSAVE" -> {
+                if (server.rdbSaver.backgroundSave()) {
+                    out.simpleString("Background saving started");
+                } else if (server.rdbSaver.inProgress()) {
+                    out.error("ERR Background save already in progress");
+                } else {
+                    out.error("ERR Another child process is active (AOF?): can't BGSAVE right now");
+                }
+            }
+
+            case "BGREWRITEAOF" -> {
+                if (server.aof == null) {
+                    out.error("ERR Append only file is not enabled");
+                } else if (server.aof.rewriteInProgress()) {
+                    out.error("ERR Background append only file rewriting already in progress");
+                } else if (server.aof.startRewrite()) {
+                    out.simpleString("Background append only file rewriting started");
+                } else {
+                    // A BGSAVE is running; serverCron starts the rewrite when it ends.
+                    out.simpleString("Background append only file rewriting scheduled");
+                }
+            }
+
+            case "LASTSAVE" -> out.integer(server.rdbSaver.lastSave());
+
+            case "CONFIG" -> {
+                if (args.count() < 3 || !args.equalsIgnoreCase(1, "GET")) {
+                    return false;
+                }
+                String configKey = args.string(2);
+                String value = server.rdbConfig.get(configKey);
+                if (value == null) {
+                    value = ConfigHandler.get(server.config, configKey);
+                }
+                // Format as a RESP array of [key, value], or [key, NIL] if unknown.
+                out.arrayHeader(2);
+                out.bulk(configKey);
+                if (value != null) {
+                    out.bulk(value);
+                } else {
+                    out.nullBulk();
+                }
+            }
+
+            case "SCAN" -> {
+                if (args.count() < 2) {
+                    return false;
+                }
+                long cursor;
+                try {
+                    cursor = Long.parseUnsignedLong(args.string(1));
+                } catch (NumberFormatException e) {
+                    out.error("ERR invalid cursor");
+                    return true;
+                }
+                GlobPattern pattern = null;
+                String type = null;
+                int count = 10;
+                for (int i = 2; i < args.count(); i += 2) {
+                    if (i + 1 == args.count()) {
+                        out.error("ERR syntax error");
+                        return true;
+                    }
+                    if (args.equalsIgnoreCase(i, "MATCH")) {
+                        pattern = new GlobPattern(args.string(i + 1));
+                    } else if (args.equalsIgnoreCase(i, "COUNT")) {
+                        long value = args.parseLong(i + 1);
+                        if (value < 1) {
+                            out.error("ERR syntax error");
+                            return true;
+                        }
+                        count = (int) Math.min(value, Integer.MAX_VALUE);
+                    } else if (args.equalsIgnoreCase(i, "TYPE")) {
+                        type = args.string(i + 1).toLowerCase();
+                    } else {
+                        out.error("ERR syntax error");
+                        return true;
+                    }
+                }
+                // Filters apply after COUNT, as in Redis: a step may return fewer keys, or none.
+                GlobPattern match = pattern != null && !pattern.matchesAll() ? pattern : null;
+                String wantedType = type;
+                List<String> keys = new ArrayList<>();
+                long next = keyspace.scan(cursor, count, server.clock.millis(), (key, value) -> {
+                    if ((match == null || match.matches(key))
+                            && (wantedType == null || value.typeName().equals(wantedType))) {
+                        keys.add(key);
+                    }
+                });
+                out.arrayHeader(2);
+                out.bulk(Long.toUnsignedString(next));
+                out.arrayHeader(keys.size());
+                for (String key : keys) {
+                    out.bulk(key);
+                }
+            }
+
+            // Scripts run under the write lock (EVAL and EVALSHA are keyspace-wide), so the
+            // commands they call are not interleaved with anyone else's.
+            case "EVAL" -> server.scripts.eval(args, false, out);
+
+            case "EVALSHA" -> server.scripts.eval(args, true, out);
+
+            case "SCRIPT" -> server.scripts.script(args, out);
+
+            case "SLOWLOG" -> {
+                if (args.count() < 2) {
+                    return false;
+                }
+                SlowLog slowLog = server.metrics.slowLog;
+                if (args.equalsIgnoreCase(1, "GET") && args.count() <= 3) {
+                    long count = args.count() == 3 ? args.parseLong(2) : 10;
+                    if (count < -1) {
+                        out.error("ERR count should be greater than or equal to -1");
+                        return true;
+                    }
+                    List<SlowLog.Entry> entries = slowLog.get(count);
+                    out.arrayHeader(entries.size());
+                    for (SlowLog.Entry entry : entries) {
+                        // id, unix time, microseconds, argv, client address, client name.
+                        out.arrayHeader(6);
+                        out.integer(entry.id);
+                        out.integer(entry.timestampSeconds);
+                        out.integer(entry.durationMicros);
+                        out.arrayHeader(entry.argv.length);
+                        for (byte[] arg : entry.argv) {
+                            out.bulk(arg);
+                        }
+                        out.bulk(entry.clientAddress);
+                        out.bulk("");
+                    }
+                } else if (args.equalsIgnoreCase(1, "LEN") && args.count() == 2) {
+                    out.integer(slowLog.length());
+                } else if (args.equalsIgnoreCase(1, "RESET") && args.count() == 2) {
+                    slowLog.reset();
+                    out.ok();
+                } else {
+                    return false;
+                }
+            }
+
+            case "LATENCY" -> {
+                if (args.count() < 2 || !args.equalsIgnoreCase(1, "HISTOGRAM")) {
+                    return false;
+                }
+                server.metrics.writeLatencyHistogram(args, out);
+            }
+
+            case "INFO" -> {
+                // INFO and INFO default list the server sections; all and everything add the
+                // per-command sections, which can be long.
+                String section = args.count() >= 2 ? args.string(1).toLowerCase() : "default";
+                String infoContent;
+                if (section.equals("default") || section.equals("all") || section.equals("everything")) {
+                    StringBuilder all = new StringBuilder();
+                    String[] sections = section.equals("default") ? INFO_DEFAULT_SECTIONS : INFO_ALL_SECTIONS;
+                    for (String name : sections) {
+                        if (all.length() > 0) {
+                            all.append("\r\n");
+                        }
+                        all.append(infoSection(name, server));
+                    }
+                    infoContent = all.toString();
+                } else {
+                    infoContent = infoSection(section, server);
+                }
+                if (infoContent == null) {
+                    return false;
+                }
+                out.bulk(infoContent);
+            }
+
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds one section of INFO.
+     * @param section The lower-case section name.
+     * @param server The shared server state.
+     * @return The section, header included, or null if there is no such section.
+     */
+    private static String infoSection(String section, ServerContext server) {
+        Keyspace keyspace = server.keyspace;
+        switch (section) {
+            case "clients" -> {
+                return "# Clients\r\n" + server.metrics.clientsInfo()
+                        + "tracking_clients:" + server.tracking.trackingClients() + "\r\n";
+            }
+            case "replication" -> {
+                // build reponse line by line
+                StringBuilder infoBuilder = new StringBuilder("# Replication\r\n");
+                infoBuilder.append("role:").append(server.role).append("\r\n");
+                if (server.masterLink != null) {
+                    infoBuilder.append(server.masterLink.info());
+                }
+                infoBuilder.append(server.replication.replicasInfo());
+                // only add the replication ID and backlog if the role is master
+                if (server.masterLink == null) {
+                    infoBuilder.append(server.replication.backlogInfo());
+                }
+                return infoBuilder.toString();
+            }
+            case "cluster" -> {
+                return "# Cluster\r\ncluster_enabled:" + (server.cluster != null ? 1 : 0) + "\r\n";
+            }
+            case "keyspace" -> {
+                // db0 summary followed by one line of statistics per keyspace segment.
+                return "# Keyspace\r\ndb0:keys=" + keyspace.size() + ",expires="
+                        + keyspace.expiresSize() + "\r\n" + keyspace.segmentStats();
+            }
+            case "stats" -> {
+                return "# Stats\r\n" + server.metrics.statsInfo() + server.expiryEngine.stats()
+                        + "evicted_keys:" + server.evictor.evictedKeys() + "\r\n" + server.tracking.info()
+                        + server.pubSub.info();
+            }
+            case "persistence" -> {
+                return "# Persistence\r\n" + server.loadProgress.info() + server.rdbSaver.info()
+                        + (server.aof != null ? server.aof.info() : "aof_enabled:0\r\n");
+            }
+            case "memory" -> {
+                // used_memory is the keyspace's own estimate, not the JVM heap, so it is stable under GC.
+                return "# Memory\r\n"
+                        + "used_memory:" + keyspace.usedMemory() + "\r\n"
+                        + "used_memory_human:" + ConfigHandler.formatMemory(keyspace.usedMemory()) + "\r\n"
+                        + "used_memory_heap:" + (Runtime.getRuntime().totalMemory()
+                                - Runtime.getRuntime().freeMemory()) + "\r\n"
+                        + "used_memory_offheap:" + keyspace.offHeapUsed() + "\r\n"
+                        + "offheap_reserved:" + keyspace.offHeapReserved() + "\r\n"
+                        + "offheap_value_threshold:" + keyspace.offHeapThreshold() + "\r\n"
+                        + (server.tiered != null ? server.tiered.info() : "tiered_storage:0\r\n")
+                        + "maxmemory:" + server.evictor.maxMemory() + "\r\n"
+                        + "maxmemory_human:" + ConfigHandler.formatMemory(server.evictor.maxMemory()) + "\r\n"
+                        + "maxmemory_policy:" + server.evictor.policy() + "\r\n"
+                        + "evicted_keys:" + server.evictor.evictedKeys() + "\r\n" + server.scripts.info();
+            }
+            case "commandstats" -> {
+                return "# Commandstats\r\n" + server.metrics.commandStatsInfo();
+            }
+            case "latencystats" -> {
+                return "# Latencystats\r\n" + server.metrics.latencyStatsInfo();
+            }
+            default -> {
+                return null;
             }
         }
     }
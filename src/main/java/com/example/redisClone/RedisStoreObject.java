@@ -1,29 +1,272 @@
 package com.example.redisClone;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.example.redisClone.resp.RespWriter;
+import com.example.redisClone.types.CollectionValue;
+
 /**
  * A wrapper object for values stored in the Redis map.
- * It holds both the string value and its expiration timestamp.
+ * It holds the value bytes in one of a few compact encodings. The expiration time is not kept
+ * here but in the segment's expires dict, like Redis does, so keys without a TTL do not pay for it.
+ *
+ * Encodings (like Redis's OBJ_ENCODING_*):
+ * - RAW: the bytes in a byte[] (one array, no String/char overhead).
+ * - INT: a canonical decimal integer kept as a long, with no array at all; INCR/DECR update it in place.
+ * - OFFHEAP: a slice of a direct buffer from the keyspace's SlabArena, for large values.
+ * - COLLECTION: a list, set, hash or sorted set (see the types package), which picks its own
+ *   compact or large representation.
+ * - TIERED: a string moved to the cold tier (store.SegmentStore), read through a slice of the
+ *   memory-mapped segment file that holds it.
+ * INT and TIERED objects are Numbered, the subclass with a long field; the others are 24 bytes.
  */
 public class RedisStoreObject {
-    String value;
-    long expiration;
+    public static final byte ENCODING_RAW = 0;
+    public static final byte ENCODING_INT = 1;
+    public static final byte ENCODING_OFFHEAP = 2;
+    public static final byte ENCODING_COLLECTION = 3;
+    public static final byte ENCODING_TIERED = 4;
+
+    // Value types, numbered like RdbValue's.
+    public static final byte TYPE_STRING = 0;
+    public static final byte TYPE_LIST = 1;
+    public static final byte TYPE_SET = 2;
+    public static final byte TYPE_HASH = 3;
+    public static final byte TYPE_ZSET = 4;
+
+    public byte type = TYPE_STRING;
+    public final byte encoding;
+    // byte[] for RAW, a direct ByteBuffer (position 0, limit = length) for OFFHEAP, a read-only
+    // mapped ByteBuffer (the same shape) for TIERED, null for INT, the CollectionValue for COLLECTION.
+    public final Object data;
+    // Access metadata for eviction, packed into 24 bits like Redis's robj.lru:
+    // the LRU clock of the last access, or (LFU) 16 bits of decrement time + an 8-bit Morris counter.
+    public int lru;
+
+    /**
+     * An INT value, or a TIERED value and its location: the encodings that need a long.
+     */
+    public static final class Numbered extends RedisStoreObject {
+        // The value of an INT object; the record's location in the SegmentStore for a TIERED one.
+        public long number;
+
+        /**
+         * Constructor for an INT-encoded value.
+         * @param number The integer value.
+         */
+        public Numbered(long number) {
+            super(null, ENCODING_INT);
+            this.number = number;
+        }
+
+        /**
+         * Constructor for a value moved to the cold tier.
+         * @param value A read-only view of the value bytes in its segment file.
+         * @param location The record's location in the SegmentStore.
+         */
+        public Numbered(ByteBuffer value, long location) {
+            super(value, ENCODING_TIERED);
+            this.number = location;
+        }
+
+        @Override
+        public long number() {
+            return number;
+        }
+    }
+
+    private RedisStoreObject(Object data, byte encoding) {
+        this.encoding = encoding;
+        this.data = data;
+    }
+
+    /**
+     * Constructor for a RAW value.
+     * @param value The raw bytes to store.
+     */
+    public RedisStoreObject(byte[] value) {
+        this(value, ENCODING_RAW);
+    }
+
+    /**
+     * Constructor for a value held off-heap.
+     * @param value A direct buffer slice holding exactly the value bytes.
+     */
+    public RedisStoreObject(ByteBuffer value) {
+        this(value, ENCODING_OFFHEAP);
+    }
+
+    /**
+     * Constructor for a collection value.
+     * @param type One of the TYPE_* constants other than TYPE_STRING.
+     * @param value The collection.
+     */
+    public RedisStoreObject(byte type, CollectionValue value) {
+        this(value, ENCODING_COLLECTION);
+        this.type = type;
+    }
+
+    /**
+     * @return The value of an INT object, the location of a TIERED one, or the version of a collection
+     *         (bumped on every change, so a MIGRATE can tell whether the collection it sent was modified
+     *         meanwhile); 0 for the other encodings, which are never changed in place.
+     */
+    public long number() {
+        return encoding == ENCODING_COLLECTION ? collection().version : 0;
+    }
+
+    /**
+     * @return The collection of a list, set, hash or sorted set.
+     */
+    public CollectionValue collection() {
+        return (CollectionValue) data;
+    }
+
+    /**
+     * @return The type name reported by TYPE.
+     */
+    public String typeName() {
+        return switch (type) {
+            case TYPE_LIST -> "list";
+            case TYPE_SET -> "set";
+            case TYPE_ZSET -> "zset";
+            case TYPE_HASH -> "hash";
+            default -> "string";
+        };
+    }
+
+    /**
+     * @return The encoding name reported by OBJECT ENCODING.
+     */
+    public String encodingName() {
+        return switch (encoding) {
+            case ENCODING_INT -> "int";
+            case ENCODING_COLLECTION -> collection().encoding();
+            // Redis embeds strings of up to 44 bytes in the object header.
+            default -> length() <= 44 ? "embstr" : "raw";
+        };
+    }
+
+    /**
+     * Picks the most compact heap encoding: INT when the bytes are the canonical form
+     * of a long (so GET returns exactly what was SET), RAW otherwise.
+     * @param value The raw bytes.
+     */
+    public static RedisStoreObject of(byte[] value) {
+        if (isCanonicalLong(value)) {
+            return new Numbered(parseLong(value));
+        }
+        return new RedisStoreObject(value);
+    }
+
+    /**
+     * @return The length of the value in bytes, as STRLEN would report it.
+     */
+    public int length() {
+        return switch (encoding) {
+            case ENCODING_COLLECTION -> throw new WrongTypeException();
+            case ENCODING_INT -> Long.toString(number()).length();
+            case ENCODING_OFFHEAP, ENCODING_TIERED -> ((ByteBuffer) data).remaining();
+            default -> ((byte[]) data).length;
+        };
+    }
+
+    /**
+     * @return The value bytes. RAW values return their own array, which must not be modified;
+     *         other encodings return a fresh copy.
+     */
+    public byte[] bytes() {
+        switch (encoding) {
+            case ENCODING_COLLECTION:
+                throw new WrongTypeException();
+            case ENCODING_INT:
+                return Long.toString(number()).getBytes(StandardCharsets.US_ASCII);
+            case ENCODING_OFFHEAP:
+            case ENCODING_TIERED:
+                ByteBuffer view = ((ByteBuffer) data).duplicate();
+                byte[] copy = new byte[view.remaining()];
+                view.get(copy);
+                return copy;
+            default:
+                return (byte[]) data;
+        }
+    }
+
+    /**
+     * @return The value as a long, for INCR and friends.
+     * @throws NumberFormatException If the value is not a canonical integer.
+     */
+    public long longValue() {
+        if (encoding == ENCODING_INT) {
+            return number();
+        }
+        if (encoding == ENCODING_COLLECTION) {
+            throw new WrongTypeException();
+        }
+        if (encoding == ENCODING_RAW && isCanonicalLong((byte[]) data)) {
+            return parseLong((byte[]) data);
+        }
+        throw new NumberFormatException("value is not an integer or out of range");
+    }
+
+    /**
+     * Writes the value as a RESP bulk string, straight from its encoding.
+     * @param out The reply writer.
+     */
+    public void writeTo(RespWriter out) {
+        switch (encoding) {
+            case ENCODING_COLLECTION -> throw new WrongTypeException();
+            case ENCODING_INT -> out.bulk(number());
+            case ENCODING_OFFHEAP, ENCODING_TIERED -> out.bulk((ByteBuffer) data);
+            default -> out.bulk((byte[]) data);
+        }
+    }
 
     /**
-     * Constructor for a value that does not expire.
-     * @param value The string value to store.
+     * Checks that the bytes are a long written the way Long.toString would write it:
+     * optional '-', no leading zeros, no "-0", and within range.
      */
-    public RedisStoreObject(String value) {
-        // Use Long.MAX_VALUE to signify that this key never expires.
-        this(value, Long.MAX_VALUE);
+    public static boolean isCanonicalLong(byte[] value) {
+        int length = value.length;
+        if (length == 0 || length > 20) {
+            return false;
+        }
+        int start = value[0] == '-' ? 1 : 0;
+        if (start == length || (value[start] == '0' && (length > 1))) {
+            return false; // "-", leading zeros and "-0".
+        }
+        for (int i = start; i < length; i++) {
+            if (value[i] < '0' || value[i] > '9') {
+                return false;
+            }
+        }
+        if (length - start == 19 || length - start == 20) {
+            // Long enough to overflow: compare against the range limits as strings.
+            String limit = start == 1 ? "9223372036854775808" : "9223372036854775807";
+            if (length - start > limit.length()) {
+                return false;
+            }
+            for (int i = 0; i < limit.length(); i++) {
+                int diff = value[start + i] - limit.charAt(i);
+                if (diff != 0) {
+                    return diff < 0;
+                }
+            }
+        }
+        return true;
     }
 
     /**
-     * Constructor for a value with a specific expiration time.
-     * @param value The string value to store.
-     * @param expiration The expiration time as a Unix timestamp in milliseconds.
+     * Parses bytes already checked by isCanonicalLong.
      */
-    public RedisStoreObject(String value, long expiration) {
-        this.value = value;
-        this.expiration = expiration;
+    private static long parseLong(byte[] value) {
+        boolean negative = value[0] == '-';
+        long result = 0;
+        // Accumulate as a negative number so Long.MIN_VALUE is representable.
+        for (int i = negative ? 1 : 0; i < value.length; i++) {
+            result = result * 10 - (value[i] - '0');
+        }
+        return negative ? result : -result;
     }
-}
\ No newline at end of file
+}
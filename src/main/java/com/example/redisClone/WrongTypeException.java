@@ -0,0 +1,11 @@
+package com.example.redisClone;
+
+/**
+ * Thrown when a command meets a key holding another type of value, for example GET on a list.
+ * The command dispatcher turns it into the WRONGTYPE error.
+ */
+public class WrongTypeException extends RuntimeException {
+    public WrongTypeException() {
+        super("WRONGTYPE Operation against a key holding the wrong kind of value");
+    }
+}
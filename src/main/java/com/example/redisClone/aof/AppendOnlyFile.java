@@ -0,0 +1,544 @@
+package com.example.redisClone.aof;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+import com.example.redisClone.Log;
+import com.example.redisClone.RedisStoreObject;
+import com.example.redisClone.metrics.LatencyHistogram;
+import com.example.redisClone.rdb.LoadProgress;
+import com.example.redisClone.resp.RespArgs;
+import com.example.redisClone.resp.RespBuffer;
+import com.example.redisClone.resp.RespParser;
+import com.example.redisClone.store.Keyspace;
+import com.example.redisClone.store.KeyspaceSnapshot;
+
+/**
+ * The append-only file: every write command, logged in RESP so it can be replayed on startup.
+ *
+ * Commands are appended to an in-memory buffer while they execute, and each event-loop pass
+ * writes the whole buffer with one FileChannel.write before any reply is sent (flush()).
+ * fsync runs on its own thread: with everysec it syncs once a second off the hot path;
+ * with always, flush() waits for a sync that covers its write, and one fsync serves every
+ * reactor waiting at that moment (group commit).
+ *
+ * BGREWRITEAOF compacts the log: a background thread writes one SET per key from a keyspace
+ * snapshot, commands executed meanwhile are collected in a rewrite buffer, and the new file
+ * replaces the old one with an atomic rename.
+ */
+public class AppendOnlyFile {
+    public static final String FSYNC_ALWAYS = "always";
+    public static final String FSYNC_EVERYSEC = "everysec";
+    public static final String FSYNC_NO = "no";
+
+    private static final long FSYNC_INTERVAL_MS = 1000;
+    // The rewrite writes to disk in chunks of this size, and finishes under the lock below this size.
+    private static final int REWRITE_CHUNK = 1024 * 1024;
+    private static final int REWRITE_FINAL_CATCH_UP = 64 * 1024;
+    private static final byte[] SET = "SET".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PXAT = "PXAT".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PEXPIREAT = "PEXPIREAT".getBytes(StandardCharsets.US_ASCII);
+
+    private final File file;
+    private final String fsyncPolicy;
+    private final Keyspace keyspace;
+    private volatile FileChannel channel;
+
+    // Guarded by this: commands not yet written, and (during a rewrite) commands the new file still needs.
+    private final RespBuffer pending = new RespBuffer(64 * 1024);
+    private RespBuffer rewriteBuffer;
+    // Whether pending holds bytes, readable without the lock: the event loop checks it every pass.
+    private volatile boolean hasPending;
+    // Offset in the log of everything written to the OS so far; only grows, across rewrites too.
+    private volatile long writtenOffset;
+    private long currentSize;
+    private long baseSize;
+    // Why the last write or fsync failed, or null once one succeeded; while set, writes are refused.
+    private volatile String lastWriteError;
+    private volatile String lastSyncError;
+    // For write amplification: argument bytes of the logged commands vs. bytes written to AOF files.
+    private long logicalBytes;
+    private long fileBytesWritten;
+
+    // Guarded by syncMonitor: how far the file is known to be on disk, and how far someone waits for.
+    private final Object syncMonitor = new Object();
+    private long syncedOffset;
+    private long syncRequested;
+    private final LatencyHistogram fsyncLatency = new LatencyHistogram();
+
+    // Guarded by this.
+    private boolean rewriteInProgress;
+    private boolean rewriteScheduled;
+    private boolean lastRewriteOk = true;
+    private long rewriteStartMillis;
+    private long lastRewriteMillis = -1;
+    private long rewrites;
+
+    /**
+     * Opens (or creates) the log for appending and starts the fsync thread.
+     * @param file The AOF file.
+     * @param fsyncPolicy One of always, everysec and no.
+     * @param keyspace The keyspace, snapshotted by rewrites.
+     * @throws IOException If the file cannot be opened.
+     */
+    public AppendOnlyFile(File file, String fsyncPolicy, Keyspace keyspace) throws IOException {
+        if (!fsyncPolicy.equals(FSYNC_ALWAYS) && !fsyncPolicy.equals(FSYNC_EVERYSEC) && !fsyncPolicy.equals(FSYNC_NO)) {
+            throw new IllegalArgumentException("Invalid appendfsync: " + fsyncPolicy);
+        }
+        this.file = file;
+        this.fsyncPolicy = fsyncPolicy;
+        this.keyspace = keyspace;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.currentSize = channel.size();
+        this.baseSize = currentSize;
+        if (!fsyncPolicy.equals(FSYNC_NO)) {
+            Thread fsyncThread = new Thread(this::fsyncLoop, "aof-fsync");
+            fsyncThread.setDaemon(true);
+            fsyncThread.start();
+        }
+    }
+
+    /**
+     * Logs a write command exactly as it was received.
+     */
+    public synchronized void append(RespArgs args) {
+        int start = pending.length();
+        pending.arrayHeader(args.count());
+        for (int i = 0; i < args.count(); i++) {
+            args.writeBulk(i, pending);
+            logicalBytes += args.length(i);
+        }
+        hasPending = true;
+        copyToRewriteBuffer(start);
+    }
+
+    /**
+     * Logs a write command given as its arguments, for commands that are logged in a
+     * different form than they were received (e.g. SET ... PX as SET ... PXAT).
+     */
+    public synchronized void append(byte[]... argv) {
+        int start = pending.length();
+        pending.arrayHeader(argv.length);
+        for (byte[] arg : argv) {
+            pending.bulk(arg);
+            logicalBytes += arg.length;
+        }
+        hasPending = true;
+        copyToRewriteBuffer(start);
+    }
+
+    private void copyToRewriteBuffer(int start) {
+        if (rewriteBuffer != null) {
+            rewriteBuffer.write(pending.array(), start, pending.length() - start);
+        }
+    }
+
+    /**
+     * Writes the buffered commands with a single write, and with appendfsync always waits
+     * until they are on disk. Called once per event-loop pass, before replies are sent.
+     * @throws IOException If the write fails; unwritten commands stay buffered for the next try.
+     */
+    public void flush() throws IOException {
+        long target;
+        synchronized (this) {
+            if (pending.length() > 0) {
+                ByteBuffer out = ByteBuffer.wrap(pending.array(), 0, pending.length());
+                try {
+                    while (out.hasRemaining()) {
+                        channel.write(out);
+                    }
+                    lastWriteError = null;
+                } catch (IOException e) {
+                    lastWriteError = String.valueOf(e.getMessage());
+                    throw e;
+                } finally {
+                    int written = out.position();
+                    pending.discard(written);
+                    hasPending = pending.length() > 0;
+                    writtenOffset += written;
+                    currentSize += written;
+                    fileBytesWritten += written;
+                }
+            }
+            target = writtenOffset;
+        }
+        if (fsyncPolicy.equals(FSYNC_ALWAYS)) {
+            waitForSync(target);
+        }
+    }
+
+    /**
+     * @return Why the log could not be written or synced, or null if it is healthy. Write commands are
+     *         refused with MISCONF while this is set: a retried write (serverCron) or fsync clears it.
+     */
+    public String writeError() {
+        String error = lastWriteError;
+        return error != null ? error : lastSyncError;
+    }
+
+    /**
+     * @return true if commands were appended but not yet written. Cheap enough to check on every pass.
+     */
+    public boolean hasPending() {
+        return hasPending;
+    }
+
+    /**
+     * @return true if commands are buffered because the last write failed, and flush should be retried.
+     */
+    public boolean writeFailed() {
+        return lastWriteError != null;
+    }
+
+    /**
+     * Asks the fsync thread for a sync covering offset, and waits for it.
+     */
+    private void waitForSync(long offset) {
+        synchronized (syncMonitor) {
+            if (syncedOffset >= offset) {
+                return;
+            }
+            syncRequested = Math.max(syncRequested, offset);
+            syncMonitor.notifyAll();
+            while (syncedOffset < offset) {
+                try {
+                    syncMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * The fsync thread: syncs when a flush asks for it (always) or once a second if
+     * anything was written (everysec). Every waiter covered by a sync is released together.
+     * After a failed fsync it tries again every second, until one succeeds.
+     */
+    private void fsyncLoop() {
+        long lastSync = System.currentTimeMillis();
+        while (true) {
+            synchronized (syncMonitor) {
+                while (true) {
+                    long now = System.currentTimeMillis();
+                    if (syncRequested > syncedOffset) {
+                        break;
+                    }
+                    long elapsed = now - lastSync;
+                    if ((lastSyncError != null || fsyncPolicy.equals(FSYNC_EVERYSEC) && writtenOffset > syncedOffset)
+                            && elapsed >= FSYNC_INTERVAL_MS) {
+                        break;
+                    }
+                    try {
+                        syncMonitor.wait(Math.max(1, FSYNC_INTERVAL_MS - elapsed));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            long target = writtenOffset;
+            long startNanos = System.nanoTime();
+            try {
+                channel.force(false);
+                lastSyncError = null;
+            } catch (ClosedChannelException e) {
+                // Replaced by a rewrite, which syncs the new file before installing it.
+                lastSyncError = null;
+            } catch (IOException e) {
+                if (lastSyncError == null) {
+                    Log.info("Error syncing the append only file: " + e.getMessage());
+                }
+                lastSyncError = String.valueOf(e.getMessage());
+            }
+            fsyncLatency.record(System.nanoTime() - startNanos);
+            lastSync = System.currentTimeMillis();
+            synchronized (syncMonitor) {
+                syncedOffset = Math.max(syncedOffset, target);
+                syncMonitor.notifyAll();
+            }
+        }
+    }
+
+    public synchronized boolean rewriteInProgress() {
+        return rewriteInProgress;
+    }
+
+    /**
+     * Starts a background rewrite (BGREWRITEAOF). The caller must hold the execution write lock,
+     * so the snapshot and the start of the rewrite buffer are the same point in time.
+     * @return true if it started, false if it was scheduled because another snapshot is running.
+     * @throws IllegalStateException If a rewrite is already in progress.
+     */
+    public synchronized boolean startRewrite() {
+        if (rewriteInProgress) {
+            throw new IllegalStateException("Background append only file rewriting already in progress");
+        }
+        if (keyspace.snapshotActive()) {
+            rewriteScheduled = true; // Started by cron once the running save ends.
+            return false;
+        }
+        rewriteScheduled = false;
+        KeyspaceSnapshot snapshot = keyspace.beginSnapshot();
+        rewriteBuffer = new RespBuffer(64 * 1024);
+        rewriteInProgress = true;
+        rewriteStartMillis = System.currentTimeMillis();
+        Thread rewriter = new Thread(() -> rewrite(snapshot), "aof-rewrite");
+        rewriter.setDaemon(true);
+        rewriter.start();
+        Log.info("Background append only file rewriting started");
+        return true;
+    }
+
+    /**
+     * Checks for a scheduled rewrite, or a log that has grown enough since the last one
+     * (auto-aof-rewrite-percentage / auto-aof-rewrite-min-size). For serverCron.
+     */
+    public synchronized boolean shouldRewrite(int growthPercentage, long minSize) {
+        if (rewriteInProgress || keyspace.snapshotActive()) {
+            return false;
+        }
+        if (rewriteScheduled) {
+            return true;
+        }
+        if (growthPercentage <= 0 || currentSize < minSize) {
+            return false;
+        }
+        long base = Math.max(baseSize, 1);
+        return (currentSize - base) * 100 / base >= growthPercentage;
+    }
+
+    /**
+     * The rewrite thread: snapshot to a temporary file, then the commands that arrived meanwhile,
+     * then the rename.
+     */
+    private void rewrite(KeyspaceSnapshot snapshot) {
+        File temp = new File(file.getAbsoluteFile().getParentFile(),
+                "temp-rewriteaof-" + ProcessHandle.current().pid() + ".aof");
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            RespBuffer buffer = new RespBuffer(REWRITE_CHUNK + 64 * 1024);
+            try {
+                for (int i = 0; i < snapshot.segmentCount(); i++) {
+                    KeyspaceSnapshot.Image image = snapshot.take(i);
+                    for (int j = 0; j < image.size; j++) {
+                        writeSet(buffer, image.keys[j], image.values[j], image.numbers[j], image.expirations[j]);
+                        if (buffer.length() >= REWRITE_CHUNK) {
+                            writeFully(out, buffer);
+                        }
+                    }
+                }
+            } finally {
+                snapshot.release();
+            }
+            writeFully(out, buffer);
+
+            // Catch up with the commands executed during the rewrite, without blocking writers,
+            // until what is left is small enough to finish under the lock.
+            while (true) {
+                synchronized (this) {
+                    if (rewriteBuffer.length() < REWRITE_FINAL_CATCH_UP) {
+                        break;
+                    }
+                    buffer.write(rewriteBuffer.array(), 0, rewriteBuffer.length());
+                    rewriteBuffer.clear();
+                }
+                writeFully(out, buffer);
+            }
+            // The bulk of the file goes to disk, and the channel that will replace the log is opened,
+            // before taking the lock: writers then wait only for the small tail below and the rename.
+            out.force(true);
+            FileChannel next = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            FileChannel old;
+            try {
+                synchronized (this) {
+                    buffer.write(rewriteBuffer.array(), 0, rewriteBuffer.length());
+                    writeFully(next, buffer);
+                    next.force(false); // Only the tail is not on disk yet.
+                    long size = next.size();
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                    // next still refers to the same file, now under the log's name.
+                    old = channel;
+                    channel = next;
+                    // Everything still pending is in the snapshot or the rewrite buffer, both now in the file.
+                    pending.clear();
+                    hasPending = false;
+                    rewriteBuffer = null;
+                    currentSize = size;
+                    baseSize = size;
+                    fileBytesWritten += size;
+                    rewriteInProgress = false;
+                    lastRewriteOk = true;
+                    lastRewriteMillis = System.currentTimeMillis() - rewriteStartMillis;
+                    rewrites++;
+                }
+            } catch (IOException e) {
+                next.close();
+                throw e;
+            }
+            old.close();
+            synchronized (syncMonitor) {
+                syncedOffset = Math.max(syncedOffset, writtenOffset); // The new file was synced above.
+                syncMonitor.notifyAll();
+            }
+            Log.info("Background AOF rewrite terminated with success");
+        } catch (IOException e) {
+            Log.info("Background AOF rewrite error: " + e.getMessage());
+            try {
+                Files.deleteIfExists(temp.toPath());
+            } catch (IOException ignored) {
+                // Nothing more to do; the old file is still in use.
+            }
+            synchronized (this) {
+                rewriteBuffer = null;
+                rewriteInProgress = false;
+                lastRewriteOk = false;
+                lastRewriteMillis = System.currentTimeMillis() - rewriteStartMillis;
+            }
+        }
+    }
+
+    /**
+     * Writes one key as the commands that recreate it: a SET for a string, or batches of
+     * RPUSH, SADD, HSET or ZADD for a collection, followed by PEXPIREAT if it has a TTL.
+     */
+    private static void writeSet(RespBuffer out, String key, RedisStoreObject value, long number, long expiration) {
+        if (value.encoding == RedisStoreObject.ENCODING_COLLECTION) {
+            byte[] keyBytes = key.getBytes(StandardCharsets.ISO_8859_1);
+            for (byte[][] argv : value.collection().rewriteCommands(keyBytes)) {
+                out.arrayHeader(argv.length);
+                for (byte[] arg : argv) {
+                    out.bulk(arg);
+                }
+            }
+            if (expiration != Long.MAX_VALUE) {
+                out.arrayHeader(3);
+                out.bulk(PEXPIREAT);
+                out.bulk(keyBytes);
+                out.bulk(expiration);
+            }
+            return;
+        }
+        out.arrayHeader(expiration != Long.MAX_VALUE ? 5 : 3);
+        out.bulk(SET);
+        out.bulk(key);
+        switch (value.encoding) {
+            case RedisStoreObject.ENCODING_INT -> out.bulk(number);
+            case RedisStoreObject.ENCODING_OFFHEAP, RedisStoreObject.ENCODING_TIERED -> out.bulk((ByteBuffer) value.data);
+            default -> out.bulk((byte[]) value.data);
+        }
+        if (expiration != Long.MAX_VALUE) {
+            out.bulk(PXAT);
+            out.bulk(expiration);
+        }
+    }
+
+    private static void writeFully(FileChannel out, RespBuffer buffer) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(buffer.array(), 0, buffer.length());
+        while (data.hasRemaining()) {
+            out.write(data);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Formats the aof_* fields of INFO persistence, including the fsync latency histogram
+     * and the write amplification (bytes written to AOF files per byte of command arguments).
+     */
+    public String info() {
+        StringBuilder info = new StringBuilder();
+        synchronized (this) {
+            info.append("aof_enabled:1\r\n")
+                    .append("aof_fsync_policy:").append(fsyncPolicy).append("\r\n")
+                    .append("aof_rewrite_in_progress:").append(rewriteInProgress ? 1 : 0).append("\r\n")
+                    .append("aof_rewrite_scheduled:").append(rewriteScheduled ? 1 : 0).append("\r\n")
+                    .append("aof_last_rewrite_time_sec:")
+                    .append(lastRewriteMillis < 0 ? -1 : lastRewriteMillis / 1000).append("\r\n")
+                    .append("aof_current_rewrite_time_sec:")
+                    .append(rewriteInProgress ? (System.currentTimeMillis() - rewriteStartMillis) / 1000 : -1)
+                    .append("\r\n")
+                    .append("aof_last_bgrewrite_status:").append(lastRewriteOk ? "ok" : "err").append("\r\n")
+                    .append("aof_rewrites:").append(rewrites).append("\r\n")
+                    .append("aof_last_write_status:").append(lastWriteError == null ? "ok" : "err").append("\r\n")
+                    .append("aof_current_size:").append(currentSize).append("\r\n")
+                    .append("aof_base_size:").append(baseSize).append("\r\n")
+                    .append("aof_buffer_length:").append(pending.length()).append("\r\n")
+                    .append("aof_rewrite_buffer_length:")
+                    .append(rewriteBuffer == null ? 0 : rewriteBuffer.length()).append("\r\n")
+                    .append("aof_logical_bytes:").append(logicalBytes).append("\r\n")
+                    .append("aof_written_bytes:").append(fileBytesWritten).append("\r\n")
+                    .append("aof_write_amplification:")
+                    .append(String.format("%.2f", logicalBytes == 0 ? 0.0 : fileBytesWritten / (double) logicalBytes))
+                    .append("\r\n");
+        }
+        info.append("aof_fsyncs:").append(fsyncLatency.count()).append("\r\n")
+                .append("aof_fsync_latency_p50_usec:").append(fsyncLatency.percentile(50)).append("\r\n")
+                .append("aof_fsync_latency_p99_usec:").append(fsyncLatency.percentile(99)).append("\r\n")
+                .append("aof_fsync_latency_p999_usec:").append(fsyncLatency.percentile(99.9)).append("\r\n")
+                .append("aof_fsync_histogram_usec:").append(fsyncLatency.buckets()).append("\r\n");
+        return info.toString();
+    }
+
+    /**
+     * Replays the commands of an AOF file. A truncated last command (a crash in the middle of
+     * a write) is dropped and cut off the file, like Redis with aof-load-truncated yes.
+     * @param file The AOF file.
+     * @param executor Runs one command; the arguments are only valid during the call.
+     * @param progress Updated with the file size and the bytes replayed, or null.
+     * @return The number of commands replayed.
+     * @throws IOException If the file cannot be read or is not valid RESP.
+     */
+    public static long replay(File file, Consumer<RespArgs> executor, LoadProgress progress) throws IOException {
+        long commands = 0;
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (progress != null) {
+                progress.setTotalBytes(in.size());
+            }
+            RespParser parser = new RespParser();
+            ByteBuffer buffer = ByteBuffer.allocate(REWRITE_CHUNK);
+            buffer.flip();
+            // File offset of buffer index 0, so the end of the last complete command is known.
+            long bufferStart = 0;
+            while (true) {
+                RespArgs args;
+                while ((args = parser.parse(buffer)) != null) {
+                    executor.accept(args);
+                    commands++;
+                }
+                // Keep the partial command, growing the buffer if it does not fit.
+                bufferStart += buffer.position();
+                if (progress != null) {
+                    progress.update(bufferStart);
+                }
+                buffer.compact();
+                if (parser.pendingFrameSize() > buffer.capacity()) {
+                    ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, parser.pendingFrameSize()));
+                    buffer.flip();
+                    bigger.put(buffer);
+                    buffer = bigger;
+                }
+                int read = in.read(buffer);
+                buffer.flip();
+                if (read == -1) {
+                    break;
+                }
+            }
+            if (buffer.hasRemaining()) {
+                Log.info("Truncating " + buffer.remaining()
+                        + " bytes of an incomplete command at the end of the append only file");
+                in.truncate(bufferStart);
+            }
+        }
+        return commands;
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.redisClone.bench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small redis-benchmark: for each test, `clients` connections share `requests` commands,
+ * sent in batches of `pipeline`, and the run reports throughput and the latency distribution.
+ * A request's latency is the round trip of the batch it was sent in, as in redis-benchmark.
+ * Every latency is kept and sorted, so the percentiles are exact rather than bucketed.
+ *
+ * Usage: java -cp codecrafters-redis.jar com.example.redisClone.bench.LoadGenerator
+ *        [host] [port] [clients] [requests] [pipeline] [tests] [data size] [keyspace]
+ * Tests are a comma-separated list of PING, SET, GET, INCR, LPUSH, LPOP, SADD, HSET and ZADD.
+ * Keys are drawn at random from `keyspace` distinct keys (0 uses one key for everything).
+ */
+public class LoadGenerator {
+    private static final String DEFAULT_TESTS = "PING,SET,GET,INCR,LPUSH,LPOP,SADD,HSET,ZADD";
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 6379;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        long requests = args.length > 3 ? Long.parseLong(args[3]) : 100_000;
+        int pipeline = args.length > 4 ? Math.max(1, Integer.parseInt(args[4])) : 1;
+        String[] tests = (args.length > 5 ? args[5] : DEFAULT_TESTS).toUpperCase().split(",");
+        int dataSize = args.length > 6 ? Integer.parseInt(args[6]) : 3;
+        int keyspace = args.length > 7 ? Integer.parseInt(args[7]) : 100_000;
+
+        System.out.printf("clients=%d requests=%d pipeline=%d data=%d bytes keyspace=%d%n",
+                clients, requests, pipeline, dataSize, keyspace);
+        System.out.printf("%-8s %12s %10s %10s %10s %10s %10s%n",
+                "test", "ops/sec", "avg(ms)", "p50(ms)", "p99(ms)", "p999(ms)", "max(ms)");
+        byte[] value = "x".repeat(dataSize).getBytes(StandardCharsets.US_ASCII);
+        for (String test : tests) {
+            run(host, port, clients, requests, pipeline, test.trim(), value, keyspace);
+        }
+    }
+
+    /**
+     * Runs one test to completion and prints its line of the report.
+     */
+    private static void run(String host, int port, int clients, long requests, int pipeline, String test,
+            byte[] value, int keyspace) throws InterruptedException {
+        AtomicLong claimed = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        long[][] latencies = new long[clients][];
+        int[] counts = new int[clients];
+        Thread[] threads = new Thread[clients];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            int client = i;
+            threads[i] = new Thread(() -> {
+                long[] samples = new long[1024];
+                int samplesCount = 0;
+                try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port))) {
+                    channel.socket().setTcpNoDelay(true);
+                    ByteBuffer batch = ByteBuffer.allocate(pipeline * (96 + value.length));
+                    ByteBuffer replies = ByteBuffer.allocate(64 * 1024);
+                    while (true) {
+                        // Claim the next batch of the shared request budget.
+                        long first = claimed.getAndAdd(pipeline);
+                        if (first >= requests) {
+                            break;
+                        }
+                        int size = (int) Math.min(pipeline, requests - first);
+                        batch.clear();
+                        for (int n = 0; n < size; n++) {
+                            encode(batch, test, value, keyspace);
+                        }
+                        batch.flip();
+
+                        long sent = System.nanoTime();
+                        while (batch.hasRemaining()) {
+                            channel.write(batch);
+                        }
+                        int pending = size;
+                        while (pending > 0) {
+                            if (channel.read(replies) == -1) {
+                                throw new IOException("Server closed the connection");
+                            }
+                            replies.flip();
+                            int[] replyErrors = { 0 };
+                            pending -= consumeReplies(replies, replyErrors);
+                            errors.addAndGet(replyErrors[0]);
+                            replies.compact();
+                            if (!replies.hasRemaining()) {
+                                // One reply is bigger than the buffer (a huge bulk): grow it.
+                                replies = ByteBuffer.allocate(replies.capacity() * 2).put(replies.flip());
+                            }
+                        }
+                        long elapsed = System.nanoTime() - sent;
+
+                        if (samplesCount + size > samples.length) {
+                            samples = Arrays.copyOf(samples, Math.max(samples.length * 2, samplesCount + size));
+                        }
+                        Arrays.fill(samples, samplesCount, samplesCount + size, elapsed);
+                        samplesCount += size;
+                    }
+                } catch (IOException e) {
+                    System.out.println("Client failed: " + e.getMessage());
+                }
+                latencies[client] = samples;
+                counts[client] = samplesCount;
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long nanos = System.nanoTime() - start;
+
+        // Merge every client's samples for exact percentiles.
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (int i = 0; i < clients; i++) {
+            System.arraycopy(latencies[i], 0, all, offset, counts[i]);
+            offset += counts[i];
+        }
+        Arrays.sort(all);
+        long sum = 0;
+        for (long sample : all) {
+            sum += sample;
+        }
+        double opsPerSec = total / (nanos / 1e9);
+        System.out.printf("%-8s %12.0f %10.3f %10.3f %10.3f %10.3f %10.3f%s%n", test, opsPerSec,
+                total == 0 ? 0 : sum / (double) total / 1e6, percentile(all, 50) / 1e6, percentile(all, 99) / 1e6,
+                percentile(all, 99.9) / 1e6, total == 0 ? 0 : all[total - 1] / 1e6,
+                errors.get() > 0 ? "  (" + errors.get() + " errors)" : "");
+    }
+
+    /**
+     * @param sorted Samples in ascending order.
+     * @return The nearest-rank percentile, or 0 if there are no samples.
+     */
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(sorted.length * percentile / 100.0);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * Appends one command of the test to the batch, with a random key (or member) from the keyspace.
+     */
+    private static void encode(ByteBuffer batch, String test, byte[] value, int keyspace) {
+        String random = String.format("%012d", keyspace > 0 ? ThreadLocalRandom.current().nextInt(keyspace) : 0);
+        switch (test) {
+            case "PING" -> command(batch, "PING");
+            case "SET" -> command(batch, "SET", "key:" + random, value);
+            case "GET" -> command(batch, "GET", "key:" + random);
+            case "INCR" -> command(batch, "INCR", "counter:" + random);
+            case "LPUSH" -> command(batch, "LPUSH", "mylist", value);
+            case "LPOP" -> command(batch, "LPOP", "mylist");
+            case "SADD" -> command(batch, "SADD", "myset", "element:" + random);
+            case "HSET" -> command(batch, "HSET", "myhash", "element:" + random, value);
+            case "ZADD" -> command(batch, "ZADD", "myzset", Integer.toString(ThreadLocalRandom.current().nextInt(1000)),
+                    "element:" + random);
+            default -> throw new IllegalArgumentException("Unknown test: " + test);
+        }
+    }
+
+    /**
+     * Encodes a command as a RESP array of bulk strings; arguments are Strings or byte[].
+     */
+    private static void command(ByteBuffer batch, Object... argv) {
+        batch.put(("*" + argv.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        for (Object arg : argv) {
+            byte[] bytes = arg instanceof byte[] b ? b : ((String) arg).getBytes(StandardCharsets.US_ASCII);
+            batch.put(("$" + bytes.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            batch.put(bytes);
+            batch.put((byte) '\r').put((byte) '\n');
+        }
+    }
+
+    /**
+     * Consumes the complete replies at the start of the buffer; a partial one is left in place.
+     * @param errors Incremented for each error reply.
+     * @return The number of replies consumed.
+     */
+    private static int consumeReplies(ByteBuffer replies, int[] errors) {
+        int count = 0;
+        while (true) {
+            int end = replyEnd(replies, replies.position());
+            if (end == -1) {
+                return count;
+            }
+            if (replies.get(replies.position()) == '-') {
+                errors[0]++;
+            }
+            replies.position(end);
+            count++;
+        }
+    }
+
+    /**
+     * @return The index just past the reply starting at start, or -1 if it is not complete yet.
+     */
+    private static int replyEnd(ByteBuffer buffer, int start) {
+        int lineEnd = lineEnd(buffer, start);
+        if (lineEnd == -1) {
+            return -1;
+        }
+        byte type = buffer.get(start);
+        if (type != '$' && type != '*') {
+            return lineEnd; // +simple, -error and :integer are a single line.
+        }
+        long length = Long.parseLong(StandardCharsets.US_ASCII.decode(
+                buffer.duplicate().position(start + 1).limit(lineEnd - 2)).toString());
+        if (length < 0) {
+            return lineEnd; // Null bulk or null array.
+        }
+        if (type == '$') {
+            long end = lineEnd + length + 2;
+            return end <= buffer.limit() ? (int) end : -1;
+        }
+        int position = lineEnd;
+        for (long i = 0; i < length; i++) {
+            position = replyEnd(buffer, position);
+            if (position == -1) {
+                return -1;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * @return The index just past the CRLF of the line starting at start, or -1 if there is none yet.
+     */
+    private static int lineEnd(ByteBuffer buffer, int start) {
+        for (int i = start; i + 1 < buffer.limit(); i++) {
+            if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n') {
+                return i + 2;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.redisClone.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.example.redisClone.store.Keyspace;
+
+/**
+ * Measures heap bytes per key for N keys, comparing the original layout
+ * (HashMap of String keys to a String value plus expiry) with the Keyspace and its
+ * value encodings. Two value shapes are loaded: short strings and integers.
+ *
+ * The heap is measured after forcing GC, so run it with a heap large enough for N keys
+ * and nothing else going on: -Xmx4g is enough for the default of 10 million keys of 16 bytes.
+ *
+ * Usage: java -Xmx4g -cp codecrafters-redis.jar com.example.redisClone.bench.MemoryBenchmark
+ *        [keys] [value size]
+ */
+public class MemoryBenchmark {
+    /**
+     * The value holder used before values were stored as encoded bytes.
+     */
+    static final class LegacyValue {
+        final String value;
+        final long expiration;
+
+        LegacyValue(String value, long expiration) {
+            this.value = value;
+            this.expiration = expiration;
+        }
+    }
+
+    public static void main(String[] args) {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int valueSize = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        String padding = "x".repeat(valueSize);
+
+        for (boolean numeric : new boolean[] { false, true }) {
+            String shape = numeric ? "integer values" : valueSize + "-byte values";
+
+            long before = usedHeap();
+            Map<String, LegacyValue> legacy = new HashMap<>();
+            for (int i = 0; i < keys; i++) {
+                String value = numeric ? Integer.toString(i) : valueOf(padding, i);
+                legacy.put("key:" + i, new LegacyValue(value, Long.MAX_VALUE));
+            }
+            long legacyBytes = usedHeap() - before;
+            report("HashMap<String,String>", shape, keys, legacyBytes, legacy.size());
+            legacy = null;
+
+            before = usedHeap();
+            Keyspace keyspace = new Keyspace();
+            for (int i = 0; i < keys; i++) {
+                String value = numeric ? Integer.toString(i) : valueOf(padding, i);
+                keyspace.put("key:" + i, keyspace.createValue(value.getBytes(StandardCharsets.ISO_8859_1)),
+                        Long.MAX_VALUE);
+            }
+            long keyspaceBytes = usedHeap() - before;
+            report("Keyspace", shape, keys, keyspaceBytes, keyspace.size());
+            System.out.printf("  estimated used_memory: %.1f bytes/key%n", keyspace.usedMemory() / (double) keys);
+            keyspace = null;
+        }
+    }
+
+    /**
+     * @return A value of the requested size that differs per key.
+     */
+    private static String valueOf(String padding, int i) {
+        String suffix = Integer.toString(i);
+        return padding.substring(Math.min(suffix.length(), padding.length())) + suffix;
+    }
+
+    private static void report(String layout, String shape, int keys, long bytes, int size) {
+        System.out.printf("%-24s %-16s keys=%d heap=%dMB %.1f bytes/key%n", layout, shape, size,
+                bytes / (1024 * 1024), bytes / (double) keys);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
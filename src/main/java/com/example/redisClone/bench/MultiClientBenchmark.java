@@ -0,0 +1,49 @@
+package com.example.redisClone.bench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures aggregate SET throughput from many concurrent clients.
+ * Run it against servers started with --io-threads 1, 2, ... N to see how the
+ * reactor threads scale across cores.
+ *
+ * Usage: java -cp codecrafters-redis.jar com.example.redisClone.bench.MultiClientBenchmark
+ *        [host] [port] [clients] [pipeline depth] [seconds]
+ */
+public class MultiClientBenchmark {
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 6379;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int depth = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+
+        AtomicLong totalOps = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        Thread[] threads = new Thread[clients];
+        for (int i = 0; i < clients; i++) {
+            threads[i] = new Thread(() -> {
+                try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port))) {
+                    channel.socket().setTcpNoDelay(true);
+                    long ops = 0;
+                    while (System.nanoTime() < deadline) {
+                        PipelineBenchmark.run(channel, depth, depth);
+                        ops += depth;
+                    }
+                    totalOps.addAndGet(ops);
+                } catch (IOException e) {
+                    System.out.println("Client failed: " + e.getMessage());
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.printf("clients=%d depth=%d ops=%d ops/sec=%.0f%n", clients, depth, totalOps.get(),
+                totalOps.get() / (double) seconds);
+    }
+}
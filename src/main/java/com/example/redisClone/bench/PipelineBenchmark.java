@@ -0,0 +1,69 @@
+package com.example.redisClone.bench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures SET throughput against a running server at several pipeline depths.
+ * Each round sends `depth` commands in one write and then waits for all `depth` replies.
+ *
+ * Usage: java -cp codecrafters-redis.jar com.example.redisClone.bench.PipelineBenchmark [host] [port] [ops]
+ */
+public class PipelineBenchmark {
+    private static final int[] DEPTHS = { 1, 16, 128, 1024 };
+    private static final byte[] OK_REPLY = "+OK\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws IOException {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 6379;
+        int ops = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port))) {
+            channel.socket().setTcpNoDelay(true);
+            run(channel, 16, ops / 10); // Warm-up so the JIT has compiled the server's hot paths.
+            System.out.printf("%-8s %12s %12s%n", "depth", "ops", "ops/sec");
+            for (int depth : DEPTHS) {
+                long nanos = run(channel, depth, ops);
+                double opsPerSec = ops / (nanos / 1e9);
+                System.out.printf("%-8d %12d %12.0f%n", depth, ops, opsPerSec);
+            }
+        }
+    }
+
+    /**
+     * Sends `ops` SET commands in batches of `depth` and waits for every reply.
+     * @return The elapsed time in nanoseconds.
+     */
+    public static long run(SocketChannel channel, int depth, int ops) throws IOException {
+        // Pre-encode one batch so the client side costs as little as possible.
+        ByteBuffer batch = ByteBuffer.allocate(depth * 64);
+        for (int i = 0; i < depth; i++) {
+            String key = "bench:" + (i % 1000);
+            batch.put(("*3\r\n$3\r\nSET\r\n$" + key.length() + "\r\n" + key + "\r\n$5\r\nvalue\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+        }
+        batch.flip();
+        ByteBuffer replies = ByteBuffer.allocate(depth * OK_REPLY.length);
+
+        long start = System.nanoTime();
+        for (int sent = 0; sent < ops; sent += depth) {
+            batch.rewind();
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            replies.clear();
+            while (replies.hasRemaining()) {
+                if (channel.read(replies) == -1) {
+                    throw new IOException("Server closed the connection");
+                }
+            }
+            if (replies.get(0) != OK_REPLY[0]) {
+                throw new IOException("Unexpected reply from server");
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.redisClone.bench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Measures Pub/Sub fan-out: one publisher sends `messages` PUBLISHes, one at a time, to a channel
+ * with `subscribers` subscribers (10k by default), and the run reports how many messages per
+ * second reached subscribers and how long each PUBLISH took to reach all of them.
+ *
+ * Every subscriber socket is served by one Selector on the main thread, so 10k subscribers need
+ * 10k file descriptors here (and as many on the server), not 10k threads. Messages all have the
+ * same size, so a subscriber's k-th message ends at a known offset of its stream and the payload
+ * never has to be parsed.
+ *
+ * Usage: java -cp codecrafters-redis.jar com.example.redisClone.bench.PubSubFanoutBenchmark
+ *        [host] [port] [subscribers] [messages] [data size]
+ */
+public class PubSubFanoutBenchmark {
+    private static final String CHANNEL = "bench:fanout";
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 6379;
+        int subscribers = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+        int messages = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+        int dataSize = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+
+        byte[] payload = "x".repeat(dataSize).getBytes(StandardCharsets.US_ASCII);
+        int frameSize = ("*3\r\n$7\r\nmessage\r\n$" + CHANNEL.length() + "\r\n" + CHANNEL + "\r\n$" + dataSize
+                + "\r\n").length() + dataSize + 2;
+        System.out.printf("subscribers=%d messages=%d data=%d bytes%n", subscribers, messages, dataSize);
+
+        // --- Subscribe ---
+        Selector selector = Selector.open();
+        long[] received = new long[subscribers];
+        byte[] subscribe = command("SUBSCRIBE", CHANNEL);
+        int confirmationSize = ("*3\r\n$9\r\nsubscribe\r\n$" + CHANNEL.length() + "\r\n" + CHANNEL + "\r\n:1\r\n")
+                .length();
+        long start = System.nanoTime();
+        for (int i = 0; i < subscribers; i++) {
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+            channel.write(ByteBuffer.wrap(subscribe));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, i);
+            // The confirmation counts as "message -1", so message k ends at (k + 1) * frameSize after it.
+            received[i] = -confirmationSize;
+        }
+        ByteBuffer scratch = ByteBuffer.allocateDirect(256 * 1024);
+        while (!allReached(received, 0)) {
+            readReady(selector, scratch, received, frameSize, null);
+        }
+        System.out.printf("subscribed in %.0f ms%n", (System.nanoTime() - start) / 1e6);
+
+        // --- Publish ---
+        // The publisher runs on its own thread; this one drains the subscribers meanwhile.
+        long[] sent = new long[messages];
+        long[] delivered = new long[messages];
+        Thread publisher = new Thread(() -> {
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port))) {
+                channel.socket().setTcpNoDelay(true);
+                byte[] publish = command("PUBLISH", CHANNEL, new String(payload, StandardCharsets.US_ASCII));
+                ByteBuffer reply = ByteBuffer.allocate(64);
+                for (int k = 0; k < messages; k++) {
+                    sent[k] = System.nanoTime();
+                    channel.write(ByteBuffer.wrap(publish));
+                    reply.clear();
+                    do {
+                        channel.read(reply); // ":<receivers>\r\n"
+                    } while (reply.position() < 2 || reply.get(reply.position() - 1) != '\n');
+                }
+            } catch (IOException e) {
+                System.out.println("Publisher failed: " + e.getMessage());
+            }
+        });
+        start = System.nanoTime();
+        publisher.start();
+        while (!allReached(received, (long) messages * frameSize)) {
+            readReady(selector, scratch, received, frameSize, delivered);
+        }
+        long elapsed = System.nanoTime() - start;
+        publisher.join();
+
+        long[] fanout = new long[messages];
+        for (int k = 0; k < messages; k++) {
+            fanout[k] = delivered[k] - sent[k];
+        }
+        Arrays.sort(fanout);
+        long deliveries = (long) subscribers * messages;
+        System.out.printf("%12s %12s %10s %10s %10s %10s%n", "publish/sec", "deliver/sec", "p50(ms)", "p99(ms)",
+                "p999(ms)", "max(ms)");
+        System.out.printf("%12.0f %12.0f %10.3f %10.3f %10.3f %10.3f%n", messages / (elapsed / 1e9),
+                deliveries / (elapsed / 1e9), percentile(fanout, 50) / 1e6, percentile(fanout, 99) / 1e6,
+                percentile(fanout, 99.9) / 1e6, fanout[messages - 1] / 1e6);
+        selector.close();
+    }
+
+    /**
+     * Reads whatever the ready subscribers have, recording when each message reached its last subscriber.
+     */
+    private static void readReady(Selector selector, ByteBuffer scratch, long[] received, int frameSize,
+            long[] delivered) throws IOException {
+        selector.select(1000);
+        long now = System.nanoTime();
+        for (SelectionKey key : selector.selectedKeys()) {
+            int subscriber = (Integer) key.attachment();
+            scratch.clear();
+            int n = ((SocketChannel) key.channel()).read(scratch);
+            if (n < 0) {
+                throw new IOException("Subscriber " + subscriber + " was disconnected");
+            }
+            long before = received[subscriber];
+            received[subscriber] += n;
+            if (delivered != null && received[subscriber] > 0) {
+                // Every message completed by this read: the latest completion of each is its fan-out time.
+                long first = Math.max(0, before) / frameSize;
+                long last = received[subscriber] / frameSize;
+                for (long k = first; k < last && k < delivered.length; k++) {
+                    delivered[(int) k] = Math.max(delivered[(int) k], now);
+                }
+            }
+        }
+        selector.selectedKeys().clear();
+    }
+
+    private static boolean allReached(long[] received, long target) {
+        for (long bytes : received) {
+            if (bytes < target) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] command(String... parts) {
+        StringBuilder out = new StringBuilder("*").append(parts.length).append("\r\n");
+        for (String part : parts) {
+            out.append('$').append(part.length()).append("\r\n").append(part).append("\r\n");
+        }
+        return out.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return The nearest-rank percentile of sorted samples.
+     */
+    private static long percentile(long[] sorted, double percentile) {
+        int rank = (int) Math.ceil(sorted.length * percentile / 100.0);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.redisClone.cluster;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.example.redisClone.Log;
+import com.example.redisClone.resp.RespArgs;
+import com.example.redisClone.resp.RespBuffer;
+import com.example.redisClone.resp.RespParser;
+
+/**
+ * The cluster bus: a background thread that exchanges gossip with every known node once per
+ * period, and contacts the addresses given to CLUSTER MEET.
+ *
+ * Unlike Redis, which listens on a separate port with a binary protocol, the bus uses the
+ * client port: a gossip message is the command "CLUSTER GOSSIP field...", and the receiver
+ * answers with its own gossip in the same shape (see ClusterState.gossip()). Links are kept
+ * open between rounds and use blocking I/O, so the event loops only ever see one more command.
+ */
+public class ClusterBus implements Runnable {
+    private static final long PERIOD_MS = 1000;
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+    private static final int READ_TIMEOUT_MS = 2000;
+
+    private final ClusterState state;
+    private final long nodeTimeoutMs;
+    // Open links by node id, used by this thread only.
+    private final Map<String, Link> links = new HashMap<>();
+
+    /**
+     * A connection to another node, with the buffer and parser for its replies.
+     */
+    private static class Link implements AutoCloseable {
+        final Socket socket;
+        final InputStream in;
+        final RespParser parser = new RespParser();
+        ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+
+        Link(String host, int port) throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+                socket.setSoTimeout(READ_TIMEOUT_MS);
+                socket.setTcpNoDelay(true);
+                in = socket.getInputStream();
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            buffer.flip(); // Read mode, empty.
+        }
+
+        /**
+         * Sends our gossip and reads the other node's gossip.
+         * @return The reply fields.
+         */
+        List<String> exchange(List<String> gossip) throws IOException {
+            RespBuffer request = new RespBuffer(4096);
+            request.arrayHeader(gossip.size() + 2);
+            request.bulk("CLUSTER");
+            request.bulk("GOSSIP");
+            for (String field : gossip) {
+                request.bulk(field);
+            }
+            socket.getOutputStream().write(request.array(), 0, request.length());
+            while (true) {
+                RespArgs reply = parser.parse(buffer);
+                if (reply != null) {
+                    List<String> fields = new ArrayList<>(reply.count());
+                    for (int i = 0; i < reply.count(); i++) {
+                        fields.add(reply.string(i));
+                    }
+                    if (fields.size() < 5) {
+                        throw new IOException("Unexpected gossip reply: " + fields);
+                    }
+                    return fields;
+                }
+                buffer.compact();
+                if (!buffer.hasRemaining()) {
+                    ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    bigger.put(buffer);
+                    buffer = bigger;
+                }
+                int read = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                if (read == -1) {
+                    throw new IOException("Connection closed by node");
+                }
+                buffer.position(buffer.position() + read);
+                buffer.flip();
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Dropping the link anyway.
+            }
+        }
+    }
+
+    /**
+     * @param state The cluster state to announce and update.
+     * @param nodeTimeoutMs After this long without an answer a node is flagged as failing.
+     */
+    public ClusterBus(ClusterState state, long nodeTimeoutMs) {
+        this.state = state;
+        this.nodeTimeoutMs = nodeTimeoutMs;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                Thread.sleep(PERIOD_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (String[] address : state.takePendingMeets()) {
+                meet(address[0], Integer.parseInt(address[1]));
+            }
+            for (ClusterNode node : state.nodes()) {
+                if (!node.myself) {
+                    ping(node);
+                }
+            }
+            // Links of forgotten nodes.
+            links.entrySet().removeIf(entry -> {
+                if (state.node(entry.getKey()) == null) {
+                    entry.getValue().close();
+                    return true;
+                }
+                return false;
+            });
+        }
+    }
+
+    private void meet(String host, int port) {
+        try (Link link = new Link(host, port)) {
+            ClusterNode node = state.receiveGossip(link.exchange(state.gossip()), host);
+            Log.info("Cluster MEET with " + host + ":" + port + " done: node " + node.id);
+        } catch (IOException | RuntimeException e) {
+            Log.info("Cluster MEET with " + host + ":" + port + " failed: " + e.getMessage());
+        }
+    }
+
+    private void ping(ClusterNode node) {
+        long now = System.currentTimeMillis();
+        Link link = links.get(node.id);
+        try {
+            if (link == null) {
+                link = new Link(node.host, node.port);
+                links.put(node.id, link);
+            }
+            node.pingSentMillis = now;
+            state.receiveGossip(link.exchange(state.gossip()), node.host);
+            node.pingSentMillis = 0;
+        } catch (IOException | RuntimeException e) {
+            if (link != null) {
+                link.close();
+                links.remove(node.id);
+            }
+            if (!node.failing && now - node.pongReceivedMillis > nodeTimeoutMs) {
+                node.failing = true;
+                Log.info("Cluster node " + node.id + " " + node.host + ":" + node.port
+                        + " is not answering: " + e.getMessage());
+            }
+        }
+    }
+}
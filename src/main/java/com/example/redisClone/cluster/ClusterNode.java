@@ -0,0 +1,44 @@
+package com.example.redisClone.cluster;
+
+/**
+ * One node of the cluster as this server knows it: its identity, address, the config epoch
+ * that ranks its slot claims, and when the cluster bus last heard from it.
+ * Addresses and timestamps are updated by the cluster bus thread and read by reactors.
+ */
+public class ClusterNode {
+    public final String id;
+    public volatile String host;
+    public volatile int port;
+    // A claim on a slot made with a higher config epoch wins (Redis's configEpoch).
+    public volatile long configEpoch;
+    public final boolean myself;
+    // When the last gossip exchange with the node failed and succeeded (0 = never).
+    public volatile long pingSentMillis;
+    public volatile long pongReceivedMillis;
+    // True while the node has not answered for longer than the node timeout (PFAIL).
+    public volatile boolean failing;
+
+    public ClusterNode(String id, String host, int port, boolean myself) {
+        this.id = id;
+        this.host = host;
+        this.port = port;
+        this.myself = myself;
+    }
+
+    /**
+     * @return The flags column of CLUSTER NODES.
+     */
+    public String flags() {
+        if (myself) {
+            return "myself,master";
+        }
+        return failing ? "master,fail?" : "master";
+    }
+
+    /**
+     * @return "host:port@busport" as printed by CLUSTER NODES; the bus shares the data port.
+     */
+    public String address() {
+        return host + ":" + port + "@" + port;
+    }
+}
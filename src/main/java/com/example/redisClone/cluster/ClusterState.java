@@ -0,0 +1,600 @@
+package com.example.redisClone.cluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.example.redisClone.Log;
+import com.example.redisClone.resp.RespWriter;
+
+/**
+ * This server's view of the cluster (--cluster-enabled yes): the known nodes, which node serves
+ * each of the 16384 hash slots, and the slots being migrated away or imported.
+ *
+ * Reactors read the slot tables on every command without locking; every change goes through a
+ * synchronized method and is persisted to the cluster config file (nodes.conf) before it returns,
+ * so a restarted node comes back with the same identity and slots.
+ *
+ * Slot ownership spreads by gossip (see ClusterBus): a node announces the slots it serves together
+ * with its config epoch, and a claim with a higher epoch replaces an older one, as in Redis Cluster.
+ * There are no replicas and no failover: a failing node is only flagged.
+ */
+public class ClusterState {
+    private final File configFile;
+    private ClusterNode myself;
+    private final Map<String, ClusterNode> nodes = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<ClusterNode> owners = new AtomicReferenceArray<>(HashSlot.SLOTS);
+    // Set on the source node while a slot moves away, and on the target while it receives it.
+    private final AtomicReferenceArray<ClusterNode> migrating = new AtomicReferenceArray<>(HashSlot.SLOTS);
+    private final AtomicReferenceArray<ClusterNode> importing = new AtomicReferenceArray<>(HashSlot.SLOTS);
+    private volatile long currentEpoch;
+    // Addresses given to CLUSTER MEET that the cluster bus has not reached yet.
+    private final List<String[]> pendingMeets = new ArrayList<>();
+
+    /**
+     * Loads the cluster config file, or creates a new node identity if there is none.
+     * @param configFile The cluster config file (dir + cluster-config-file).
+     * @param host The address announced to other nodes.
+     * @param port Our client port, which also carries the cluster bus.
+     */
+    public ClusterState(File configFile, String host, int port) throws IOException {
+        this.configFile = configFile;
+        if (configFile.exists()) {
+            load(host, port);
+            Log.info("Cluster config loaded: node " + myself.id + ", " + nodes.size() + " known nodes");
+        } else {
+            myself = new ClusterNode(randomNodeId(), host, port, true);
+            nodes.put(myself.id, myself);
+            save();
+            Log.info("No cluster configuration found, I'm " + myself.id);
+        }
+    }
+
+    private static String randomNodeId() {
+        byte[] bytes = new byte[20];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder id = new StringBuilder();
+        for (byte b : bytes) {
+            id.append(String.format("%02x", b));
+        }
+        return id.toString();
+    }
+
+    public ClusterNode myself() {
+        return myself;
+    }
+
+    /**
+     * @return The node serving the slot, or null if the slot is unassigned.
+     */
+    public ClusterNode owner(int slot) {
+        return owners.get(slot);
+    }
+
+    /**
+     * @return The node the slot is being migrated to, or null.
+     */
+    public ClusterNode migratingTo(int slot) {
+        return migrating.get(slot);
+    }
+
+    /**
+     * @return The node the slot is being imported from, or null.
+     */
+    public ClusterNode importingFrom(int slot) {
+        return importing.get(slot);
+    }
+
+    public ClusterNode node(String id) {
+        return nodes.get(id);
+    }
+
+    public Collection<ClusterNode> nodes() {
+        return nodes.values();
+    }
+
+    public long currentEpoch() {
+        return currentEpoch;
+    }
+
+    // --- Slot assignment (CLUSTER ADDSLOTS / DELSLOTS / SETSLOT) ---
+
+    /**
+     * Assigns unassigned slots to this node.
+     * @throws IllegalArgumentException If a slot is already served by a node.
+     */
+    public synchronized void addSlots(int[] slots) throws IOException {
+        for (int slot : slots) {
+            if (owners.get(slot) != null) {
+                throw new IllegalArgumentException("Slot " + slot + " is already busy");
+            }
+        }
+        for (int slot : slots) {
+            owners.set(slot, myself);
+            importing.set(slot, null);
+        }
+        if (myself.configEpoch == 0) {
+            // A fresh node needs an epoch for its claims to win over nobody's; collisions are
+            // resolved by gossip.
+            bumpEpoch();
+        }
+        save();
+    }
+
+    /**
+     * Marks slots as unassigned, on this node only.
+     * @throws IllegalArgumentException If a slot is already unassigned.
+     */
+    public synchronized void delSlots(int[] slots) throws IOException {
+        for (int slot : slots) {
+            if (owners.get(slot) == null) {
+                throw new IllegalArgumentException("Slot " + slot + " is already unassigned");
+            }
+        }
+        for (int slot : slots) {
+            owners.set(slot, null);
+            migrating.set(slot, null);
+            importing.set(slot, null);
+        }
+        save();
+    }
+
+    /**
+     * CLUSTER SETSLOT slot MIGRATING node: keys of the slot that are still here are served here;
+     * clients asking for other keys are sent to the target with -ASK.
+     */
+    public synchronized void setMigrating(int slot, String nodeId) throws IOException {
+        if (owners.get(slot) != myself) {
+            throw new IllegalArgumentException("I'm not the owner of hash slot " + slot);
+        }
+        migrating.set(slot, knownNode(nodeId));
+        save();
+    }
+
+    /**
+     * CLUSTER SETSLOT slot IMPORTING node: clients sent here with -ASK (and ASKING) are served.
+     */
+    public synchronized void setImporting(int slot, String nodeId) throws IOException {
+        if (owners.get(slot) == myself) {
+            throw new IllegalArgumentException("I'm already the owner of hash slot " + slot);
+        }
+        importing.set(slot, knownNode(nodeId));
+        save();
+    }
+
+    /**
+     * CLUSTER SETSLOT slot STABLE: clears the migrating or importing state.
+     */
+    public synchronized void setStable(int slot) throws IOException {
+        migrating.set(slot, null);
+        importing.set(slot, null);
+        save();
+    }
+
+    /**
+     * CLUSTER SETSLOT slot NODE node: assigns the slot, ending a migration. When the slot is given
+     * to this node, the epoch is bumped so the new ownership wins over the old owner's claim.
+     * @param keysInSlot How many keys of the slot this node still holds.
+     */
+    public synchronized void setNode(int slot, String nodeId, int keysInSlot) throws IOException {
+        ClusterNode node = knownNode(nodeId);
+        if (owners.get(slot) == myself && node != myself && keysInSlot > 0) {
+            throw new IllegalArgumentException("Can't assign hashslot " + slot
+                    + " to a different node while I still hold keys for this hash slot.");
+        }
+        if (node != myself) {
+            migrating.set(slot, null);
+        }
+        if (node == myself && importing.get(slot) != null) {
+            importing.set(slot, null);
+            if (owners.get(slot) != myself) {
+                bumpEpoch();
+            }
+        }
+        owners.set(slot, node);
+        save();
+    }
+
+    private ClusterNode knownNode(String nodeId) {
+        ClusterNode node = nodes.get(nodeId);
+        if (node == null) {
+            throw new IllegalArgumentException("I don't know about node " + nodeId);
+        }
+        return node;
+    }
+
+    private void bumpEpoch() {
+        currentEpoch++;
+        myself.configEpoch = currentEpoch;
+    }
+
+    /**
+     * CLUSTER FORGET: drops a node and its slot claims from this node's view.
+     */
+    public synchronized void forget(String nodeId) throws IOException {
+        ClusterNode node = knownNode(nodeId);
+        if (node == myself) {
+            throw new IllegalArgumentException("I tried hard but I can't forget myself...");
+        }
+        nodes.remove(nodeId);
+        for (int slot = 0; slot < HashSlot.SLOTS; slot++) {
+            owners.compareAndSet(slot, node, null);
+            migrating.compareAndSet(slot, node, null);
+            importing.compareAndSet(slot, node, null);
+        }
+        save();
+    }
+
+    // --- Gossip ---
+
+    /**
+     * Queues a CLUSTER MEET; the cluster bus contacts the address on its next round.
+     */
+    public void meet(String host, int port) {
+        synchronized (pendingMeets) {
+            pendingMeets.add(new String[] { host, String.valueOf(port) });
+        }
+    }
+
+    List<String[]> takePendingMeets() {
+        synchronized (pendingMeets) {
+            List<String[]> meets = new ArrayList<>(pendingMeets);
+            pendingMeets.clear();
+            return meets;
+        }
+    }
+
+    /**
+     * Builds our gossip message: id, port, config epoch, current epoch, the slots we serve
+     * ("0-99,200" or "-") and then id, host and port of every other node we know.
+     */
+    public synchronized List<String> gossip() {
+        List<String> fields = new ArrayList<>();
+        fields.add(myself.id);
+        fields.add(String.valueOf(myself.port));
+        fields.add(String.valueOf(myself.configEpoch));
+        fields.add(String.valueOf(currentEpoch));
+        String ranges = slotRanges(myself, ",");
+        fields.add(ranges.isEmpty() ? "-" : ranges);
+        for (ClusterNode node : nodes.values()) {
+            if (node != myself) {
+                fields.add(node.id);
+                fields.add(node.host);
+                fields.add(String.valueOf(node.port));
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Applies a gossip message received from another node (see gossip()).
+     * @param fields The message fields.
+     * @param senderHost The sender's address, as seen on the socket.
+     * @return The sender.
+     */
+    public synchronized ClusterNode receiveGossip(List<String> fields, String senderHost) throws IOException {
+        String id = fields.get(0);
+        int port = Integer.parseInt(fields.get(1));
+        long senderConfigEpoch = Long.parseLong(fields.get(2));
+        long senderCurrentEpoch = Long.parseLong(fields.get(3));
+        boolean changed = false;
+
+        ClusterNode sender = nodes.get(id);
+        if (sender == null) {
+            sender = new ClusterNode(id, senderHost, port, false);
+            nodes.put(id, sender);
+            Log.info("Cluster node added: " + id + " " + senderHost + ":" + port);
+            changed = true;
+        } else if (sender == myself) {
+            return myself; // Our own message, from a MEET of our own address.
+        } else if (!sender.host.equals(senderHost) || sender.port != port) {
+            sender.host = senderHost;
+            sender.port = port;
+            changed = true;
+        }
+        sender.pongReceivedMillis = System.currentTimeMillis();
+        sender.failing = false;
+        if (sender.configEpoch != senderConfigEpoch) {
+            sender.configEpoch = senderConfigEpoch;
+            changed = true;
+        }
+        if (senderCurrentEpoch > currentEpoch) {
+            currentEpoch = senderCurrentEpoch;
+            changed = true;
+        }
+        // Two nodes with one config epoch would claim slots with equal rank: the node with the
+        // greater id moves to a new epoch (Redis's clusterHandleConfigEpochCollision).
+        if (senderConfigEpoch == myself.configEpoch && senderConfigEpoch > 0 && myself.id.compareTo(id) > 0) {
+            bumpEpoch();
+            Log.info("Config epoch collision with " + id + ": my config epoch is now " + currentEpoch);
+            changed = true;
+        }
+
+        if (!fields.get(4).equals("-")) {
+            for (String range : fields.get(4).split(",")) {
+                int dash = range.indexOf('-');
+                int first = Integer.parseInt(dash == -1 ? range : range.substring(0, dash));
+                int last = dash == -1 ? first : Integer.parseInt(range.substring(dash + 1));
+                for (int slot = first; slot <= last; slot++) {
+                    ClusterNode owner = owners.get(slot);
+                    if (owner == sender || importing.get(slot) != null) {
+                        continue; // Nothing new, or the slot is being moved here by hand.
+                    }
+                    if (owner == null || owner.configEpoch < senderConfigEpoch) {
+                        owners.set(slot, sender);
+                        if (owner == myself) {
+                            migrating.set(slot, null);
+                        }
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        // Nodes the sender knows and we do not yet: start gossiping with them too.
+        for (int i = 5; i + 2 < fields.size(); i += 3) {
+            String nodeId = fields.get(i);
+            if (!nodes.containsKey(nodeId)) {
+                ClusterNode node = new ClusterNode(nodeId, fields.get(i + 1), Integer.parseInt(fields.get(i + 2)),
+                        false);
+                nodes.put(nodeId, node);
+                Log.info("Cluster node added: " + nodeId + " " + node.host + ":" + node.port);
+                changed = true;
+            }
+        }
+        if (changed) {
+            save();
+        }
+        return sender;
+    }
+
+    // --- Introspection (CLUSTER INFO / NODES / SLOTS / SHARDS) ---
+
+    /**
+     * @return The CLUSTER INFO text.
+     */
+    public String info() {
+        int assigned = 0;
+        int pfail = 0;
+        for (int slot = 0; slot < HashSlot.SLOTS; slot++) {
+            ClusterNode owner = owners.get(slot);
+            if (owner != null) {
+                assigned++;
+                if (owner.failing) {
+                    pfail++;
+                }
+            }
+        }
+        int size = 0;
+        for (ClusterNode node : nodes.values()) {
+            if (!slotRanges(node, ",").isEmpty()) {
+                size++;
+            }
+        }
+        return "cluster_enabled:1\r\n"
+                + "cluster_state:" + (assigned == HashSlot.SLOTS ? "ok" : "fail") + "\r\n"
+                + "cluster_slots_assigned:" + assigned + "\r\n"
+                + "cluster_slots_ok:" + (assigned - pfail) + "\r\n"
+                + "cluster_slots_pfail:" + pfail + "\r\n"
+                + "cluster_slots_fail:0\r\n"
+                + "cluster_known_nodes:" + nodes.size() + "\r\n"
+                + "cluster_size:" + size + "\r\n"
+                + "cluster_current_epoch:" + currentEpoch + "\r\n"
+                + "cluster_my_epoch:" + myself.configEpoch + "\r\n";
+    }
+
+    /**
+     * @return The CLUSTER NODES text, which is also the format of the cluster config file.
+     */
+    public String nodesInfo() {
+        StringBuilder text = new StringBuilder();
+        for (ClusterNode node : nodes.values()) {
+            text.append(node.id).append(' ').append(node.address()).append(' ').append(node.flags())
+                    .append(" - ").append(node.pingSentMillis).append(' ').append(node.pongReceivedMillis)
+                    .append(' ').append(node.configEpoch).append(node.failing ? " disconnected" : " connected");
+            String ranges = slotRanges(node, " ");
+            if (!ranges.isEmpty()) {
+                text.append(' ').append(ranges);
+            }
+            if (node == myself) {
+                for (int slot = 0; slot < HashSlot.SLOTS; slot++) {
+                    ClusterNode target = migrating.get(slot);
+                    ClusterNode source = importing.get(slot);
+                    if (target != null) {
+                        text.append(" [").append(slot).append("->-").append(target.id).append(']');
+                    }
+                    if (source != null) {
+                        text.append(" [").append(slot).append("-<-").append(source.id).append(']');
+                    }
+                }
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Writes the CLUSTER SLOTS reply: one [first, last, [host, port, id]] entry per slot range.
+     */
+    public void writeSlots(RespWriter out) {
+        List<int[]> ranges = new ArrayList<>();
+        List<ClusterNode> rangeOwners = new ArrayList<>();
+        forEachRange((node, first, last) -> {
+            ranges.add(new int[] { first, last });
+            rangeOwners.add(node);
+        });
+        out.arrayHeader(ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            ClusterNode node = rangeOwners.get(i);
+            out.arrayHeader(3);
+            out.integer(ranges.get(i)[0]);
+            out.integer(ranges.get(i)[1]);
+            out.arrayHeader(3);
+            out.bulk(node.host);
+            out.integer(node.port);
+            out.bulk(node.id);
+        }
+    }
+
+    /**
+     * Writes the CLUSTER SHARDS reply: one shard per node, with its slot ranges and the node itself.
+     */
+    public void writeShards(RespWriter out) {
+        Collection<ClusterNode> all = nodes.values();
+        out.arrayHeader(all.size());
+        for (ClusterNode node : all) {
+            List<Integer> bounds = new ArrayList<>();
+            forEachRange((owner, first, last) -> {
+                if (owner == node) {
+                    bounds.add(first);
+                    bounds.add(last);
+                }
+            });
+            out.arrayHeader(4);
+            out.bulk("slots");
+            out.arrayHeader(bounds.size());
+            for (int bound : bounds) {
+                out.integer(bound);
+            }
+            out.bulk("nodes");
+            out.arrayHeader(1);
+            out.arrayHeader(14);
+            out.bulk("id");
+            out.bulk(node.id);
+            out.bulk("port");
+            out.integer(node.port);
+            out.bulk("ip");
+            out.bulk(node.host);
+            out.bulk("endpoint");
+            out.bulk(node.host);
+            out.bulk("role");
+            out.bulk("master");
+            out.bulk("replication-offset");
+            out.integer(0);
+            out.bulk("health");
+            out.bulk(node.failing ? "fail" : "online");
+        }
+    }
+
+    private interface RangeConsumer {
+        void accept(ClusterNode owner, int first, int last);
+    }
+
+    /**
+     * Calls consumer for every maximal run of consecutive slots served by one node.
+     */
+    private void forEachRange(RangeConsumer consumer) {
+        int slot = 0;
+        while (slot < HashSlot.SLOTS) {
+            ClusterNode owner = owners.get(slot);
+            int first = slot;
+            while (slot + 1 < HashSlot.SLOTS && owners.get(slot + 1) == owner) {
+                slot++;
+            }
+            if (owner != null) {
+                consumer.accept(owner, first, slot);
+            }
+            slot++;
+        }
+    }
+
+    /**
+     * @return The node's slots as ranges ("0-99" or "200"), joined by separator; "" if it has none.
+     */
+    private String slotRanges(ClusterNode node, String separator) {
+        StringBuilder ranges = new StringBuilder();
+        forEachRange((owner, first, last) -> {
+            if (owner == node) {
+                if (ranges.length() > 0) {
+                    ranges.append(separator);
+                }
+                ranges.append(first);
+                if (last > first) {
+                    ranges.append('-').append(last);
+                }
+            }
+        });
+        return ranges.toString();
+    }
+
+    // --- Cluster config file ---
+
+    /**
+     * Writes the cluster config file: the CLUSTER NODES lines and the epoch, replacing the old
+     * file atomically so a crash never leaves a half-written configuration.
+     */
+    private void save() throws IOException {
+        String content = nodesInfo() + "vars currentEpoch " + currentEpoch + " lastVoteEpoch 0\n";
+        File temp = new File(configFile.getParentFile(), "temp-" + configFile.getName());
+        Files.write(temp.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp.toPath(), configFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void load(String host, int port) throws IOException {
+        List<String> lines = Files.readAllLines(configFile.toPath(), StandardCharsets.UTF_8);
+        // First pass: the nodes, so slot lines can refer to any of them.
+        for (String line : lines) {
+            String[] fields = line.trim().split(" ");
+            if (fields.length < 8) {
+                continue;
+            }
+            String address = fields[1].substring(0, fields[1].indexOf('@'));
+            int colon = address.lastIndexOf(':');
+            boolean isMyself = fields[2].contains("myself");
+            ClusterNode node = new ClusterNode(fields[0], isMyself ? host : address.substring(0, colon),
+                    isMyself ? port : Integer.parseInt(address.substring(colon + 1)), isMyself);
+            node.configEpoch = Long.parseLong(fields[6]);
+            nodes.put(node.id, node);
+            if (isMyself) {
+                myself = node;
+            }
+        }
+        if (myself == null) {
+            throw new IOException("Invalid cluster config file " + configFile + ": no myself node");
+        }
+        for (String line : lines) {
+            String[] fields = line.trim().split(" ");
+            if (fields.length >= 2 && fields[0].equals("vars")) {
+                for (int i = 1; i + 1 < fields.length; i += 2) {
+                    if (fields[i].equals("currentEpoch")) {
+                        currentEpoch = Long.parseLong(fields[i + 1]);
+                    }
+                }
+                continue;
+            }
+            if (fields.length < 8) {
+                continue;
+            }
+            ClusterNode node = nodes.get(fields[0]);
+            for (int i = 8; i < fields.length; i++) {
+                String token = fields[i];
+                if (token.startsWith("[")) {
+                    // [slot->-target] or [slot-<-source]
+                    boolean out = token.contains("->-");
+                    String[] parts = token.substring(1, token.length() - 1).split(out ? "->-" : "-<-");
+                    ClusterNode other = nodes.get(parts[1]);
+                    if (other != null) {
+                        (out ? migrating : importing).set(Integer.parseInt(parts[0]), other);
+                    }
+                    continue;
+                }
+                int dash = token.indexOf('-');
+                int first = Integer.parseInt(dash == -1 ? token : token.substring(0, dash));
+                int last = dash == -1 ? first : Integer.parseInt(token.substring(dash + 1));
+                for (int slot = first; slot <= last; slot++) {
+                    owners.set(slot, node);
+                }
+            }
+        }
+    }
+}
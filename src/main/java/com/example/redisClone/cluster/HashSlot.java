@@ -0,0 +1,52 @@
+package com.example.redisClone.cluster;
+
+/**
+ * Maps keys to the 16384 hash slots of Redis Cluster: CRC16 (XMODEM) of the key, modulo 16384.
+ * If the key contains a non-empty hash tag ("{...}"), only the tag is hashed, so related keys
+ * such as "{user:1}:name" and "{user:1}:age" land in the same slot.
+ */
+public class HashSlot {
+    public static final int SLOTS = 16384;
+
+    private static final int[] TABLE = new int[256];
+
+    static {
+        // CRC16-CCITT (XMODEM): polynomial 0x1021, initial value 0.
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    /**
+     * @param key A key; every char is one byte (ISO-8859-1), as the keyspace stores them.
+     * @return The key's hash slot.
+     */
+    public static int of(String key) {
+        int start = 0;
+        int end = key.length();
+        int open = key.indexOf('{');
+        if (open != -1) {
+            int close = key.indexOf('}', open + 1);
+            if (close > open + 1) { // "{}" is not a tag: the whole key is hashed.
+                start = open + 1;
+                end = close;
+            }
+        }
+        return crc16(key, start, end) & (SLOTS - 1);
+    }
+
+    /**
+     * CRC16 of chars [start, end) of s, each taken as one byte.
+     */
+    public static int crc16(String s, int start, int end) {
+        int crc = 0;
+        for (int i = start; i < end; i++) {
+            crc = ((crc << 8) ^ TABLE[((crc >>> 8) ^ s.charAt(i)) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+}
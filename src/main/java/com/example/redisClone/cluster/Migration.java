@@ -0,0 +1,215 @@
+package com.example.redisClone.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+
+import com.example.redisClone.Main;
+import com.example.redisClone.RedisStoreObject;
+import com.example.redisClone.resp.RespBuffer;
+import com.example.redisClone.server.ServerContext;
+
+/**
+ * One MIGRATE command: copies keys to another node and deletes them here.
+ *
+ * It runs on its own thread while the client that sent MIGRATE is blocked, so the event loops keep
+ * serving other clients during the transfer. Keys are sent in batches, each batch as one pipelined
+ * write of "ASKING" + "SET key value [PXAT ms]" pairs, and the replies are read back together.
+ * A collection is sent as DEL followed by the commands that rebuild it (RPUSH, SADD, HSET or ZADD
+ * batches, then PEXPIREAT), each preceded by ASKING.
+ * A key is deleted here only if it still holds the value that was sent; a key written to while its
+ * batch was in flight is sent again, so a concurrent write is never lost.
+ */
+public class Migration implements Runnable {
+    private static final int BATCH_SIZE = 100;
+    // How often keys that keep changing are sent again before MIGRATE gives up.
+    private static final int MAX_ATTEMPTS = 10;
+    private static final byte[] DEL = "DEL".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PEXPIREAT = "PEXPIREAT".getBytes(StandardCharsets.US_ASCII);
+
+    private final ServerContext server;
+    private final String host;
+    private final int port;
+    private final int timeoutMs;
+    private final boolean copy;
+    private final List<String> keys;
+    // Receives the reply: "+OK", "+NOKEY" or an error line, without CRLF.
+    private final Consumer<String> done;
+
+    /**
+     * @param server The shared server state.
+     * @param host The target node's host.
+     * @param port The target node's port.
+     * @param timeoutMs The I/O timeout for the target connection.
+     * @param copy true to keep the keys here (MIGRATE COPY).
+     * @param keys The keys to move.
+     * @param done Called on the migration thread with the reply line.
+     */
+    public Migration(ServerContext server, String host, int port, int timeoutMs, boolean copy, List<String> keys,
+            Consumer<String> done) {
+        this.server = server;
+        this.host = host;
+        this.port = port;
+        this.timeoutMs = timeoutMs;
+        this.copy = copy;
+        this.keys = keys;
+        this.done = done;
+    }
+
+    @Override
+    public void run() {
+        String reply;
+        try {
+            reply = migrate();
+        } catch (IOException e) {
+            reply = "-IOERR error or timeout reading to target instance: " + e.getMessage();
+        }
+        done.accept(reply);
+    }
+
+    private String migrate() throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), timeoutMs);
+            socket.setSoTimeout(timeoutMs);
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+
+            boolean anyKey = false;
+            List<String> pending = keys;
+            for (int attempt = 0; attempt < MAX_ATTEMPTS && !pending.isEmpty(); attempt++) {
+                List<String> changed = new ArrayList<>();
+                for (int start = 0; start < pending.size(); start += BATCH_SIZE) {
+                    List<String> batch = pending.subList(start, Math.min(start + BATCH_SIZE, pending.size()));
+                    List<String> sentKeys = new ArrayList<>(batch.size());
+                    List<RedisStoreObject> sentValues = new ArrayList<>(batch.size());
+                    List<Long> sentNumbers = new ArrayList<>(batch.size());
+                    RespBuffer request = new RespBuffer(64 * 1024);
+                    int replies = 0;
+                    // Values are copied under the read lock: off-heap slices are only recycled under the write lock.
+                    server.executionLock.readLock().lock();
+                    try {
+                        long now = server.clock.millis();
+                        for (String key : batch) {
+                            RedisStoreObject value = server.keyspace.get(key, now);
+                            if (value == null) {
+                                continue; // Missing or expired: nothing to move.
+                            }
+                            long number;
+                            if (value.encoding == RedisStoreObject.ENCODING_COLLECTION) {
+                                // Collections change in place: read it and its version under the key lock.
+                                List<byte[][]> commands = new ArrayList<>();
+                                Lock keyLock = server.keyspace.keyLock(key);
+                                keyLock.lock();
+                                try {
+                                    number = value.number();
+                                    long expiration = server.keyspace.expiration(key);
+                                    byte[] keyBytes = key.getBytes(StandardCharsets.ISO_8859_1);
+                                    commands.add(new byte[][] { DEL, keyBytes });
+                                    commands.addAll(value.collection().rewriteCommands(keyBytes));
+                                    if (expiration != Long.MAX_VALUE) {
+                                        commands.add(new byte[][] { PEXPIREAT, keyBytes,
+                                                Long.toString(expiration).getBytes(StandardCharsets.US_ASCII) });
+                                    }
+                                } finally {
+                                    keyLock.unlock();
+                                }
+                                for (byte[][] argv : commands) {
+                                    replies += asking(request);
+                                    request.arrayHeader(argv.length);
+                                    for (byte[] arg : argv) {
+                                        request.bulk(arg);
+                                    }
+                                    replies++;
+                                }
+                            } else {
+                                number = value.number();
+                                byte[] bytes = value.bytes();
+                                long expiration = server.keyspace.expiration(key);
+                                replies += asking(request);
+                                boolean expires = expiration != Long.MAX_VALUE;
+                                request.arrayHeader(expires ? 5 : 3);
+                                request.bulk("SET");
+                                request.bulk(key);
+                                request.bulk(bytes);
+                                if (expires) {
+                                    request.bulk("PXAT");
+                                    request.bulk(expiration);
+                                }
+                                replies++;
+                            }
+                            sentKeys.add(key);
+                            sentValues.add(value);
+                            sentNumbers.add(number);
+                        }
+                    } finally {
+                        server.executionLock.readLock().unlock();
+                    }
+                    if (sentKeys.isEmpty()) {
+                        continue;
+                    }
+                    anyKey = true;
+                    out.write(request.array(), 0, request.length());
+                    out.flush();
+                    for (int i = 0; i < replies; i++) {
+                        String line = readLine(in);
+                        if (line.startsWith("-")) {
+                            return "-ERR Target instance replied with error: " + line.substring(1);
+                        }
+                    }
+                    if (copy) {
+                        continue;
+                    }
+                    for (int i = 0; i < sentKeys.size(); i++) {
+                        if (!Main.removeMigratedKey(server, sentKeys.get(i), sentValues.get(i), sentNumbers.get(i))) {
+                            changed.add(sentKeys.get(i));
+                        }
+                    }
+                }
+                pending = changed;
+            }
+            if (!pending.isEmpty()) {
+                return "-ERR " + pending.size() + " keys kept changing during the migration, try again";
+            }
+            return anyKey ? "+OK" : "+NOKEY";
+        }
+    }
+
+    /**
+     * Sends ASKING before a command in cluster mode, so the target accepts keys of a slot it is importing.
+     * @return The number of replies added.
+     */
+    private int asking(RespBuffer request) {
+        if (server.cluster == null) {
+            return 0;
+        }
+        request.arrayHeader(1);
+        request.bulk("ASKING");
+        return 1;
+    }
+
+    /**
+     * Reads one reply line (a status, an integer or an error: the only replies of the commands sent).
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int length = line.length();
+                return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1)
+                        : line.toString();
+            }
+            line.append((char) b);
+        }
+        throw new IOException("Connection closed by target");
+    }
+}
@@ -1,5 +1,86 @@
 package com.example.redisClone.config;
 
-public class Config{
-    
-}
\ No newline at end of file
+import com.example.redisClone.types.EncodingLimits;
+
+/**
+ * Server-wide settings that are not part of the RDB configuration.
+ * Values are filled from command-line arguments by ConfigHandler.
+ */
+public class Config {
+    // Client classes for client-output-buffer-limit, in the order Redis prints them.
+    public static final String[] CLIENT_CLASSES = { "normal", "replica", "pubsub" };
+    public static final int CLIENT_CLASS_NORMAL = 0;
+    public static final int CLIENT_CLASS_REPLICA = 1;
+    public static final int CLIENT_CLASS_PUBSUB = 2;
+
+    // Memory limit in bytes (0 = no limit) and what to do when it is reached.
+    public long maxMemory = 0;
+    public String maxMemoryPolicy = "noeviction";
+    public int maxMemorySamples = 5;
+
+    // Values of at least this many bytes are stored off-heap in slabs (0 = keep all values on the heap).
+    public int offHeapValueThreshold = 0;
+
+    // Tiered storage: whether cold string values are moved to memory-mapped segment files (in
+    // dir/tiered) once used memory passes the hot-tier budget, the smallest value worth moving,
+    // the size of each segment file, and the share of dead bytes at which a segment is compacted.
+    public boolean tieredStorage = false;
+    public long tieredHotBudget = 256L * 1024 * 1024;
+    public int tieredMinValueSize = 128;
+    public long tieredSegmentSize = 64L * 1024 * 1024;
+    public int tieredCompactPercentage = 50;
+
+    // Append-only file: whether it is on, when it is fsynced (always, everysec, no) and its name in dir.
+    public boolean appendOnly = false;
+    public String appendFsync = "everysec";
+    public String appendFilename = "appendonly.aof";
+    // Rewrite the AOF automatically once it has grown by this percentage over its size after the
+    // last rewrite (0 = never), but not while it is smaller than the minimum size.
+    public int autoAofRewritePercentage = 100;
+    public long autoAofRewriteMinSize = 64L * 1024 * 1024;
+
+    // Whether a replica refuses writes from its own clients (replica-read-only).
+    public boolean replicaReadOnly = true;
+
+    // Size of the replication backlog kept for partial resyncs of reconnecting replicas.
+    public long replBacklogSize = 1024 * 1024;
+
+    // Cluster mode: whether it is on, the file (in dir) where the node saves its cluster view,
+    // the address announced to other nodes, and how long a node may stay silent before it is flagged.
+    public boolean clusterEnabled = false;
+    public String clusterConfigFile = "nodes.conf";
+    public String clusterAnnounceIp = "127.0.0.1";
+    public long clusterNodeTimeout = 15000;
+
+    // When lists, sets, hashes and sorted sets leave their compact listpack encoding
+    // (hash-max-listpack-entries and friends).
+    public EncodingLimits encodingLimits = new EncodingLimits();
+
+    // Whether read commands are answered from the part of the dataset loaded so far during the
+    // startup load, instead of -LOADING (loading-serve-reads). A key not loaded yet reads as missing.
+    public boolean loadingServeReads = false;
+
+    // Commands taking at least this many microseconds go to the slow log (negative disables it),
+    // which keeps the most recent slowlog-max-len of them.
+    public long slowlogLogSlowerThan = 10000;
+    public int slowlogMaxLen = 128;
+
+    // The most keys remembered for client-side caching (tracking-table-max-keys; 0 = no limit).
+    public int trackingTableMaxKeys = 1_000_000;
+
+    // How long a script that has not written yet may run, in milliseconds, before it is stopped
+    // (busy-reply-threshold); one that has written runs to its end.
+    // A script holds the execution lock, so every reactor waits for it: the default is a few
+    // milliseconds, not Redis's 5 seconds, which only start -BUSY replies there.
+    public long busyReplyThreshold = 5;
+
+    // 1..10: how hard the active expiry cycle works to reclaim expired keys (active-expire-effort).
+    public int activeExpireEffort = 1;
+
+    // Same defaults as redis.conf.
+    public OutputBufferLimit[] clientOutputBufferLimits = {
+            new OutputBufferLimit(0, 0, 0),
+            new OutputBufferLimit(256L * 1024 * 1024, 64L * 1024 * 1024, 60),
+            new OutputBufferLimit(32L * 1024 * 1024, 8L * 1024 * 1024, 60)
+    };
+}
@@ -1,5 +1,192 @@
 package com.example.redisClone.config;
 
+import com.example.redisClone.types.EncodingLimits;
+
+/**
+ * Parses and formats the settings held in Config.
+ */
 public class ConfigHandler {
-    
+    /**
+     * Parses a client-output-buffer-limit value such as
+     * "normal 0 0 0 replica 256mb 64mb 60 pubsub 32mb 8mb 60".
+     * Classes that are not mentioned keep their current limits.
+     * @param config The configuration to update.
+     * @param value The setting, as passed on the command line.
+     */
+    public static void setClientOutputBufferLimit(Config config, String value) {
+        String[] parts = value.trim().split("\\s+");
+        if (parts.length % 4 != 0) {
+            throw new IllegalArgumentException("Invalid client-output-buffer-limit: " + value);
+        }
+        for (int i = 0; i < parts.length; i += 4) {
+            int clientClass = clientClassIndex(parts[i]);
+            config.clientOutputBufferLimits[clientClass] = new OutputBufferLimit(parseMemory(parts[i + 1]),
+                    parseMemory(parts[i + 2]), Long.parseLong(parts[i + 3]));
+        }
+    }
+
+    /**
+     * Gets a configuration value by its CONFIG GET name.
+     * @param config The configuration to read.
+     * @param name The name of the configuration parameter.
+     * @return The value, or null if the parameter is not held in Config.
+     */
+    public static String get(Config config, String name) {
+        if (name.equalsIgnoreCase("maxmemory")) {
+            return String.valueOf(config.maxMemory);
+        }
+        if (name.equalsIgnoreCase("maxmemory-policy")) {
+            return config.maxMemoryPolicy;
+        }
+        if (name.equalsIgnoreCase("maxmemory-samples")) {
+            return String.valueOf(config.maxMemorySamples);
+        }
+        if (name.equalsIgnoreCase("offheap-value-threshold")) {
+            return String.valueOf(config.offHeapValueThreshold);
+        }
+        if (name.equalsIgnoreCase("tiered-storage")) {
+            return config.tieredStorage ? "yes" : "no";
+        }
+        if (name.equalsIgnoreCase("tiered-hot-budget")) {
+            return String.valueOf(config.tieredHotBudget);
+        }
+        if (name.equalsIgnoreCase("tiered-min-value-size")) {
+            return String.valueOf(config.tieredMinValueSize);
+        }
+        if (name.equalsIgnoreCase("tiered-segment-size")) {
+            return String.valueOf(config.tieredSegmentSize);
+        }
+        if (name.equalsIgnoreCase("tiered-compact-percentage")) {
+            return String.valueOf(config.tieredCompactPercentage);
+        }
+        if (name.equalsIgnoreCase("appendonly")) {
+            return config.appendOnly ? "yes" : "no";
+        }
+        if (name.equalsIgnoreCase("appendfsync")) {
+            return config.appendFsync;
+        }
+        if (name.equalsIgnoreCase("appendfilename")) {
+            return config.appendFilename;
+        }
+        if (name.equalsIgnoreCase("auto-aof-rewrite-percentage")) {
+            return String.valueOf(config.autoAofRewritePercentage);
+        }
+        if (name.equalsIgnoreCase("auto-aof-rewrite-min-size")) {
+            return String.valueOf(config.autoAofRewriteMinSize);
+        }
+        if (name.equalsIgnoreCase("replica-read-only") || name.equalsIgnoreCase("slave-read-only")) {
+            return config.replicaReadOnly ? "yes" : "no";
+        }
+        if (name.equalsIgnoreCase("repl-backlog-size")) {
+            return String.valueOf(config.replBacklogSize);
+        }
+        if (name.equalsIgnoreCase("cluster-enabled")) {
+            return config.clusterEnabled ? "yes" : "no";
+        }
+        if (name.equalsIgnoreCase("cluster-config-file")) {
+            return config.clusterConfigFile;
+        }
+        if (name.equalsIgnoreCase("cluster-announce-ip")) {
+            return config.clusterAnnounceIp;
+        }
+        if (name.equalsIgnoreCase("cluster-node-timeout")) {
+            return String.valueOf(config.clusterNodeTimeout);
+        }
+        EncodingLimits limits = config.encodingLimits;
+        if (name.equalsIgnoreCase("hash-max-listpack-entries") || name.equalsIgnoreCase("hash-max-ziplist-entries")) {
+            return String.valueOf(limits.hashMaxListpackEntries);
+        }
+        if (name.equalsIgnoreCase("hash-max-listpack-value") || name.equalsIgnoreCase("hash-max-ziplist-value")) {
+            return String.valueOf(limits.hashMaxListpackValue);
+        }
+        if (name.equalsIgnoreCase("set-max-listpack-entries")) {
+            return String.valueOf(limits.setMaxListpackEntries);
+        }
+        if (name.equalsIgnoreCase("set-max-listpack-value")) {
+            return String.valueOf(limits.setMaxListpackValue);
+        }
+        if (name.equalsIgnoreCase("zset-max-listpack-entries") || name.equalsIgnoreCase("zset-max-ziplist-entries")) {
+            return String.valueOf(limits.zsetMaxListpackEntries);
+        }
+        if (name.equalsIgnoreCase("zset-max-listpack-value") || name.equalsIgnoreCase("zset-max-ziplist-value")) {
+            return String.valueOf(limits.zsetMaxListpackValue);
+        }
+        if (name.equalsIgnoreCase("list-max-listpack-size") || name.equalsIgnoreCase("list-max-ziplist-size")) {
+            return String.valueOf(limits.listMaxListpackSize);
+        }
+        if (name.equalsIgnoreCase("loading-serve-reads")) {
+            return config.loadingServeReads ? "yes" : "no";
+        }
+        if (name.equalsIgnoreCase("slowlog-log-slower-than")) {
+            return Long.toString(config.slowlogLogSlowerThan);
+        }
+        if (name.equalsIgnoreCase("slowlog-max-len")) {
+            return Integer.toString(config.slowlogMaxLen);
+        }
+        if (name.equalsIgnoreCase("tracking-table-max-keys")) {
+            return String.valueOf(config.trackingTableMaxKeys);
+        }
+        if (name.equalsIgnoreCase("busy-reply-threshold") || name.equalsIgnoreCase("lua-time-limit")) {
+            return Long.toString(config.busyReplyThreshold);
+        }
+        if (name.equalsIgnoreCase("active-expire-effort")) {
+            return String.valueOf(config.activeExpireEffort);
+        }
+        if (name.equalsIgnoreCase("client-output-buffer-limit")) {
+            StringBuilder value = new StringBuilder();
+            for (int i = 0; i < Config.CLIENT_CLASSES.length; i++) {
+                if (i > 0) {
+                    value.append(' ');
+                }
+                value.append(Config.CLIENT_CLASSES[i]).append(' ').append(config.clientOutputBufferLimits[i]);
+            }
+            return value.toString();
+        }
+        return null;
+    }
+
+    /**
+     * Parses a memory size with an optional unit, the way redis.conf does ("1gb", "64mb", "512k", "100").
+     * @return The size in bytes.
+     */
+    public static long parseMemory(String value) {
+        String lower = value.toLowerCase();
+        long multiplier = 1;
+        String[][] units = { { "gb", "1073741824" }, { "mb", "1048576" }, { "kb", "1024" },
+                { "g", "1000000000" }, { "m", "1000000" }, { "k", "1000" }, { "b", "1" } };
+        for (String[] unit : units) {
+            if (lower.endsWith(unit[0])) {
+                multiplier = Long.parseLong(unit[1]);
+                lower = lower.substring(0, lower.length() - unit[0].length());
+                break;
+            }
+        }
+        return Long.parseLong(lower) * multiplier;
+    }
+
+    /**
+     * Formats a byte count the way INFO's *_human fields do ("1.50M").
+     */
+    public static String formatMemory(long bytes) {
+        String[] units = { "B", "K", "M", "G", "T" };
+        double value = bytes;
+        int unit = 0;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return unit == 0 ? bytes + "B" : String.format("%.2f%s", value, units[unit]);
+    }
+
+    private static int clientClassIndex(String name) {
+        if (name.equalsIgnoreCase("slave")) {
+            return Config.CLIENT_CLASS_REPLICA; // Old name, still accepted by Redis.
+        }
+        for (int i = 0; i < Config.CLIENT_CLASSES.length; i++) {
+            if (Config.CLIENT_CLASSES[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Invalid client class: " + name);
+    }
 }
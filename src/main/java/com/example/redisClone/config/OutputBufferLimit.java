@@ -0,0 +1,23 @@
+package com.example.redisClone.config;
+
+/**
+ * One class of the client-output-buffer-limit setting.
+ * A client is disconnected when its pending output exceeds the hard limit, or stays above
+ * the soft limit for softSeconds in a row. A limit of 0 means "no limit".
+ */
+public class OutputBufferLimit {
+    public final long hardLimitBytes;
+    public final long softLimitBytes;
+    public final long softSeconds;
+
+    public OutputBufferLimit(long hardLimitBytes, long softLimitBytes, long softSeconds) {
+        this.hardLimitBytes = hardLimitBytes;
+        this.softLimitBytes = softLimitBytes;
+        this.softSeconds = softSeconds;
+    }
+
+    @Override
+    public String toString() {
+        return hardLimitBytes + " " + softLimitBytes + " " + softSeconds;
+    }
+}
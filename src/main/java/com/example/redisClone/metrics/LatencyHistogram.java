@@ -0,0 +1,128 @@
+package com.example.redisClone.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram in the style of HdrHistogram: each power-of-two range of
+ * microseconds is split into 16 linear sub-buckets, so percentiles are accurate to about 6%
+ * at any magnitude, from 1us to days. The power-of-two view, the shape of Redis's
+ * LATENCY HISTOGRAM (bucket i counts samples of at most 2^i microseconds), is derived from it.
+ * Recording is a few atomic increments and never allocates, so it can sit on hot paths and be
+ * shared between threads.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 40; // Power-of-two buckets, up to 2^39 us, about six days.
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // Values below 2 * SUB_COUNT get one slot each; above, each power of two gets SUB_COUNT slots.
+    private static final int SLOTS = (BUCKETS - SUB_BITS + 1) * SUB_COUNT;
+
+    // Slots are indexed by micros - 1, so that "at most 2^i" boundaries fall between slots.
+    private final AtomicLongArray counts = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray totals = new AtomicLongArray(3); // Samples, total and max microseconds.
+
+    /**
+     * @param nanos The measured duration in nanoseconds.
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(slot(Math.max(0, micros - 1)));
+        totals.incrementAndGet(0);
+        totals.addAndGet(1, micros);
+        long max;
+        while (micros > (max = totals.get(2)) && !totals.compareAndSet(2, max, micros)) {
+            // Lost a race with a bigger sample; retry.
+        }
+    }
+
+    private static int slot(long value) {
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BITS - 1);
+        int slot = shift * SUB_COUNT + (int) (value >>> shift);
+        return Math.min(slot, SLOTS - 1);
+    }
+
+    /**
+     * @return The largest value of (micros - 1) that falls in slot, plus one: the slot's upper bound in micros.
+     */
+    private static long slotLimit(int slot) {
+        int shift = Math.max(0, slot / SUB_COUNT - 1);
+        long first = shift == 0 ? slot : (long) (slot - shift * SUB_COUNT) << shift;
+        return first + (1L << shift);
+    }
+
+    public long count() {
+        return totals.get(0);
+    }
+
+    public long totalMicros() {
+        return totals.get(1);
+    }
+
+    public long maxMicros() {
+        return totals.get(2);
+    }
+
+    /**
+     * @param percentile A percentile between 0 and 100.
+     * @return An upper bound, in microseconds, for that percentile (its sub-bucket's limit), or 0 if empty.
+     */
+    public long percentile(double percentile) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max((long) Math.ceil(total * percentile / 100.0), 1);
+        long seen = 0;
+        for (int i = 0; i < SLOTS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(slotLimit(i), maxMicros());
+            }
+        }
+        return maxMicros();
+    }
+
+    /**
+     * Formats the non-empty buckets as "le_<usec>=<count>,...", for INFO fields.
+     */
+    public String buckets() {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = bucketCount(i);
+            if (count > 0) {
+                if (out.length() > 0) {
+                    out.append(',');
+                }
+                out.append("le_").append(1L << i).append('=').append(count);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * @return The count of bucket i (samples of at most 2^i microseconds, more than 2^(i-1)).
+     */
+    public long bucketCount(int i) {
+        // Bucket i holds micros - 1 in [2^(i-1), 2^i - 1], bucket 0 holds micros 0 and 1.
+        long low = i == 0 ? 0 : 1L << (i - 1);
+        long high = (1L << i) - 1;
+        long count = 0;
+        for (int slot = slot(low); slot < SLOTS && slotLimit(slot) - 1 <= high; slot++) {
+            count += counts.get(slot);
+        }
+        return count;
+    }
+
+    public int bucketLength() {
+        return BUCKETS;
+    }
+
+    public void reset() {
+        for (int i = 0; i < SLOTS; i++) {
+            counts.set(i, 0);
+        }
+        totals.set(0, 0);
+        totals.set(1, 0);
+        totals.set(2, 0);
+    }
+}
@@ -0,0 +1,281 @@
+package com.example.redisClone.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.example.redisClone.Log;
+import com.example.redisClone.resp.RespArgs;
+import com.example.redisClone.resp.RespWriter;
+
+/**
+ * Server-wide counters for INFO (stats, clients, commandstats, latencystats), LATENCY HISTOGRAM
+ * and SLOWLOG. Every reactor records into the same instance, so the hot-path methods use only
+ * atomics (LongAdder where all threads hit the same counter) and never allocate: the per-command
+ * table is built once and only read afterwards.
+ */
+public class ServerMetrics {
+    /**
+     * Calls and latency of one command (cmdstat_* and latency_percentiles_usec_*).
+     */
+    public static final class CommandStats {
+        public final String name;
+        // Calls and their total time are the histogram's count and sum.
+        public final LatencyHistogram latency = new LatencyHistogram();
+        // Refused before running (OOM, READONLY, cluster redirects, wrong arguments).
+        public final AtomicLong rejectedCalls = new AtomicLong();
+        // Ran, but ended in an error (e.g. WRONGTYPE).
+        public final AtomicLong failedCalls = new AtomicLong();
+
+        CommandStats(String name) {
+            this.name = name.toLowerCase();
+        }
+    }
+
+    /**
+     * The per-second rate of a counter over the last SAMPLES cron runs, like Redis's
+     * instantaneous_* fields. Sampled by the cron thread only.
+     */
+    private static final class Rate {
+        private static final int SAMPLES = 16;
+        private final long[] samples = new long[SAMPLES];
+        private int next;
+        private long lastValue;
+        private long lastMillis;
+
+        synchronized void sample(long value, long now) {
+            if (lastMillis != 0 && now > lastMillis) {
+                samples[next] = (value - lastValue) * 1000 / (now - lastMillis);
+                next = (next + 1) % SAMPLES;
+            }
+            lastValue = value;
+            lastMillis = now;
+        }
+
+        synchronized long perSecond() {
+            long sum = 0;
+            for (long sample : samples) {
+                sum += sample;
+            }
+            return sum / SAMPLES;
+        }
+    }
+
+    private final Map<String, CommandStats> commands = new HashMap<>();
+    // The same stats in name order, for reports.
+    private final List<CommandStats> sorted = new ArrayList<>();
+    public final SlowLog slowLog;
+    // Time spent in each event-loop pass after select() returns, over all reactors.
+    public final LatencyHistogram eventLoop = new LatencyHistogram();
+    public final LongAdder netInputBytes = new LongAdder();
+    public final LongAdder netOutputBytes = new LongAdder();
+    public final LongAdder connectionsReceived = new LongAdder();
+    public final AtomicInteger connectedClients = new AtomicInteger();
+
+    private final Rate opsRate = new Rate();
+    private final Rate inputRate = new Rate();
+    private final Rate outputRate = new Rate();
+    private final Rate cyclesRate = new Rate();
+    private final Rate cycleMicrosRate = new Rate();
+
+    /**
+     * @param commandNames The canonical names of every command (CommandTable).
+     * @param slowLog Where commands over the slowlog threshold go.
+     */
+    public ServerMetrics(List<String> commandNames, SlowLog slowLog) {
+        for (String name : commandNames) {
+            CommandStats stats = new CommandStats(name);
+            commands.put(name, stats);
+            sorted.add(stats);
+        }
+        sorted.sort(Comparator.comparing(stats -> stats.name));
+        this.slowLog = slowLog;
+    }
+
+    /**
+     * Records one executed command, and logs it if it was slow.
+     * @param command The canonical command name; unknown commands ("") are not recorded.
+     * @param args The command's arguments, still valid (for the slow log).
+     * @param nanos How long it ran.
+     * @param clientAddress The client's "ip:port".
+     */
+    public void call(String command, RespArgs args, long nanos, String clientAddress) {
+        CommandStats stats = commands.get(command);
+        if (stats == null) {
+            return;
+        }
+        stats.latency.record(nanos);
+        long micros = nanos / 1000;
+        if (slowLog.isSlow(micros)) {
+            slowLog.add(args, micros, clientAddress);
+        }
+    }
+
+    /**
+     * Counts a command refused before it ran.
+     */
+    public void rejected(String command) {
+        CommandStats stats = commands.get(command);
+        if (stats != null) {
+            stats.rejectedCalls.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts a command that ran and failed.
+     */
+    public void failed(String command) {
+        CommandStats stats = commands.get(command);
+        if (stats != null) {
+            stats.failedCalls.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return The stats of a command, or null if there is no such command.
+     */
+    public CommandStats command(String name) {
+        return commands.get(name.toUpperCase());
+    }
+
+    public long totalCommandsProcessed() {
+        long total = 0;
+        for (CommandStats stats : commands.values()) {
+            total += stats.latency.count();
+        }
+        return total;
+    }
+
+    private long totalCommandMicros() {
+        long total = 0;
+        for (CommandStats stats : commands.values()) {
+            total += stats.latency.totalMicros();
+        }
+        return total;
+    }
+
+    /**
+     * Takes the samples behind the instantaneous_* fields. Called by serverCron.
+     */
+    public void sample(long now) {
+        opsRate.sample(totalCommandsProcessed(), now);
+        inputRate.sample(netInputBytes.sum(), now);
+        outputRate.sample(netOutputBytes.sum(), now);
+        cyclesRate.sample(eventLoop.count(), now);
+        cycleMicrosRate.sample(eventLoop.totalMicros(), now);
+    }
+
+    /**
+     * @return The fields of INFO stats kept here.
+     */
+    public String statsInfo() {
+        long cyclesPerSecond = cyclesRate.perSecond();
+        return "total_connections_received:" + connectionsReceived.sum() + "\r\n"
+                + "total_commands_processed:" + totalCommandsProcessed() + "\r\n"
+                + "instantaneous_ops_per_sec:" + opsRate.perSecond() + "\r\n"
+                + "total_net_input_bytes:" + netInputBytes.sum() + "\r\n"
+                + "total_net_output_bytes:" + netOutputBytes.sum() + "\r\n"
+                + String.format("instantaneous_input_kbps:%.2f\r\n", inputRate.perSecond() / 1024.0)
+                + String.format("instantaneous_output_kbps:%.2f\r\n", outputRate.perSecond() / 1024.0)
+                + "eventloop_cycles:" + eventLoop.count() + "\r\n"
+                + "eventloop_duration_sum:" + eventLoop.totalMicros() + "\r\n"
+                + "eventloop_duration_cmd_sum:" + totalCommandMicros() + "\r\n"
+                + "eventloop_duration_max:" + eventLoop.maxMicros() + "\r\n"
+                + "instantaneous_eventloop_cycles_per_sec:" + cyclesPerSecond + "\r\n"
+                + "instantaneous_eventloop_duration_usec:"
+                + (cyclesPerSecond == 0 ? 0 : cycleMicrosRate.perSecond() / cyclesPerSecond) + "\r\n"
+                + "log_dropped_lines:" + Log.dropped() + "\r\n";
+    }
+
+    public String clientsInfo() {
+        return "connected_clients:" + connectedClients.get() + "\r\n";
+    }
+
+    /**
+     * @return One cmdstat_ line per command that was called or refused, as in INFO commandstats.
+     */
+    public String commandStatsInfo() {
+        StringBuilder info = new StringBuilder();
+        for (CommandStats stats : sorted) {
+            long calls = stats.latency.count();
+            if (calls == 0 && stats.rejectedCalls.get() == 0 && stats.failedCalls.get() == 0) {
+                continue;
+            }
+            long usec = stats.latency.totalMicros();
+            info.append("cmdstat_").append(stats.name).append(":calls=").append(calls)
+                    .append(",usec=").append(usec)
+                    .append(String.format(",usec_per_call=%.2f", calls == 0 ? 0.0 : usec / (double) calls))
+                    .append(",rejected_calls=").append(stats.rejectedCalls.get())
+                    .append(",failed_calls=").append(stats.failedCalls.get()).append("\r\n");
+        }
+        return info.toString();
+    }
+
+    /**
+     * @return p50, p99 and p99.9 of each command that was called, as in INFO latencystats.
+     */
+    public String latencyStatsInfo() {
+        StringBuilder info = new StringBuilder();
+        for (CommandStats stats : sorted) {
+            LatencyHistogram latency = stats.latency;
+            if (latency.count() == 0) {
+                continue;
+            }
+            info.append("latency_percentiles_usec_").append(stats.name)
+                    .append(String.format(":p50=%.3f,p99=%.3f,p99.9=%.3f\r\n", (double) latency.percentile(50),
+                            (double) latency.percentile(99), (double) latency.percentile(99.9)));
+        }
+        return info.toString();
+    }
+
+    /**
+     * Replies to LATENCY HISTOGRAM [command ...]: for each command (every called one if none are
+     * named), its calls and the cumulative count of calls per power-of-two microsecond bucket.
+     */
+    public void writeLatencyHistogram(RespArgs args, RespWriter out) {
+        List<CommandStats> selected = new ArrayList<>();
+        if (args.count() > 2) {
+            for (int i = 2; i < args.count(); i++) {
+                CommandStats stats = command(args.string(i));
+                if (stats != null && stats.latency.count() > 0 && !selected.contains(stats)) {
+                    selected.add(stats);
+                }
+            }
+        } else {
+            for (CommandStats stats : sorted) {
+                if (stats.latency.count() > 0) {
+                    selected.add(stats);
+                }
+            }
+        }
+        out.arrayHeader(selected.size() * 2);
+        for (CommandStats stats : selected) {
+            LatencyHistogram latency = stats.latency;
+            out.bulk(stats.name);
+            out.arrayHeader(4);
+            out.bulk("calls");
+            out.integer(latency.count());
+            out.bulk("histogram_usec");
+            int first = -1;
+            int last = -1;
+            for (int i = 0; i < latency.bucketLength(); i++) {
+                if (latency.bucketCount(i) > 0) {
+                    first = first == -1 ? i : first;
+                    last = i;
+                }
+            }
+            out.arrayHeader(first == -1 ? 0 : (last - first + 1) * 2);
+            long cumulative = 0;
+            for (int i = first; first != -1 && i <= last; i++) {
+                cumulative += latency.bucketCount(i);
+                out.integer(1L << i);
+                out.integer(cumulative);
+            }
+        }
+    }
+}
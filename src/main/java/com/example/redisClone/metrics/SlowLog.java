@@ -0,0 +1,111 @@
+package com.example.redisClone.metrics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.example.redisClone.resp.RespArgs;
+
+/**
+ * The commands that took longer than slowlog-log-slower-than, newest first, at most
+ * slowlog-max-len of them (SLOWLOG GET/LEN/RESET). Checking the threshold is a plain
+ * comparison; only a command that is actually slow allocates its entry and takes the lock.
+ */
+public class SlowLog {
+    // Like Redis: the logged argv is cut to 32 arguments of at most 128 bytes each.
+    private static final int MAX_ARGS = 32;
+    private static final int MAX_ARG_LENGTH = 128;
+
+    /**
+     * One slow command, in the shape of a SLOWLOG GET entry.
+     */
+    public static final class Entry {
+        public final long id;
+        public final long timestampSeconds;
+        public final long durationMicros;
+        public final byte[][] argv;
+        public final String clientAddress;
+
+        Entry(long id, long timestampSeconds, long durationMicros, byte[][] argv, String clientAddress) {
+            this.id = id;
+            this.timestampSeconds = timestampSeconds;
+            this.durationMicros = durationMicros;
+            this.argv = argv;
+            this.clientAddress = clientAddress;
+        }
+    }
+
+    // Microseconds a command must take to be logged; negative disables the log, 0 logs everything.
+    private final long slowerThanMicros;
+    private final int maxLength;
+    // Guarded by this.
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private long nextId;
+
+    public SlowLog(long slowerThanMicros, int maxLength) {
+        this.slowerThanMicros = slowerThanMicros;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @return true if a command that took micros belongs in the log.
+     */
+    public boolean isSlow(long micros) {
+        return slowerThanMicros >= 0 && micros >= slowerThanMicros;
+    }
+
+    /**
+     * Logs a slow command. The arguments are copied, since their buffer is reused.
+     * @param args The command as received.
+     * @param micros How long it ran.
+     * @param clientAddress "ip:port" of the client, or "" for internal callers.
+     */
+    public void add(RespArgs args, long micros, String clientAddress) {
+        int count = Math.min(args.count(), MAX_ARGS);
+        byte[][] argv = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            if (i == MAX_ARGS - 1 && args.count() > MAX_ARGS) {
+                argv[i] = ("... (" + (args.count() - MAX_ARGS + 1) + " more arguments)")
+                        .getBytes(StandardCharsets.US_ASCII);
+            } else if (args.length(i) > MAX_ARG_LENGTH) {
+                byte[] bytes = args.bytes(i);
+                String suffix = "... (" + (bytes.length - MAX_ARG_LENGTH) + " more bytes)";
+                byte[] cut = new byte[MAX_ARG_LENGTH + suffix.length()];
+                System.arraycopy(bytes, 0, cut, 0, MAX_ARG_LENGTH);
+                System.arraycopy(suffix.getBytes(StandardCharsets.US_ASCII), 0, cut, MAX_ARG_LENGTH, suffix.length());
+                argv[i] = cut;
+            } else {
+                argv[i] = args.bytes(i);
+            }
+        }
+        long timestamp = System.currentTimeMillis() / 1000;
+        synchronized (this) {
+            entries.addFirst(new Entry(nextId++, timestamp, micros, argv, clientAddress));
+            while (entries.size() > maxLength) {
+                entries.removeLast();
+            }
+        }
+    }
+
+    /**
+     * @param count How many entries to return, newest first; negative for all of them.
+     */
+    public synchronized List<Entry> get(long count) {
+        List<Entry> result = new ArrayList<>();
+        Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext() && (count < 0 || result.size() < count)) {
+            result.add(iterator.next());
+        }
+        return result;
+    }
+
+    public synchronized int length() {
+        return entries.size();
+    }
+
+    public synchronized void reset() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.redisClone.rdb;
+
+/**
+ * The CRC-64 Redis appends to RDB files: the Jones polynomial, reflected,
+ * initial value 0, no final xor. crc64("123456789") == 0xe9c6d914c4b8d9caL.
+ */
+public class Crc64 {
+    private static final long POLY = 0x95ac9329ac4bc9b5L; // 0xad93d23594c935a9, bit-reversed.
+    private static final long[] TABLE = new long[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            long crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLY : crc >>> 1;
+            }
+            TABLE[i] = crc;
+        }
+    }
+
+    /**
+     * Extends a checksum with more bytes.
+     * @param crc The checksum so far (0 to start).
+     */
+    public static long update(long crc, byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            crc = TABLE[(int) ((crc ^ data[i]) & 0xFF)] ^ (crc >>> 8);
+        }
+        return crc;
+    }
+}
@@ -1,5 +0,0 @@
-package com.example.redisClone.rdb;
-
-public class FileInputStream {
-
-}
@@ -0,0 +1,70 @@
+package com.example.redisClone.rdb;
+
+/**
+ * Progress of the startup load (RDB file or AOF replay), for the -LOADING state and the
+ * loading_* fields of INFO persistence. The loader thread updates it; any reactor reads it.
+ */
+public class LoadProgress {
+    // True from startup until the dataset is fully loaded; commands check it on every call.
+    private volatile boolean loading;
+    private volatile long startMillis;
+    private volatile long totalBytes;
+    private volatile long loadedBytes;
+
+    /**
+     * Enters the loading state, before the file is even opened.
+     */
+    public void begin() {
+        startMillis = System.currentTimeMillis();
+        totalBytes = 0;
+        loadedBytes = 0;
+        loading = true;
+    }
+
+    /**
+     * @param totalBytes The size of the file being loaded.
+     */
+    public void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * @param loadedBytes How much of the file has been read so far.
+     */
+    public void update(long loadedBytes) {
+        this.loadedBytes = loadedBytes;
+    }
+
+    /**
+     * Leaves the loading state: commands are served normally from now on.
+     */
+    public void finish() {
+        loadedBytes = totalBytes;
+        loading = false;
+    }
+
+    public boolean loading() {
+        return loading;
+    }
+
+    /**
+     * @return The loading fields of INFO persistence, as Redis prints them.
+     */
+    public String info() {
+        if (!loading) {
+            return "loading:0\r\nasync_loading:0\r\n";
+        }
+        long total = totalBytes;
+        long loaded = Math.min(loadedBytes, total);
+        long elapsedMillis = System.currentTimeMillis() - startMillis;
+        // Like Redis: the time per byte so far, times the bytes still to go; 1 until there is a rate.
+        long etaSeconds = loaded == 0 ? 1 : (long) ((double) elapsedMillis / loaded * (total - loaded) / 1000);
+        return "loading:1\r\n"
+                + "async_loading:0\r\n"
+                + "loading_start_time:" + startMillis / 1000 + "\r\n"
+                + "loading_total_bytes:" + total + "\r\n"
+                + "loading_loaded_bytes:" + loaded + "\r\n"
+                + String.format("loading_loaded_perc:%.2f\r\n", total == 0 ? 0.0 : loaded * 100.0 / total)
+                + "loading_eta_seconds:" + etaSeconds + "\r\n";
+    }
+}
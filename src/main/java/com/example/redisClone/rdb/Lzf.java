@@ -0,0 +1,53 @@
+package com.example.redisClone.rdb;
+
+import java.io.IOException;
+
+/**
+ * Decompressor for LZF, the compression Redis applies to strings in RDB files (rdbcompression yes).
+ */
+public class Lzf {
+    /**
+     * @param input The compressed bytes.
+     * @param length The uncompressed length stored next to them in the RDB file.
+     * @return The uncompressed bytes.
+     * @throws IOException If the data is corrupt.
+     */
+    public static byte[] decompress(byte[] input, int length) throws IOException {
+        byte[] output = new byte[length];
+        int in = 0;
+        int out = 0;
+        try {
+            while (in < input.length) {
+                int control = input[in++] & 0xFF;
+                if (control < 32) {
+                    // Literal run of control + 1 bytes.
+                    int run = control + 1;
+                    System.arraycopy(input, in, output, out, run);
+                    in += run;
+                    out += run;
+                } else {
+                    // Back reference: copy from earlier output (possibly overlapping, so byte by byte).
+                    int run = control >> 5;
+                    int reference = out - ((control & 0x1F) << 8) - 1;
+                    if (run == 7) {
+                        run += input[in++] & 0xFF;
+                    }
+                    reference -= input[in++] & 0xFF;
+                    run += 2;
+                    if (reference < 0) {
+                        throw new IOException("Invalid LZF back reference");
+                    }
+                    for (int i = 0; i < run; i++) {
+                        output[out++] = output[reference++];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt LZF data");
+        }
+        if (out != length) {
+            throw new IOException("LZF length mismatch: expected " + length + ", got " + out);
+        }
+        return output;
+    }
+}
@@ -1,17 +1,41 @@
 package com.example.redisClone.rdb;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * A simple data class to hold the RDB configuration passed via command-line arguments.
  */
 public class RDBconfig {
     public String directory;
     public String dataBaseFileName;
+    // When to snapshot automatically; the same defaults as redis.conf. Empty disables automatic saves.
+    public List<SavePolicy> savePolicies = new ArrayList<>(List.of(
+            new SavePolicy(3600, 1), new SavePolicy(300, 100), new SavePolicy(60, 10000)));
 
     public RDBconfig(String directory, String dataBaseFileName) {
         this.directory = directory;
         this.dataBaseFileName = dataBaseFileName;
     }
 
+    /**
+     * Replaces the save policies from a redis.conf style value: "<seconds> <changes>" pairs,
+     * e.g. "3600 1 300 100". An empty string disables automatic saves.
+     * @param value The setting, as passed on the command line.
+     */
+    public void setSavePolicies(String value) {
+        String trimmed = value.trim();
+        String[] parts = trimmed.isEmpty() ? new String[0] : trimmed.split("\\s+");
+        if (parts.length % 2 != 0) {
+            throw new IllegalArgumentException("Invalid save parameters: " + value);
+        }
+        List<SavePolicy> policies = new ArrayList<>();
+        for (int i = 0; i < parts.length; i += 2) {
+            policies.add(new SavePolicy(Long.parseLong(parts[i]), Long.parseLong(parts[i + 1])));
+        }
+        savePolicies = policies;
+    }
+
     /**
      * Gets a configuration value by its key.
      * Handles both internal names ("directory") and Redis command names ("dir").
@@ -25,6 +49,16 @@ public class RDBconfig {
         if (redisKey.equalsIgnoreCase("dbfilename")) {
             return dataBaseFileName;
         }
+        if (redisKey.equalsIgnoreCase("save")) {
+            StringBuilder value = new StringBuilder();
+            for (SavePolicy policy : savePolicies) {
+                if (value.length() > 0) {
+                    value.append(' ');
+                }
+                value.append(policy);
+            }
+            return value.toString();
+        }
         return null;
     }
 }
\ No newline at end of file
@@ -1,163 +1,287 @@
 package com.example.redisClone.rdb;
 
-import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import com.example.redisClone.Log;
 import com.example.redisClone.RedisStoreObject;
+import com.example.redisClone.store.Keyspace;
+import com.example.redisClone.types.EncodingLimits;
+import com.example.redisClone.types.HashValue;
+import com.example.redisClone.types.ListValue;
+import com.example.redisClone.types.SetValue;
+import com.example.redisClone.types.ZSetValue;
 
 /**
  * Handles the parsing of Redis RDB files to load data into memory on startup.
+ *
+ * The file is read through a large buffer rather than byte by byte. The loading thread only
+ * walks the framing (opcodes, keys, and the lengths that tell where each value ends) and
+ * hands the raw value bytes to a pool of workers in batches; the workers decompress and
+ * decode the values and insert them into the keyspace, whose segments lock independently.
  */
 public class RDBconfigHandler {
+    // Bytes read from the file per read() call.
+    private static final int READ_BUFFER_SIZE = 4 * 1024 * 1024;
+    // Values handed to a worker at a time, and the payload bytes after which a batch is sent early.
+    private static final int BATCH_KEYS = 1024;
+    private static final int BATCH_BYTES = 1024 * 1024;
+    private static final int MAX_DECODE_THREADS = 8;
+
+    // RDB opcodes.
+    private static final int OPCODE_SLOT_INFO = 0xF4;
+    private static final int OPCODE_FUNCTION2 = 0xF5;
+    private static final int OPCODE_MODULE_AUX = 0xF7;
+    private static final int OPCODE_IDLE = 0xF8;
+    private static final int OPCODE_FREQ = 0xF9;
+    private static final int OPCODE_AUX = 0xFA;
+    private static final int OPCODE_RESIZEDB = 0xFB;
+    private static final int OPCODE_EXPIRETIME_MS = 0xFC;
+    private static final int OPCODE_EXPIRETIME = 0xFD;
+    private static final int OPCODE_SELECTDB = 0xFE;
+    private static final int OPCODE_EOF = 0xFF;
+
+    /**
+     * A run of consecutive keys, decoded and inserted together by one worker.
+     */
+    private static final class Batch {
+        final List<String> keys = new ArrayList<>(BATCH_KEYS);
+        final List<byte[]> payloads = new ArrayList<>(BATCH_KEYS);
+        final int[] types = new int[BATCH_KEYS];
+        final long[] expiries = new long[BATCH_KEYS];
+        int bytes;
+
+        boolean isFull() {
+            return keys.size() == BATCH_KEYS || bytes >= BATCH_BYTES;
+        }
+
+        void add(String key, int type, byte[] payload, long expiry) {
+            types[keys.size()] = type;
+            expiries[keys.size()] = expiry;
+            keys.add(key);
+            payloads.add(payload);
+            bytes += payload.length;
+        }
+    }
+
     /**
      * Loads key-value pairs from an RDB file specified by the configuration.
+     * Values are encoded by the keyspace (integer, heap or off-heap), exactly as if they had been SET.
+     * @param rdbConfig The configuration object containing the directory and filename.
+     * @param store The keyspace to load the keys into.
+     * @throws IOException If the file cannot be read or is corrupt; some keys may already be loaded.
+     */
+    public static void loadRDB(RDBconfig rdbConfig, Keyspace store) throws IOException {
+        loadRDB(rdbConfig, store, null);
+    }
+
+    /**
+     * Loads an RDB file, reporting how far it got as it goes. The keyspace takes each batch
+     * as soon as it is decoded, so keys become readable while the rest of the file loads.
      * @param rdbConfig The configuration object containing the directory and filename.
-     * @return A HashMap representing the in-memory store.
+     * @param store The keyspace to load the keys into.
+     * @param progress Updated with the file size and the bytes read, or null.
+     * @throws IOException If the file cannot be read or is corrupt; some keys may already be loaded.
      */
-    public static HashMap<String, RedisStoreObject> loadRDB(RDBconfig rdbConfig) {
+    public static void loadRDB(RDBconfig rdbConfig, Keyspace store, LoadProgress progress) throws IOException {
         String directory = rdbConfig.get("directory");
         String dataBaseFileName = rdbConfig.get("dbfilename");
 
         // --- File Handling ---
-        File rdbFile = new File(directory, dataBaseFileName);
         if (directory == null || dataBaseFileName == null) {
-            System.out.println("Missing --dir or --dbfilename arguments");
-            return new HashMap<>();
+            Log.info("Missing --dir or --dbfilename arguments");
+            return;
         }
+        File rdbFile = new File(directory, dataBaseFileName);
         if (!rdbFile.exists()) {
-            System.out.println("RDB file not found, starting with empty DB.");
-            return new HashMap<>();
+            Log.info("RDB file not found, starting with empty DB.");
+            return;
         }
 
-        System.out.println("Loading RDB from: " + rdbFile.getAbsolutePath());
-        HashMap<String, RedisStoreObject> store = new HashMap<>();
+        Log.info("Loading RDB from: " + rdbFile.getAbsolutePath());
+        long startNanos = System.nanoTime();
+        long now = System.currentTimeMillis();
+
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_DECODE_THREADS));
+        AtomicInteger threadIds = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "rdb-decode-" + threadIds.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Bounds the batches waiting for a worker, so the file is never read far ahead of decoding.
+        int maxInFlight = threads * 2;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        long expiredKeys = 0;
+
+        try (FileChannel channel = FileChannel.open(rdbFile.toPath(), StandardOpenOption.READ)) {
+            RdbReader reader = new RdbReader(channel, READ_BUFFER_SIZE);
+            if (progress != null) {
+                progress.setTotalBytes(channel.size());
+            }
 
-        try (FileInputStream fis = new FileInputStream(rdbFile); DataInputStream dis = new DataInputStream(fis)) {
             // --- RDB Header Parsing ---
-            // Verify the "REDIS" magic string.
-            byte[] magic = new byte[5];
-            dis.readFully(magic);
-            if (!"REDIS".equals(new String(magic))) {
+            // Verify the "REDIS" magic string, followed by a 4-digit version number.
+            byte[] header = reader.readBytes(9);
+            if (!"REDIS".equals(new String(header, 0, 5, StandardCharsets.US_ASCII))) {
                 throw new IOException("Invalid RDB file format");
             }
-            // Skip the 4-byte RDB version number.
-            dis.skipBytes(4);
 
             // --- Main Parsing Loop ---
             long expiryMs = -1; // Temporary variable to hold expiry for the next key.
-            int opcode;
-
-            // Read the file byte by byte, interpreting each as an opcode or data.
-            while ((opcode = dis.read()) != -1) {
-                // An expiry opcode can come BEFORE another opcode.
-                if (opcode == 0xFF) { // End Of File marker
+            Batch batch = new Batch();
+            while (reader.hasRemaining()) {
+                int opcode = reader.readUnsignedByte();
+                if (opcode == OPCODE_EOF) { // End Of File marker (an 8-byte checksum follows).
                     break;
                 }
-
-                // Check for expiry opcodes first.
-                if (opcode == 0xFC) { // Expiry in milliseconds (little-endian)
-                    expiryMs = readLittleEndianLong(dis);
-                    continue; // Loop again to read the value-type opcode that follows.
-                } else if (opcode == 0xFD) { // Expiry in seconds (little-endian)
-                    expiryMs = readLittleEndianInt(dis) * 1000L;
-                    continue; // Loop again to read the next opcode.
-                }
-
-                // Handle metadata opcodes.
-                if (opcode == 0xFE) { // DB selector
-                    readLength(dis);
-                    continue;
-                }
-                if (opcode == 0xFB) { // RESIZEDB hint
-                    readLength(dis);
-                    readLength(dis);
-                    continue;
-                }
-                if (opcode == 0xFA) { // AUX auxiliary field
-                    readString(dis); // Read and discard key
-                    readString(dis); // Read and discard value
-                    continue;
-                }
-                
-                // Handle actual key-value data (opcode 0 means string encoding).
-                if (opcode == 0) {
-                    String key = readString(dis);
-                    String value = readString(dis);
-
-                    if (expiryMs != -1) {
-                        // If we found an expiry, store the key with it.
-                        store.put(key, new RedisStoreObject(value, expiryMs));
+                switch (opcode) {
+                    // An expiry opcode comes BEFORE the key it applies to.
+                    case OPCODE_EXPIRETIME_MS -> expiryMs = reader.readLittleEndian(8);
+                    case OPCODE_EXPIRETIME -> expiryMs = reader.readLittleEndian(4) * 1000L;
+                    // Metadata that does not affect the loaded data.
+                    case OPCODE_SELECTDB -> reader.readLength();
+                    case OPCODE_RESIZEDB -> {
+                        reader.readLength();
+                        reader.readLength();
+                    }
+                    case OPCODE_AUX -> {
+                        reader.readString(); // Read and discard key
+                        reader.readString(); // Read and discard value
+                    }
+                    case OPCODE_SLOT_INFO -> {
+                        reader.readLength();
+                        reader.readLength();
+                        reader.readLength();
+                    }
+                    case OPCODE_IDLE -> reader.readLength();
+                    case OPCODE_FREQ -> reader.readUnsignedByte();
+                    case OPCODE_FUNCTION2, OPCODE_MODULE_AUX ->
+                        throw new IOException("RDB contains functions or module data, which are not supported");
+                    default -> {
+                        if (!RdbDecoder.isValueType(opcode)) {
+                            throw new IOException("Unknown RDB opcode " + opcode);
+                        }
+                        String key = new String(reader.readString(), StandardCharsets.ISO_8859_1);
+                        // Cut the value out of the stream as-is; a worker decodes it.
+                        reader.startCapture();
+                        RdbDecoder.skipValue(reader, opcode);
+                        byte[] payload = reader.endCapture();
+                        if (expiryMs != -1 && expiryMs < now) {
+                            expiredKeys++; // Already expired: not worth loading, as Redis does on a master.
+                        } else {
+                            batch.add(key, opcode, payload, expiryMs == -1 ? Long.MAX_VALUE : expiryMs);
+                            if (batch.isFull()) {
+                                submit(workers, inFlight, batch, store, failure);
+                                batch = new Batch();
+                                if (progress != null) {
+                                    progress.update(reader.bytesRead());
+                                }
+                            }
+                        }
                         expiryMs = -1; // IMPORTANT: Reset for the next key.
-                    } else {
-                        store.put(key, new RedisStoreObject(value));
                     }
                 }
+                if (failure.get() != null) {
+                    break;
+                }
+            }
+            submit(workers, inFlight, batch, store, failure);
+            inFlight.acquireUninterruptibly(maxInFlight); // Wait for the workers to finish.
+            if (failure.get() != null) {
+                throw failure.get();
             }
-            System.out.println("Loaded " + store.size() + " keys from RDB");
-            return store;
 
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            double megabytes = reader.bytesRead() / (1024.0 * 1024.0);
+            Log.info(String.format("Loaded %d keys from RDB: %.1f MB in %.3f s (%.1f MB/s, %d decode threads)",
+                    store.size(), megabytes, seconds, megabytes / Math.max(seconds, 1e-9), threads));
+            if (expiredKeys > 0) {
+                Log.info("Skipped " + expiredKeys + " keys that had already expired");
+            }
         } catch (IOException e) {
-            System.out.println("Error loading RDB file: " + e.getMessage());
-            return new HashMap<>();
+            throw e;
+        } catch (Exception e) {
+            // A decode worker's failure, or a corrupt length that made the parser itself fail.
+            throw new IOException("Bad RDB file: " + e, e);
+        } finally {
+            workers.shutdownNow();
         }
     }
 
     /**
-     * Reads a Redis length-prefixed string from the stream.
-     */
-    private static String readString(DataInputStream dis) throws IOException {
-        int length = readLength(dis);
-        if (length == 0) return "";
-        byte[] bytes = new byte[length];
-        dis.readFully(bytes);
-        return new String(bytes);
-    }
-
-    /**
-     * Reads a Redis variable-length encoded integer.
+     * Rebuilds a list, set, hash or sorted set from its decoded elements. The collection picks
+     * its encoding from this server's limits, so a file written with other limits still loads.
      */
-    private static int readLength(DataInputStream dis) throws IOException {
-        int firstByte = dis.read();
-        if (firstByte == -1) throw new IOException("Unexpected end of stream");
-        int type = (firstByte & 0xC0) >> 6;
-        switch (type) {
-            case 0b00: return firstByte & 0x3F; // 6-bit length
-            case 0b01: return ((firstByte & 0x3F) << 8) | dis.read(); // 14-bit length
-            case 0b10: return dis.readInt(); // 32-bit length
-            case 0b11: // Special encoded object, not a string length.
-                int encoding = firstByte & 0x3F;
-                if (encoding <= 2) { // Integer encodings of 1, 2, or 4 bytes.
-                    dis.skipBytes(1 << encoding);
-                    return 0; // Return 0 because this wasn't a string to read.
+    static RedisStoreObject collectionOf(RdbValue value, EncodingLimits limits) throws IOException {
+        List<byte[]> elements = value.elements;
+        switch (value.type) {
+            case RdbValue.LIST -> {
+                ListValue list = new ListValue();
+                for (byte[] element : elements) {
+                    list.push(element, false, limits);
                 }
-                throw new IOException("Unhandled special encoding type: " + encoding);
-            default: throw new IOException("Unknown length encoding type");
-        }
-    }
-
-    /**
-     * Reads an 8-byte little-endian long from the stream.
-     * Required because RDB timestamps are little-endian, but Java's readLong is big-endian.
-     */
-    private static long readLittleEndianLong(DataInputStream dis) throws IOException {
-        long value = 0;
-        for (int i = 0; i < 8; i++) {
-            value |= ((long) dis.read()) << (i * 8);
+                return new RedisStoreObject(RedisStoreObject.TYPE_LIST, list);
+            }
+            case RdbValue.SET -> {
+                SetValue set = new SetValue();
+                for (byte[] element : elements) {
+                    set.add(element, limits);
+                }
+                return new RedisStoreObject(RedisStoreObject.TYPE_SET, set);
+            }
+            case RdbValue.HASH -> {
+                HashValue hash = new HashValue();
+                for (int i = 0; i + 1 < elements.size(); i += 2) {
+                    hash.set(elements.get(i), elements.get(i + 1), limits);
+                }
+                return new RedisStoreObject(RedisStoreObject.TYPE_HASH, hash);
+            }
+            case RdbValue.ZSET -> {
+                ZSetValue zset = new ZSetValue();
+                double[] score = new double[1];
+                for (int i = 0; i < elements.size(); i++) {
+                    zset.add(elements.get(i), value.scores[i], 0, score, limits);
+                }
+                return new RedisStoreObject(RedisStoreObject.TYPE_ZSET, zset);
+            }
+            default -> throw new IOException("Unknown RDB value kind " + value.type);
         }
-        return value;
     }
 
     /**
-     * Reads a 4-byte little-endian integer from the stream.
+     * Hands a batch to a worker, waiting if too many batches are already queued.
      */
-    private static int readLittleEndianInt(DataInputStream dis) throws IOException {
-        int value = 0;
-        for (int i = 0; i < 4; i++) {
-            value |= dis.read() << (i * 8);
+    private static void submit(ExecutorService workers, Semaphore inFlight, Batch batch, Keyspace store,
+            AtomicReference<Exception> failure) {
+        if (batch.keys.isEmpty()) {
+            return;
         }
-        return value;
+        inFlight.acquireUninterruptibly();
+        workers.execute(() -> {
+            try {
+                for (int i = 0; i < batch.keys.size(); i++) {
+                    RdbValue value = RdbDecoder.decode(batch.types[i], batch.payloads.get(i));
+                    RedisStoreObject object = value.type == RdbValue.STRING ? store.createValue(value.string)
+                            : collectionOf(value, store.encodingLimits());
+                    store.put(batch.keys.get(i), object, batch.expiries[i]);
+                }
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                inFlight.release();
+            }
+        });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,413 @@
+package com.example.redisClone.rdb;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Knows the layout of every RDB value type.
+ *
+ * Loading is split in two: skipValue() walks a value's framing just far enough to find
+ * where it ends (lengths only, nothing decompressed), so the loading thread can cut it out
+ * of the stream; decode() then turns those bytes into an RdbValue, on a worker thread.
+ */
+public class RdbDecoder {
+    public static final int TYPE_STRING = 0;
+    public static final int TYPE_LIST = 1;
+    public static final int TYPE_SET = 2;
+    public static final int TYPE_ZSET = 3;
+    public static final int TYPE_HASH = 4;
+    public static final int TYPE_ZSET_2 = 5;
+    public static final int TYPE_HASH_ZIPMAP = 9;
+    public static final int TYPE_LIST_ZIPLIST = 10;
+    public static final int TYPE_SET_INTSET = 11;
+    public static final int TYPE_ZSET_ZIPLIST = 12;
+    public static final int TYPE_HASH_ZIPLIST = 13;
+    public static final int TYPE_LIST_QUICKLIST = 14;
+    public static final int TYPE_HASH_LISTPACK = 16;
+    public static final int TYPE_ZSET_LISTPACK = 17;
+    public static final int TYPE_LIST_QUICKLIST_2 = 18;
+    public static final int TYPE_SET_LISTPACK = 20;
+
+    // quicklist 2 node containers.
+    private static final int QUICKLIST_NODE_PLAIN = 1;
+
+    /**
+     * @return true if this is a value type the loader understands.
+     */
+    public static boolean isValueType(int type) {
+        return (type >= TYPE_STRING && type <= TYPE_ZSET_2) || (type >= TYPE_HASH_ZIPMAP && type <= TYPE_LIST_QUICKLIST)
+                || type == TYPE_HASH_LISTPACK || type == TYPE_ZSET_LISTPACK || type == TYPE_LIST_QUICKLIST_2
+                || type == TYPE_SET_LISTPACK;
+    }
+
+    /**
+     * Moves the reader past one value without decoding it.
+     * @param reader The file reader, positioned at the value.
+     * @param type The RDB value type.
+     */
+    public static void skipValue(RdbReader reader, int type) throws IOException {
+        switch (type) {
+            case TYPE_STRING, TYPE_HASH_ZIPMAP, TYPE_LIST_ZIPLIST, TYPE_SET_INTSET, TYPE_ZSET_ZIPLIST,
+                    TYPE_HASH_ZIPLIST, TYPE_HASH_LISTPACK, TYPE_ZSET_LISTPACK, TYPE_SET_LISTPACK ->
+                reader.skipString(); // The whole value is one (possibly compressed) string.
+            case TYPE_LIST, TYPE_SET, TYPE_LIST_QUICKLIST -> {
+                long count = reader.readLength();
+                for (long i = 0; i < count; i++) {
+                    reader.skipString();
+                }
+            }
+            case TYPE_HASH -> {
+                long count = reader.readLength();
+                for (long i = 0; i < count * 2; i++) {
+                    reader.skipString();
+                }
+            }
+            case TYPE_ZSET -> {
+                long count = reader.readLength();
+                for (long i = 0; i < count; i++) {
+                    reader.skipString();
+                    int length = reader.readUnsignedByte();
+                    if (length < 253) {
+                        reader.skip(length);
+                    }
+                }
+            }
+            case TYPE_ZSET_2 -> {
+                long count = reader.readLength();
+                for (long i = 0; i < count; i++) {
+                    reader.skipString();
+                    reader.skip(8);
+                }
+            }
+            case TYPE_LIST_QUICKLIST_2 -> {
+                long count = reader.readLength();
+                for (long i = 0; i < count; i++) {
+                    reader.readLength(); // Container kind.
+                    reader.skipString();
+                }
+            }
+            default -> throw new IOException("Unsupported RDB value type " + type);
+        }
+    }
+
+    /**
+     * Decodes a value cut out of the file by skipValue().
+     * @param type The RDB value type.
+     * @param payload The value's bytes, exactly as they appear in the file.
+     */
+    public static RdbValue decode(int type, byte[] payload) throws IOException {
+        RdbReader reader = new RdbReader(payload);
+        RdbValue value;
+        switch (type) {
+            case TYPE_STRING -> {
+                value = new RdbValue(RdbValue.STRING);
+                value.string = reader.readString();
+            }
+            case TYPE_LIST, TYPE_SET -> {
+                value = new RdbValue(type == TYPE_LIST ? RdbValue.LIST : RdbValue.SET);
+                int count = reader.readIntLength();
+                value.elements = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    value.elements.add(reader.readString());
+                }
+            }
+            case TYPE_HASH -> {
+                value = new RdbValue(RdbValue.HASH);
+                int count = reader.readIntLength();
+                value.elements = new ArrayList<>(count * 2);
+                for (int i = 0; i < count * 2; i++) {
+                    value.elements.add(reader.readString());
+                }
+            }
+            case TYPE_ZSET, TYPE_ZSET_2 -> {
+                value = new RdbValue(RdbValue.ZSET);
+                int count = reader.readIntLength();
+                value.elements = new ArrayList<>(count);
+                value.scores = new double[count];
+                for (int i = 0; i < count; i++) {
+                    value.elements.add(reader.readString());
+                    value.scores[i] = type == TYPE_ZSET ? reader.readStringDouble() : reader.readBinaryDouble();
+                }
+            }
+            case TYPE_HASH_ZIPMAP -> {
+                value = new RdbValue(RdbValue.HASH);
+                value.elements = zipmapEntries(reader.readString());
+            }
+            case TYPE_LIST_ZIPLIST -> {
+                value = new RdbValue(RdbValue.LIST);
+                value.elements = ziplistEntries(reader.readString());
+            }
+            case TYPE_SET_INTSET -> {
+                value = new RdbValue(RdbValue.SET);
+                value.elements = intsetEntries(reader.readString());
+            }
+            case TYPE_HASH_ZIPLIST, TYPE_HASH_LISTPACK -> {
+                value = new RdbValue(RdbValue.HASH);
+                byte[] blob = reader.readString();
+                value.elements = type == TYPE_HASH_ZIPLIST ? ziplistEntries(blob) : listpackEntries(blob);
+            }
+            case TYPE_ZSET_ZIPLIST, TYPE_ZSET_LISTPACK -> {
+                value = new RdbValue(RdbValue.ZSET);
+                byte[] blob = reader.readString();
+                List<byte[]> entries = type == TYPE_ZSET_ZIPLIST ? ziplistEntries(blob) : listpackEntries(blob);
+                // Member and score alternate; scores are stored as strings or integers.
+                value.elements = new ArrayList<>(entries.size() / 2);
+                value.scores = new double[entries.size() / 2];
+                for (int i = 0; i + 1 < entries.size(); i += 2) {
+                    value.elements.add(entries.get(i));
+                    value.scores[i / 2] = parseScore(entries.get(i + 1));
+                }
+            }
+            case TYPE_SET_LISTPACK -> {
+                value = new RdbValue(RdbValue.SET);
+                value.elements = listpackEntries(reader.readString());
+            }
+            case TYPE_LIST_QUICKLIST, TYPE_LIST_QUICKLIST_2 -> {
+                value = new RdbValue(RdbValue.LIST);
+                value.elements = new ArrayList<>();
+                int nodes = reader.readIntLength();
+                for (int i = 0; i < nodes; i++) {
+                    if (type == TYPE_LIST_QUICKLIST) {
+                        value.elements.addAll(ziplistEntries(reader.readString()));
+                    } else if (reader.readLength() == QUICKLIST_NODE_PLAIN) {
+                        value.elements.add(reader.readString()); // A single large element.
+                    } else {
+                        value.elements.addAll(listpackEntries(reader.readString()));
+                    }
+                }
+            }
+            default -> throw new IOException("Unsupported RDB value type " + type);
+        }
+        return value;
+    }
+
+    /**
+     * Decodes a ziplist: zlbytes(4) zltail(4) zllen(2), then entries, then 0xFF.
+     * Each entry is prevlen, an encoding byte (string length or integer width), and the data.
+     */
+    static List<byte[]> ziplistEntries(byte[] blob) throws IOException {
+        List<byte[]> entries = new ArrayList<>();
+        int p = 10;
+        try {
+            while ((blob[p] & 0xFF) != 0xFF) {
+                // prevlen: one byte, or 0xFE followed by four bytes.
+                p += (blob[p] & 0xFF) == 0xFE ? 5 : 1;
+                int encoding = blob[p] & 0xFF;
+                switch (encoding >> 6) {
+                    case 0 -> { // 6-bit string length.
+                        int length = encoding & 0x3F;
+                        entries.add(copy(blob, p + 1, length));
+                        p += 1 + length;
+                    }
+                    case 1 -> { // 14-bit big-endian string length.
+                        int length = ((encoding & 0x3F) << 8) | (blob[p + 1] & 0xFF);
+                        entries.add(copy(blob, p + 2, length));
+                        p += 2 + length;
+                    }
+                    case 2 -> { // 32-bit big-endian string length.
+                        int length = (int) bigEndian(blob, p + 1, 4);
+                        entries.add(copy(blob, p + 5, length));
+                        p += 5 + length;
+                    }
+                    default -> { // Integers, little-endian.
+                        long number;
+                        int width;
+                        switch (encoding) {
+                            case 0xC0 -> { number = (short) littleEndian(blob, p + 1, 2); width = 2; }
+                            case 0xD0 -> { number = (int) littleEndian(blob, p + 1, 4); width = 4; }
+                            case 0xE0 -> { number = littleEndian(blob, p + 1, 8); width = 8; }
+                            case 0xF0 -> { number = ((int) littleEndian(blob, p + 1, 3) << 8) >> 8; width = 3; }
+                            case 0xFE -> { number = blob[p + 1]; width = 1; }
+                            default -> {
+                                // 1111xxxx: an immediate 0..12 stored as xxxx - 1.
+                                if (encoding < 0xF1 || encoding > 0xFD) {
+                                    throw new IOException("Invalid ziplist encoding " + encoding);
+                                }
+                                number = (encoding & 0x0F) - 1;
+                                width = 0;
+                            }
+                        }
+                        entries.add(Long.toString(number).getBytes(StandardCharsets.US_ASCII));
+                        p += 1 + width;
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt ziplist");
+        }
+        return entries;
+    }
+
+    /**
+     * Decodes a listpack: total bytes(4) count(2), then entries, then 0xFF.
+     * Each entry is an encoding byte, its data, and a backlen of 1 to 5 bytes.
+     */
+    static List<byte[]> listpackEntries(byte[] blob) throws IOException {
+        List<byte[]> entries = new ArrayList<>();
+        int p = 6;
+        try {
+            while ((blob[p] & 0xFF) != 0xFF) {
+                int encoding = blob[p] & 0xFF;
+                int start = p;
+                if ((encoding & 0x80) == 0) { // 0xxxxxxx: 7-bit unsigned integer.
+                    entries.add(Long.toString(encoding).getBytes(StandardCharsets.US_ASCII));
+                    p += 1;
+                } else if ((encoding & 0xC0) == 0x80) { // 10xxxxxx: 6-bit string length.
+                    int length = encoding & 0x3F;
+                    entries.add(copy(blob, p + 1, length));
+                    p += 1 + length;
+                } else if ((encoding & 0xE0) == 0xC0) { // 110xxxxx: 13-bit signed integer.
+                    int number = ((encoding & 0x1F) << 8) | (blob[p + 1] & 0xFF);
+                    if (number >= 1 << 12) {
+                        number -= 1 << 13;
+                    }
+                    entries.add(Long.toString(number).getBytes(StandardCharsets.US_ASCII));
+                    p += 2;
+                } else if ((encoding & 0xF0) == 0xE0) { // 1110xxxx: 12-bit string length.
+                    int length = ((encoding & 0x0F) << 8) | (blob[p + 1] & 0xFF);
+                    entries.add(copy(blob, p + 2, length));
+                    p += 2 + length;
+                } else {
+                    long number;
+                    int width;
+                    switch (encoding) {
+                        case 0xF0 -> { // 32-bit string length.
+                            int length = (int) littleEndian(blob, p + 1, 4);
+                            entries.add(copy(blob, p + 5, length));
+                            p += 5 + length;
+                            p += backlenSize(p - start);
+                            continue;
+                        }
+                        case 0xF1 -> { number = (short) littleEndian(blob, p + 1, 2); width = 2; }
+                        case 0xF2 -> { number = ((int) littleEndian(blob, p + 1, 3) << 8) >> 8; width = 3; }
+                        case 0xF3 -> { number = (int) littleEndian(blob, p + 1, 4); width = 4; }
+                        case 0xF4 -> { number = littleEndian(blob, p + 1, 8); width = 8; }
+                        default -> throw new IOException("Invalid listpack encoding " + encoding);
+                    }
+                    entries.add(Long.toString(number).getBytes(StandardCharsets.US_ASCII));
+                    p += 1 + width;
+                }
+                p += backlenSize(p - start);
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt listpack");
+        }
+        return entries;
+    }
+
+    /**
+     * Decodes an intset: encoding (bytes per element, 4), length (4), then the sorted elements.
+     */
+    static List<byte[]> intsetEntries(byte[] blob) throws IOException {
+        if (blob.length < 8) {
+            throw new IOException("Corrupt intset");
+        }
+        int width = (int) littleEndian(blob, 0, 4);
+        int count = (int) littleEndian(blob, 4, 4);
+        if ((width != 2 && width != 4 && width != 8) || blob.length < 8 + (long) width * count) {
+            throw new IOException("Corrupt intset");
+        }
+        List<byte[]> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long raw = littleEndian(blob, 8 + i * width, width);
+            long number = width == 2 ? (short) raw : width == 4 ? (int) raw : raw;
+            entries.add(Long.toString(number).getBytes(StandardCharsets.US_ASCII));
+        }
+        return entries;
+    }
+
+    /**
+     * Decodes a zipmap, the pre-2.6 small hash encoding: zmlen(1), then
+     * (len, field, len, free, value, free bytes) pairs, then 0xFF.
+     */
+    static List<byte[]> zipmapEntries(byte[] blob) throws IOException {
+        List<byte[]> entries = new ArrayList<>();
+        int p = 1;
+        try {
+            while ((blob[p] & 0xFF) != 0xFF) {
+                int[] length = new int[1];
+                p = zipmapLength(blob, p, length);
+                entries.add(copy(blob, p, length[0]));
+                p += length[0];
+                p = zipmapLength(blob, p, length);
+                int free = blob[p++] & 0xFF;
+                entries.add(copy(blob, p, length[0]));
+                p += length[0] + free;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt zipmap");
+        }
+        return entries;
+    }
+
+    private static int zipmapLength(byte[] blob, int p, int[] length) {
+        int first = blob[p] & 0xFF;
+        if (first < 254) {
+            length[0] = first;
+            return p + 1;
+        }
+        length[0] = (int) littleEndian(blob, p + 1, 4);
+        return p + 5;
+    }
+
+    /**
+     * @return The size of a listpack backlen field for an entry of this many bytes.
+     */
+    private static int backlenSize(int entryLength) {
+        if (entryLength < 128) {
+            return 1;
+        } else if (entryLength < 16383) {
+            return 2;
+        } else if (entryLength < 2097151) {
+            return 3;
+        } else if (entryLength < 268435455) {
+            return 4;
+        }
+        return 5;
+    }
+
+    /**
+     * Parses a score stored as text the way Redis formats doubles ("1.5", "inf", "-inf", "nan").
+     */
+    private static double parseScore(byte[] text) throws IOException {
+        String score = new String(text, StandardCharsets.US_ASCII);
+        switch (score) {
+            case "inf", "+inf":
+                return Double.POSITIVE_INFINITY;
+            case "-inf":
+                return Double.NEGATIVE_INFINITY;
+            case "nan":
+                return Double.NaN;
+            default:
+                try {
+                    return Double.parseDouble(score);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid zset score: " + score);
+                }
+        }
+    }
+
+    private static byte[] copy(byte[] blob, int offset, int length) {
+        byte[] copy = new byte[length];
+        System.arraycopy(blob, offset, copy, 0, length);
+        return copy;
+    }
+
+    private static long littleEndian(byte[] blob, int offset, int bytes) {
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value |= ((long) (blob[offset + i] & 0xFF)) << (i * 8);
+        }
+        return value;
+    }
+
+    private static long bigEndian(byte[] blob, int offset, int bytes) {
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value = (value << 8) | (blob[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
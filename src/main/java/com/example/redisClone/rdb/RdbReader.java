@@ -0,0 +1,314 @@
+package com.example.redisClone.rdb;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the primitive parts of an RDB file: bytes, lengths, strings and numbers.
+ *
+ * It works either over a FileChannel, refilling a large buffer with one read() call
+ * at a time (instead of one call per byte), or over an in-memory payload, which is how
+ * worker threads decode values the loader has cut out of the file.
+ *
+ * While capturing, every byte consumed is also copied to a side buffer; the loader uses
+ * this to lift a value's raw encoding out of the stream without decoding it.
+ */
+public class RdbReader {
+    // Length encodings (the top two bits of the first byte).
+    private static final int LENGTH_6BIT = 0;
+    private static final int LENGTH_14BIT = 1;
+    private static final int LENGTH_32OR64BIT = 2;
+    private static final int LENGTH_ENCODED = 3;
+    // Special string encodings (the low six bits when the type is LENGTH_ENCODED).
+    private static final int ENCODING_INT8 = 0;
+    private static final int ENCODING_INT16 = 1;
+    private static final int ENCODING_INT32 = 2;
+    private static final int ENCODING_LZF = 3;
+
+    private final FileChannel channel;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    // Bytes consumed from previous buffer fills, for progress reporting.
+    private long consumedBefore;
+
+    private boolean capturing;
+    private byte[] capture = new byte[256];
+    private int captureLength;
+
+    /**
+     * Creates a reader over a file.
+     * @param channel The file, positioned at the first byte to read.
+     * @param bufferSize How many bytes to read from the file at a time.
+     */
+    public RdbReader(FileChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Creates a reader over bytes already in memory.
+     */
+    public RdbReader(byte[] payload) {
+        this.channel = null;
+        this.buffer = payload;
+        this.limit = payload.length;
+    }
+
+    /**
+     * @return The number of bytes consumed so far.
+     */
+    public long bytesRead() {
+        return consumedBefore + position;
+    }
+
+    public boolean hasRemaining() throws IOException {
+        return position < limit || fill();
+    }
+
+    public int readUnsignedByte() throws IOException {
+        if (position == limit && !fill()) {
+            throw new EOFException("Unexpected end of RDB file");
+        }
+        int b = buffer[position++] & 0xFF;
+        if (capturing) {
+            appendCapture(b);
+        }
+        return b;
+    }
+
+    public void readFully(byte[] target, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (position == limit && !fill()) {
+                throw new EOFException("Unexpected end of RDB file");
+            }
+            int n = Math.min(length, limit - position);
+            System.arraycopy(buffer, position, target, offset, n);
+            if (capturing) {
+                appendCapture(buffer, position, n);
+            }
+            position += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    public byte[] readBytes(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        readFully(bytes, 0, length);
+        return bytes;
+    }
+
+    /**
+     * Skips bytes, copying them to the capture buffer if capturing.
+     */
+    public void skip(long length) throws IOException {
+        while (length > 0) {
+            if (position == limit && !fill()) {
+                throw new EOFException("Unexpected end of RDB file");
+            }
+            int n = (int) Math.min(length, limit - position);
+            if (capturing) {
+                appendCapture(buffer, position, n);
+            }
+            position += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Starts copying consumed bytes to the capture buffer.
+     */
+    public void startCapture() {
+        capturing = true;
+        captureLength = 0;
+    }
+
+    /**
+     * Stops capturing.
+     * @return The bytes consumed since startCapture().
+     */
+    public byte[] endCapture() {
+        capturing = false;
+        byte[] captured = Arrays.copyOf(capture, captureLength);
+        if (capture.length > 1024 * 1024) {
+            capture = new byte[256]; // Don't hold on to the space of one huge value.
+        }
+        return captured;
+    }
+
+    /**
+     * Reads a length. Lengths that are actually special string encodings are rejected.
+     */
+    public long readLength() throws IOException {
+        int first = readUnsignedByte();
+        if ((first >> 6) == LENGTH_ENCODED) {
+            throw new IOException("Unexpected string encoding " + (first & 0x3F) + " where a length was expected");
+        }
+        return readLength(first);
+    }
+
+    /**
+     * Reads a length that must fit an int (element counts, string sizes).
+     */
+    public int readIntLength() throws IOException {
+        long length = readLength();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Length too large: " + length);
+        }
+        return (int) length;
+    }
+
+    private long readLength(int first) throws IOException {
+        switch (first >> 6) {
+            case LENGTH_6BIT:
+                return first & 0x3F;
+            case LENGTH_14BIT:
+                return ((first & 0x3F) << 8) | readUnsignedByte();
+            default:
+                if (first == 0x80) { // 32-bit big-endian length.
+                    return readBigEndian(4);
+                }
+                if (first == 0x81) { // 64-bit big-endian length.
+                    return readBigEndian(8);
+                }
+                throw new IOException("Unknown length encoding " + first);
+        }
+    }
+
+    /**
+     * Reads a string in any of its encodings: raw, integer or LZF-compressed.
+     * @return The string bytes; integers are returned in their decimal form.
+     */
+    public byte[] readString() throws IOException {
+        int first = readUnsignedByte();
+        if ((first >> 6) != LENGTH_ENCODED) {
+            long length = readLength(first);
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("String too large: " + length);
+            }
+            return readBytes((int) length);
+        }
+        switch (first & 0x3F) {
+            case ENCODING_INT8:
+                return Long.toString((byte) readUnsignedByte()).getBytes(StandardCharsets.US_ASCII);
+            case ENCODING_INT16:
+                return Long.toString((short) readLittleEndian(2)).getBytes(StandardCharsets.US_ASCII);
+            case ENCODING_INT32:
+                return Long.toString((int) readLittleEndian(4)).getBytes(StandardCharsets.US_ASCII);
+            case ENCODING_LZF:
+                int compressedLength = readIntLength();
+                int length = readIntLength();
+                return Lzf.decompress(readBytes(compressedLength), length);
+            default:
+                throw new IOException("Unknown string encoding " + (first & 0x3F));
+        }
+    }
+
+    /**
+     * Skips a string without decoding it (LZF data stays compressed).
+     */
+    public void skipString() throws IOException {
+        int first = readUnsignedByte();
+        if ((first >> 6) != LENGTH_ENCODED) {
+            skip(readLength(first));
+            return;
+        }
+        switch (first & 0x3F) {
+            case ENCODING_INT8 -> skip(1);
+            case ENCODING_INT16 -> skip(2);
+            case ENCODING_INT32 -> skip(4);
+            case ENCODING_LZF -> {
+                long compressedLength = readLength();
+                readLength(); // Uncompressed length.
+                skip(compressedLength);
+            }
+            default -> throw new IOException("Unknown string encoding " + (first & 0x3F));
+        }
+    }
+
+    /**
+     * Reads a double in the old zset format: a one-byte length then ASCII, with
+     * 253 = NaN, 254 = +inf and 255 = -inf.
+     */
+    public double readStringDouble() throws IOException {
+        int length = readUnsignedByte();
+        switch (length) {
+            case 253:
+                return Double.NaN;
+            case 254:
+                return Double.POSITIVE_INFINITY;
+            case 255:
+                return Double.NEGATIVE_INFINITY;
+            default:
+                return Double.parseDouble(new String(readBytes(length), StandardCharsets.US_ASCII));
+        }
+    }
+
+    /**
+     * Reads an 8-byte little-endian IEEE 754 double (ZSET_2 and later).
+     */
+    public double readBinaryDouble() throws IOException {
+        return Double.longBitsToDouble(readLittleEndian(8));
+    }
+
+    /**
+     * Reads an unsigned little-endian number of 1 to 8 bytes.
+     */
+    public long readLittleEndian(int bytes) throws IOException {
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value |= ((long) readUnsignedByte()) << (i * 8);
+        }
+        return value;
+    }
+
+    private long readBigEndian(int bytes) throws IOException {
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value = (value << 8) | readUnsignedByte();
+        }
+        return value;
+    }
+
+    /**
+     * Refills the buffer from the file.
+     * @return false at end of file.
+     */
+    private boolean fill() throws IOException {
+        if (channel == null) {
+            return false;
+        }
+        consumedBefore += position;
+        position = 0;
+        limit = 0;
+        ByteBuffer target = ByteBuffer.wrap(buffer);
+        while (target.hasRemaining()) {
+            int n = channel.read(target);
+            if (n == -1) {
+                break;
+            }
+        }
+        limit = target.position();
+        return limit > 0;
+    }
+
+    private void appendCapture(int b) {
+        if (captureLength == capture.length) {
+            capture = Arrays.copyOf(capture, capture.length * 2);
+        }
+        capture[captureLength++] = (byte) b;
+    }
+
+    private void appendCapture(byte[] source, int offset, int length) {
+        if (captureLength + length > capture.length) {
+            capture = Arrays.copyOf(capture, Math.max(capture.length * 2, captureLength + length));
+        }
+        System.arraycopy(source, offset, capture, captureLength, length);
+        captureLength += length;
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.redisClone.rdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import com.example.redisClone.Log;
+import com.example.redisClone.store.Keyspace;
+import com.example.redisClone.store.KeyspaceSnapshot;
+
+/**
+ * Writes RDB snapshots: SAVE in the calling thread, BGSAVE on a background thread, and
+ * automatic BGSAVEs driven by the save policies.
+ *
+ * The file is written under a temporary name and renamed over the configured one only once it
+ * is complete and synced, so a crash mid-save never leaves a truncated dump behind.
+ */
+public class RdbSaver {
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    // After a failed BGSAVE, automatic saves wait this long before trying again (like Redis).
+    private static final long BGSAVE_RETRY_DELAY_MS = 5000;
+
+    private final RDBconfig rdbConfig;
+    private final Keyspace keyspace;
+
+    private boolean inProgress;
+    private long currentStartMillis;
+    // Unix time in milliseconds of the last successful save (server start until the first one).
+    private long lastSaveMillis = System.currentTimeMillis();
+    private long lastAttemptMillis;
+    private boolean lastStatusOk = true;
+    // Metrics of the last completed save.
+    private long lastSnapshotMicros;
+    private long lastDurationMillis = -1;
+    private long lastBytesWritten;
+    private int lastCopiedOnWrite;
+    private long completedSaves;
+
+    public RdbSaver(RDBconfig rdbConfig, Keyspace keyspace) {
+        this.rdbConfig = rdbConfig;
+        this.keyspace = keyspace;
+    }
+
+    /**
+     * Saves synchronously (SAVE). The caller must hold the execution write lock.
+     * @throws IOException If the file cannot be written.
+     * @throws IllegalStateException If a background save is running.
+     */
+    public void save() throws IOException {
+        KeyspaceSnapshot snapshot = start();
+        boolean ok = false;
+        try {
+            write(snapshot);
+            ok = true;
+            Log.info("DB saved on disk");
+        } finally {
+            finish(snapshot, ok);
+        }
+    }
+
+    /**
+     * Starts a background save (BGSAVE). The caller must hold the execution write lock,
+     * so the snapshot is a consistent point in time.
+     * @return false if a save is already in progress.
+     */
+    public boolean backgroundSave() {
+        KeyspaceSnapshot snapshot;
+        try {
+            snapshot = start();
+        } catch (IllegalStateException e) {
+            return false;
+        }
+        Thread saver = new Thread(() -> {
+            boolean ok = false;
+            try {
+                write(snapshot);
+                ok = true;
+                Log.info("Background saving terminated with success");
+            } catch (IOException e) {
+                Log.info("Background saving error: " + e.getMessage());
+            } finally {
+                finish(snapshot, ok);
+            }
+        }, "rdb-bgsave");
+        saver.setDaemon(true);
+        saver.start();
+        Log.info("Background saving started");
+        return true;
+    }
+
+    /**
+     * Checks the save policies, for serverCron.
+     * @param now The current time in milliseconds.
+     * @return true if a background save should start now.
+     */
+    public synchronized boolean shouldSave(long now) {
+        if (inProgress || keyspace.snapshotActive()) {
+            return false;
+        }
+        if (!lastStatusOk && now - lastAttemptMillis < BGSAVE_RETRY_DELAY_MS) {
+            return false;
+        }
+        long dirty = keyspace.dirty();
+        for (SavePolicy policy : rdbConfig.savePolicies) {
+            if (dirty >= policy.changes && now - lastSaveMillis >= policy.seconds * 1000) {
+                Log.info(policy.changes + " changes in " + policy.seconds + " seconds. Saving...");
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized boolean inProgress() {
+        return inProgress;
+    }
+
+    /**
+     * @return The Unix time in seconds of the last successful save (LASTSAVE).
+     */
+    public synchronized long lastSave() {
+        return lastSaveMillis / 1000;
+    }
+
+    /**
+     * Formats the rdb_* fields of INFO persistence.
+     */
+    public synchronized String info() {
+        long now = System.currentTimeMillis();
+        return "rdb_changes_since_last_save:" + keyspace.dirty() + "\r\n"
+                + "rdb_bgsave_in_progress:" + (inProgress ? 1 : 0) + "\r\n"
+                + "rdb_last_save_time:" + lastSaveMillis / 1000 + "\r\n"
+                + "rdb_last_bgsave_status:" + (lastStatusOk ? "ok" : "err") + "\r\n"
+                + "rdb_last_bgsave_time_sec:" + (lastDurationMillis < 0 ? -1 : lastDurationMillis / 1000) + "\r\n"
+                + "rdb_current_bgsave_time_sec:" + (inProgress ? (now - currentStartMillis) / 1000 : -1) + "\r\n"
+                + "rdb_saves:" + completedSaves + "\r\n"
+                + "rdb_last_snapshot_usec:" + lastSnapshotMicros + "\r\n"
+                + "rdb_last_save_bytes:" + lastBytesWritten + "\r\n"
+                + "rdb_last_cow_segments:" + lastCopiedOnWrite + "\r\n";
+    }
+
+    /**
+     * Begins a snapshot; its duration plays the role of Redis's fork time.
+     */
+    private synchronized KeyspaceSnapshot start() {
+        if (inProgress) {
+            throw new IllegalStateException("Background save already in progress");
+        }
+        if (keyspace.snapshotActive()) {
+            throw new IllegalStateException("Background append only file rewriting in progress");
+        }
+        long startNanos = System.nanoTime();
+        KeyspaceSnapshot snapshot = keyspace.beginSnapshot();
+        lastSnapshotMicros = (System.nanoTime() - startNanos) / 1000;
+        inProgress = true;
+        currentStartMillis = System.currentTimeMillis();
+        lastAttemptMillis = currentStartMillis;
+        return snapshot;
+    }
+
+    private synchronized void finish(KeyspaceSnapshot snapshot, boolean ok) {
+        lastCopiedOnWrite = snapshot.copiedOnWrite();
+        snapshot.release();
+        inProgress = false;
+        lastStatusOk = ok;
+        lastDurationMillis = System.currentTimeMillis() - currentStartMillis;
+        if (ok) {
+            lastSaveMillis = currentStartMillis;
+            completedSaves++;
+            keyspace.clearDirty(snapshot.dirtyAtStart); // Writes made during the save are still dirty.
+        }
+    }
+
+    /**
+     * Writes a snapshot as a complete RDB file and syncs it. Also used for the full resync of replicas.
+     * @param keyspace The keyspace the snapshot was taken from.
+     * @param snapshot The snapshot; the caller releases it.
+     * @param channel The file to write to.
+     * @return The number of bytes written.
+     * @throws IOException If the file cannot be written.
+     */
+    public static long writeRdb(Keyspace keyspace, KeyspaceSnapshot snapshot, FileChannel channel)
+            throws IOException {
+        RdbWriter writer = new RdbWriter(channel, WRITE_BUFFER_SIZE);
+        writer.writeHeader(keyspace.usedMemory());
+        writer.writeDatabaseHeader(snapshot.keys, snapshot.expires);
+        for (int i = 0; i < snapshot.segmentCount(); i++) {
+            KeyspaceSnapshot.Image image = snapshot.take(i);
+            for (int j = 0; j < image.size; j++) {
+                writer.writeEntry(image.keys[j], image.values[j], image.numbers[j], image.expirations[j]);
+            }
+        }
+        writer.finish();
+        channel.force(true); // Make the data durable before a rename makes it visible.
+        return writer.bytesWritten();
+    }
+
+    /**
+     * Streams the snapshot to a temporary file, syncs it and renames it into place.
+     */
+    private void write(KeyspaceSnapshot snapshot) throws IOException {
+        File target = new File(rdbConfig.directory, rdbConfig.dataBaseFileName);
+        File temp = new File(rdbConfig.directory, "temp-" + ProcessHandle.current().pid() + ".rdb");
+        long bytes;
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            bytes = writeRdb(keyspace, snapshot, channel);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp.toPath());
+            throw e;
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        synchronized (this) {
+            lastBytesWritten = bytes;
+        }
+    }
+}
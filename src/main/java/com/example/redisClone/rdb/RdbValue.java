@@ -0,0 +1,27 @@
+package com.example.redisClone.rdb;
+
+import java.util.List;
+
+/**
+ * A value decoded from an RDB file, independent of how it was encoded there
+ * (plain, ziplist, listpack, intset, quicklist...).
+ */
+public class RdbValue {
+    public static final int STRING = 0;
+    public static final int LIST = 1;
+    public static final int SET = 2;
+    public static final int HASH = 3;
+    public static final int ZSET = 4;
+
+    public final int type;
+    // The value of a STRING.
+    public byte[] string;
+    // LIST and SET elements, HASH fields and values interleaved, or ZSET members.
+    public List<byte[]> elements;
+    // ZSET scores, parallel to elements.
+    public double[] scores;
+
+    public RdbValue(int type) {
+        this.type = type;
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.redisClone.rdb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.example.redisClone.RedisStoreObject;
+import com.example.redisClone.types.HashValue;
+import com.example.redisClone.types.ListValue;
+import com.example.redisClone.types.Listpack;
+import com.example.redisClone.types.SetValue;
+import com.example.redisClone.types.ZSetValue;
+
+/**
+ * Streams an RDB file to a FileChannel through a large buffer, keeping the CRC-64 of
+ * everything written so it can be appended after the EOF opcode.
+ */
+public class RdbWriter {
+    public static final String RDB_VERSION = "0011";
+
+    private final FileChannel channel;
+    private final byte[] buffer;
+    private int position;
+    private long crc;
+    private long bytesWritten;
+
+    /**
+     * @param channel The file to write, positioned at its start.
+     * @param bufferSize How many bytes to collect before each write to the file.
+     */
+    public RdbWriter(FileChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * @return The bytes written so far, including any still buffered.
+     */
+    public long bytesWritten() {
+        return bytesWritten + position;
+    }
+
+    /**
+     * Writes the "REDIS" magic and version, then the usual AUX fields.
+     */
+    public void writeHeader(long usedMemory) throws IOException {
+        writeBytes(("REDIS" + RDB_VERSION).getBytes(StandardCharsets.US_ASCII));
+        writeAux("redis-ver", "7.2.0");
+        writeAux("redis-bits", "64");
+        writeAux("ctime", Long.toString(System.currentTimeMillis() / 1000));
+        writeAux("used-mem", Long.toString(usedMemory));
+    }
+
+    public void writeAux(String key, String value) throws IOException {
+        writeByte(0xFA);
+        writeString(key.getBytes(StandardCharsets.ISO_8859_1));
+        writeString(value.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Writes SELECTDB and the RESIZEDB hint for database 0.
+     */
+    public void writeDatabaseHeader(int keys, int expires) throws IOException {
+        writeByte(0xFE);
+        writeLength(0);
+        writeByte(0xFB);
+        writeLength(keys);
+        writeLength(expires);
+    }
+
+    /**
+     * Writes one key/value pair, preceded by its expiry if it has one.
+     * @param key The key.
+     * @param value The value; INT values use number rather than the object's current number.
+     * @param number The INT value as of the snapshot.
+     * @param expiration The expiry as of the snapshot, Long.MAX_VALUE for none.
+     */
+    public void writeEntry(String key, RedisStoreObject value, long number, long expiration) throws IOException {
+        if (expiration != Long.MAX_VALUE) {
+            writeByte(0xFC);
+            writeLittleEndian(expiration, 8);
+        }
+        if (value.encoding == RedisStoreObject.ENCODING_COLLECTION) {
+            writeCollection(key, value);
+            return;
+        }
+        writeByte(RdbDecoder.TYPE_STRING);
+        writeString(key.getBytes(StandardCharsets.ISO_8859_1));
+        switch (value.encoding) {
+            case RedisStoreObject.ENCODING_INT -> writeStringInteger(number);
+            case RedisStoreObject.ENCODING_OFFHEAP, RedisStoreObject.ENCODING_TIERED -> {
+                ByteBuffer data = ((ByteBuffer) value.data).duplicate();
+                writeLength(data.remaining());
+                while (data.hasRemaining()) {
+                    if (position == buffer.length) {
+                        flush();
+                    }
+                    int n = Math.min(buffer.length - position, data.remaining());
+                    data.get(buffer, position, n);
+                    position += n;
+                }
+            }
+            default -> writeString((byte[]) value.data);
+        }
+    }
+
+    /**
+     * Writes a list, set, hash or sorted set the way Redis 7 does: small collections as their
+     * listpack blob, lists as a quicklist of packed listpack nodes, and large sets, hashes and
+     * sorted sets element by element.
+     */
+    private void writeCollection(String key, RedisStoreObject value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.ISO_8859_1);
+        switch (value.type) {
+            case RedisStoreObject.TYPE_LIST -> {
+                List<Listpack> nodes = ((ListValue) value.collection()).nodes();
+                writeByte(RdbDecoder.TYPE_LIST_QUICKLIST_2);
+                writeString(keyBytes);
+                writeLength(nodes.size());
+                for (Listpack node : nodes) {
+                    writeLength(2); // QUICKLIST_NODE_CONTAINER_PACKED
+                    writeString(node.toBytes());
+                }
+            }
+            case RedisStoreObject.TYPE_SET -> {
+                SetValue set = (SetValue) value.collection();
+                if (set.listpack() != null) {
+                    writeByte(RdbDecoder.TYPE_SET_LISTPACK);
+                    writeString(keyBytes);
+                    writeString(set.listpack().toBytes());
+                    return;
+                }
+                writeByte(RdbDecoder.TYPE_SET);
+                writeString(keyBytes);
+                List<byte[]> members = set.members();
+                writeLength(members.size());
+                for (byte[] member : members) {
+                    writeString(member);
+                }
+            }
+            case RedisStoreObject.TYPE_HASH -> {
+                HashValue hash = (HashValue) value.collection();
+                if (hash.listpack() != null) {
+                    writeByte(RdbDecoder.TYPE_HASH_LISTPACK);
+                    writeString(keyBytes);
+                    writeString(hash.listpack().toBytes());
+                    return;
+                }
+                writeByte(RdbDecoder.TYPE_HASH);
+                writeString(keyBytes);
+                List<byte[]> entries = hash.entries();
+                writeLength(entries.size() / 2);
+                for (byte[] entry : entries) {
+                    writeString(entry);
+                }
+            }
+            case RedisStoreObject.TYPE_ZSET -> {
+                ZSetValue zset = (ZSetValue) value.collection();
+                if (zset.listpack() != null) {
+                    writeByte(RdbDecoder.TYPE_ZSET_LISTPACK);
+                    writeString(keyBytes);
+                    writeString(zset.listpack().toBytes());
+                    return;
+                }
+                writeByte(RdbDecoder.TYPE_ZSET_2);
+                writeString(keyBytes);
+                writeLength(zset.size());
+                // Redis writes the highest scores first, so loading inserts at the skiplist's head.
+                for (ZSetValue.Entry entry : zset.rangeByRank(0, zset.size() - 1, true)) {
+                    writeString(entry.member);
+                    writeLittleEndian(Double.doubleToLongBits(entry.score), 8);
+                }
+            }
+            default -> throw new IOException("Unknown value type " + value.type);
+        }
+    }
+
+    /**
+     * Writes the EOF opcode and the checksum, and pushes everything to the file.
+     */
+    public void finish() throws IOException {
+        writeByte(0xFF);
+        flush(); // The checksum covers everything up to and including EOF.
+        long checksum = crc;
+        writeLittleEndian(checksum, 8);
+        flush();
+    }
+
+    /**
+     * Writes an integer using the compact 8/16/32-bit string encodings when it fits.
+     */
+    private void writeStringInteger(long number) throws IOException {
+        if (number >= Byte.MIN_VALUE && number <= Byte.MAX_VALUE) {
+            writeByte(0xC0);
+            writeLittleEndian(number, 1);
+        } else if (number >= Short.MIN_VALUE && number <= Short.MAX_VALUE) {
+            writeByte(0xC1);
+            writeLittleEndian(number, 2);
+        } else if (number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE) {
+            writeByte(0xC2);
+            writeLittleEndian(number, 4);
+        } else {
+            writeString(Long.toString(number).getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    private void writeString(byte[] value) throws IOException {
+        writeLength(value.length);
+        writeBytes(value);
+    }
+
+    private void writeLength(long length) throws IOException {
+        if (length < 64) {
+            writeByte((int) length);
+        } else if (length < 16384) {
+            writeByte(0x40 | (int) (length >> 8));
+            writeByte((int) length & 0xFF);
+        } else if (length <= 0xFFFFFFFFL) {
+            writeByte(0x80);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                writeByte((int) (length >> shift) & 0xFF);
+            }
+        } else {
+            writeByte(0x81);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                writeByte((int) (length >> shift) & 0xFF);
+            }
+        }
+    }
+
+    private void writeLittleEndian(long value, int bytes) throws IOException {
+        for (int i = 0; i < bytes; i++) {
+            writeByte((int) (value >> (i * 8)) & 0xFF);
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (position == buffer.length) {
+            flush();
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    private void writeBytes(byte[] data) throws IOException {
+        int offset = 0;
+        while (offset < data.length) {
+            if (position == buffer.length) {
+                flush();
+            }
+            int n = Math.min(buffer.length - position, data.length - offset);
+            System.arraycopy(data, offset, buffer, position, n);
+            position += n;
+            offset += n;
+        }
+    }
+
+    private void flush() throws IOException {
+        crc = Crc64.update(crc, buffer, 0, position);
+        ByteBuffer out = ByteBuffer.wrap(buffer, 0, position);
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        bytesWritten += position;
+        position = 0;
+    }
+}
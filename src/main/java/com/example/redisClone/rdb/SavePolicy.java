@@ -0,0 +1,20 @@
+package com.example.redisClone.rdb;
+
+/**
+ * One "save <seconds> <changes>" rule: snapshot when at least changes writes
+ * happened and at least seconds passed since the last save.
+ */
+public class SavePolicy {
+    public final long seconds;
+    public final long changes;
+
+    public SavePolicy(long seconds, long changes) {
+        this.seconds = seconds;
+        this.changes = changes;
+    }
+
+    @Override
+    public String toString() {
+        return seconds + " " + changes;
+    }
+}
@@ -0,0 +1,352 @@
+package com.example.redisClone.replication;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import com.example.redisClone.Log;
+import com.example.redisClone.Main;
+import com.example.redisClone.rdb.RDBconfig;
+import com.example.redisClone.rdb.RDBconfigHandler;
+import com.example.redisClone.server.ClientConnection;
+import com.example.redisClone.server.Reactor;
+import com.example.redisClone.server.ServerContext;
+
+/**
+ * The replica side of replication (--replicaof).
+ *
+ * A background thread connects to the master and performs the handshake (PING, REPLCONF, PSYNC)
+ * with blocking I/O. After a full resync it stores the received RDB file as our own dump and loads
+ * it. The socket is then handed to a reactor, which applies the replication stream through the
+ * normal event loop, like commands from a client whose replies are discarded. When the link
+ * drops, the thread reconnects and asks to continue from the offset it had reached (PSYNC
+ * replid offset), so a short disconnection does not transfer the whole dataset again.
+ */
+public class MasterLink implements Runnable {
+    private static final long RECONNECT_DELAY_MS = 1000;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // How often the replica reports its offset (REPLCONF ACK) without being asked, like Redis's replicationCron.
+    private static final long ACK_PERIOD_MS = 1000;
+
+    public final String host;
+    public final int port;
+    private final int listeningPort;
+    private final ServerContext server;
+    public final Reactor reactor;
+
+    // The master's replication ID and the stream offset applied so far ("?" and -1 before the first sync).
+    private volatile String masterReplid = "?";
+    private volatile long offset = -1;
+    private volatile boolean linkUp;
+    private volatile boolean syncInProgress;
+    private volatile long lastIoMillis;
+    // Guarded by itself: true while a reactor owns the master connection.
+    private final Object linkMonitor = new Object();
+    private boolean attached;
+    // Owning reactor only: the master connection once attached, when the last ACK was sent,
+    // and whether the master asked for one (GETACK).
+    public ClientConnection connection;
+    private long lastAckMillis;
+    private boolean ackRequested;
+    private volatile long acksSent;
+
+    /**
+     * @param host The master's host.
+     * @param port The master's port.
+     * @param listeningPort Our own port, announced with REPLCONF listening-port.
+     * @param server The shared server state, whose keyspace is replaced on a full resync.
+     * @param reactor The reactor that will own the master connection.
+     */
+    public MasterLink(String host, int port, int listeningPort, ServerContext server, Reactor reactor) {
+        this.host = host;
+        this.port = port;
+        this.listeningPort = listeningPort;
+        this.server = server;
+        this.reactor = reactor;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                sync();
+                awaitDisconnect();
+            } catch (IOException e) {
+                Log.info("Failed to sync with master " + host + ":" + port + ": " + e.getMessage());
+            }
+            syncInProgress = false;
+            try {
+                Thread.sleep(RECONNECT_DELAY_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Connects, performs the handshake and the (full or partial) resync, then hands the
+     * socket to the reactor.
+     */
+    private void sync() throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        boolean handedOver = false;
+        try {
+            ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            in.flip();
+            // The master answers each handshake step with a status line.
+            send(channel, "PING");
+            expectStatus(channel, in, "PING");
+            send(channel, "REPLCONF", "listening-port", String.valueOf(listeningPort));
+            expectStatus(channel, in, "REPLCONF listening-port");
+            send(channel, "REPLCONF", "capa", "psync2");
+            expectStatus(channel, in, "REPLCONF capa");
+
+            syncInProgress = true;
+            send(channel, "PSYNC", masterReplid, offset < 0 ? "-1" : String.valueOf(offset + 1));
+            String reply = readLine(channel, in);
+            if (reply.startsWith("+FULLRESYNC ")) {
+                String[] parts = reply.split(" ");
+                Log.info("Full resync from master: " + parts[1] + ":" + parts[2]);
+                receiveRdb(channel, in);
+                masterReplid = parts[1];
+                offset = Long.parseLong(parts[2]);
+            } else if (reply.startsWith("+CONTINUE")) {
+                String[] parts = reply.split(" ");
+                if (parts.length > 1) {
+                    masterReplid = parts[1]; // The master's ID changed, but our offset is still valid.
+                }
+                Log.info("Master accepted a partial resynchronization from offset " + (offset + 1));
+            } else {
+                throw new IOException("Unexpected reply to PSYNC: " + reply);
+            }
+            syncInProgress = false;
+            Log.info("Successfully completed handshake with master");
+
+            // Stream bytes that arrived together with the end of the sync are applied first.
+            ByteBuffer leftover = ByteBuffer.allocate(in.remaining());
+            leftover.put(in).flip();
+            channel.configureBlocking(false);
+            synchronized (linkMonitor) {
+                attached = true;
+            }
+            linkUp = true;
+            lastIoMillis = System.currentTimeMillis();
+            reactor.execute(() -> Main.attachMaster(reactor, channel, leftover, this));
+            handedOver = true;
+        } finally {
+            if (!handedOver) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Receives the RDB payload ("$<length>\r\n" and the raw file), stores it as our dump file
+     * and loads it in place of the current data.
+     */
+    private void receiveRdb(SocketChannel channel, ByteBuffer in) throws IOException {
+        String header = readLine(channel, in);
+        if (!header.startsWith("$")) {
+            throw new IOException("Bad RDB transfer header: " + header);
+        }
+        long remaining = Long.parseLong(header.substring(1));
+        Log.info("Receiving " + remaining + " bytes of RDB from master");
+        File target = new File(server.rdbConfig.directory, server.rdbConfig.dataBaseFileName);
+        File temp = new File(server.rdbConfig.directory,
+                "temp-" + System.currentTimeMillis() / 1000 + "." + ProcessHandle.current().pid() + ".rdb");
+        try (FileChannel file = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (remaining > 0) {
+                if (!in.hasRemaining()) {
+                    fill(channel, in);
+                }
+                int count = (int) Math.min(remaining, in.remaining());
+                ByteBuffer part = in.slice();
+                part.limit(count);
+                while (part.hasRemaining()) {
+                    file.write(part);
+                }
+                in.position(in.position() + count);
+                remaining -= count;
+            }
+            file.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp.toPath());
+            throw e;
+        }
+
+        // Replace the dataset; clients wait on the write lock meanwhile, as Redis blocks while loading.
+        // The file becomes our dump only once it has loaded.
+        server.executionLock.writeLock().lock();
+        try {
+            server.keyspace.clear();
+            try {
+                RDBconfigHandler.loadRDB(new RDBconfig(server.rdbConfig.directory, temp.getName()), server.keyspace);
+            } catch (IOException e) {
+                // Half a dataset is not a state of the master: drop it, and make the retry a full resync.
+                server.keyspace.clear();
+                masterReplid = "?";
+                offset = -1;
+                Files.deleteIfExists(temp.toPath());
+                throw new IOException("Error loading the RDB received from master: " + e.getMessage(), e);
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            server.keyspace.clearDirty(server.keyspace.dirty());
+            if (server.aof != null && !server.aof.rewriteInProgress()) {
+                server.aof.startRewrite(); // The old log describes a dataset we no longer have.
+            }
+        } finally {
+            server.executionLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Called when the reactor closes the master connection; lets the sync thread reconnect.
+     */
+    public void disconnected() {
+        linkUp = false;
+        Log.info("Connection with master lost");
+        synchronized (linkMonitor) {
+            attached = false;
+            linkMonitor.notifyAll();
+        }
+    }
+
+    private void awaitDisconnect() {
+        synchronized (linkMonitor) {
+            while (attached) {
+                try {
+                    linkMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Accounts for stream bytes applied by the reactor.
+     * @param bytes The size of the command just applied.
+     */
+    public void processed(long bytes) {
+        offset += bytes; // Only the owning reactor writes it.
+        lastIoMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @return The replication offset applied so far (what REPLCONF ACK reports).
+     */
+    public long offset() {
+        return offset;
+    }
+
+    /**
+     * Notes a REPLCONF GETACK from the master. The ACK is sent once at the end of the event-loop
+     * pass, with the offset reached by then, however many GETACKs the pass applied.
+     */
+    public void requestAck() {
+        ackRequested = true;
+    }
+
+    /**
+     * @return true if an ACK is due: the master asked for one, or a period passed since the last.
+     */
+    public boolean ackDue(long now) {
+        return ackRequested || now - lastAckMillis >= ACK_PERIOD_MS;
+    }
+
+    /**
+     * Records that an ACK with the current offset was written to the master connection.
+     */
+    public void ackSent(long now) {
+        ackRequested = false;
+        lastAckMillis = now;
+        acksSent++;
+    }
+
+    /**
+     * Formats the replica fields of INFO replication.
+     */
+    public String info() {
+        return "master_host:" + host + "\r\n"
+                + "master_port:" + port + "\r\n"
+                + "master_link_status:" + (linkUp ? "up" : "down") + "\r\n"
+                + "master_last_io_seconds_ago:"
+                + (linkUp ? (System.currentTimeMillis() - lastIoMillis) / 1000 : -1) + "\r\n"
+                + "master_sync_in_progress:" + (syncInProgress ? 1 : 0) + "\r\n"
+                + "slave_repl_offset:" + Math.max(offset, 0) + "\r\n"
+                + "slave_acks_sent:" + acksSent + "\r\n"
+                + "master_replid:" + masterReplid + "\r\n"
+                + "master_repl_offset:" + Math.max(offset, 0) + "\r\n";
+    }
+
+    private static void send(SocketChannel channel, String... argv) throws IOException {
+        StringBuilder command = new StringBuilder().append('*').append(argv.length).append("\r\n");
+        for (String arg : argv) {
+            command.append('$').append(arg.length()).append("\r\n").append(arg).append("\r\n");
+        }
+        ByteBuffer out = ByteBuffer.wrap(command.toString().getBytes(StandardCharsets.ISO_8859_1));
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+    }
+
+    private static void expectStatus(SocketChannel channel, ByteBuffer in, String step) throws IOException {
+        String reply = readLine(channel, in);
+        if (!reply.startsWith("+")) {
+            throw new IOException("Master replied to " + step + ": " + reply);
+        }
+    }
+
+    /**
+     * Reads the next non-empty line, without its terminator. The master may send bare
+     * newlines as keepalives while it prepares a full resync.
+     */
+    private static String readLine(SocketChannel channel, ByteBuffer in) throws IOException {
+        while (true) {
+            int newline = -1;
+            for (int i = in.position(); i < in.limit(); i++) {
+                if (in.get(i) == '\n') {
+                    newline = i;
+                    break;
+                }
+            }
+            if (newline == -1) {
+                fill(channel, in);
+                continue;
+            }
+            int end = newline > in.position() && in.get(newline - 1) == '\r' ? newline - 1 : newline;
+            String line = new String(in.array(), in.arrayOffset() + in.position(), end - in.position(),
+                    StandardCharsets.ISO_8859_1);
+            in.position(newline + 1);
+            if (!line.isEmpty()) {
+                return line;
+            }
+        }
+    }
+
+    /**
+     * Reads more bytes, keeping the unread ones.
+     */
+    private static void fill(SocketChannel channel, ByteBuffer in) throws IOException {
+        in.compact();
+        if (!in.hasRemaining()) {
+            throw new IOException("Line from master too long");
+        }
+        int read = channel.read(in);
+        in.flip();
+        if (read == -1) {
+            throw new EOFException("Master closed the connection");
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.redisClone.replication;
+
+import java.nio.channels.FileChannel;
+
+import com.example.redisClone.resp.RespBuffer;
+import com.example.redisClone.server.ClientConnection;
+import com.example.redisClone.server.Reactor;
+
+/**
+ * The master's view of one connected replica: where it is in the sync, the part of the
+ * replication stream not yet moved to its connection, and what it has acknowledged.
+ */
+public class ReplicaState {
+    // Waiting for a snapshot to start, or for its RDB file to be written.
+    public static final int WAIT_BGSAVE = 0;
+    // Sending the RDB file.
+    public static final int SEND_BULK = 1;
+    // Receiving the replication stream.
+    public static final int ONLINE = 2;
+
+    public final ClientConnection connection;
+    // The reactor owning the connection; only it writes to the socket.
+    public final Reactor reactor;
+    public final String address;
+    public final int listeningPort;
+
+    // Guarded by the Replication monitor: the full sync this replica is attached to, whether writes
+    // are collected for it yet, and the collected writes (sent once the RDB is through).
+    Replication.FullSync sync;
+    boolean streaming;
+    final RespBuffer stream = new RespBuffer(16 * 1024);
+
+    // Owning reactor only.
+    int state;
+    boolean preambleSent;
+    FileChannel rdb;
+    long rdbPosition;
+    long rdbSize;
+
+    // Last REPLCONF ACK: the offset the replica has applied, and when it said so.
+    public volatile long ackOffset;
+    public volatile long ackMillis;
+    // Guarded by the Replication monitor: when the oldest write the replica has not acknowledged
+    // was produced, or 0 if it has acknowledged everything.
+    long behindSinceMillis;
+
+    ReplicaState(ClientConnection connection, Reactor reactor, String address, int listeningPort) {
+        this.connection = connection;
+        this.reactor = reactor;
+        this.address = address;
+        this.listeningPort = listeningPort;
+        this.ackMillis = System.currentTimeMillis();
+    }
+
+    public String stateName() {
+        return switch (state) {
+            case WAIT_BGSAVE -> "wait_bgsave";
+            case SEND_BULK -> "send_bulk";
+            default -> "online";
+        };
+    }
+}
@@ -0,0 +1,505 @@
+package com.example.redisClone.replication;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.example.redisClone.Log;
+import com.example.redisClone.config.Config;
+import com.example.redisClone.rdb.RdbSaver;
+import com.example.redisClone.resp.RespArgs;
+import com.example.redisClone.resp.RespBuffer;
+import com.example.redisClone.resp.RespWriter;
+import com.example.redisClone.server.ClientConnection;
+import com.example.redisClone.server.Reactor;
+import com.example.redisClone.store.Keyspace;
+import com.example.redisClone.store.KeyspaceSnapshot;
+
+/**
+ * The master side of replication: the replication ID and offset, the backlog, the replicas and WAIT.
+ *
+ * Every write is propagated through feed(): it goes into the backlog and into the stream buffer of
+ * each replica (Redis's replica output buffers). Replica connections belong to reactors like any
+ * client, and each reactor moves the stream of its own replicas to their sockets (service()).
+ *
+ * PSYNC either continues from the backlog (+CONTINUE), when the replica asks for an offset the
+ * backlog still holds under our replication ID, or starts a full resync: an RDB file written from
+ * a keyspace snapshot, followed by every write made since the snapshot was taken.
+ */
+public class Replication {
+    // How much of an RDB file one event-loop pass sends to a replica, so other clients are not starved.
+    private static final long TRANSFER_CHUNK = 8 * 1024 * 1024;
+    private static final byte[][] GETACK = { "REPLCONF".getBytes(), "GETACK".getBytes(), "*".getBytes() };
+
+    /**
+     * One RDB file being written for, or sent to, the replicas that attached to its snapshot.
+     */
+    static final class FullSync {
+        // The stream offset the snapshot corresponds to.
+        final long offset;
+        final File file;
+        // 0 while the file is written, 1 when it is complete, -1 if writing failed.
+        volatile int status;
+        // Replicas still using the file; the last one deletes it.
+        private int users;
+
+        FullSync(long offset, File file, int users) {
+            this.offset = offset;
+            this.file = file;
+            this.users = users;
+        }
+
+        synchronized void release() {
+            if (--users == 0) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * A client blocked in WAIT until enough replicas acknowledge an offset, or the timeout.
+     */
+    public static final class WaitRequest {
+        public final ClientConnection connection;
+        public final Reactor reactor;
+        public final long offset;
+        public final int replicas;
+        // Unix time in milliseconds, or 0 to wait forever.
+        public final long deadline;
+
+        WaitRequest(ClientConnection connection, Reactor reactor, long offset, int replicas, long deadline) {
+            this.connection = connection;
+            this.reactor = reactor;
+            this.offset = offset;
+            this.replicas = replicas;
+            this.deadline = deadline;
+        }
+    }
+
+    private final String replid = randomReplid();
+    private final Keyspace keyspace;
+    private final Config config;
+    private final String directory;
+    // Created when the first replica connects; until then writes are not encoded at all.
+    private volatile ReplicationBacklog backlog;
+    private final List<ReplicaState> replicas = new CopyOnWriteArrayList<>();
+    // Guarded by this.
+    private final RespBuffer encodeBuffer = new RespBuffer(1024);
+    private FullSync runningSync;
+    private int syncFiles;
+    private final List<WaitRequest> waits = new ArrayList<>();
+    private long fullSyncs;
+    private long partialSyncsAccepted;
+    private long partialSyncsRejected;
+    // The offset replicas on other reactors were last woken up for.
+    private volatile long wokenOffset;
+
+    /**
+     * @param keyspace The keyspace, snapshotted for full resyncs.
+     * @param config The configuration (backlog size, replica output buffer limit).
+     * @param directory Where the RDB files of full resyncs are written.
+     */
+    public Replication(Keyspace keyspace, Config config, String directory) {
+        this.keyspace = keyspace;
+        this.config = config;
+        this.directory = directory;
+    }
+
+    private static String randomReplid() {
+        byte[] bytes = new byte[20];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder id = new StringBuilder();
+        for (byte b : bytes) {
+            id.append(String.format("%02x", b));
+        }
+        return id.toString();
+    }
+
+    public String replid() {
+        return replid;
+    }
+
+    /**
+     * @return master_repl_offset: bytes of replication stream produced so far.
+     */
+    public long masterOffset() {
+        ReplicationBacklog current = backlog;
+        if (current == null) {
+            return 0;
+        }
+        synchronized (this) {
+            return current.masterOffset();
+        }
+    }
+
+    public List<ReplicaState> replicas() {
+        return replicas;
+    }
+
+    /**
+     * Propagates a write command exactly as it was received.
+     */
+    public void feed(RespArgs args) {
+        if (backlog == null) {
+            return; // No replica has ever connected.
+        }
+        synchronized (this) {
+            encodeBuffer.clear();
+            encodeBuffer.arrayHeader(args.count());
+            for (int i = 0; i < args.count(); i++) {
+                args.writeBulk(i, encodeBuffer);
+            }
+            appendEncoded();
+        }
+    }
+
+    /**
+     * Propagates a write command given as its arguments.
+     */
+    public void feed(byte[]... argv) {
+        if (backlog == null) {
+            return;
+        }
+        synchronized (this) {
+            encodeBuffer.clear();
+            encodeBuffer.arrayHeader(argv.length);
+            for (byte[] arg : argv) {
+                encodeBuffer.bulk(arg);
+            }
+            appendEncoded();
+        }
+    }
+
+    private void appendEncoded() {
+        backlog.append(encodeBuffer.array(), 0, encodeBuffer.length());
+        long now = 0;
+        for (ReplicaState replica : replicas) {
+            if (replica.streaming) {
+                replica.stream.write(encodeBuffer.array(), 0, encodeBuffer.length());
+            }
+            if (replica.behindSinceMillis == 0) {
+                if (now == 0) {
+                    now = System.currentTimeMillis();
+                }
+                replica.behindSinceMillis = now;
+            }
+        }
+    }
+
+    /**
+     * Handles PSYNC: registers the connection as a replica and answers +CONTINUE if it can
+     * resume from the backlog. Otherwise the replica waits for a full resync; call
+     * startFullSync() to begin one. Runs on the connection's reactor.
+     * @param connection The replica's connection.
+     * @param reactor The reactor owning it.
+     * @param requestedReplid The replication ID the replica followed, or "?".
+     * @param requestedOffset The first stream offset it is missing, plus one (as Redis counts), or -1.
+     * @param out Where the +CONTINUE reply is written.
+     * @return The new replica.
+     */
+    public synchronized ReplicaState psync(ClientConnection connection, Reactor reactor, String address,
+            String requestedReplid, long requestedOffset, RespWriter out) {
+        if (backlog == null) {
+            backlog = new ReplicationBacklog((int) config.replBacklogSize, 0);
+        }
+        ReplicaState replica = new ReplicaState(connection, reactor, address, connection.replicaListeningPort);
+        long offset = requestedOffset - 1;
+        if (requestedReplid.equals(replid) && backlog.contains(offset)) {
+            out.simpleString("CONTINUE " + replid);
+            backlog.copyTo(offset, replica.stream);
+            replica.streaming = true;
+            replica.state = ReplicaState.ONLINE;
+            replica.ackOffset = offset;
+            partialSyncsAccepted++;
+            Log.info("Partial resynchronization request from " + address + " accepted, sending "
+                    + (backlog.masterOffset() - offset) + " bytes of backlog");
+        } else {
+            if (!requestedReplid.equals("?")) {
+                partialSyncsRejected++;
+            }
+            replica.state = ReplicaState.WAIT_BGSAVE;
+            fullSyncs++;
+            Log.info("Full resync requested by replica " + address);
+        }
+        replicas.add(replica);
+        return replica;
+    }
+
+    /**
+     * Starts a snapshot for the replicas waiting for a full resync, unless a snapshot is
+     * already running (then serverCron tries again). The caller must hold the execution write
+     * lock: the stream offset and the snapshot must be the same point in time.
+     */
+    public synchronized void startFullSync() {
+        if (runningSync != null || keyspace.snapshotActive()) {
+            return;
+        }
+        List<ReplicaState> waiting = new ArrayList<>();
+        for (ReplicaState replica : replicas) {
+            if (replica.state == ReplicaState.WAIT_BGSAVE && replica.sync == null) {
+                waiting.add(replica);
+            }
+        }
+        if (waiting.isEmpty()) {
+            return;
+        }
+        KeyspaceSnapshot snapshot = keyspace.beginSnapshot();
+        File file = new File(directory, "temp-repl-" + ProcessHandle.current().pid() + "-" + (++syncFiles) + ".rdb");
+        FullSync sync = new FullSync(backlog.masterOffset(), file, waiting.size());
+        for (ReplicaState replica : waiting) {
+            replica.sync = sync;
+            replica.streaming = true; // Writes from now on are not in the snapshot.
+        }
+        runningSync = sync;
+        Thread writer = new Thread(() -> {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long bytes = RdbSaver.writeRdb(keyspace, snapshot, channel);
+                sync.status = 1;
+                Log.info("Snapshot for " + waiting.size() + " replica(s) written: " + bytes + " bytes");
+            } catch (IOException e) {
+                sync.status = -1;
+                Log.info("Snapshot for replication failed: " + e.getMessage());
+            } finally {
+                snapshot.release();
+                synchronized (Replication.this) {
+                    runningSync = null;
+                }
+                for (ReplicaState replica : waiting) {
+                    replica.reactor.selector.wakeup();
+                }
+            }
+        }, "repl-fullsync");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Advances one replica: FULLRESYNC preamble, RDB transfer, then the write stream.
+     * Runs on the replica's reactor, once per event-loop pass.
+     * @return false if the replica must be disconnected.
+     * @throws IOException If the socket or the RDB file fails.
+     */
+    public boolean service(ReplicaState replica) throws IOException {
+        ClientConnection connection = replica.connection;
+        RespWriter out = connection.replyWriter();
+        if (replica.state == ReplicaState.WAIT_BGSAVE) {
+            FullSync sync;
+            synchronized (this) {
+                sync = replica.sync;
+            }
+            if (sync != null) {
+                if (!replica.preambleSent) {
+                    out.simpleString("FULLRESYNC " + replid + " " + sync.offset);
+                    replica.preambleSent = true;
+                }
+                if (sync.status == -1) {
+                    return false;
+                }
+                if (sync.status == 1) {
+                    replica.rdb = FileChannel.open(sync.file.toPath(), StandardOpenOption.READ);
+                    replica.rdbSize = replica.rdb.size();
+                    out.bulkHeader((int) replica.rdbSize); // Then the raw file, with no trailing CRLF.
+                    replica.state = ReplicaState.SEND_BULK;
+                }
+            }
+        }
+        if (replica.state == ReplicaState.SEND_BULK && !connection.hasPendingReplies()) {
+            long count = Math.min(TRANSFER_CHUNK, replica.rdbSize - replica.rdbPosition);
+            replica.rdbPosition += replica.rdb.transferTo(replica.rdbPosition, count, connection.channel);
+            if (replica.rdbPosition == replica.rdbSize) {
+                closeRdb(replica);
+                replica.state = ReplicaState.ONLINE;
+                replica.ackMillis = System.currentTimeMillis();
+                Log.info("Synchronization with replica " + replica.address + " succeeded");
+            } else if (connection.selectionKey.isValid()) {
+                // Come back as soon as the socket has room again.
+                connection.selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+        synchronized (this) {
+            if (replica.state == ReplicaState.ONLINE) {
+                if (replica.stream.length() > 0) {
+                    out.write(replica.stream.array(), 0, replica.stream.length());
+                    replica.stream.clear();
+                }
+            } else {
+                // While the RDB is produced and sent, writes pile up here; apply the replica limit to them.
+                long hardLimit = config.clientOutputBufferLimits[Config.CLIENT_CLASS_REPLICA].hardLimitBytes;
+                if (hardLimit > 0 && replica.stream.length() >= hardLimit) {
+                    Log.info("Replica " + replica.address + " closed: too many writes during the sync");
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void closeRdb(ReplicaState replica) throws IOException {
+        if (replica.rdb != null) {
+            replica.rdb.close();
+            replica.rdb = null;
+        }
+        FullSync sync;
+        synchronized (this) {
+            sync = replica.sync;
+            replica.sync = null;
+        }
+        if (sync != null) {
+            sync.release();
+        }
+    }
+
+    /**
+     * Forgets a replica whose connection closed.
+     */
+    public void removeReplica(ReplicaState replica) {
+        replicas.remove(replica);
+        try {
+            closeRdb(replica);
+        } catch (IOException e) {
+            // The file is deleted by release() anyway.
+        }
+        Log.info("Connection with replica " + replica.address + " lost");
+    }
+
+    /**
+     * Wakes the reactors of replicas that have stream data waiting, so it is sent without
+     * waiting for their next timeout. Called by every reactor after each pass.
+     * @param current The calling reactor, which services its own replicas anyway.
+     */
+    public void wakeReplicas(Reactor current) {
+        long offset = masterOffset();
+        if (offset == wokenOffset) {
+            return;
+        }
+        wokenOffset = offset;
+        for (ReplicaState replica : replicas) {
+            if (replica.reactor != current) {
+                replica.reactor.selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * Records a REPLCONF ACK and wakes clients in WAIT so they can check it.
+     */
+    public void ack(ReplicaState replica, long offset) {
+        replica.ackOffset = offset;
+        replica.ackMillis = System.currentTimeMillis();
+        synchronized (this) {
+            if (offset >= backlog.masterOffset()) {
+                replica.behindSinceMillis = 0; // Caught up.
+            }
+            for (WaitRequest wait : waits) {
+                wait.reactor.selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * @return How many replicas have acknowledged at least offset.
+     */
+    public int acknowledged(long offset) {
+        int count = 0;
+        for (ReplicaState replica : replicas) {
+            if (replica.state == ReplicaState.ONLINE && replica.ackOffset >= offset) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Blocks a client in WAIT and asks every replica for an ACK through the stream.
+     */
+    public void addWait(ClientConnection connection, Reactor reactor, long offset, int replicaCount, long deadline) {
+        synchronized (this) {
+            waits.add(new WaitRequest(connection, reactor, offset, replicaCount, deadline));
+        }
+        feed(GETACK);
+    }
+
+    /**
+     * Removes and returns the WAITs of a reactor that are satisfied or timed out.
+     */
+    public synchronized List<WaitRequest> completedWaits(Reactor reactor, long now) {
+        List<WaitRequest> done = new ArrayList<>();
+        Iterator<WaitRequest> it = waits.iterator();
+        while (it.hasNext()) {
+            WaitRequest wait = it.next();
+            if (wait.reactor != reactor) {
+                continue;
+            }
+            if (!wait.connection.channel.isOpen() || acknowledged(wait.offset) >= wait.replicas
+                    || (wait.deadline > 0 && now >= wait.deadline)) {
+                it.remove();
+                done.add(wait);
+            }
+        }
+        return done;
+    }
+
+    /**
+     * Formats the connected_slaves part of INFO replication. Besides Redis's fields, each replica
+     * gets lag_bytes (stream produced but not acknowledged) and lag_ms (age of the oldest write it
+     * has not acknowledged; an upper bound, since ACKs are periodic); the largest of each is summarised.
+     */
+    public synchronized String replicasInfo() {
+        long now = System.currentTimeMillis();
+        long masterOffset = backlog == null ? 0 : backlog.masterOffset();
+        long maxLagBytes = 0;
+        long maxLagMillis = 0;
+        StringBuilder info = new StringBuilder();
+        info.append("connected_slaves:").append(replicas.size()).append("\r\n");
+        int i = 0;
+        for (ReplicaState replica : replicas) {
+            long sinceAck = now - replica.ackMillis;
+            long lagBytes = Math.max(0, masterOffset - replica.ackOffset);
+            long lagMillis = lagBytes == 0 || replica.behindSinceMillis == 0 ? 0 : now - replica.behindSinceMillis;
+            if (replica.state == ReplicaState.ONLINE) {
+                maxLagBytes = Math.max(maxLagBytes, lagBytes);
+                maxLagMillis = Math.max(maxLagMillis, lagMillis);
+            }
+            info.append("slave").append(i++).append(":ip=").append(replica.address)
+                    .append(",port=").append(replica.listeningPort)
+                    .append(",state=").append(replica.stateName())
+                    .append(",offset=").append(replica.ackOffset)
+                    .append(",lag=").append(sinceAck / 1000)
+                    .append(",lag_bytes=").append(lagBytes)
+                    .append(",lag_ms=").append(lagMillis)
+                    .append(",pending_bytes=").append(replica.stream.length())
+                    .append("\r\n");
+        }
+        info.append("slaves_max_lag_bytes:").append(maxLagBytes).append("\r\n")
+                .append("slaves_max_lag_ms:").append(maxLagMillis).append("\r\n");
+        return info.toString();
+    }
+
+    /**
+     * Formats the replication ID, offset and backlog part of INFO replication (master only).
+     */
+    public synchronized String backlogInfo() {
+        StringBuilder info = new StringBuilder();
+        info.append("master_replid:").append(replid).append("\r\n")
+                .append("master_repl_offset:").append(backlog == null ? 0 : backlog.masterOffset()).append("\r\n")
+                .append("sync_full:").append(fullSyncs).append("\r\n")
+                .append("sync_partial_ok:").append(partialSyncsAccepted).append("\r\n")
+                .append("sync_partial_err:").append(partialSyncsRejected).append("\r\n")
+                .append("repl_backlog_active:").append(backlog == null ? 0 : 1).append("\r\n")
+                .append("repl_backlog_size:").append(config.replBacklogSize).append("\r\n")
+                .append("repl_backlog_first_byte_offset:")
+                .append(backlog == null ? 0 : backlog.firstByteOffset() + 1).append("\r\n")
+                .append("repl_backlog_histlen:").append(backlog == null ? 0 : backlog.histlen()).append("\r\n")
+                .append("repl_backlog_usage_perc:").append(String.format("%.2f",
+                        backlog == null ? 0.0 : backlog.histlen() * 100.0 / backlog.size())).append("\r\n");
+        return info.toString();
+    }
+}
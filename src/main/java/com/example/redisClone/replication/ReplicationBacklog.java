@@ -0,0 +1,85 @@
+package com.example.redisClone.replication;
+
+import com.example.redisClone.resp.RespWriter;
+
+/**
+ * The replication backlog: a circular buffer holding the most recent bytes of the replication
+ * stream, so a replica that reconnects can continue from its offset (PSYNC) instead of
+ * transferring the whole dataset again. Offsets count bytes of the stream since the backlog
+ * was created, like Redis's master_repl_offset. Not thread-safe; Replication guards it.
+ */
+public class ReplicationBacklog {
+    private final byte[] buffer;
+    // Total bytes ever appended; the stream offset just past the newest byte.
+    private long masterOffset;
+    // How many of the newest bytes are held (at most buffer.length).
+    private int histlen;
+    // Where the next byte goes.
+    private int writeIndex;
+
+    /**
+     * @param size The backlog size in bytes (repl-backlog-size).
+     * @param startOffset The stream offset of the first byte that will be appended.
+     */
+    public ReplicationBacklog(int size, long startOffset) {
+        this.buffer = new byte[size];
+        this.masterOffset = startOffset;
+    }
+
+    public void append(byte[] data, int offset, int length) {
+        masterOffset += length;
+        if (length >= buffer.length) {
+            // Only the tail fits.
+            System.arraycopy(data, offset + length - buffer.length, buffer, 0, buffer.length);
+            writeIndex = 0;
+            histlen = buffer.length;
+            return;
+        }
+        int first = Math.min(length, buffer.length - writeIndex);
+        System.arraycopy(data, offset, buffer, writeIndex, first);
+        System.arraycopy(data, offset + first, buffer, 0, length - first);
+        writeIndex = (writeIndex + length) % buffer.length;
+        histlen = Math.min(buffer.length, histlen + length);
+    }
+
+    public long masterOffset() {
+        return masterOffset;
+    }
+
+    /**
+     * @return The stream offset of the oldest byte held.
+     */
+    public long firstByteOffset() {
+        return masterOffset - histlen;
+    }
+
+    public int histlen() {
+        return histlen;
+    }
+
+    public int size() {
+        return buffer.length;
+    }
+
+    /**
+     * @return true if the stream from offset on is still held, so a replica can continue from there.
+     */
+    public boolean contains(long offset) {
+        return offset >= firstByteOffset() && offset <= masterOffset;
+    }
+
+    /**
+     * Writes the stream from offset up to the newest byte.
+     * @throws IllegalArgumentException If offset is not held any more.
+     */
+    public void copyTo(long offset, RespWriter out) {
+        if (!contains(offset)) {
+            throw new IllegalArgumentException("Offset " + offset + " is not in the backlog");
+        }
+        int length = (int) (masterOffset - offset);
+        int start = Math.floorMod(writeIndex - length, buffer.length);
+        int first = Math.min(length, buffer.length - start);
+        out.write(buffer, start, first);
+        out.write(buffer, 0, length - first);
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.redisClone.resp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A zero-copy view of the argv of one parsed command.
+ * Every argument is a slice (offset + length) of the connection's input buffer,
+ * so nothing is copied until a command actually needs to keep the bytes.
+ * The view is only valid until the input buffer is compacted or refilled.
+ */
+public class RespArgs {
+    private byte[] array;
+    private int[] offsets = new int[8];
+    private int[] lengths = new int[8];
+    private int count;
+
+    /**
+     * Builds a command from its arguments, for commands that do not come from a connection
+     * (such as redis.call in a script).
+     */
+    public static RespArgs of(byte[]... argv) {
+        RespArgs args = new RespArgs();
+        int total = 0;
+        for (byte[] arg : argv) {
+            total += arg.length;
+        }
+        byte[] array = new byte[total];
+        int offset = 0;
+        for (byte[] arg : argv) {
+            System.arraycopy(arg, 0, array, offset, arg.length);
+            args.add(offset, arg.length);
+            offset += arg.length;
+        }
+        args.array = array;
+        return args;
+    }
+
+    /**
+     * Resets the view so it can be filled with a new command.
+     */
+    void reset() {
+        this.array = null;
+        this.count = 0;
+    }
+
+    /**
+     * Appends an argument slice, growing the index arrays when needed.
+     */
+    void add(int offset, int length) {
+        if (count == offsets.length) {
+            int newSize = offsets.length * 2;
+            offsets = Arrays.copyOf(offsets, newSize);
+            lengths = Arrays.copyOf(lengths, newSize);
+        }
+        offsets[count] = offset;
+        lengths[count] = length;
+        count++;
+    }
+
+    /**
+     * Turns the frame-relative offsets collected while parsing into absolute array offsets.
+     * @param array The backing array the frame now lives in.
+     * @param base The array index where the frame starts.
+     */
+    void rebase(byte[] array, int base) {
+        this.array = array;
+        for (int i = 0; i < count; i++) {
+            offsets[i] += base;
+        }
+    }
+
+    /**
+     * @return The number of arguments, including the command name.
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * @return The length in bytes of argument i.
+     */
+    public int length(int i) {
+        return lengths[i];
+    }
+
+    /**
+     * @return A read-only buffer sharing the bytes of argument i (no copy).
+     */
+    public ByteBuffer slice(int i) {
+        return ByteBuffer.wrap(array, offsets[i], lengths[i]).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return A copy of the raw bytes of argument i, for values that must outlive the buffer.
+     */
+    public byte[] bytes(int i) {
+        byte[] copy = new byte[lengths[i]];
+        System.arraycopy(array, offsets[i], copy, 0, lengths[i]);
+        return copy;
+    }
+
+    /**
+     * Writes argument i as a bulk string, straight from the input buffer.
+     */
+    public void writeBulk(int i, RespWriter out) {
+        out.bulk(array, offsets[i], lengths[i]);
+    }
+
+    /**
+     * Decodes argument i as ISO-8859-1, which maps every byte to exactly one char.
+     * This keeps arbitrary binary data intact (and compact, thanks to Latin-1 compact strings).
+     * @return Argument i as a String.
+     */
+    public String string(int i) {
+        return new String(array, offsets[i], lengths[i], StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Compares argument i against an ASCII keyword without allocating.
+     * @param i The argument index.
+     * @param keyword An ASCII keyword such as "SET" or "PX".
+     * @return true if the argument matches the keyword, ignoring case.
+     */
+    public boolean equalsIgnoreCase(int i, String keyword) {
+        int length = lengths[i];
+        if (length != keyword.length()) {
+            return false;
+        }
+        int offset = offsets[i];
+        for (int j = 0; j < length; j++) {
+            int b = array[offset + j];
+            int c = keyword.charAt(j);
+            if (b != c && toUpper(b) != toUpper(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Case-insensitive hash of argument i (String.hashCode of its upper-cased ASCII form).
+     * Used to look up command names without creating a String.
+     */
+    public int hashIgnoreCase(int i) {
+        int hash = 0;
+        int end = offsets[i] + lengths[i];
+        for (int j = offsets[i]; j < end; j++) {
+            hash = 31 * hash + toUpper(array[j]);
+        }
+        return hash;
+    }
+
+    /**
+     * Parses argument i as a signed decimal long without creating a String.
+     * @throws NumberFormatException If the argument is not a valid integer.
+     */
+    public long parseLong(int i) {
+        int length = lengths[i];
+        int offset = offsets[i];
+        if (length == 0 || length > 20) {
+            throw new NumberFormatException("value is not an integer or out of range");
+        }
+        boolean negative = array[offset] == '-';
+        int j = negative ? 1 : 0;
+        if (j == length) {
+            throw new NumberFormatException("value is not an integer or out of range");
+        }
+        long value = 0;
+        for (; j < length; j++) {
+            int digit = array[offset + j] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("value is not an integer or out of range");
+            }
+            // Accumulate as a negative number so Long.MIN_VALUE is representable.
+            if (value < (Long.MIN_VALUE + digit) / 10) {
+                throw new NumberFormatException("value is not an integer or out of range");
+            }
+            value = value * 10 - digit;
+        }
+        if (!negative) {
+            if (value == Long.MIN_VALUE) {
+                throw new NumberFormatException("value is not an integer or out of range");
+            }
+            return -value;
+        }
+        return value;
+    }
+
+    private static int toUpper(int c) {
+        return (c >= 'a' && c <= 'z') ? c - 32 : c;
+    }
+}
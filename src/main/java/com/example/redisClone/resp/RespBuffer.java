@@ -0,0 +1,48 @@
+package com.example.redisClone.resp;
+
+import java.util.Arrays;
+
+/**
+ * A RespWriter into a growable heap array, for RESP that is not headed straight to a client,
+ * such as commands logged to the append-only file.
+ */
+public class RespBuffer extends RespWriter {
+    private byte[] data;
+    private int length;
+
+    public RespBuffer(int initialCapacity) {
+        this.data = new byte[initialCapacity];
+    }
+
+    @Override
+    public void write(byte[] source, int offset, int count) {
+        if (length + count > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + count));
+        }
+        System.arraycopy(source, offset, data, length, count);
+        length += count;
+    }
+
+    /**
+     * @return The backing array; only the first length() bytes are valid.
+     */
+    public byte[] array() {
+        return data;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void clear() {
+        length = 0;
+    }
+
+    /**
+     * Drops the first count bytes, keeping the rest.
+     */
+    public void discard(int count) {
+        System.arraycopy(data, count, data, 0, length - count);
+        length -= count;
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.redisClone.resp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An incremental, byte-level RESP request parser.
+ * It works directly on a connection's input ByteBuffer and keeps its progress between reads,
+ * so a command that arrives in many small packets is scanned only once.
+ *
+ * Supported request forms:
+ * - RESP arrays ("*<n>\r\n") whose elements are bulk strings, or RESP2/RESP3 simple
+ *   line types (+, :, ",", #, "(") which are passed through as plain arguments.
+ * - Inline commands ("PING\r\n"), as sent by telnet-style clients.
+ *
+ * Bulk strings are binary safe: only the declared length is used, never a terminator search.
+ */
+public class RespParser {
+    // Same limits as Redis: proto-max-bulk-len and PROTO_INLINE_MAX_SIZE.
+    public static final int MAX_BULK_LENGTH = 512 * 1024 * 1024;
+    public static final int MAX_INLINE_LENGTH = 64 * 1024;
+    public static final int MAX_ARRAY_LENGTH = 1024 * 1024;
+
+    private static final int STATE_FRAME_START = 0;
+    private static final int STATE_ELEMENT_HEADER = 1;
+    private static final int STATE_BULK_BODY = 2;
+
+    private final RespArgs args = new RespArgs();
+    private int state = STATE_FRAME_START;
+    // Bytes of the current frame already consumed, relative to the frame start.
+    private int cursor;
+    // Array elements still expected for the current frame.
+    private int remainingElements;
+    // Declared length of the bulk string being read.
+    private int bulkLength;
+
+    /**
+     * Tries to parse one complete command from the buffer.
+     * On success the buffer position is moved past the frame and the argv view is returned.
+     * If the frame is incomplete, the position is left at the frame start and null is returned;
+     * the parser remembers how far it got, so the next call resumes there even if the
+     * buffer was compacted in between.
+     *
+     * @param buffer A heap buffer in read mode (position = first unprocessed byte).
+     * @return The parsed arguments, or null if more bytes are needed.
+     * @throws RespProtocolException If the bytes are not valid RESP.
+     */
+    public RespArgs parse(ByteBuffer buffer) throws RespProtocolException {
+        byte[] array = buffer.array();
+        while (true) {
+            int frameStart = buffer.arrayOffset() + buffer.position();
+            int available = buffer.remaining();
+
+            if (state == STATE_FRAME_START) {
+                if (available == 0) {
+                    return null;
+                }
+                args.reset();
+                if (array[frameStart] != '*') {
+                    int parsed = parseInline(array, frameStart, available);
+                    if (parsed == -1) {
+                        return null;
+                    }
+                    buffer.position(buffer.position() + parsed);
+                    if (args.count() == 0) {
+                        continue; // Blank line, nothing to execute.
+                    }
+                    args.rebase(array, frameStart);
+                    return args;
+                }
+                int lineEnd = findCRLF(array, frameStart + 1, frameStart + available);
+                if (lineEnd == -1) {
+                    checkLineLength(available);
+                    return null;
+                }
+                long count = parseNumber(array, frameStart + 1, lineEnd);
+                if (count > MAX_ARRAY_LENGTH) {
+                    throw new RespProtocolException("invalid multibulk length");
+                }
+                cursor = lineEnd + 2 - frameStart;
+                if (count <= 0) {
+                    // Empty or null arrays are legal but carry no command; skip them.
+                    buffer.position(buffer.position() + cursor);
+                    cursor = 0;
+                    continue;
+                }
+                remainingElements = (int) count;
+                state = STATE_ELEMENT_HEADER;
+            }
+
+            if (state == STATE_ELEMENT_HEADER) {
+                int headerStart = frameStart + cursor;
+                if (cursor >= available) {
+                    return null;
+                }
+                int lineEnd = findCRLF(array, headerStart + 1, frameStart + available);
+                if (lineEnd == -1) {
+                    checkLineLength(available - cursor);
+                    return null;
+                }
+                byte type = array[headerStart];
+                if (type == '$') {
+                    long length = parseNumber(array, headerStart + 1, lineEnd);
+                    if (length < 0 || length > MAX_BULK_LENGTH) {
+                        throw new RespProtocolException("invalid bulk length");
+                    }
+                    bulkLength = (int) length;
+                    cursor = lineEnd + 2 - frameStart;
+                    state = STATE_BULK_BODY;
+                } else if (type == '+' || type == ':' || type == ',' || type == '#' || type == '(') {
+                    // Simple RESP2/RESP3 scalars: the line itself is the argument.
+                    args.add(headerStart + 1 - frameStart, lineEnd - headerStart - 1);
+                    cursor = lineEnd + 2 - frameStart;
+                    if (--remainingElements == 0) {
+                        return completeFrame(buffer, array, frameStart);
+                    }
+                    continue;
+                } else {
+                    throw new RespProtocolException("expected '$', got '" + (char) type + "'");
+                }
+            }
+
+            if (state == STATE_BULK_BODY) {
+                if (available - cursor < bulkLength + 2) {
+                    return null;
+                }
+                int bodyStart = frameStart + cursor;
+                if (array[bodyStart + bulkLength] != '\r' || array[bodyStart + bulkLength + 1] != '\n') {
+                    throw new RespProtocolException("bulk string not terminated by CRLF");
+                }
+                args.add(cursor, bulkLength);
+                cursor += bulkLength + 2;
+                if (--remainingElements == 0) {
+                    return completeFrame(buffer, array, frameStart);
+                }
+                state = STATE_ELEMENT_HEADER;
+            }
+        }
+    }
+
+    /**
+     * @return The minimum number of bytes the current frame occupies, counted from its start.
+     *         Used by the connection to grow its input buffer ahead of a large bulk string.
+     */
+    public int pendingFrameSize() {
+        if (state == STATE_BULK_BODY) {
+            return cursor + bulkLength + 2;
+        }
+        return cursor + 1;
+    }
+
+    private RespArgs completeFrame(ByteBuffer buffer, byte[] array, int frameStart) {
+        buffer.position(buffer.position() + cursor);
+        args.rebase(array, frameStart);
+        cursor = 0;
+        state = STATE_FRAME_START;
+        return args;
+    }
+
+    /**
+     * Parses an inline command, splitting on spaces and tabs.
+     * @return The number of bytes consumed, or -1 if the line is not complete yet.
+     */
+    private int parseInline(byte[] array, int start, int available) throws RespProtocolException {
+        int end = start + available;
+        int newline = -1;
+        for (int i = start; i < end; i++) {
+            if (array[i] == '\n') {
+                newline = i;
+                break;
+            }
+        }
+        if (newline == -1) {
+            checkLineLength(available);
+            return -1;
+        }
+        int lineEnd = (newline > start && array[newline - 1] == '\r') ? newline - 1 : newline;
+        int i = start;
+        while (i < lineEnd) {
+            while (i < lineEnd && (array[i] == ' ' || array[i] == '\t')) {
+                i++;
+            }
+            int tokenStart = i;
+            while (i < lineEnd && array[i] != ' ' && array[i] != '\t') {
+                i++;
+            }
+            if (i > tokenStart) {
+                args.add(tokenStart - start, i - tokenStart);
+            }
+        }
+        return newline + 1 - start;
+    }
+
+    private static void checkLineLength(int length) throws RespProtocolException {
+        if (length > MAX_INLINE_LENGTH) {
+            throw new RespProtocolException("too big inline request");
+        }
+    }
+
+    /**
+     * @return The index of the '\r' of the first CRLF in [from, to), or -1.
+     */
+    private static int findCRLF(byte[] array, int from, int to) {
+        for (int i = from; i < to - 1; i++) {
+            if (array[i] == '\r' && array[i + 1] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a signed decimal number from a header line.
+     */
+    private static long parseNumber(byte[] array, int from, int to) throws RespProtocolException {
+        if (from == to) {
+            throw new RespProtocolException("invalid length");
+        }
+        boolean negative = array[from] == '-';
+        long value = 0;
+        for (int i = negative ? from + 1 : from; i < to; i++) {
+            int digit = array[i] - '0';
+            if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE) {
+                throw new RespProtocolException("invalid length");
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+}
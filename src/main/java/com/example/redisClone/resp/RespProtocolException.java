@@ -0,0 +1,13 @@
+package com.example.redisClone.resp;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a client sends bytes that are not valid RESP.
+ * The connection cannot be resynchronised after this, so callers should reply and close it.
+ */
+public class RespProtocolException extends IOException {
+    public RespProtocolException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.redisClone.resp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes RESP replies straight into a byte sink, without building intermediate Strings.
+ * Subclasses decide where the bytes go (a connection's output queue, a heap buffer, ...).
+ */
+public abstract class RespWriter {
+    private static final byte[] CRLF = { '\r', '\n' };
+    private static final byte[] NULL_BULK = "$-1\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] OK = "+OK\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    // Scratch space for formatting numbers and single bytes, so replies are written without allocation.
+    // A bulk integer is formatted into value while its length header uses digits.
+    private final byte[] digits = new byte[20];
+    private final byte[] value = new byte[20];
+    private final byte[] single = new byte[1];
+
+    /**
+     * Appends raw bytes to the sink.
+     */
+    public abstract void write(byte[] data, int offset, int length);
+
+    public void write(byte[] data) {
+        write(data, 0, data.length);
+    }
+
+    /**
+     * Appends the remaining bytes of a buffer (which may be direct) without changing its position.
+     */
+    public void write(ByteBuffer data) {
+        ByteBuffer view = data.duplicate();
+        byte[] chunk = new byte[Math.min(view.remaining(), 8192)];
+        while (view.hasRemaining()) {
+            int length = Math.min(chunk.length, view.remaining());
+            view.get(chunk, 0, length);
+            write(chunk, 0, length);
+        }
+    }
+
+    public void ok() {
+        write(OK);
+    }
+
+    /**
+     * Writes "+text\r\n". The text must not contain CR or LF.
+     */
+    public void simpleString(String text) {
+        writeByte('+');
+        writeAscii(text);
+        write(CRLF);
+    }
+
+    /**
+     * Writes "-message\r\n"; the message starts with the error code, e.g. "ERR syntax error".
+     */
+    public void error(String message) {
+        writeByte('-');
+        writeAscii(message);
+        write(CRLF);
+    }
+
+    public void integer(long value) {
+        writeByte(':');
+        writeLong(value);
+        write(CRLF);
+    }
+
+    public void nullBulk() {
+        write(NULL_BULK);
+    }
+
+    /**
+     * Writes the RESP2 null array "*-1", e.g. for LPOP with a count on a missing key.
+     */
+    public void nullArray() {
+        arrayHeader(-1);
+    }
+
+    public void bulk(byte[] value) {
+        bulkHeader(value.length);
+        write(value);
+        write(CRLF);
+    }
+
+    /**
+     * Writes a bulk string from part of an array.
+     */
+    public void bulk(byte[] value, int offset, int length) {
+        bulkHeader(length);
+        write(value, offset, length);
+        write(CRLF);
+    }
+
+    /**
+     * Writes a bulk string from a String whose chars are bytes (ISO-8859-1), as produced by RespArgs.
+     */
+    public void bulk(String value) {
+        bulk(value.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Writes an integer as a bulk string, e.g. an integer-encoded value returned by GET.
+     */
+    public void bulk(long number) {
+        int length = formatLong(number, value);
+        bulkHeader(length);
+        write(value, value.length - length, length);
+        write(CRLF);
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer as a bulk string.
+     */
+    public void bulk(ByteBuffer value) {
+        bulkHeader(value.remaining());
+        write(value);
+        write(CRLF);
+    }
+
+    public void bulkHeader(int length) {
+        writeByte('$');
+        writeLong(length);
+        write(CRLF);
+    }
+
+    public void arrayHeader(int count) {
+        writeByte('*');
+        writeLong(count);
+        write(CRLF);
+    }
+
+    /**
+     * Writes the RESP3 map header "%count": count key/value pairs follow. Only for RESP3 clients.
+     */
+    public void mapHeader(int count) {
+        writeByte('%');
+        writeLong(count);
+        write(CRLF);
+    }
+
+    /**
+     * Writes the RESP3 push header ">count", for out-of-band messages such as invalidations.
+     */
+    public void pushHeader(int count) {
+        writeByte('>');
+        writeLong(count);
+        write(CRLF);
+    }
+
+    private void writeByte(int b) {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    private void writeAscii(String text) {
+        write(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private void writeLong(long number) {
+        int length = formatLong(number, digits);
+        write(digits, digits.length - length, length);
+    }
+
+    /**
+     * Formats a long right-aligned into a 20-byte scratch array.
+     * @return The number of bytes used.
+     */
+    private static int formatLong(long number, byte[] target) {
+        if (number == Long.MIN_VALUE) {
+            byte[] min = "-9223372036854775808".getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(min, 0, target, 0, min.length);
+            return min.length;
+        }
+        boolean negative = number < 0;
+        long remaining = negative ? -number : number;
+        int position = target.length;
+        do {
+            target[--position] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        if (negative) {
+            target[--position] = '-';
+        }
+        return target.length - position;
+    }
+}
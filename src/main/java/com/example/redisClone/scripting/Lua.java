@@ -0,0 +1,213 @@
+package com.example.redisClone.scripting;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * The semantics of Lua values shared by the compiled scripts and the library: truth, equality,
+ * ordering, arithmetic with string coercion, tostring/tonumber, indexing and calls.
+ * Values are null (nil), Boolean, Double (every number, as in Lua 5.1), String (one char per
+ * byte, like keys everywhere else), LuaTable and LuaFunction.
+ */
+final class Lua {
+    static final Object[] NONE = {};
+
+    private Lua() {
+    }
+
+    static boolean isTrue(Object value) {
+        return value != null && !Boolean.FALSE.equals(value);
+    }
+
+    static String typeName(Object value) {
+        if (value == null) {
+            return "nil";
+        } else if (value instanceof Boolean) {
+            return "boolean";
+        } else if (value instanceof Double) {
+            return "number";
+        } else if (value instanceof String) {
+            return "string";
+        } else if (value instanceof LuaTable) {
+            return "table";
+        }
+        return "function";
+    }
+
+    /**
+     * @return The number a value stands for (a number, or a string holding one), or null.
+     */
+    static Double toNumber(Object value) {
+        if (value instanceof Double number) {
+            return number;
+        }
+        if (value instanceof String text) {
+            String trimmed = text.trim();
+            try {
+                if (trimmed.startsWith("0x") || trimmed.startsWith("0X")) {
+                    return (double) Long.parseLong(trimmed.substring(2), 16);
+                }
+                if (trimmed.startsWith("-0x") || trimmed.startsWith("-0X")) {
+                    return (double) -Long.parseLong(trimmed.substring(3), 16);
+                }
+                if (trimmed.isEmpty() || trimmed.endsWith("d") || trimmed.endsWith("D") || trimmed.endsWith("f")
+                        || trimmed.endsWith("F") || trimmed.contains("Infinity") || trimmed.contains("NaN")) {
+                    return null; // Java accepts these; Lua does not.
+                }
+                return Double.parseDouble(trimmed);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    static double arithmetic(Object value) {
+        Double number = toNumber(value);
+        if (number == null) {
+            throw new LuaError("attempt to perform arithmetic on a " + typeName(value) + " value");
+        }
+        return number;
+    }
+
+    /**
+     * @return The value as tostring() prints it.
+     */
+    static String toString(Object value) {
+        if (value == null) {
+            return "nil";
+        } else if (value instanceof Double number) {
+            return number(number);
+        } else if (value instanceof String || value instanceof Boolean) {
+            return value.toString();
+        }
+        return typeName(value) + ": 0x" + Integer.toHexString(System.identityHashCode(value));
+    }
+
+    /**
+     * Formats a number like Lua's "%.14g": integers without a decimal point, others with at
+     * most 14 significant digits.
+     */
+    static String number(double d) {
+        if (d == (long) d && Math.abs(d) < 1e15) {
+            return Long.toString((long) d);
+        }
+        if (Double.isNaN(d)) {
+            return "nan";
+        }
+        if (Double.isInfinite(d)) {
+            return d > 0 ? "inf" : "-inf";
+        }
+        BigDecimal rounded = new BigDecimal(d).round(new MathContext(14)).stripTrailingZeros();
+        int exponent = rounded.precision() - rounded.scale() - 1;
+        if (exponent < -4 || exponent >= 14) {
+            String digits = rounded.unscaledValue().abs().toString();
+            String mantissa = digits.length() == 1 ? digits : digits.charAt(0) + "." + digits.substring(1);
+            return (d < 0 ? "-" : "") + mantissa + (exponent < 0 ? "e-" : "e+")
+                    + (Math.abs(exponent) < 10 ? "0" : "") + Math.abs(exponent);
+        }
+        return rounded.toPlainString();
+    }
+
+    /**
+     * @return The string a value contributes to a concatenation.
+     */
+    static String concatPart(Object value) {
+        if (value instanceof String text) {
+            return text;
+        }
+        if (value instanceof Double number) {
+            return number(number);
+        }
+        throw new LuaError("attempt to concatenate a " + typeName(value) + " value");
+    }
+
+    static boolean equal(Object a, Object b) {
+        if (a == b) {
+            return true;
+        }
+        if (a instanceof Double x && b instanceof Double y) {
+            return x.doubleValue() == y.doubleValue();
+        }
+        return a instanceof String || a instanceof Boolean ? a.equals(b) : false;
+    }
+
+    static boolean lessThan(Object a, Object b) {
+        if (a instanceof Double x && b instanceof Double y) {
+            return x < y;
+        }
+        if (a instanceof String x && b instanceof String y) {
+            return x.compareTo(y) < 0;
+        }
+        throw compareError(a, b);
+    }
+
+    static boolean lessOrEqual(Object a, Object b) {
+        if (a instanceof Double x && b instanceof Double y) {
+            return x <= y;
+        }
+        if (a instanceof String x && b instanceof String y) {
+            return x.compareTo(y) <= 0;
+        }
+        throw compareError(a, b);
+    }
+
+    private static LuaError compareError(Object a, Object b) {
+        String left = typeName(a);
+        String right = typeName(b);
+        return new LuaError(left.equals(right) ? "attempt to compare two " + left + " values"
+                : "attempt to compare " + left + " with " + right);
+    }
+
+    static int length(Object value) {
+        if (value instanceof String text) {
+            return text.length();
+        }
+        if (value instanceof LuaTable table) {
+            return table.length();
+        }
+        throw new LuaError("attempt to get length of a " + typeName(value) + " value");
+    }
+
+    /**
+     * t[key], where strings index the string library, so s:upper() works.
+     */
+    static Object index(Object target, Object key) {
+        if (target instanceof LuaTable table) {
+            return table.get(key);
+        }
+        if (target instanceof String) {
+            return LuaLibrary.STRING.get(key);
+        }
+        throw new LuaError("attempt to index a " + typeName(target) + " value");
+    }
+
+    static void setIndex(Object target, Object key, Object value) {
+        if (target instanceof LuaTable table) {
+            if (table.readOnly) {
+                throw new LuaError("Attempt to modify a readonly table");
+            }
+            table.put(key, value);
+            return;
+        }
+        throw new LuaError("attempt to index a " + typeName(target) + " value");
+    }
+
+    static Object[] call(Object function, Object[] args) {
+        if (function instanceof LuaFunction callable) {
+            return callable.call(args);
+        }
+        throw new LuaError("attempt to call a " + typeName(function) + " value");
+    }
+
+    /**
+     * @return Argument i (0-based), or nil if the caller passed fewer.
+     */
+    static Object arg(Object[] args, int i) {
+        return i < args.length ? args[i] : null;
+    }
+
+    static Object first(Object[] values) {
+        return values.length == 0 ? null : values[0];
+    }
+}
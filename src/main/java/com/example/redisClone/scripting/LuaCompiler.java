@@ -0,0 +1,1261 @@
+package com.example.redisClone.scripting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiles the Lua 5.1 language (without goto, metatables or coroutines) into a tree of Java
+ * closures, once per script: running it again only walks the tree.
+ *
+ * The lexer and the recursive-descent parser follow lparser.c: one token of lookahead, binary
+ * operators by priority, assignments told from calls after the left side is parsed. Local
+ * variables are resolved while parsing to a slot in the frame of the function that declares them
+ * (and how many functions out that is), so reading one is an array access, not a lookup by name.
+ * A slot is never reused within a function, so a closure keeps seeing the variable it captured.
+ * Names that are not local are globals, looked up in the Environment when read; scripts may not
+ * create or change globals, as in Redis.
+ */
+final class LuaCompiler {
+    // What a statement tells the block running it.
+    private static final int NORMAL = 0;
+    private static final int BREAK = 1;
+    private static final int RETURN = 2;
+
+    private static final Set<String> KEYWORDS = Set.of("and", "break", "do", "else", "elseif", "end", "false",
+            "for", "function", "if", "in", "local", "nil", "not", "or", "repeat", "return", "then", "true",
+            "until", "while");
+    // Left and right priority of each binary operator, from lparser.c: a right priority lower
+    // than the left one makes the operator right-associative.
+    private static final Map<String, int[]> BINARY = Map.ofEntries(
+            Map.entry("or", new int[] { 1, 1 }), Map.entry("and", new int[] { 2, 2 }),
+            Map.entry("<", new int[] { 3, 3 }), Map.entry(">", new int[] { 3, 3 }),
+            Map.entry("<=", new int[] { 3, 3 }), Map.entry(">=", new int[] { 3, 3 }),
+            Map.entry("~=", new int[] { 3, 3 }), Map.entry("==", new int[] { 3, 3 }),
+            Map.entry("..", new int[] { 5, 4 }), Map.entry("+", new int[] { 6, 6 }),
+            Map.entry("-", new int[] { 6, 6 }), Map.entry("*", new int[] { 7, 7 }),
+            Map.entry("/", new int[] { 7, 7 }), Map.entry("%", new int[] { 7, 7 }),
+            Map.entry("^", new int[] { 10, 9 }));
+    private static final int UNARY_PRIORITY = 8;
+
+    private final String source;
+    private int pos;
+    private int lineNumber = 1;
+    // The current token: its kind (the keyword or symbol itself, or <name>, <number>, <string>,
+    // <eof>), its value for names, numbers and strings, where it starts and its line.
+    private String kind;
+    private Object value;
+    private int tokenStart;
+    private int line;
+    private FunctionState function;
+
+    private LuaCompiler(String source) {
+        this.source = source;
+    }
+
+    /**
+     * @param source The script, one char per byte.
+     * @return The compiled script, ready to run any number of times.
+     * @throws LuaError If the script does not parse; its line is set.
+     */
+    static Chunk compile(String source) {
+        LuaCompiler compiler = new LuaCompiler(source);
+        compiler.function = new FunctionState(null, true);
+        compiler.next();
+        Block body = compiler.block();
+        if (!compiler.kind.equals("<eof>")) {
+            throw compiler.error("'<eof>' expected");
+        }
+        return new Chunk(compiler.function.slots, body);
+    }
+
+    // --- Runtime ---
+
+    /**
+     * What a running script sees besides its own variables: the globals, and the time budget.
+     */
+    static final class Environment {
+        final Map<String, Object> globals;
+        private long deadline;
+        private int ticks;
+
+        /**
+         * @param globals The global variables, read-only to the script.
+         * @param budgetNanos How long the script may run, or 0 for no limit.
+         */
+        Environment(Map<String, Object> globals, long budgetNanos) {
+            this.globals = globals;
+            this.deadline = budgetNanos > 0 ? System.nanoTime() + budgetNanos : 0;
+        }
+
+        /**
+         * Lets the script run to its end, whatever its budget said.
+         */
+        void removeDeadline() {
+            deadline = 0;
+        }
+
+        /**
+         * Called on every loop iteration and function call: every 1024th looks at the clock.
+         */
+        void tick() {
+            if ((++ticks & 1023) == 0 && deadline != 0 && System.nanoTime() - deadline > 0) {
+                throw new BudgetExceeded();
+            }
+        }
+    }
+
+    /**
+     * Ends a script that ran out of time. Not a LuaError, so pcall cannot catch it.
+     */
+    static final class BudgetExceeded extends RuntimeException {
+        BudgetExceeded() {
+            super("Script exceeded its time budget", null, false, false);
+        }
+    }
+
+    /**
+     * A compiled script: the body of its main function.
+     */
+    static final class Chunk {
+        private final int slots;
+        private final Block body;
+
+        Chunk(int slots, Block body) {
+            this.slots = slots;
+            this.body = body;
+        }
+
+        /**
+         * @return What the script returned.
+         */
+        Object[] run(Environment env) {
+            Frame frame = new Frame(slots, null, env);
+            return body.exec(frame) == RETURN ? frame.returned : Lua.NONE;
+        }
+    }
+
+    /**
+     * The variables of one call of a function, and the frame of the call that defined it.
+     */
+    private static final class Frame {
+        final Object[] slots;
+        final Frame parent;
+        final Environment env;
+        Object[] varargs = Lua.NONE;
+        Object[] returned;
+
+        Frame(int slots, Frame parent, Environment env) {
+            this.slots = new Object[slots];
+            this.parent = parent;
+            this.env = env;
+        }
+    }
+
+    private interface Expr {
+        Object eval(Frame frame);
+
+        /**
+         * @return All the values: only calls and "..." have more (or fewer) than one.
+         */
+        default Object[] evalMulti(Frame frame) {
+            return new Object[] { eval(frame) };
+        }
+
+        default boolean isMulti() {
+            return false;
+        }
+    }
+
+    private interface Target {
+        void assign(Frame frame, Object value);
+    }
+
+    private interface Stat {
+        int exec(Frame frame);
+    }
+
+    private static final class Block implements Stat {
+        private final Stat[] stats;
+        private final int[] lines;
+
+        Block(Stat[] stats, int[] lines) {
+            this.stats = stats;
+            this.lines = lines;
+        }
+
+        @Override
+        public int exec(Frame frame) {
+            for (int i = 0; i < stats.length; i++) {
+                int result;
+                try {
+                    result = stats[i].exec(frame);
+                } catch (LuaError e) {
+                    if (e.line == 0) {
+                        e.line = lines[i]; // The innermost statement names the line.
+                    }
+                    throw e;
+                }
+                if (result != NORMAL) {
+                    return result;
+                }
+            }
+            return NORMAL;
+        }
+    }
+
+    private static final class Local implements Expr, Target {
+        private final int depth;
+        private final int slot;
+
+        Local(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        private Frame frame(Frame frame) {
+            for (int i = 0; i < depth; i++) {
+                frame = frame.parent;
+            }
+            return frame;
+        }
+
+        @Override
+        public Object eval(Frame frame) {
+            return depth == 0 ? frame.slots[slot] : frame(frame).slots[slot];
+        }
+
+        @Override
+        public void assign(Frame frame, Object value) {
+            frame(frame).slots[slot] = value;
+        }
+    }
+
+    private static final class Global implements Expr, Target {
+        private final String name;
+
+        Global(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Object eval(Frame frame) {
+            Object value = frame.env.globals.get(name);
+            if (value == null) {
+                throw new LuaError("Script attempted to access nonexistent global variable '" + name + "'");
+            }
+            return value;
+        }
+
+        @Override
+        public void assign(Frame frame, Object value) {
+            throw new LuaError("Attempt to modify a readonly table");
+        }
+    }
+
+    private static final class Index implements Expr, Target {
+        private final Expr target;
+        private final Expr key;
+
+        Index(Expr target, Expr key) {
+            this.target = target;
+            this.key = key;
+        }
+
+        @Override
+        public Object eval(Frame frame) {
+            return Lua.index(target.eval(frame), key.eval(frame));
+        }
+
+        @Override
+        public void assign(Frame frame, Object value) {
+            Lua.setIndex(target.eval(frame), key.eval(frame), value);
+        }
+    }
+
+    private static final class Call implements Expr {
+        private final Expr function;
+        // The method name for obj:name(...), which passes obj as the first argument.
+        private final String method;
+        private final Expr[] args;
+
+        Call(Expr function, String method, Expr[] args) {
+            this.function = function;
+            this.method = method;
+            this.args = args;
+        }
+
+        @Override
+        public Object eval(Frame frame) {
+            return Lua.first(evalMulti(frame));
+        }
+
+        @Override
+        public Object[] evalMulti(Frame frame) {
+            Object callee = function.eval(frame);
+            if (method == null) {
+                return Lua.call(callee, evalList(args, frame, 0));
+            }
+            Object[] values = evalList(args, frame, 1);
+            values[0] = callee;
+            return Lua.call(Lua.index(callee, method), values);
+        }
+
+        @Override
+        public boolean isMulti() {
+            return true;
+        }
+    }
+
+    /**
+     * Evaluates a list of expressions, the last one expanded to all its values.
+     *
+     * @param skip How many empty places to leave at the start of the result.
+     */
+    private static Object[] evalList(Expr[] exprs, Frame frame, int skip) {
+        int n = exprs.length;
+        if (n == 0 || !exprs[n - 1].isMulti()) {
+            Object[] values = new Object[skip + n];
+            for (int i = 0; i < n; i++) {
+                values[skip + i] = exprs[i].eval(frame);
+            }
+            return values;
+        }
+        Object[] head = new Object[n - 1];
+        for (int i = 0; i < n - 1; i++) {
+            head[i] = exprs[i].eval(frame);
+        }
+        Object[] tail = exprs[n - 1].evalMulti(frame);
+        Object[] values = new Object[skip + head.length + tail.length];
+        System.arraycopy(head, 0, values, skip, head.length);
+        System.arraycopy(tail, 0, values, skip + head.length, tail.length);
+        return values;
+    }
+
+    // --- Lexer ---
+
+    private void next() {
+        skipSpaceAndComments();
+        tokenStart = pos;
+        line = lineNumber;
+        value = null;
+        if (pos >= source.length()) {
+            kind = "<eof>";
+            return;
+        }
+        char c = source.charAt(pos);
+        if (isNameStart(c)) {
+            while (pos < source.length() && (isNameStart(source.charAt(pos)) || isDigit(source.charAt(pos)))) {
+                pos++;
+            }
+            String name = source.substring(tokenStart, pos);
+            if (KEYWORDS.contains(name)) {
+                kind = name;
+            } else {
+                kind = "<name>";
+                value = name;
+            }
+        } else if (isDigit(c) || (c == '.' && pos + 1 < source.length() && isDigit(source.charAt(pos + 1)))) {
+            readNumber();
+        } else if (c == '"' || c == '\'') {
+            readString(c);
+        } else if (c == '[' && longBracketLevel() >= 0) {
+            kind = "<string>";
+            value = readLongString(longBracketLevel());
+        } else if (source.startsWith("...", pos)) {
+            kind = "...";
+            pos += 3;
+        } else if (source.startsWith("..", pos) || source.startsWith("==", pos) || source.startsWith("~=", pos)
+                || source.startsWith("<=", pos) || source.startsWith(">=", pos)) {
+            kind = source.substring(pos, pos + 2);
+            pos += 2;
+        } else if ("+-*/%^#<>=(){}[];:,.".indexOf(c) >= 0) {
+            kind = String.valueOf(c);
+            pos++;
+        } else {
+            pos++;
+            throw error("unexpected symbol");
+        }
+    }
+
+    private void skipSpaceAndComments() {
+        while (pos < source.length()) {
+            char c = source.charAt(pos);
+            if (c == '\n') {
+                lineNumber++;
+                pos++;
+            } else if (c == ' ' || c == '\t' || c == '\r' || c == '\f' || c == 0x0b) {
+                pos++;
+            } else if (source.startsWith("--", pos)) {
+                pos += 2;
+                int level = longBracketLevel();
+                if (level >= 0) {
+                    readLongString(level);
+                } else {
+                    while (pos < source.length() && source.charAt(pos) != '\n') {
+                        pos++;
+                    }
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The level of a long bracket ("[[" is 0, "[=[" is 1...) starting here, or -1.
+     */
+    private int longBracketLevel() {
+        if (pos >= source.length() || source.charAt(pos) != '[') {
+            return -1;
+        }
+        int i = pos + 1;
+        while (i < source.length() && source.charAt(i) == '=') {
+            i++;
+        }
+        return i < source.length() && source.charAt(i) == '[' ? i - pos - 1 : -1;
+    }
+
+    private String readLongString(int level) {
+        pos += level + 2;
+        if (pos < source.length() && source.charAt(pos) == '\r') {
+            pos++;
+        }
+        if (pos < source.length() && source.charAt(pos) == '\n') {
+            pos++; // A newline right after the opening bracket is not part of the string.
+            lineNumber++;
+        }
+        String close = "]" + "=".repeat(level) + "]";
+        int end = source.indexOf(close, pos);
+        if (end < 0) {
+            pos = source.length();
+            throw error("unfinished long string");
+        }
+        String text = source.substring(pos, end);
+        lineNumber += (int) text.chars().filter(ch -> ch == '\n').count();
+        pos = end + close.length();
+        return text;
+    }
+
+    private void readNumber() {
+        if (source.startsWith("0x", pos) || source.startsWith("0X", pos)) {
+            pos += 2;
+        }
+        while (pos < source.length()) {
+            char c = source.charAt(pos);
+            if (isNameStart(c) || isDigit(c) || c == '.') {
+                pos++;
+            } else if ((c == '+' || c == '-') && (source.charAt(pos - 1) == 'e' || source.charAt(pos - 1) == 'E')
+                    && !source.startsWith("0x", tokenStart) && !source.startsWith("0X", tokenStart)) {
+                pos++;
+            } else {
+                break;
+            }
+        }
+        kind = "<number>";
+        value = Lua.toNumber(source.substring(tokenStart, pos));
+        if (value == null) {
+            throw error("malformed number");
+        }
+    }
+
+    private void readString(char quote) {
+        StringBuilder text = new StringBuilder();
+        pos++;
+        while (true) {
+            if (pos >= source.length() || source.charAt(pos) == '\n') {
+                throw error("unfinished string");
+            }
+            char c = source.charAt(pos++);
+            if (c == quote) {
+                break;
+            }
+            if (c != '\\') {
+                text.append(c);
+                continue;
+            }
+            if (pos >= source.length()) {
+                throw error("unfinished string");
+            }
+            char escape = source.charAt(pos++);
+            switch (escape) {
+                case 'n' -> text.append('\n');
+                case 't' -> text.append('\t');
+                case 'r' -> text.append('\r');
+                case 'a' -> text.append('\007');
+                case 'b' -> text.append('\b');
+                case 'f' -> text.append('\f');
+                case 'v' -> text.append('\013');
+                case '\n' -> {
+                    text.append('\n');
+                    lineNumber++;
+                }
+                default -> {
+                    if (!isDigit(escape)) {
+                        text.append(escape); // \\, \", \' and any other character stand for themselves.
+                        break;
+                    }
+                    // \ddd: up to three decimal digits.
+                    int code = escape - '0';
+                    for (int i = 0; i < 2 && pos < source.length() && isDigit(source.charAt(pos)); i++) {
+                        code = code * 10 + source.charAt(pos++) - '0';
+                    }
+                    if (code > 255) {
+                        throw error("escape sequence too large");
+                    }
+                    text.append((char) code);
+                }
+            }
+        }
+        kind = "<string>";
+        value = text.toString();
+    }
+
+    private static boolean isNameStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private LuaError error(String message) {
+        String near = kind == null || kind.equals("<eof>") ? "<eof>" : source.substring(tokenStart, pos);
+        LuaError error = new LuaError(message + " near '" + near + "'");
+        error.line = lineNumber;
+        return error;
+    }
+
+    private boolean accept(String expected) {
+        if (kind.equals(expected)) {
+            next();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String expected) {
+        if (!accept(expected)) {
+            throw error("'" + expected + "' expected");
+        }
+    }
+
+    /**
+     * Expects the token closing what opened on another line, naming that line like Lua does.
+     */
+    private void expectClosing(String expected, String opening, int openingLine) {
+        if (!accept(expected)) {
+            throw error(openingLine == line ? "'" + expected + "' expected"
+                    : "'" + expected + "' expected (to close '" + opening + "' at line " + openingLine + ")");
+        }
+    }
+
+    private String name() {
+        if (!kind.equals("<name>")) {
+            throw error("<name> expected");
+        }
+        String name = (String) value;
+        next();
+        return name;
+    }
+
+    // --- Scopes ---
+
+    /**
+     * The locals of the function being parsed, innermost block first.
+     */
+    private static final class FunctionState {
+        final FunctionState parent;
+        final boolean varargs;
+        final ArrayDeque<Map<String, Integer>> scopes = new ArrayDeque<>();
+        int slots;
+
+        FunctionState(FunctionState parent, boolean varargs) {
+            this.parent = parent;
+            this.varargs = varargs;
+            scopes.push(new HashMap<>());
+        }
+
+        int declare(String name) {
+            scopes.peek().put(name, slots);
+            return slots++;
+        }
+
+        Integer find(String name) {
+            for (Map<String, Integer> scope : scopes) {
+                Integer slot = scope.get(name);
+                if (slot != null) {
+                    return slot;
+                }
+            }
+            return null;
+        }
+    }
+
+    private Expr resolve(String name) {
+        int depth = 0;
+        for (FunctionState state = function; state != null; state = state.parent, depth++) {
+            Integer slot = state.find(name);
+            if (slot != null) {
+                return new Local(depth, slot);
+            }
+        }
+        return new Global(name);
+    }
+
+    // --- Statements ---
+
+    private Block block() {
+        function.scopes.push(new HashMap<>());
+        Block block = statements();
+        function.scopes.pop();
+        return block;
+    }
+
+    /**
+     * Parses statements up to the end of a block, in the current scope.
+     */
+    private Block statements() {
+        List<Stat> stats = new ArrayList<>();
+        List<Integer> lines = new ArrayList<>();
+        while (!blockEnds()) {
+            lines.add(line);
+            if (kind.equals("return") || kind.equals("break")) {
+                stats.add(lastStatement()); // Nothing may follow return or break in a block.
+                break;
+            }
+            stats.add(statement());
+            accept(";");
+        }
+        return new Block(stats.toArray(new Stat[0]), lines.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private boolean blockEnds() {
+        return switch (kind) {
+            case "else", "elseif", "end", "until", "<eof>" -> true;
+            default -> false;
+        };
+    }
+
+    private Stat lastStatement() {
+        if (accept("break")) {
+            accept(";");
+            return frame -> BREAK;
+        }
+        next();
+        Expr[] values = blockEnds() || kind.equals(";") ? new Expr[0] : expressions();
+        accept(";");
+        if (values.length == 1 && !values[0].isMulti()) {
+            Expr single = values[0];
+            return frame -> {
+                frame.returned = new Object[] { single.eval(frame) };
+                return RETURN;
+            };
+        }
+        return frame -> {
+            frame.returned = evalList(values, frame, 0);
+            return RETURN;
+        };
+    }
+
+    private Stat statement() {
+        int start = line;
+        switch (kind) {
+            case "if":
+                return ifStatement(start);
+            case "while": {
+                next();
+                Expr condition = expression();
+                expect("do");
+                Block body = block();
+                expectClosing("end", "while", start);
+                return frame -> {
+                    while (Lua.isTrue(condition.eval(frame))) {
+                        frame.env.tick();
+                        int result = body.exec(frame);
+                        if (result == BREAK) {
+                            break;
+                        } else if (result == RETURN) {
+                            return RETURN;
+                        }
+                    }
+                    return NORMAL;
+                };
+            }
+            case "do": {
+                next();
+                Block body = block();
+                expectClosing("end", "do", start);
+                return body;
+            }
+            case "for":
+                return forStatement(start);
+            case "repeat": {
+                next();
+                // The condition sees the locals of the body.
+                function.scopes.push(new HashMap<>());
+                Block body = statements();
+                expectClosing("until", "repeat", start);
+                Expr condition = expression();
+                function.scopes.pop();
+                return frame -> {
+                    do {
+                        frame.env.tick();
+                        int result = body.exec(frame);
+                        if (result == BREAK) {
+                            break;
+                        } else if (result == RETURN) {
+                            return RETURN;
+                        }
+                    } while (!Lua.isTrue(condition.eval(frame)));
+                    return NORMAL;
+                };
+            }
+            case "function":
+                return functionStatement(start);
+            case "local":
+                next();
+                if (accept("function")) {
+                    int slot = function.declare(name()); // Declared first, so the function can call itself.
+                    Expr body = functionBody(false, start);
+                    return frame -> {
+                        frame.slots[slot] = body.eval(frame);
+                        return NORMAL;
+                    };
+                }
+                return localStatement();
+            default:
+                return expressionStatement();
+        }
+    }
+
+    private Stat ifStatement(int start) {
+        List<Expr> conditions = new ArrayList<>();
+        List<Block> blocks = new ArrayList<>();
+        Block otherwise = null;
+        do {
+            next(); // if or elseif
+            conditions.add(expression());
+            expect("then");
+            blocks.add(block());
+        } while (kind.equals("elseif"));
+        if (accept("else")) {
+            otherwise = block();
+        }
+        expectClosing("end", "if", start);
+        Expr[] tests = conditions.toArray(new Expr[0]);
+        Block[] bodies = blocks.toArray(new Block[0]);
+        Block elseBody = otherwise;
+        return frame -> {
+            for (int i = 0; i < tests.length; i++) {
+                if (Lua.isTrue(tests[i].eval(frame))) {
+                    return bodies[i].exec(frame);
+                }
+            }
+            return elseBody == null ? NORMAL : elseBody.exec(frame);
+        };
+    }
+
+    private Stat forStatement(int start) {
+        next();
+        String first = name();
+        if (accept("=")) {
+            Expr from = expression();
+            expect(",");
+            Expr to = expression();
+            Expr by = accept(",") ? expression() : null;
+            expect("do");
+            function.scopes.push(new HashMap<>());
+            int slot = function.declare(first);
+            Block body = block();
+            function.scopes.pop();
+            expectClosing("end", "for", start);
+            return frame -> {
+                double initial = forNumber(from.eval(frame), "initial");
+                double limit = forNumber(to.eval(frame), "limit");
+                double step = by == null ? 1 : forNumber(by.eval(frame), "step");
+                for (double i = initial; step > 0 ? i <= limit : i >= limit; i += step) {
+                    frame.env.tick();
+                    frame.slots[slot] = i;
+                    int result = body.exec(frame);
+                    if (result == BREAK) {
+                        break;
+                    } else if (result == RETURN) {
+                        return RETURN;
+                    }
+                }
+                return NORMAL;
+            };
+        }
+
+        // Generic for: for k, v in f, s, control do ... end
+        List<String> names = new ArrayList<>();
+        names.add(first);
+        while (accept(",")) {
+            names.add(name());
+        }
+        expect("in");
+        Expr[] iterator = expressions();
+        expect("do");
+        function.scopes.push(new HashMap<>());
+        int[] slots = names.stream().mapToInt(function::declare).toArray();
+        Block body = block();
+        function.scopes.pop();
+        expectClosing("end", "for", start);
+        return frame -> {
+            Object[] state = evalList(iterator, frame, 0);
+            Object next = Lua.arg(state, 0);
+            Object invariant = Lua.arg(state, 1);
+            Object control = Lua.arg(state, 2);
+            while (true) {
+                frame.env.tick();
+                Object[] values = Lua.call(next, new Object[] { invariant, control });
+                control = Lua.first(values);
+                if (control == null) {
+                    return NORMAL;
+                }
+                for (int i = 0; i < slots.length; i++) {
+                    frame.slots[slots[i]] = Lua.arg(values, i);
+                }
+                int result = body.exec(frame);
+                if (result == BREAK) {
+                    return NORMAL;
+                } else if (result == RETURN) {
+                    return RETURN;
+                }
+            }
+        };
+    }
+
+    private static double forNumber(Object value, String what) {
+        Double number = Lua.toNumber(value);
+        if (number == null) {
+            throw new LuaError("'for' " + what + " value must be a number");
+        }
+        return number;
+    }
+
+    /**
+     * function a.b.c:m(...) ... end, which assigns the function to a variable or a field.
+     */
+    private Stat functionStatement(int start) {
+        next();
+        Expr target = resolve(name());
+        boolean method = false;
+        while (kind.equals(".") || kind.equals(":")) {
+            method = kind.equals(":");
+            next();
+            Expr key = constant(name());
+            target = new Index(target, key);
+            if (method) {
+                break;
+            }
+        }
+        Target assignee = (Target) target;
+        Expr body = functionBody(method, start);
+        return frame -> {
+            assignee.assign(frame, body.eval(frame));
+            return NORMAL;
+        };
+    }
+
+    private Stat localStatement() {
+        List<String> names = new ArrayList<>();
+        do {
+            names.add(name());
+        } while (accept(","));
+        Expr[] values = accept("=") ? expressions() : new Expr[0];
+        // Declared after the values are parsed: "local x = x" reads the outer x.
+        int[] slots = names.stream().mapToInt(function::declare).toArray();
+        if (slots.length == 1 && values.length == 1) {
+            int slot = slots[0];
+            Expr single = values[0];
+            return frame -> {
+                frame.slots[slot] = single.eval(frame);
+                return NORMAL;
+            };
+        }
+        return frame -> {
+            Object[] results = evalList(values, frame, 0);
+            for (int i = 0; i < slots.length; i++) {
+                frame.slots[slots[i]] = Lua.arg(results, i);
+            }
+            return NORMAL;
+        };
+    }
+
+    private Stat expressionStatement() {
+        Expr first = suffixedExpression();
+        if (!kind.equals("=") && !kind.equals(",")) {
+            if (!(first instanceof Call call)) {
+                throw error("syntax error");
+            }
+            return frame -> {
+                call.evalMulti(frame);
+                return NORMAL;
+            };
+        }
+        List<Target> targets = new ArrayList<>();
+        targets.add(target(first));
+        while (accept(",")) {
+            targets.add(target(suffixedExpression()));
+        }
+        expect("=");
+        Expr[] values = expressions();
+        if (targets.size() == 1 && values.length == 1) {
+            Target target = targets.get(0);
+            Expr single = values[0];
+            return frame -> {
+                target.assign(frame, single.eval(frame));
+                return NORMAL;
+            };
+        }
+        Target[] assignees = targets.toArray(new Target[0]);
+        return frame -> {
+            // Every value is computed before anything is assigned: a, b = b, a swaps.
+            Object[] results = evalList(values, frame, 0);
+            for (int i = 0; i < assignees.length; i++) {
+                assignees[i].assign(frame, Lua.arg(results, i));
+            }
+            return NORMAL;
+        };
+    }
+
+    private Target target(Expr expr) {
+        if (expr instanceof Target target) {
+            return target;
+        }
+        throw error("syntax error");
+    }
+
+    // --- Expressions ---
+
+    private Expr[] expressions() {
+        List<Expr> exprs = new ArrayList<>();
+        do {
+            exprs.add(expression());
+        } while (accept(","));
+        return exprs.toArray(new Expr[0]);
+    }
+
+    private Expr expression() {
+        return subexpression(0);
+    }
+
+    /**
+     * Parses an expression whose binary operators all bind tighter than limit.
+     */
+    private Expr subexpression(int limit) {
+        Expr left;
+        if (kind.equals("not") || kind.equals("-") || kind.equals("#")) {
+            String operator = kind;
+            next();
+            left = unary(operator, subexpression(UNARY_PRIORITY));
+        } else {
+            left = simpleExpression();
+        }
+        int[] priority;
+        while ((priority = BINARY.get(kind)) != null && priority[0] > limit) {
+            String operator = kind;
+            next();
+            left = binary(operator, left, subexpression(priority[1]));
+        }
+        return left;
+    }
+
+    private static Expr unary(String operator, Expr operand) {
+        return switch (operator) {
+            case "not" -> frame -> !Lua.isTrue(operand.eval(frame));
+            case "-" -> frame -> -Lua.arithmetic(operand.eval(frame));
+            default -> frame -> (double) Lua.length(operand.eval(frame));
+        };
+    }
+
+    private static Expr binary(String operator, Expr a, Expr b) {
+        return switch (operator) {
+            case "or" -> frame -> {
+                Object value = a.eval(frame);
+                return Lua.isTrue(value) ? value : b.eval(frame);
+            };
+            case "and" -> frame -> {
+                Object value = a.eval(frame);
+                return Lua.isTrue(value) ? b.eval(frame) : value;
+            };
+            case "==" -> frame -> Lua.equal(a.eval(frame), b.eval(frame));
+            case "~=" -> frame -> !Lua.equal(a.eval(frame), b.eval(frame));
+            case "<" -> frame -> Lua.lessThan(a.eval(frame), b.eval(frame));
+            case "<=" -> frame -> Lua.lessOrEqual(a.eval(frame), b.eval(frame));
+            case ">" -> frame -> {
+                Object left = a.eval(frame);
+                return Lua.lessThan(b.eval(frame), left);
+            };
+            case ">=" -> frame -> {
+                Object left = a.eval(frame);
+                return Lua.lessOrEqual(b.eval(frame), left);
+            };
+            case ".." -> frame -> {
+                String left = Lua.concatPart(a.eval(frame));
+                String right = Lua.concatPart(b.eval(frame));
+                if ((long) left.length() + right.length() > LuaLibrary.MAX_STRING_LENGTH) {
+                    throw new LuaError("string length overflow");
+                }
+                return left.concat(right);
+            };
+            case "+" -> frame -> {
+                Object x = a.eval(frame);
+                Object y = b.eval(frame);
+                return x instanceof Double l && y instanceof Double r ? l + r : Lua.arithmetic(x) + Lua.arithmetic(y);
+            };
+            case "-" -> frame -> {
+                Object x = a.eval(frame);
+                Object y = b.eval(frame);
+                return x instanceof Double l && y instanceof Double r ? l - r : Lua.arithmetic(x) - Lua.arithmetic(y);
+            };
+            case "*" -> frame -> {
+                double x = Lua.arithmetic(a.eval(frame));
+                return x * Lua.arithmetic(b.eval(frame));
+            };
+            case "/" -> frame -> {
+                double x = Lua.arithmetic(a.eval(frame));
+                return x / Lua.arithmetic(b.eval(frame));
+            };
+            case "%" -> frame -> {
+                double x = Lua.arithmetic(a.eval(frame));
+                double y = Lua.arithmetic(b.eval(frame));
+                return x - Math.floor(x / y) * y; // Lua's modulo takes the sign of the divisor.
+            };
+            default -> frame -> {
+                double x = Lua.arithmetic(a.eval(frame));
+                return Math.pow(x, Lua.arithmetic(b.eval(frame)));
+            };
+        };
+    }
+
+    private Expr simpleExpression() {
+        switch (kind) {
+            case "<number>":
+            case "<string>": {
+                Expr constant = constant(value);
+                next();
+                return constant;
+            }
+            case "nil":
+                next();
+                return constant(null);
+            case "true":
+                next();
+                return constant(Boolean.TRUE);
+            case "false":
+                next();
+                return constant(Boolean.FALSE);
+            case "...": {
+                if (!function.varargs) {
+                    throw error("cannot use '...' outside a vararg function");
+                }
+                next();
+                return new Expr() {
+                    @Override
+                    public Object eval(Frame frame) {
+                        return Lua.first(frame.varargs);
+                    }
+
+                    @Override
+                    public Object[] evalMulti(Frame frame) {
+                        return frame.varargs;
+                    }
+
+                    @Override
+                    public boolean isMulti() {
+                        return true;
+                    }
+                };
+            }
+            case "{":
+                return table();
+            case "function": {
+                int start = line;
+                next();
+                return functionBody(false, start);
+            }
+            default:
+                return suffixedExpression();
+        }
+    }
+
+    private static Expr constant(Object constant) {
+        return frame -> constant;
+    }
+
+    private Expr primaryExpression() {
+        if (kind.equals("<name>")) {
+            return resolve(name());
+        }
+        if (kind.equals("(")) {
+            int start = line;
+            next();
+            Expr inner = expression();
+            expectClosing(")", "(", start);
+            // Parentheses keep only the first value of a call.
+            return inner.isMulti() ? frame -> inner.eval(frame) : inner;
+        }
+        throw error("unexpected symbol");
+    }
+
+    private Expr suffixedExpression() {
+        Expr expr = primaryExpression();
+        while (true) {
+            switch (kind) {
+                case ".":
+                    next();
+                    expr = new Index(expr, constant(name()));
+                    break;
+                case "[": {
+                    next();
+                    Expr key = expression();
+                    expect("]");
+                    expr = new Index(expr, key);
+                    break;
+                }
+                case ":": {
+                    next();
+                    String method = name();
+                    expr = new Call(expr, method, callArguments());
+                    break;
+                }
+                case "(":
+                case "{":
+                case "<string>":
+                    expr = new Call(expr, null, callArguments());
+                    break;
+                default:
+                    return expr;
+            }
+        }
+    }
+
+    private Expr[] callArguments() {
+        if (kind.equals("<string>")) {
+            Expr argument = constant(value);
+            next();
+            return new Expr[] { argument };
+        }
+        if (kind.equals("{")) {
+            return new Expr[] { table() };
+        }
+        int start = line;
+        expect("(");
+        if (accept(")")) {
+            return new Expr[0];
+        }
+        Expr[] args = expressions();
+        expectClosing(")", "(", start);
+        return args;
+    }
+
+    /**
+     * A table constructor: { [k] = v, name = v, v, ... }.
+     */
+    private Expr table() {
+        int start = line;
+        expect("{");
+        List<Expr> keys = new ArrayList<>();
+        List<Expr> values = new ArrayList<>();
+        while (!kind.equals("}")) {
+            if (kind.equals("[")) {
+                next();
+                keys.add(expression());
+                expect("]");
+                expect("=");
+            } else if (kind.equals("<name>") && peekIsAssignment()) {
+                keys.add(constant(name()));
+                expect("=");
+            } else {
+                keys.add(null); // The next array item.
+            }
+            values.add(expression());
+            if (!accept(",") && !accept(";")) {
+                break;
+            }
+        }
+        expectClosing("}", "{", start);
+        Expr[] keyExprs = keys.toArray(new Expr[0]);
+        Expr[] valueExprs = values.toArray(new Expr[0]);
+        return frame -> {
+            LuaTable table = new LuaTable();
+            double index = 1;
+            for (int i = 0; i < valueExprs.length; i++) {
+                if (keyExprs[i] != null) {
+                    Object key = keyExprs[i].eval(frame);
+                    table.put(key, valueExprs[i].eval(frame));
+                } else if (i == valueExprs.length - 1 && valueExprs[i].isMulti()) {
+                    for (Object item : valueExprs[i].evalMulti(frame)) {
+                        table.put(index++, item);
+                    }
+                } else {
+                    table.put(index++, valueExprs[i].eval(frame));
+                }
+            }
+            return table;
+        };
+    }
+
+    /**
+     * @return Whether the name just read is followed by a lone '=' (a field, not an expression).
+     */
+    private boolean peekIsAssignment() {
+        int i = pos;
+        while (i < source.length() && Character.isWhitespace(source.charAt(i))) {
+            i++;
+        }
+        return i < source.length() && source.charAt(i) == '=' && !source.startsWith("==", i);
+    }
+
+    /**
+     * Parses (params) body end into an expression creating the closure.
+     */
+    private Expr functionBody(boolean method, int start) {
+        FunctionState outer = function;
+        List<String> params = new ArrayList<>();
+        if (method) {
+            params.add("self");
+        }
+        expect("(");
+        boolean varargs = false;
+        if (!kind.equals(")")) {
+            do {
+                if (accept("...")) {
+                    varargs = true;
+                    break;
+                }
+                params.add(name());
+            } while (accept(","));
+        }
+        expect(")");
+        FunctionState state = new FunctionState(outer, varargs);
+        params.forEach(state::declare);
+        function = state;
+        Block body = statements();
+        expectClosing("end", "function", start);
+        function = outer;
+
+        int parameters = params.size();
+        int slots = state.slots;
+        boolean hasVarargs = varargs;
+        return frame -> {
+            Environment env = frame.env;
+            return (LuaFunction) args -> {
+                env.tick();
+                Frame callee = new Frame(slots, frame, env);
+                System.arraycopy(args, 0, callee.slots, 0, Math.min(parameters, args.length));
+                if (hasVarargs && args.length > parameters) {
+                    callee.varargs = Arrays.copyOfRange(args, parameters, args.length);
+                }
+                return body.exec(callee) == RETURN ? callee.returned : Lua.NONE;
+            };
+        };
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.redisClone.scripting;
+
+/**
+ * An error raised while a script runs: by error(), by a failed redis.call, or by the interpreter
+ * itself (calling nil, arithmetic on a table, ...). pcall catches it; anything else ends the script.
+ */
+public class LuaError extends RuntimeException {
+    // What error() was called with: usually a String, or a table such as {err = "..."}.
+    public final Object value;
+    // The script line of the statement that raised it, or 0 while not known yet.
+    int line;
+
+    public LuaError(Object value) {
+        super(value instanceof String text ? text : Lua.typeName(value), null, false, false);
+        this.value = value;
+    }
+}
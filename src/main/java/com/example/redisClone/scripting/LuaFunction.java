@@ -0,0 +1,13 @@
+package com.example.redisClone.scripting;
+
+/**
+ * A function callable from a script: a library function written in Java, or a function the
+ * script defined itself.
+ */
+public interface LuaFunction {
+    /**
+     * @param args The arguments; missing ones are simply absent (nil).
+     * @return The results, possibly none.
+     */
+    Object[] call(Object[] args);
+}
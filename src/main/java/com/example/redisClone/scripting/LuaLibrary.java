@@ -0,0 +1,367 @@
+package com.example.redisClone.scripting;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The part of the Lua standard library scripts get: the base functions (type, tostring,
+ * tonumber, pairs, ipairs, unpack, select, error, assert, pcall) and the string, table and math
+ * libraries, minus what has no place in a script run by the server (io, os, load, and Lua
+ * patterns: string.find only finds plain text).
+ */
+final class LuaLibrary {
+    // The longest string a script may build (with string.rep or ..), so that a script cannot
+    // take the heap the keyspace lives in. Redis values are at most 512 MB (proto-max-bulk-len).
+    static final int MAX_STRING_LENGTH = 64 * 1024 * 1024;
+    // The most values unpack may return, Lua 5.1's LUAI_MAXCSTACK.
+    private static final int MAX_RESULTS = 8000;
+
+    static final LuaTable STRING = new LuaTable();
+    static final LuaTable TABLE = new LuaTable();
+    static final LuaTable MATH = new LuaTable();
+
+    static {
+        STRING.put("len", (LuaFunction) args -> values((double) checkString(args, 0, "len").length()));
+        STRING.put("sub", (LuaFunction) LuaLibrary::sub);
+        STRING.put("upper", (LuaFunction) args -> values(checkString(args, 0, "upper").toUpperCase()));
+        STRING.put("lower", (LuaFunction) args -> values(checkString(args, 0, "lower").toLowerCase()));
+        STRING.put("rep", (LuaFunction) LuaLibrary::rep);
+        STRING.put("reverse", (LuaFunction) args -> values(
+                new StringBuilder(checkString(args, 0, "reverse")).reverse().toString()));
+        STRING.put("byte", (LuaFunction) LuaLibrary::byteAt);
+        STRING.put("char", (LuaFunction) args -> {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < args.length; i++) {
+                text.append((char) ((int) checkNumber(args, i, "char") & 0xff));
+            }
+            return values(text.toString());
+        });
+        STRING.put("find", (LuaFunction) LuaLibrary::find);
+        STRING.put("format", (LuaFunction) LuaLibrary::format);
+        STRING.readOnly = true;
+
+        TABLE.put("insert", (LuaFunction) args -> {
+            LuaTable table = checkTable(args, 0, "insert");
+            if (args.length >= 3) {
+                table.insert((int) checkNumber(args, 1, "insert"), args[2]);
+            } else {
+                table.insert(table.length() + 1, Lua.arg(args, 1));
+            }
+            return Lua.NONE;
+        });
+        TABLE.put("remove", (LuaFunction) args -> {
+            LuaTable table = checkTable(args, 0, "remove");
+            return values(table.remove(args.length >= 2 ? (int) checkNumber(args, 1, "remove") : table.length()));
+        });
+        TABLE.put("concat", (LuaFunction) LuaLibrary::concat);
+        TABLE.put("getn", (LuaFunction) args -> values((double) checkTable(args, 0, "getn").length()));
+        TABLE.put("sort", (LuaFunction) LuaLibrary::sort);
+        TABLE.readOnly = true;
+
+        MATH.put("floor", (LuaFunction) args -> values(Math.floor(checkNumber(args, 0, "floor"))));
+        MATH.put("ceil", (LuaFunction) args -> values(Math.ceil(checkNumber(args, 0, "ceil"))));
+        MATH.put("abs", (LuaFunction) args -> values(Math.abs(checkNumber(args, 0, "abs"))));
+        MATH.put("sqrt", (LuaFunction) args -> values(Math.sqrt(checkNumber(args, 0, "sqrt"))));
+        MATH.put("pow", (LuaFunction) args -> values(
+                Math.pow(checkNumber(args, 0, "pow"), checkNumber(args, 1, "pow"))));
+        MATH.put("fmod", (LuaFunction) args -> values(checkNumber(args, 0, "fmod") % checkNumber(args, 1, "fmod")));
+        MATH.put("max", (LuaFunction) args -> {
+            double max = checkNumber(args, 0, "max");
+            for (int i = 1; i < args.length; i++) {
+                max = Math.max(max, checkNumber(args, i, "max"));
+            }
+            return values(max);
+        });
+        MATH.put("min", (LuaFunction) args -> {
+            double min = checkNumber(args, 0, "min");
+            for (int i = 1; i < args.length; i++) {
+                min = Math.min(min, checkNumber(args, i, "min"));
+            }
+            return values(min);
+        });
+        MATH.put("huge", Double.POSITIVE_INFINITY);
+        MATH.put("pi", Math.PI);
+        MATH.readOnly = true;
+    }
+
+    private LuaLibrary() {
+    }
+
+    /**
+     * Adds the base functions and the libraries to a script environment.
+     */
+    static void install(Map<String, Object> globals) {
+        globals.put("type", (LuaFunction) args -> values(Lua.typeName(Lua.arg(args, 0))));
+        globals.put("tostring", (LuaFunction) args -> values(Lua.toString(Lua.arg(args, 0))));
+        globals.put("tonumber", (LuaFunction) LuaLibrary::tonumber);
+        globals.put("ipairs", (LuaFunction) LuaLibrary::ipairs);
+        globals.put("pairs", (LuaFunction) LuaLibrary::pairs);
+        globals.put("unpack", (LuaFunction) LuaLibrary::unpack);
+        globals.put("select", (LuaFunction) LuaLibrary::select);
+        globals.put("error", (LuaFunction) args -> {
+            throw new LuaError(Lua.arg(args, 0));
+        });
+        globals.put("assert", (LuaFunction) args -> {
+            if (!Lua.isTrue(Lua.arg(args, 0))) {
+                throw new LuaError(args.length > 1 ? args[1] : "assertion failed!");
+            }
+            return args;
+        });
+        globals.put("pcall", (LuaFunction) LuaLibrary::pcall);
+        globals.put("string", STRING);
+        globals.put("table", TABLE);
+        globals.put("math", MATH);
+    }
+
+    private static Object[] tonumber(Object[] args) {
+        Object value = Lua.arg(args, 0);
+        if (args.length < 2 || Lua.arg(args, 1) == null) {
+            return values(Lua.toNumber(value));
+        }
+        try {
+            return values((double) Long.parseLong(Lua.toString(value).trim(), (int) checkNumber(args, 1, "tonumber")));
+        } catch (NumberFormatException e) {
+            return values((Object) null);
+        }
+    }
+
+    private static Object[] ipairs(Object[] args) {
+        LuaTable table = checkTable(args, 0, "ipairs");
+        LuaFunction next = state -> {
+            int index = (int) checkNumber(state, 1, "ipairs") + 1;
+            Object value = table.get(index);
+            return value == null ? values((Object) null) : values((double) index, value);
+        };
+        return values(next, table, 0.0);
+    }
+
+    private static Object[] pairs(Object[] args) {
+        Iterator<Object[]> entries = checkTable(args, 0, "pairs").entries();
+        LuaFunction next = state -> entries.hasNext() ? entries.next() : values((Object) null);
+        return values(next, args[0], null);
+    }
+
+    private static Object[] unpack(Object[] args) {
+        LuaTable table = checkTable(args, 0, "unpack");
+        long from = args.length > 1 && args[1] != null ? (long) checkNumber(args, 1, "unpack") : 1;
+        long to = args.length > 2 && args[2] != null ? (long) checkNumber(args, 2, "unpack") : table.length();
+        if (to < from) {
+            return Lua.NONE;
+        }
+        // Both ends come from the script: the span may not even fit an int.
+        if (to - from >= MAX_RESULTS || to - from < 0) {
+            throw new LuaError("too many results to unpack");
+        }
+        Object[] values = new Object[(int) (to - from + 1)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = table.get((double) (from + i));
+        }
+        return values;
+    }
+
+    private static Object[] rep(Object[] args) {
+        String text = checkString(args, 0, "rep");
+        double count = checkNumber(args, 1, "rep");
+        if (count < 1 || text.isEmpty()) {
+            return values("");
+        }
+        if (count * text.length() > MAX_STRING_LENGTH) {
+            throw new LuaError("resulting string too large");
+        }
+        return values(text.repeat((int) count));
+    }
+
+    private static Object[] select(Object[] args) {
+        if ("#".equals(Lua.arg(args, 0))) {
+            return values((double) (args.length - 1));
+        }
+        int n = (int) checkNumber(args, 0, "select");
+        if (n < 1) {
+            throw new LuaError("bad argument #1 to 'select' (index out of range)");
+        }
+        if (n >= args.length) {
+            return Lua.NONE;
+        }
+        Object[] rest = new Object[args.length - n];
+        System.arraycopy(args, n, rest, 0, rest.length);
+        return rest;
+    }
+
+    /**
+     * pcall(f, ...): true and f's results, or false and the error. A script running out of its
+     * time budget is not a LuaError, so pcall cannot keep it alive.
+     */
+    private static Object[] pcall(Object[] args) {
+        Object[] rest = new Object[Math.max(0, args.length - 1)];
+        System.arraycopy(args, Math.min(1, args.length), rest, 0, rest.length);
+        try {
+            Object[] results = Lua.call(Lua.arg(args, 0), rest);
+            Object[] all = new Object[results.length + 1];
+            all[0] = Boolean.TRUE;
+            System.arraycopy(results, 0, all, 1, results.length);
+            return all;
+        } catch (LuaError e) {
+            return values(Boolean.FALSE, e.value instanceof String text && e.line > 0
+                    ? "user_script:" + e.line + ": " + text : e.value);
+        } catch (StackOverflowError e) {
+            return values(Boolean.FALSE, "stack overflow");
+        }
+    }
+
+    private static Object[] sub(Object[] args) {
+        String text = checkString(args, 0, "sub");
+        int length = text.length();
+        int start = position(args.length > 1 ? (int) checkNumber(args, 1, "sub") : 1, length);
+        int end = position(args.length > 2 && args[2] != null ? (int) checkNumber(args, 2, "sub") : -1, length);
+        start = Math.max(start, 1);
+        end = Math.min(end, length);
+        return values(start > end ? "" : text.substring(start - 1, end));
+    }
+
+    /**
+     * Turns a string position that may count from the end (-1 is the last character) into a 1-based one.
+     */
+    private static int position(int position, int length) {
+        return position >= 0 ? position : Math.max(0, length + position + 1);
+    }
+
+    private static Object[] byteAt(Object[] args) {
+        String text = checkString(args, 0, "byte");
+        int start = position(args.length > 1 ? (int) checkNumber(args, 1, "byte") : 1, text.length());
+        int end = position(args.length > 2 ? (int) checkNumber(args, 2, "byte") : start, text.length());
+        List<Object> bytes = new ArrayList<>();
+        for (int i = Math.max(start, 1); i <= Math.min(end, text.length()); i++) {
+            bytes.add((double) (text.charAt(i - 1) & 0xff));
+        }
+        return bytes.toArray();
+    }
+
+    private static Object[] find(Object[] args) {
+        String text = checkString(args, 0, "find");
+        String pattern = checkString(args, 1, "find");
+        int init = position(args.length > 2 && args[2] != null ? (int) checkNumber(args, 2, "find") : 1, text.length());
+        boolean plain = Lua.isTrue(Lua.arg(args, 3));
+        if (!plain && pattern.chars().anyMatch(c -> "^$*+?.([%-".indexOf(c) >= 0)) {
+            throw new LuaError("Lua patterns are not supported; pass true as the 4th argument of string.find");
+        }
+        int found = text.indexOf(pattern, Math.max(init, 1) - 1);
+        return found < 0 ? values((Object) null) : values((double) found + 1, (double) found + pattern.length());
+    }
+
+    /**
+     * string.format with the common conversions: %d %i %u %c %x %X %o %e %E %f %g %G %q %s and %%.
+     */
+    private static Object[] format(Object[] args) {
+        String format = checkString(args, 0, "format");
+        StringBuilder out = new StringBuilder();
+        int arg = 1;
+        for (int i = 0; i < format.length(); i++) {
+            char c = format.charAt(i);
+            if (c != '%') {
+                out.append(c);
+                continue;
+            }
+            int start = i++;
+            while (i < format.length() && "-+ #0123456789.".indexOf(format.charAt(i)) >= 0) {
+                i++;
+            }
+            if (i == format.length()) {
+                throw new LuaError("invalid option '%' to 'format'");
+            }
+            char conversion = format.charAt(i);
+            String spec = format.substring(start, i);
+            switch (conversion) {
+                case '%' -> out.append('%');
+                case 'd', 'i', 'u' -> out.append(
+                        String.format(Locale.ROOT, spec + "d", (long) checkNumber(args, arg++, "format")));
+                case 'c' -> out.append((char) ((long) checkNumber(args, arg++, "format") & 0xff));
+                case 'x', 'X', 'o' -> out.append(
+                        String.format(Locale.ROOT, spec + conversion, (long) checkNumber(args, arg++, "format")));
+                case 'e', 'E', 'f', 'g', 'G' -> out.append(
+                        String.format(Locale.ROOT, spec + conversion, checkNumber(args, arg++, "format")));
+                case 's' -> out.append(String.format(Locale.ROOT, spec + "s", Lua.toString(Lua.arg(args, arg++))));
+                case 'q' -> out.append('"').append(checkString(args, arg++, "format").replace("\\", "\\\\")
+                        .replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+                default -> throw new LuaError("invalid option '%" + conversion + "' to 'format'");
+            }
+        }
+        return values(out.toString());
+    }
+
+    private static Object[] concat(Object[] args) {
+        LuaTable table = checkTable(args, 0, "concat");
+        String separator = args.length > 1 && args[1] != null ? checkString(args, 1, "concat") : "";
+        int from = args.length > 2 && args[2] != null ? (int) checkNumber(args, 2, "concat") : 1;
+        int to = args.length > 3 && args[3] != null ? (int) checkNumber(args, 3, "concat") : table.length();
+        StringBuilder out = new StringBuilder();
+        for (int i = from; i <= to; i++) {
+            Object value = table.get(i);
+            if (!(value instanceof String) && !(value instanceof Double)) {
+                throw new LuaError("invalid value (at index " + i + ") in table for 'concat'");
+            }
+            if (i > from) {
+                out.append(separator);
+            }
+            out.append(Lua.concatPart(value));
+        }
+        return values(out.toString());
+    }
+
+    private static Object[] sort(Object[] args) {
+        LuaTable table = checkTable(args, 0, "sort");
+        Object comparator = Lua.arg(args, 1);
+        List<Object> items = new ArrayList<>();
+        for (int i = 1; i <= table.length(); i++) {
+            items.add(table.get(i));
+        }
+        items.sort((a, b) -> {
+            if (comparator != null) {
+                return Lua.isTrue(Lua.first(Lua.call(comparator, values(a, b)))) ? -1
+                        : Lua.isTrue(Lua.first(Lua.call(comparator, values(b, a)))) ? 1 : 0;
+            }
+            return Lua.lessThan(a, b) ? -1 : Lua.lessThan(b, a) ? 1 : 0;
+        });
+        for (int i = 0; i < items.size(); i++) {
+            table.put((double) (i + 1), items.get(i));
+        }
+        return Lua.NONE;
+    }
+
+    static Object[] values(Object... values) {
+        return values;
+    }
+
+    static String checkString(Object[] args, int i, String function) {
+        Object value = Lua.arg(args, i);
+        if (value instanceof String text) {
+            return text;
+        }
+        if (value instanceof Double number) {
+            return Lua.number(number);
+        }
+        throw badArgument(i, function, "string", value);
+    }
+
+    static double checkNumber(Object[] args, int i, String function) {
+        Double number = Lua.toNumber(Lua.arg(args, i));
+        if (number == null) {
+            throw badArgument(i, function, "number", Lua.arg(args, i));
+        }
+        return number;
+    }
+
+    static LuaTable checkTable(Object[] args, int i, String function) {
+        if (Lua.arg(args, i) instanceof LuaTable table) {
+            return table;
+        }
+        throw badArgument(i, function, "table", Lua.arg(args, i));
+    }
+
+    private static LuaError badArgument(int i, String function, String expected, Object value) {
+        return new LuaError("bad argument #" + (i + 1) + " to '" + function + "' (" + expected + " expected, got "
+                + (value == null ? "no value" : Lua.typeName(value)) + ")");
+    }
+}
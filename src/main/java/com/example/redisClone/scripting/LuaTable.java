@@ -0,0 +1,185 @@
+package com.example.redisClone.scripting;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A Lua table: an array part for the keys 1..n, which is what scripts mostly build (command
+ * replies, KEYS, ARGV), and a hash part for everything else, created on first use.
+ * Numbers are Doubles, so 1 and 1.0 are the same key, as in Lua.
+ */
+public final class LuaTable {
+    private static final Object[] EMPTY = {};
+
+    // array[i] holds key i + 1; only the first size slots are in use, and array[size - 1] is never nil.
+    private Object[] array = EMPTY;
+    private int size;
+    private LinkedHashMap<Object, Object> hash;
+    // Set on the library tables (redis, string, ...), which scripts may not change.
+    boolean readOnly;
+
+    public LuaTable() {
+    }
+
+    /**
+     * @return A table whose array part holds the given values, in order.
+     */
+    public static LuaTable of(Object... values) {
+        LuaTable table = new LuaTable();
+        table.array = values.length == 0 ? EMPTY : values;
+        table.size = values.length;
+        while (table.size > 0 && table.array[table.size - 1] == null) {
+            table.size--;
+        }
+        return table;
+    }
+
+    public Object get(Object key) {
+        int index = arrayIndex(key);
+        if (index > 0 && index <= size) {
+            return array[index - 1];
+        }
+        return hash == null ? null : hash.get(normalize(key));
+    }
+
+    public Object get(int index) {
+        if (index > 0 && index <= size) {
+            return array[index - 1];
+        }
+        return hash == null ? null : hash.get((double) index);
+    }
+
+    /**
+     * Sets a key; a nil value removes it.
+     */
+    public void put(Object key, Object value) {
+        if (key == null) {
+            throw new LuaError("table index is nil");
+        }
+        if (key instanceof Double number && number.isNaN()) {
+            throw new LuaError("table index is NaN");
+        }
+        int index = arrayIndex(key);
+        if (index > 0 && index <= size) {
+            array[index - 1] = value;
+            while (size > 0 && array[size - 1] == null) {
+                size--; // Keep the last slot non-nil, so size is always a border (#t).
+            }
+        } else if (index == size + 1 && value != null) {
+            append(value);
+            if (hash != null) {
+                hash.remove(normalize(key));
+                // Keys that follow on from the hash part move to the array part too.
+                Object next;
+                while ((next = hash.remove((double) (size + 1))) != null) {
+                    append(next);
+                }
+            }
+        } else if (value == null) {
+            if (hash != null) {
+                hash.remove(normalize(key));
+            }
+        } else {
+            if (hash == null) {
+                hash = new LinkedHashMap<>();
+            }
+            hash.put(normalize(key), value);
+        }
+    }
+
+    private void append(Object value) {
+        if (size == array.length) {
+            array = Arrays.copyOf(array, Math.max(4, size * 2));
+        }
+        array[size++] = value;
+    }
+
+    /**
+     * Inserts a value at position index (1 to length + 1), shifting the following ones up (table.insert).
+     */
+    public void insert(int index, Object value) {
+        if (index < 1 || index > size + 1) {
+            throw new LuaError("bad argument #2 to 'insert' (position out of bounds)");
+        }
+        if (value == null) {
+            return;
+        }
+        append(value);
+        System.arraycopy(array, index - 1, array, index, size - index);
+        array[index - 1] = value;
+    }
+
+    /**
+     * Removes the value at position index, shifting the following ones down (table.remove).
+     * @return The removed value.
+     */
+    public Object remove(int index) {
+        if (index < 1 || index > size) {
+            return null;
+        }
+        Object removed = array[index - 1];
+        System.arraycopy(array, index, array, index - 1, size - index);
+        array[--size] = null;
+        return removed;
+    }
+
+    /**
+     * @return The length operator #t: a border of the array part.
+     */
+    public int length() {
+        return size;
+    }
+
+    /**
+     * @return An iterator over every key and value, array part first, for pairs().
+     */
+    public Iterator<Object[]> entries() {
+        // A copy of the hash part, so the loop may assign to existing fields.
+        Iterator<Map.Entry<Object, Object>> rest = hash == null ? null
+                : new LinkedHashMap<>(hash).entrySet().iterator();
+        return new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                while (next < size && array[next] == null) {
+                    next++;
+                }
+                return next < size || (rest != null && rest.hasNext());
+            }
+
+            @Override
+            public Object[] next() {
+                if (next < size) {
+                    next++;
+                    return new Object[] { (double) next, array[next - 1] };
+                }
+                Map.Entry<Object, Object> entry = rest.next();
+                return new Object[] { entry.getKey(), entry.getValue() };
+            }
+        };
+    }
+
+    /**
+     * @return The 1-based index key stands for, or 0 if it is not a positive integer.
+     */
+    private static int arrayIndex(Object key) {
+        if (key instanceof Double number) {
+            double d = number;
+            int index = (int) d;
+            if (index == d && index > 0) {
+                return index;
+            }
+        }
+        return 0;
+    }
+
+    private static Object normalize(Object key) {
+        if (key instanceof Double number && number == 0.0) {
+            return 0.0; // -0.0 and 0.0 are one key.
+        }
+        return key;
+    }
+}
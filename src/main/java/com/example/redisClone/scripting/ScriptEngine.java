@@ -0,0 +1,401 @@
+package com.example.redisClone.scripting;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.example.redisClone.Log;
+import com.example.redisClone.Main;
+import com.example.redisClone.resp.RespArgs;
+import com.example.redisClone.resp.RespBuffer;
+import com.example.redisClone.resp.RespWriter;
+import com.example.redisClone.server.CommandTable;
+import com.example.redisClone.server.ServerContext;
+
+/**
+ * EVAL, EVALSHA and SCRIPT: Lua scripts that run on the server, so a read-modify-write that
+ * would take a client several round trips (check a counter, then set it with an expiry) takes one.
+ *
+ * Scripts are compiled once by LuaCompiler and cached by the SHA1 of their body, which EVALSHA
+ * and SCRIPT LOAD use. EVAL and EVALSHA run under the write side of the execution lock, so no
+ * other command runs while a script does: its commands happen atomically, like in Redis.
+ * redis.call runs a command through Main.executeCommand, the same path clients take, and those
+ * commands propagate themselves to the AOF and the replicas as they run; the script is never
+ * propagated, only its effects, so a replica does not need the script or get a different
+ * result from a clock or a random number.
+ *
+ * A script may run for busy-reply-threshold milliseconds (5 by default). Redis then starts
+ * answering other clients -BUSY and waits for SCRIPT KILL; here every reactor is waiting on the
+ * lock, so the script is stopped instead, and the budget is kept short enough that the event
+ * loops hardly notice. Only a script that has not written yet is stopped, so stopping it undoes
+ * nothing: once a script runs a write command its budget is lifted and it runs to its end, as
+ * Redis never kills a script after its first write (SCRIPT KILL answers UNKILLABLE there).
+ */
+public class ScriptEngine {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final ServerContext server;
+    // Compiled scripts by the SHA1 of their body.
+    private final ConcurrentHashMap<String, LuaCompiler.Chunk> scripts = new ConcurrentHashMap<>();
+    // The globals scripts see; KEYS and ARGV are replaced for every run. Scripts run one at a
+    // time (under the write lock), as do the redis.call replies parsed into reply.
+    private final Map<String, Object> globals = new HashMap<>();
+    private final RespBuffer reply = new RespBuffer(256);
+    // The environment of the script running, whose budget its first write lifts; null between scripts.
+    private LuaCompiler.Environment running;
+
+    public ScriptEngine(ServerContext server) {
+        this.server = server;
+        LuaLibrary.install(globals);
+        LuaTable redis = new LuaTable();
+        redis.put("call", (LuaFunction) args -> LuaLibrary.values(call(args, true)));
+        redis.put("pcall", (LuaFunction) args -> LuaLibrary.values(call(args, false)));
+        redis.put("error_reply", (LuaFunction) args -> LuaLibrary.values(
+                field("err", LuaLibrary.checkString(args, 0, "error_reply"))));
+        redis.put("status_reply", (LuaFunction) args -> LuaLibrary.values(
+                field("ok", LuaLibrary.checkString(args, 0, "status_reply"))));
+        redis.put("sha1hex", (LuaFunction) args -> LuaLibrary.values(sha1(LuaLibrary.checkString(args, 0, "sha1hex"))));
+        redis.put("log", (LuaFunction) args -> {
+            StringBuilder message = new StringBuilder("Script log: ");
+            for (int i = 1; i < args.length; i++) {
+                message.append(i > 1 ? " " : "").append(Lua.toString(args[i]));
+            }
+            Log.info(message.toString());
+            return Lua.NONE;
+        });
+        // Effects are always what is replicated, so this is only kept for scripts written for Redis 3.2.
+        redis.put("replicate_commands", (LuaFunction) args -> LuaLibrary.values(Boolean.TRUE));
+        redis.put("LOG_DEBUG", 0.0);
+        redis.put("LOG_VERBOSE", 1.0);
+        redis.put("LOG_NOTICE", 2.0);
+        redis.put("LOG_WARNING", 3.0);
+        redis.readOnly = true;
+        globals.put("redis", redis);
+    }
+
+    /**
+     * EVAL script numkeys [key ...] [arg ...] and EVALSHA sha1 numkeys [key ...] [arg ...]
+     *
+     * @param sha true for EVALSHA.
+     */
+    public void eval(RespArgs args, boolean sha, RespWriter out) {
+        if (args.count() < 3) {
+            out.error("ERR wrong number of arguments for '" + (sha ? "evalsha" : "eval") + "' command");
+            return;
+        }
+        long numKeys = args.parseLong(2);
+        if (numKeys < 0) {
+            out.error("ERR Number of keys can't be negative");
+            return;
+        }
+        if (numKeys > args.count() - 3) {
+            out.error("ERR Number of keys can't be greater than number of args");
+            return;
+        }
+        String hash;
+        LuaCompiler.Chunk script;
+        if (sha) {
+            hash = args.string(1).toLowerCase();
+            script = scripts.get(hash);
+            if (script == null) {
+                out.error("NOSCRIPT No matching script. Please use EVAL.");
+                return;
+            }
+        } else {
+            String body = args.string(1);
+            hash = sha1(body);
+            script = scripts.get(hash);
+            if (script == null) {
+                try {
+                    script = load(hash, body);
+                } catch (LuaError e) {
+                    out.error("ERR Error compiling script (new function): user_script:" + e.line + ": "
+                            + oneLine(e.getMessage()));
+                    return;
+                }
+            }
+        }
+
+        int firstArg = 3 + (int) numKeys;
+        LuaTable keys = new LuaTable();
+        for (int i = 3; i < firstArg; i++) {
+            keys.put((double) (i - 2), args.string(i));
+        }
+        LuaTable argv = new LuaTable();
+        for (int i = firstArg; i < args.count(); i++) {
+            argv.put((double) (i - firstArg + 1), args.string(i));
+        }
+        globals.put("KEYS", keys);
+        globals.put("ARGV", argv);
+        long budget = TimeUnit.MILLISECONDS.toNanos(server.config.busyReplyThreshold);
+        Object result;
+        running = new LuaCompiler.Environment(globals, budget);
+        try {
+            result = Lua.first(script.run(running));
+        } catch (LuaError e) {
+            out.error(errorMessage(e, hash));
+            return;
+        } catch (LuaCompiler.BudgetExceeded e) {
+            out.error("ERR Script killed after running for more than busy-reply-threshold ("
+                    + server.config.busyReplyThreshold + " ms) script: " + hash);
+            return;
+        } catch (StackOverflowError e) {
+            out.error("ERR Error running script: stack overflow script: " + hash);
+            return;
+        } catch (OutOfMemoryError e) {
+            out.error("ERR Error running script: out of memory script: " + hash);
+            return;
+        } catch (RuntimeException e) {
+            // A bug in the interpreter or a command must cost the script, not the reactor running it.
+            Log.info("Script " + hash + " failed: " + e);
+            out.error("ERR Error running script: " + oneLine(String.valueOf(e.getMessage())) + " script: " + hash);
+            return;
+        } finally {
+            running = null;
+            globals.remove("KEYS");
+            globals.remove("ARGV");
+        }
+        writeReply(result, out);
+    }
+
+    /**
+     * SCRIPT LOAD script | EXISTS sha1 [sha1 ...] | FLUSH [ASYNC|SYNC] | KILL
+     */
+    public void script(RespArgs args, RespWriter out) {
+        if (args.count() < 2) {
+            out.error("ERR wrong number of arguments for 'script' command");
+            return;
+        }
+        if (args.equalsIgnoreCase(1, "LOAD") && args.count() == 3) {
+            String body = args.string(2);
+            String hash = sha1(body);
+            if (!scripts.containsKey(hash)) {
+                try {
+                    load(hash, body);
+                } catch (LuaError e) {
+                    out.error("ERR Error compiling script (new function): user_script:" + e.line + ": "
+                            + oneLine(e.getMessage()));
+                    return;
+                }
+            }
+            out.bulk(hash);
+        } else if (args.equalsIgnoreCase(1, "EXISTS") && args.count() >= 3) {
+            out.arrayHeader(args.count() - 2);
+            for (int i = 2; i < args.count(); i++) {
+                out.integer(scripts.containsKey(args.string(i).toLowerCase()) ? 1 : 0);
+            }
+        } else if (args.equalsIgnoreCase(1, "FLUSH") && (args.count() == 2
+                || (args.count() == 3 && (args.equalsIgnoreCase(2, "ASYNC") || args.equalsIgnoreCase(2, "SYNC"))))) {
+            scripts.clear();
+            out.ok();
+        } else if (args.equalsIgnoreCase(1, "KILL") && args.count() == 2) {
+            // A script holds the write lock, so by the time this runs none is.
+            out.error("NOTBUSY No scripts in execution right now.");
+        } else {
+            out.error("ERR unknown subcommand or wrong number of arguments for '" + args.string(1) + "'");
+        }
+    }
+
+    /**
+     * @return The number_of_cached_scripts field of INFO memory.
+     */
+    public String info() {
+        return "number_of_cached_scripts:" + scripts.size() + "\r\n";
+    }
+
+    private LuaCompiler.Chunk load(String hash, String body) {
+        LuaCompiler.Chunk script = LuaCompiler.compile(body);
+        scripts.put(hash, script);
+        return script;
+    }
+
+    /**
+     * redis.call(command, ...) and redis.pcall(command, ...): runs a command and converts its
+     * reply to Lua. redis.call raises an error reply as a Lua error; redis.pcall returns it as {err = ...}.
+     */
+    private Object call(Object[] argv, boolean raise) {
+        if (argv.length == 0) {
+            return fail(field("err", "ERR Please specify at least one argument for this redis lib call"), raise);
+        }
+        byte[][] command = new byte[argv.length][];
+        for (int i = 0; i < argv.length; i++) {
+            if (argv[i] instanceof String text) {
+                command[i] = text.getBytes(StandardCharsets.ISO_8859_1);
+            } else if (argv[i] instanceof Double number) {
+                command[i] = Lua.number(number).getBytes(StandardCharsets.US_ASCII);
+            } else {
+                return fail(field("err", "ERR Lua redis lib command arguments must be strings or integers"),
+                        raise);
+            }
+        }
+        RespArgs args = RespArgs.of(command);
+        String name = CommandTable.lookup(args);
+        if (name.isEmpty()) {
+            return fail(field("err", "ERR Unknown Redis command called from script"), raise);
+        }
+        // Commands that need a connection, block or lock the whole keyspace have no place in a script.
+        if (CommandTable.isConnectionCommand(name) || CommandTable.isKeyspaceWide(name)) {
+            return fail(field("err", "ERR This Redis command is not allowed from script"), raise);
+        }
+        if (CommandTable.isWrite(name) && running != null) {
+            // Stopping the script from now on would leave it half applied (and half propagated).
+            running.removeDeadline();
+        }
+        reply.clear();
+        Main.executeCommand(name, args, server, reply, false);
+        int[] position = { 0 };
+        Object result = parseReply(reply.array(), position);
+        if (result instanceof LuaTable table && table.get("err") != null) {
+            return fail(table, raise);
+        }
+        return result;
+    }
+
+    /**
+     * @return {name = text}, the table form of a status or error reply.
+     */
+    private static LuaTable field(String name, String text) {
+        LuaTable table = new LuaTable();
+        table.put(name, text);
+        return table;
+    }
+
+    private static Object fail(LuaTable error, boolean raise) {
+        if (raise) {
+            throw new LuaError(error);
+        }
+        return error;
+    }
+
+    /**
+     * Converts a RESP reply to Lua the way Redis does: integers to numbers, bulk strings to strings,
+     * arrays to tables, nil to false, status replies to {ok = ...} and errors to {err = ...}.
+     */
+    private static Object parseReply(byte[] data, int[] position) {
+        char type = (char) data[position[0]];
+        int end = position[0];
+        while (data[end] != '\r') {
+            end++;
+        }
+        String header = new String(data, position[0] + 1, end - position[0] - 1, StandardCharsets.ISO_8859_1);
+        position[0] = end + 2;
+        switch (type) {
+            case '+':
+                return field("ok", header);
+            case '-':
+                return field("err", header);
+            case ':':
+                return (double) Long.parseLong(header);
+            case ',':
+                return Double.parseDouble(header);
+            case '_':
+                return Boolean.FALSE;
+            case '#':
+                return header.equals("t");
+            case '$': {
+                int length = Integer.parseInt(header);
+                if (length < 0) {
+                    return Boolean.FALSE;
+                }
+                String value = new String(data, position[0], length, StandardCharsets.ISO_8859_1);
+                position[0] += length + 2;
+                return value;
+            }
+            case '%': {
+                LuaTable map = new LuaTable();
+                int count = Integer.parseInt(header);
+                for (int i = 0; i < count; i++) {
+                    Object key = parseReply(data, position);
+                    map.put(key, parseReply(data, position));
+                }
+                return map;
+            }
+            default: {
+                // '*' arrays, and '>' pushes, which commands run here do not send.
+                int count = Integer.parseInt(header);
+                if (count < 0) {
+                    return Boolean.FALSE;
+                }
+                LuaTable array = new LuaTable();
+                for (int i = 1; i <= count; i++) {
+                    array.put((double) i, parseReply(data, position));
+                }
+                return array;
+            }
+        }
+    }
+
+    /**
+     * Converts what a script returned to a RESP reply the way Redis does: numbers are truncated to
+     * integers, tables become arrays up to their first nil (or the reply in their err or ok field),
+     * true is 1, and false and nil are nil.
+     */
+    private static void writeReply(Object value, RespWriter out) {
+        if (value instanceof String text) {
+            out.bulk(text);
+        } else if (value instanceof Double number) {
+            out.integer((long) number.doubleValue());
+        } else if (Boolean.TRUE.equals(value)) {
+            out.integer(1);
+        } else if (value instanceof LuaTable table) {
+            Object error = table.get("err");
+            Object status = table.get("ok");
+            if (error instanceof String text) {
+                out.error(oneLine(text));
+            } else if (status instanceof String text) {
+                out.simpleString(oneLine(text));
+            } else {
+                int length = 0;
+                while (table.get(length + 1) != null) {
+                    length++;
+                }
+                out.arrayHeader(length);
+                for (int i = 1; i <= length; i++) {
+                    writeReply(table.get(i), out);
+                }
+            }
+        } else {
+            out.nullBulk();
+        }
+    }
+
+    /**
+     * @return The error reply for a script that raised an error, naming the script and the line.
+     */
+    private static String errorMessage(LuaError e, String hash) {
+        String where = " script: " + hash + ", on @user_script:" + e.line + ".";
+        if (e.value instanceof LuaTable table && table.get("err") instanceof String text) {
+            return oneLine(text) + where; // An error reply raised by redis.call keeps its own code.
+        }
+        String message = e.value instanceof String text ? text : Lua.toString(e.value);
+        return "ERR user_script:" + e.line + ": " + oneLine(message) + where;
+    }
+
+    /**
+     * Error and status replies are one line.
+     */
+    private static String oneLine(String text) {
+        return text.replace('\r', ' ').replace('\n', ' ');
+    }
+
+    /**
+     * @return The lowercase hex SHA1 of a string of bytes, as EVALSHA names scripts.
+     */
+    static String sha1(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes(StandardCharsets.ISO_8859_1));
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+                hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+}
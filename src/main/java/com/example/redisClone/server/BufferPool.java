@@ -0,0 +1,42 @@
+package com.example.redisClone.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A free list of fixed-size direct buffers used for reply output.
+ * Direct buffers avoid the extra copy the JDK makes when writing a heap buffer to a socket,
+ * and pooling them avoids paying for their (slow) allocation on every reply.
+ * Not thread-safe: each event loop owns its own pool.
+ */
+public class BufferPool {
+    public static final int CHUNK_SIZE = 16 * 1024;
+
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private final int maxPooled;
+
+    /**
+     * @param maxPooled How many idle chunks to keep; extra chunks are left to the GC.
+     */
+    public BufferPool(int maxPooled) {
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return An empty chunk in write mode.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer chunk = free.poll();
+        return chunk != null ? chunk : ByteBuffer.allocateDirect(CHUNK_SIZE);
+    }
+
+    /**
+     * Returns a chunk to the pool once all of its bytes have been written.
+     */
+    public void release(ByteBuffer chunk) {
+        if (free.size() < maxPooled) {
+            chunk.clear();
+            free.push(chunk); // LIFO keeps recently used (cache-warm) chunks in play.
+        }
+    }
+}
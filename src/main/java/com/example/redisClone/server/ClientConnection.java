@@ -0,0 +1,197 @@
+package com.example.redisClone.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.example.redisClone.config.Config;
+import com.example.redisClone.config.OutputBufferLimit;
+import com.example.redisClone.replication.MasterLink;
+import com.example.redisClone.replication.ReplicaState;
+import com.example.redisClone.resp.RespParser;
+import com.example.redisClone.resp.RespWriter;
+
+/**
+ * Per-connection state: the socket, its input buffer, the incremental RESP parser
+ * and the replies waiting to be written.
+ * The input buffer is kept in read mode between events; unparsed bytes of a partial
+ * frame simply stay in it until the rest arrives.
+ */
+public class ClientConnection {
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    public final SocketChannel channel;
+    public final RespParser parser = new RespParser();
+    public ByteBuffer inputBuffer;
+    // Replies produced by pipelined commands, sent together by flush().
+    private final OutputBuffer output;
+    // True while this connection sits in the event loop's list of pending writes.
+    public boolean flushScheduled;
+    // The selector registration, used to switch OP_WRITE on and off.
+    public SelectionKey selectionKey;
+    // Which client-output-buffer-limit class applies (Config.CLIENT_CLASS_*).
+    public int clientClass = Config.CLIENT_CLASS_NORMAL;
+    // When the output first went over the soft limit, or 0 if it is below it.
+    private long softLimitReachedAt;
+    // The port a replica announced with REPLCONF listening-port.
+    public int replicaListeningPort;
+    // Set once this connection became a replica (PSYNC): its output carries the replication stream.
+    public ReplicaState replica;
+    // Set if this is our link to the master: its commands are applied, not answered.
+    public MasterLink master;
+    // True while a command (WAIT) blocks; later pipelined commands wait in the input buffer.
+    public boolean blocked;
+    // Set by ASKING: the next command may use a slot this node is importing.
+    public boolean asking;
+    // The peer's "ip:port", for the slow log; empty for the master link.
+    public String address = "";
+    // CLIENT ID (0 for the master link), the reactor that owns the connection, and CLIENT SETNAME.
+    public long id;
+    public Reactor reactor;
+    public String name = "";
+    // The protocol chosen with HELLO: 2, or 3 for RESP3, which can receive push messages.
+    // Volatile: publishers and tracking on other reactors pick the message format by it.
+    public volatile int protocol = 2;
+
+    // Client-side caching (CLIENT TRACKING): whether it is on, the ClientTracking.MODE_*, the id of
+    // the client that receives this one's invalidations (0 for itself), and the BCAST prefixes.
+    // Read by whichever thread invalidates a key.
+    public volatile boolean tracking;
+    public volatile int trackingMode;
+    public volatile long trackingRedirect;
+    public List<String> trackingPrefixes = List.of();
+    // CLIENT CACHING for the next command: 1 for yes, -1 for no, 0 if not given.
+    public int cachingNext;
+    // Keys invalidated for this connection and not sent yet, and whether its reactor is due to send them.
+    public final ConcurrentLinkedQueue<String> invalidations = new ConcurrentLinkedQueue<>();
+    public final AtomicBoolean invalidationScheduled = new AtomicBoolean();
+    // Pub/Sub: the channels and patterns this client is subscribed to. Only its reactor touches them.
+    public final HashSet<String> subscribedChannels = new HashSet<>();
+    public final HashSet<String> subscribedPatterns = new HashSet<>();
+    // Messages published on other threads and not moved to the output yet, and whether its reactor is due to.
+    public final ConcurrentLinkedQueue<SharedFrame> messages = new ConcurrentLinkedQueue<>();
+    public final AtomicBoolean messagesScheduled = new AtomicBoolean();
+    // Set once the client is to be disconnected for going over its output buffer limit.
+    public volatile boolean closing;
+
+    public ClientConnection(SocketChannel channel, BufferPool bufferPool) {
+        this.channel = channel;
+        this.output = new OutputBuffer(bufferPool);
+        this.inputBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        this.inputBuffer.flip(); // Start in read mode with nothing to read.
+    }
+
+    /**
+     * Switches the input buffer to write mode so the socket can append to it,
+     * dropping bytes that were already parsed and growing the buffer if the
+     * frame being assembled does not fit.
+     * @return The buffer, ready for channel.read().
+     */
+    public ByteBuffer prepareForRead() {
+        if (!inputBuffer.hasRemaining() && inputBuffer.capacity() > INITIAL_BUFFER_SIZE) {
+            // Give back the memory of a large bulk string once it has been consumed.
+            inputBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+            return inputBuffer;
+        }
+        inputBuffer.compact();
+        int needed = Math.max(parser.pendingFrameSize(), inputBuffer.position() + 1);
+        if (!inputBuffer.hasRemaining() || needed > inputBuffer.capacity()) {
+            int newCapacity = Math.max(inputBuffer.capacity() * 2, needed);
+            ByteBuffer bigger = ByteBuffer.allocate(newCapacity);
+            inputBuffer.flip();
+            bigger.put(inputBuffer);
+            inputBuffer = bigger;
+        }
+        return inputBuffer;
+    }
+
+    /**
+     * Queues a reply to be sent by the next flush().
+     * @param reply The RESP-encoded reply bytes.
+     */
+    public void queueReply(byte[] reply) {
+        output.write(reply);
+    }
+
+    /**
+     * Queues a read-only frame shared with other connections (a Pub/Sub message), without copying it.
+     */
+    public void queueShared(SharedFrame frame) {
+        output.writeShared(frame);
+    }
+
+    /**
+     * @return The number of channels and patterns the client is subscribed to.
+     */
+    public int subscriptions() {
+        return subscribedChannels.size() + subscribedPatterns.size();
+    }
+
+    /**
+     * @return The writer commands encode their replies into; bytes are sent by the next flush().
+     */
+    public RespWriter replyWriter() {
+        return output;
+    }
+
+    public boolean hasPendingReplies() {
+        return output.pendingBytes() > 0;
+    }
+
+    /**
+     * Writes queued replies without blocking. If the socket does not take everything,
+     * OP_WRITE is enabled so the event loop calls this again when there is room;
+     * once the queue drains, OP_WRITE is switched off again.
+     * @return The number of bytes written.
+     * @throws IOException If the write fails.
+     */
+    public long flush() throws IOException {
+        long pending = output.pendingBytes();
+        boolean drained = output.flushTo(channel);
+        if (selectionKey != null && selectionKey.isValid()) {
+            int ops = drained ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+            if (selectionKey.interestOps() != ops) {
+                selectionKey.interestOps(ops);
+            }
+        }
+        return pending - output.pendingBytes();
+    }
+
+    /**
+     * Checks the pending output, with the whole buffers of the shared frames in it, against the
+     * client-output-buffer-limit for this client's class.
+     * @param config The server configuration holding the limits.
+     * @param now The current time in milliseconds.
+     * @return true if the client must be disconnected.
+     */
+    public boolean outputLimitReached(Config config, long now) {
+        OutputBufferLimit limit = config.clientOutputBufferLimits[clientClass];
+        long pending = output.retainedBytes();
+        if (limit.hardLimitBytes > 0 && pending >= limit.hardLimitBytes) {
+            return true;
+        }
+        if (limit.softLimitBytes > 0 && pending >= limit.softLimitBytes) {
+            if (softLimitReachedAt == 0) {
+                softLimitReachedAt = now;
+            } else if (now - softLimitReachedAt >= limit.softSeconds * 1000) {
+                return true;
+            }
+        } else {
+            softLimitReachedAt = 0;
+        }
+        return false;
+    }
+
+    /**
+     * Closes the socket and returns the output chunks to the pool.
+     */
+    public void close() throws IOException {
+        output.release();
+        channel.close();
+    }
+}
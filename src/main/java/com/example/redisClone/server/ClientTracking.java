@@ -0,0 +1,309 @@
+package com.example.redisClone.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.redisClone.resp.RespArgs;
+import com.example.redisClone.resp.RespWriter;
+
+/**
+ * Server-assisted client-side caching (CLIENT TRACKING), like Redis's tracking.c.
+ *
+ * In the default mode, every key a tracking client reads is remembered with the client's id,
+ * and the first change to the key (a write, expiry or eviction, reported by the Keyspace)
+ * sends the client an invalidation and forgets the entry: the client has to read the key again
+ * to hear about the next change. OPTIN and OPTOUT clients choose which reads are remembered with
+ * CLIENT CACHING. In BCAST mode nothing is remembered per key; the client gets an invalidation
+ * for every change to a key under one of its prefixes, found in a PrefixTree.
+ *
+ * Invalidations go to the client itself as a RESP3 push, or to the client named by REDIRECT
+ * (a push if it speaks RESP3, otherwise a Pub/Sub message on __redis__:invalidate). They are
+ * queued on the receiving connection and sent by its own reactor, one message per event-loop
+ * pass carrying every key invalidated meanwhile. As in Redis, a RESP2 connection only gets them
+ * as a Pub/Sub message, and only while subscribed to __redis__:invalidate: anything else would be
+ * read as the reply to its next command. So a RESP2 client that turns tracking on without REDIRECT
+ * is accepted but never told about invalidations, and a RESP2 redirect target that is not
+ * subscribed to the channel has them dropped.
+ *
+ * The key table is split into shards by key hash, each with its own lock, so reactors reading
+ * and writing different keys do not serialize on one monitor. It is bounded by
+ * tracking-table-max-keys, divided evenly between the shards: past a shard's share, its oldest
+ * keys are evicted, and their clients are sent an invalidation for them, since they will no
+ * longer hear of changes.
+ */
+public class ClientTracking {
+    public static final int MODE_DEFAULT = 0;
+    public static final int MODE_BCAST = 1;
+    public static final int MODE_OPTIN = 2;
+    public static final int MODE_OPTOUT = 3;
+
+    private static final byte[] INVALIDATE = "invalidate".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MESSAGE = "message".getBytes(StandardCharsets.US_ASCII);
+    private static final String CHANNEL_NAME = "__redis__:invalidate";
+    private static final byte[] CHANNEL = CHANNEL_NAME.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] REDIR_BROKEN = "tracking-redir-broken".getBytes(StandardCharsets.US_ASCII);
+    // A power of two, like the Keyspace's segments.
+    private static final int SHARDS = 16;
+    private static final int SHARD_SHIFT = 32 - Integer.numberOfTrailingZeros(SHARDS);
+
+    /**
+     * A part of the key table. Guarded by itself.
+     */
+    private static final class Shard {
+        // Keys read by tracking clients, oldest first, with the ids of the clients that read them.
+        final LinkedHashMap<String, long[]> keys = new LinkedHashMap<>();
+        // Client ids over all keys of the shard.
+        long items;
+    }
+
+    // Every connected client by id, to find the receivers of invalidations.
+    private final Map<Long, ClientConnection> clients;
+    private final Shard[] shards = new Shard[SHARDS];
+    private final int maxKeysPerShard;
+    // BCAST prefixes; guarded by itself. prefixCount mirrors its size, so keyModified can skip
+    // the lock while no client broadcasts.
+    private final PrefixTree prefixes = new PrefixTree();
+    private volatile int prefixCount;
+    // Clients with tracking on; while there are none, changed keys are not even looked up.
+    private final AtomicInteger trackingClients = new AtomicInteger();
+
+    /**
+     * @param clients The connected clients by id, kept up to date by the reactors.
+     * @param maxKeys The most keys remembered at once (tracking-table-max-keys), or 0 for no limit.
+     */
+    public ClientTracking(Map<Long, ClientConnection> clients, int maxKeys) {
+        this.clients = clients;
+        this.maxKeysPerShard = maxKeys <= 0 ? 0 : Math.max(1, (maxKeys + SHARDS - 1) / SHARDS);
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    private Shard shardFor(String key) {
+        return shards[(key.hashCode() * 0x9E3779B9) >>> SHARD_SHIFT];
+    }
+
+    /**
+     * Turns tracking on for a client whose tracking fields are already set.
+     */
+    public void enable(ClientConnection client) {
+        if (!client.tracking) {
+            client.tracking = true;
+            trackingClients.incrementAndGet();
+        }
+        if (client.trackingMode == MODE_BCAST) {
+            synchronized (prefixes) {
+                for (String prefix : client.trackingPrefixes) {
+                    prefixes.add(prefix, client.id);
+                }
+                prefixCount = prefixes.size();
+            }
+        }
+    }
+
+    /**
+     * Turns tracking off (CLIENT TRACKING OFF, or the client disconnected). Keys the client read
+     * stay in the table until they change; invalidations for them are then simply dropped.
+     */
+    public void disable(ClientConnection client) {
+        if (!client.tracking) {
+            return;
+        }
+        client.tracking = false;
+        trackingClients.decrementAndGet();
+        if (client.trackingMode == MODE_BCAST) {
+            synchronized (prefixes) {
+                for (String prefix : client.trackingPrefixes) {
+                    prefixes.remove(prefix, client.id);
+                }
+                prefixCount = prefixes.size();
+            }
+        }
+    }
+
+    /**
+     * Remembers the keys of a read-only command from a tracking client, if its mode says so.
+     * Called before the command runs: a change that lands between the read and this call
+     * would otherwise be missed, and the client would keep a stale value.
+     */
+    public void remember(ClientConnection client, String command, RespArgs args) {
+        int mode = client.trackingMode;
+        if (mode == MODE_BCAST || (mode == MODE_OPTIN && client.cachingNext <= 0)
+                || (mode == MODE_OPTOUT && client.cachingNext < 0)) {
+            return;
+        }
+        int lastKey = CommandTable.lastKey(command, args);
+        for (int i = CommandTable.firstKey(command); lastKey > 0 && i <= lastKey; i++) {
+            remember(args.string(i), client.id);
+        }
+    }
+
+    private void remember(String key, long clientId) {
+        Shard shard = shardFor(key);
+        synchronized (shard) {
+            long[] ids = shard.keys.get(key);
+            if (ids == null) {
+                shard.keys.put(key, new long[] { clientId });
+                shard.items++;
+                while (maxKeysPerShard > 0 && shard.keys.size() > maxKeysPerShard) {
+                    evictOldest(shard);
+                }
+                return;
+            }
+            for (long id : ids) {
+                if (id == clientId) {
+                    return;
+                }
+            }
+            long[] grown = new long[ids.length + 1];
+            System.arraycopy(ids, 0, grown, 0, ids.length);
+            grown[ids.length] = clientId;
+            shard.keys.put(key, grown);
+            shard.items++;
+        }
+    }
+
+    private void evictOldest(Shard shard) {
+        Iterator<Map.Entry<String, long[]>> eldest = shard.keys.entrySet().iterator();
+        Map.Entry<String, long[]> entry = eldest.next();
+        eldest.remove();
+        shard.items -= entry.getValue().length;
+        for (long id : entry.getValue()) {
+            send(id, entry.getKey());
+        }
+    }
+
+    /**
+     * Invalidates a key that was written, expired or evicted. Called by the Keyspace, under the
+     * key's segment lock, from whichever thread changed it.
+     */
+    public void keyModified(String key) {
+        if (trackingClients.get() == 0) {
+            return;
+        }
+        Shard shard = shardFor(key);
+        long[] ids;
+        synchronized (shard) {
+            ids = shard.keys.remove(key);
+            if (ids != null) {
+                shard.items -= ids.length;
+            }
+        }
+        if (ids != null) {
+            for (long id : ids) {
+                send(id, key);
+            }
+        }
+        if (prefixCount > 0) {
+            synchronized (prefixes) {
+                prefixes.forEachMatch(key, id -> send(id, key));
+            }
+        }
+    }
+
+    /**
+     * Queues an invalidation of key for a client (or its redirect target), and makes sure the
+     * receiver's reactor sends it. If the redirect target is gone, a RESP3 client is told so
+     * with a tracking-redir-broken push instead, as Redis does: it can no longer trust its cache.
+     */
+    private void send(long clientId, String key) {
+        ClientConnection client = clients.get(clientId);
+        if (client == null || !client.tracking) {
+            return; // Gone, or turned tracking off since reading the key.
+        }
+        long redirect = client.trackingRedirect;
+        ClientConnection receiver = redirect != 0 ? clients.get(redirect) : client;
+        if (receiver == null) {
+            if (client.protocol >= 3) {
+                Reactor reactor = client.reactor;
+                reactor.execute(() -> writeRedirectBroken(reactor, client, redirect));
+            }
+            return;
+        }
+        if (receiver == client && client.protocol < 3) {
+            return; // RESP2 has no way to send it on the client's own connection.
+        }
+        receiver.invalidations.add(key);
+        if (receiver.invalidationScheduled.compareAndSet(false, true)) {
+            Reactor reactor = receiver.reactor;
+            reactor.execute(() -> writeInvalidations(reactor, receiver));
+        }
+    }
+
+    /**
+     * Writes one invalidation message with every key queued for a connection. Runs on its reactor.
+     */
+    private static void writeInvalidations(Reactor reactor, ClientConnection receiver) {
+        // Cleared before draining: a key queued after this is either drained now or scheduled again.
+        receiver.invalidationScheduled.set(false);
+        int count = receiver.invalidations.size();
+        // A RESP2 receiver only reads messages while subscribed, and only this reactor may look.
+        boolean deliverable = receiver.protocol >= 3 || receiver.subscribedChannels.contains(CHANNEL_NAME);
+        if (count == 0 || !receiver.channel.isOpen() || !deliverable) {
+            receiver.invalidations.clear();
+            return;
+        }
+        RespWriter out = receiver.replyWriter();
+        if (receiver.protocol >= 3) {
+            out.pushHeader(2);
+            out.bulk(INVALIDATE);
+        } else {
+            out.arrayHeader(3);
+            out.bulk(MESSAGE);
+            out.bulk(CHANNEL);
+        }
+        out.arrayHeader(count);
+        for (int i = 0; i < count; i++) {
+            out.bulk(receiver.invalidations.poll());
+        }
+        if (!receiver.flushScheduled) {
+            receiver.flushScheduled = true;
+            reactor.pendingWrites.add(receiver);
+        }
+    }
+
+    /**
+     * Writes a tracking-redir-broken push naming the redirect target that went away. Runs on the
+     * client's reactor.
+     */
+    private static void writeRedirectBroken(Reactor reactor, ClientConnection client, long redirect) {
+        if (!client.channel.isOpen()) {
+            return;
+        }
+        RespWriter out = client.replyWriter();
+        out.pushHeader(2);
+        out.bulk(REDIR_BROKEN);
+        out.integer(redirect);
+        if (!client.flushScheduled) {
+            client.flushScheduled = true;
+            reactor.pendingWrites.add(client);
+        }
+    }
+
+    /**
+     * @return The number of clients with tracking on, for INFO clients.
+     */
+    public int trackingClients() {
+        return trackingClients.get();
+    }
+
+    /**
+     * @return The tracking_* fields of INFO stats.
+     */
+    public String info() {
+        long keyCount = 0;
+        long items = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                keyCount += shard.keys.size();
+                items += shard.items;
+            }
+        }
+        return "tracking_total_keys:" + keyCount + "\r\n"
+                + "tracking_total_items:" + items + "\r\n"
+                + "tracking_total_prefixes:" + prefixCount + "\r\n";
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.redisClone.server;
+
+import java.util.List;
+import java.util.Set;
+
+import com.example.redisClone.resp.RespArgs;
+
+/**
+ * Maps the raw command-name bytes of a request to a canonical, upper-case command name
+ * without allocating: a case-insensitive hash picks a bucket, and equalsIgnoreCase confirms it.
+ * The returned Strings are constants, so they can be used directly in a switch.
+ */
+public class CommandTable {
+    private static final String[] COMMANDS = {
+            "PING", "ECHO", "SET", "GET", "CONFIG", "KEYS", "INFO", "INCR", "DECR", "INCRBY", "DECRBY",
+            "SAVE", "BGSAVE", "LASTSAVE", "BGREWRITEAOF", "REPLCONF", "PSYNC", "WAIT", "DEL", "CLUSTER",
+            "ASKING", "MIGRATE", "HSET", "HGET", "HGETALL", "LPUSH", "RPUSH", "LPOP", "LRANGE", "SADD",
+            "SMEMBERS", "SISMEMBER", "ZADD", "ZRANGE", "ZRANGEBYSCORE", "TYPE", "OBJECT", "PEXPIREAT", "SCAN",
+            "SLOWLOG", "LATENCY", "HELLO", "CLIENT", "SUBSCRIBE", "UNSUBSCRIBE", "PSUBSCRIBE", "PUNSUBSCRIBE",
+            "PUBLISH", "PUBSUB", "EVAL", "EVALSHA", "SCRIPT"
+    };
+    // Commands that read or modify the whole keyspace and therefore run exclusively. Scripts do
+    // too, so that the commands they call are atomic.
+    private static final Set<String> KEYSPACE_WIDE = Set.of("SAVE", "BGSAVE", "BGREWRITEAOF", "EVAL", "EVALSHA");
+    // Commands that act on the connection itself (replication handshake, WAIT, cluster, KEYS, which
+    // blocks its client while it walks the keyspace, HELLO, CLIENT and Pub/Sub); handled before executeCommand.
+    private static final Set<String> CONNECTION = Set.of("REPLCONF", "PSYNC", "WAIT", "CLUSTER", "ASKING", "MIGRATE",
+            "KEYS", "HELLO", "CLIENT", "SUBSCRIBE", "UNSUBSCRIBE", "PSUBSCRIBE", "PUNSUBSCRIBE", "PUBLISH", "PUBSUB");
+    // The only commands a RESP2 client may send while it is subscribed to something.
+    private static final Set<String> SUBSCRIBED_OK = Set.of("SUBSCRIBE", "UNSUBSCRIBE", "PSUBSCRIBE",
+            "PUNSUBSCRIBE", "PING");
+    // Commands that modify the keyspace; refused on read-only replicas.
+    private static final Set<String> WRITE = Set.of("SET", "INCR", "DECR", "INCRBY", "DECRBY", "DEL", "HSET",
+            "LPUSH", "RPUSH", "LPOP", "SADD", "ZADD", "PEXPIREAT");
+    // Write commands that only remove data, and so are allowed above maxmemory.
+    private static final Set<String> NO_OOM = Set.of("DEL", "LPOP", "PEXPIREAT");
+    // Read commands on collections, which change in place: they hold the key's lock while they read.
+    private static final Set<String> COLLECTION_READ = Set.of("HGET", "HGETALL", "LRANGE", "SMEMBERS", "SISMEMBER",
+            "ZRANGE", "ZRANGEBYSCORE", "OBJECT");
+    // Commands whose every argument after the name is a key; others have at most one key, argument 1.
+    private static final Set<String> ALL_KEYS = Set.of("DEL");
+    // Commands served while the dataset is still loading; anything else gets -LOADING.
+    private static final Set<String> LOADING_OK = Set.of("PING", "ECHO", "INFO", "CONFIG", "SLOWLOG", "LATENCY",
+            "LASTSAVE", "CLUSTER", "ASKING", "REPLCONF", "HELLO", "CLIENT", "SUBSCRIBE", "UNSUBSCRIBE",
+            "PSUBSCRIBE", "PUNSUBSCRIBE", "PUBLISH", "PUBSUB");
+    // Commands that only read keys: served while loading with loading-serve-reads yes, and
+    // remembered for client-side caching.
+    private static final Set<String> READ_ONLY = Set.of("GET", "KEYS", "SCAN", "TYPE", "HGET", "HGETALL", "LRANGE",
+            "SMEMBERS", "SISMEMBER", "ZRANGE", "ZRANGEBYSCORE", "OBJECT");
+    // Commands without keys, which any cluster node serves.
+    private static final Set<String> KEYLESS = Set.of("PING", "ECHO", "CONFIG", "KEYS", "INFO", "SAVE", "BGSAVE",
+            "LASTSAVE", "BGREWRITEAOF", "SCAN", "SLOWLOG", "LATENCY", "SCRIPT");
+    private static final int TABLE_SIZE = 256; // Power of two, comfortably larger than COMMANDS.
+    private static final String[] TABLE = new String[TABLE_SIZE];
+
+    static {
+        for (String command : COMMANDS) {
+            int slot = hash(command) & (TABLE_SIZE - 1);
+            while (TABLE[slot] != null) { // Linear probing.
+                slot = (slot + 1) & (TABLE_SIZE - 1);
+            }
+            TABLE[slot] = command;
+        }
+    }
+
+    /**
+     * @return The canonical names of all commands.
+     */
+    public static List<String> names() {
+        return List.of(COMMANDS);
+    }
+
+    /**
+     * @param args A parsed command.
+     * @return The canonical command name, or "" if the command is unknown.
+     */
+    public static String lookup(RespArgs args) {
+        if (args.count() == 0) {
+            return "";
+        }
+        int slot = args.hashIgnoreCase(0) & (TABLE_SIZE - 1);
+        while (TABLE[slot] != null) {
+            if (args.equalsIgnoreCase(0, TABLE[slot])) {
+                return TABLE[slot];
+            }
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        return "";
+    }
+
+    /**
+     * @param command A canonical command name returned by lookup().
+     * @return true if the command must not run concurrently with other commands.
+     */
+    public static boolean isKeyspaceWide(String command) {
+        return KEYSPACE_WIDE.contains(command);
+    }
+
+    /**
+     * @param command A canonical command name returned by lookup().
+     * @return true if the command writes to the keyspace.
+     */
+    public static boolean isWrite(String command) {
+        return WRITE.contains(command);
+    }
+
+    /**
+     * @param command A canonical command name returned by lookup().
+     * @return true if the command may add data, and so is refused when maxmemory cannot be honoured.
+     */
+    public static boolean isDenyOom(String command) {
+        return WRITE.contains(command) && !NO_OOM.contains(command);
+    }
+
+    /**
+     * @param command A canonical command name returned by lookup().
+     * @return true if the command writes to several keys, each under its own key lock.
+     */
+    public static boolean isMultiKey(String command) {
+        return ALL_KEYS.contains(command);
+    }
+
+    /**
+     * @param command A canonical command name returned by lookup().
+     * @return true if the command reads a collection, and so needs its key's lock.
+     */
+    public static boolean isCollectionRead(String command) {
+        return COLLECTION_READ.contains(command);
+    }
+
+    /**
+     * @param command A canonical command name returned by lookup().
+     * @param serveReads Whether reads are served from the partly loaded keyspace (loading-serve-reads).
+     * @return true if the command may run before the dataset has finished loading.
+     */
+    public static boolean isAllowedWhileLoading(String command, boolean serveReads) {
+        return LOADING_OK.contains(command) || (serveReads && READ_ONLY.contains(command));
+    }
+
+    /**
+     * @param command A canonical command name returned by lookup().
+     * @return true if the command only reads keys, so a tracking client may cache what it returns.
+     */
+    public static boolean isReadOnly(String command) {
+        return READ_ONLY.contains(command);
+    }
+
+    /**
+     * @param command A canonical command name returned by lookup().
+     * @return true if a RESP2 client in subscribed mode may send the command.
+     */
+    public static boolean isAllowedWhileSubscribed(String command) {
+        return SUBSCRIBED_OK.contains(command);
+    }
+
+    /**
+     * @param command A canonical command name returned by lookup().
+     * @return The index of the first key: 2 for OBJECT, whose argument 1 is a subcommand, 3 for
+     *         EVAL and EVALSHA (after the script and numkeys), 1 otherwise.
+     */
+    public static int firstKey(String command) {
+        return switch (command) {
+            case "OBJECT" -> 2;
+            case "EVAL", "EVALSHA" -> 3;
+            default -> 1;
+        };
+    }
+
+    /**
+     * The keys of a command are the arguments firstKey to lastKey, as for Redis's key specs.
+     * @param command A canonical command name returned by lookup().
+     * @param args The command and its arguments; EVAL and EVALSHA say how many keys they have.
+     * @return The index of the last key, or 0 if the command has no keys.
+     */
+    public static int lastKey(String command, RespArgs args) {
+        int firstKey = firstKey(command);
+        int argc = args.count();
+        if (KEYLESS.contains(command) || CONNECTION.contains(command) || argc <= firstKey) {
+            return 0;
+        }
+        if (command.equals("EVAL") || command.equals("EVALSHA")) {
+            try {
+                long numKeys = args.parseLong(2);
+                return numKeys > 0 && numKeys <= argc - firstKey ? firstKey + (int) numKeys - 1 : 0;
+            } catch (NumberFormatException e) {
+                return 0; // EVAL itself reports it.
+            }
+        }
+        return ALL_KEYS.contains(command) ? argc - 1 : firstKey;
+    }
+
+    /**
+     * @param command A canonical command name returned by lookup().
+     * @return true if the command needs the client connection and its reactor, not just a reply writer.
+     */
+    public static boolean isConnectionCommand(String command) {
+        return CONNECTION.contains(command);
+    }
+
+    /**
+     * Same function as RespArgs.hashIgnoreCase, applied to an ASCII command name.
+     */
+    private static int hash(String command) {
+        int hash = 0;
+        for (int i = 0; i < command.length(); i++) {
+            hash = 31 * hash + toUpper(command.charAt(i));
+        }
+        return hash;
+    }
+
+    private static int toUpper(int c) {
+        return (c >= 'a' && c <= 'z') ? c - 32 : c;
+    }
+}
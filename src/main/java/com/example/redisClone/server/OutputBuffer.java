@@ -0,0 +1,158 @@
+package com.example.redisClone.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+import com.example.redisClone.resp.RespWriter;
+
+/**
+ * A connection's queue of pending reply bytes, stored in pooled direct chunks.
+ * Replies are copied into the tail chunk, so many small pipelined replies share one chunk,
+ * and a large reply simply spans several. Chunks are handed back to the pool as they drain.
+ * As a RespWriter, commands encode their replies directly into it.
+ * Frames shared with other connections (Pub/Sub messages) are queued as read-only views,
+ * between the chunks; once a view drains, its frame is released instead of returned to the pool.
+ */
+public class OutputBuffer extends RespWriter {
+    private final BufferPool pool;
+    // Chunks in read mode (ready to be written), oldest first.
+    private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+    // The chunk currently being filled, in write mode; null if none.
+    private ByteBuffer tail;
+    // The shared frames of the read-only views in chunks, in the same order.
+    private final ArrayDeque<SharedFrame> sharedFrames = new ArrayDeque<>();
+    private long pendingBytes;
+    // The capacity of the queued shared frames beyond their bytes: memory they pin but do not send.
+    private long sharedSlack;
+
+    public OutputBuffer(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Appends bytes to the queue.
+     */
+    @Override
+    public void write(byte[] data, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            if (tail == null || !tail.hasRemaining()) {
+                sealTail();
+                tail = pool.acquire();
+            }
+            int n = Math.min(tail.remaining(), end - offset);
+            tail.put(data, offset, n);
+            offset += n;
+        }
+        pendingBytes += length;
+    }
+
+    /**
+     * Appends a buffer's remaining bytes chunk to chunk, without an intermediate heap copy.
+     * Used for values kept off-heap.
+     */
+    @Override
+    public void write(ByteBuffer data) {
+        ByteBuffer view = data.duplicate();
+        pendingBytes += view.remaining();
+        while (view.hasRemaining()) {
+            if (tail == null || !tail.hasRemaining()) {
+                sealTail();
+                tail = pool.acquire();
+            }
+            int n = Math.min(tail.remaining(), view.remaining());
+            int limit = view.limit();
+            view.limit(view.position() + n);
+            tail.put(view);
+            view.limit(limit);
+        }
+    }
+
+    /**
+     * Queues a frame that other connections may be sending too, without copying it. Takes over
+     * the caller's reference to the frame.
+     */
+    public void writeShared(SharedFrame frame) {
+        sealTail();
+        ByteBuffer view = frame.view(); // Its own position, over the same bytes.
+        pendingBytes += view.remaining();
+        sharedSlack += frame.capacity() - view.remaining();
+        chunks.add(view);
+        sharedFrames.add(frame);
+    }
+
+    /**
+     * @return The number of bytes queued but not yet accepted by the socket.
+     */
+    public long pendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * @return The memory the queue keeps allocated for its pending bytes, counting the whole buffers of
+     *         shared frames; this is what the client-output-buffer-limit is checked against.
+     */
+    public long retainedBytes() {
+        return pendingBytes + sharedSlack;
+    }
+
+    /**
+     * Writes as much as the socket accepts, using gathering writes.
+     * @return true if everything was written, false if bytes are still pending.
+     * @throws IOException If the write fails.
+     */
+    public boolean flushTo(SocketChannel channel) throws IOException {
+        sealTail();
+        while (!chunks.isEmpty()) {
+            ByteBuffer[] batch = chunks.toArray(new ByteBuffer[0]);
+            long written = channel.write(batch);
+            pendingBytes -= written;
+            while (!chunks.isEmpty() && !chunks.peek().hasRemaining()) {
+                recycle(chunks.poll());
+            }
+            if (written == 0) {
+                return false; // Socket send buffer is full; wait for OP_WRITE.
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns all chunks to the pool, dropping any unsent bytes. Used when the connection closes.
+     */
+    public void release() {
+        sealTail();
+        while (!chunks.isEmpty()) {
+            recycle(chunks.poll());
+        }
+        pendingBytes = 0;
+        sharedSlack = 0;
+    }
+
+    private void recycle(ByteBuffer chunk) {
+        if (chunk.isReadOnly()) {
+            SharedFrame frame = sharedFrames.poll();
+            sharedSlack -= frame.capacity() - chunk.limit();
+            frame.release(); // Shared frames are not ours to reuse.
+        } else {
+            pool.release(chunk);
+        }
+    }
+
+    /**
+     * Moves the chunk being filled to the write queue.
+     */
+    private void sealTail() {
+        if (tail != null) {
+            tail.flip();
+            if (tail.hasRemaining()) {
+                chunks.add(tail);
+            } else {
+                pool.release(tail);
+            }
+            tail = null;
+        }
+    }
+}
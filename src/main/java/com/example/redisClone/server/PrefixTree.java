@@ -0,0 +1,189 @@
+package com.example.redisClone.server;
+
+import java.util.function.LongConsumer;
+
+/**
+ * The prefixes of broadcast-mode tracking clients (CLIENT TRACKING ON BCAST PREFIX ...), in a
+ * radix tree: each edge carries a whole run of characters, so a key is matched against every
+ * registered prefix in one walk of at most its own length, however many prefixes there are.
+ * The empty prefix (BCAST without PREFIX) sits at the root and matches every key.
+ *
+ * Not thread-safe; ClientTracking guards it.
+ */
+class PrefixTree {
+    private static final long[] NO_CLIENTS = {};
+    private static final Node[] NO_CHILDREN = {};
+
+    private static final class Node {
+        // The characters on the edge from the parent; empty for the root.
+        String label;
+        Node[] children = NO_CHILDREN;
+        // The ids of the clients whose prefix ends exactly here.
+        long[] clients = NO_CLIENTS;
+
+        Node(String label) {
+            this.label = label;
+        }
+
+        Node child(char first) {
+            for (Node child : children) {
+                if (child.label.charAt(0) == first) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        void addChild(Node child) {
+            Node[] grown = new Node[children.length + 1];
+            System.arraycopy(children, 0, grown, 0, children.length);
+            grown[children.length] = child;
+            children = grown;
+        }
+
+        void removeChild(Node child) {
+            Node[] shrunk = new Node[children.length - 1];
+            for (int i = 0, j = 0; i < children.length; i++) {
+                if (children[i] != child) {
+                    shrunk[j++] = children[i];
+                }
+            }
+            children = shrunk.length == 0 ? NO_CHILDREN : shrunk;
+        }
+
+        void replaceChild(Node old, Node replacement) {
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] == old) {
+                    children[i] = replacement;
+                }
+            }
+        }
+    }
+
+    private final Node root = new Node("");
+    // Prefixes with at least one client.
+    private int prefixes;
+
+    /**
+     * Registers a client for a prefix.
+     */
+    void add(String prefix, long clientId) {
+        Node node = root;
+        int i = 0;
+        while (i < prefix.length()) {
+            Node child = node.child(prefix.charAt(i));
+            if (child == null) {
+                child = new Node(prefix.substring(i));
+                node.addChild(child);
+                node = child;
+                break;
+            }
+            int common = commonLength(child.label, prefix, i);
+            if (common < child.label.length()) {
+                // The prefix ends or diverges inside the edge: split it at that point.
+                Node middle = new Node(child.label.substring(0, common));
+                child.label = child.label.substring(common);
+                middle.children = new Node[] { child };
+                node.replaceChild(child, middle);
+                child = middle;
+            }
+            node = child;
+            i += common;
+        }
+        for (long id : node.clients) {
+            if (id == clientId) {
+                return;
+            }
+        }
+        if (node.clients.length == 0) {
+            prefixes++;
+        }
+        long[] grown = new long[node.clients.length + 1];
+        System.arraycopy(node.clients, 0, grown, 0, node.clients.length);
+        grown[node.clients.length] = clientId;
+        node.clients = grown;
+    }
+
+    /**
+     * Unregisters a client from a prefix, pruning and merging the nodes that become useless.
+     */
+    void remove(String prefix, long clientId) {
+        remove(root, null, prefix, 0, clientId);
+    }
+
+    private void remove(Node node, Node parent, String prefix, int i, long clientId) {
+        if (i == prefix.length()) {
+            int index = -1;
+            for (int n = 0; n < node.clients.length; n++) {
+                if (node.clients[n] == clientId) {
+                    index = n;
+                }
+            }
+            if (index == -1) {
+                return;
+            }
+            long[] shrunk = new long[node.clients.length - 1];
+            System.arraycopy(node.clients, 0, shrunk, 0, index);
+            System.arraycopy(node.clients, index + 1, shrunk, index, shrunk.length - index);
+            node.clients = shrunk.length == 0 ? NO_CLIENTS : shrunk;
+            if (shrunk.length == 0) {
+                prefixes--;
+            }
+        } else {
+            Node child = node.child(prefix.charAt(i));
+            if (child == null || !prefix.startsWith(child.label, i)) {
+                return;
+            }
+            remove(child, node, prefix, i + child.label.length(), clientId);
+        }
+        if (parent == null || node.clients.length > 0) {
+            return;
+        }
+        if (node.children.length == 0) {
+            parent.removeChild(node);
+        } else if (node.children.length == 1) {
+            // A pass-through node: fold it into its only child.
+            Node child = node.children[0];
+            child.label = node.label + child.label;
+            parent.replaceChild(node, child);
+        }
+    }
+
+    /**
+     * Calls action with the id of every client whose prefix the key starts with.
+     */
+    void forEachMatch(String key, LongConsumer action) {
+        Node node = root;
+        int i = 0;
+        while (true) {
+            for (long id : node.clients) {
+                action.accept(id);
+            }
+            if (i == key.length()) {
+                return;
+            }
+            Node child = node.child(key.charAt(i));
+            if (child == null || !key.startsWith(child.label, i)) {
+                return;
+            }
+            i += child.label.length();
+            node = child;
+        }
+    }
+
+    /**
+     * @return The number of distinct prefixes registered.
+     */
+    int size() {
+        return prefixes;
+    }
+
+    private static int commonLength(String label, String prefix, int start) {
+        int limit = Math.min(label.length(), prefix.length() - start);
+        int n = 0;
+        while (n < limit && label.charAt(n) == prefix.charAt(start + n)) {
+            n++;
+        }
+        return n;
+    }
+}
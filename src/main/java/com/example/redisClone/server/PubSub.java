@@ -0,0 +1,515 @@
+package com.example.redisClone.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.example.redisClone.Log;
+import com.example.redisClone.Main;
+import com.example.redisClone.config.Config;
+import com.example.redisClone.resp.RespArgs;
+import com.example.redisClone.resp.RespBuffer;
+import com.example.redisClone.resp.RespWriter;
+import com.example.redisClone.store.GlobPattern;
+
+/**
+ * Pub/Sub: the channels and patterns clients are subscribed to, and the delivery of PUBLISH.
+ *
+ * Subscribers are kept per channel (and per pattern) in arrays that are replaced, never changed,
+ * so a PUBLISH walks them under the read lock while other clients subscribe. Patterns are indexed
+ * by their literal prefix (the characters before the first '*', '?', '[' or '\') in a PrefixTree:
+ * a message is only matched against the patterns whose prefix the channel starts with, instead of
+ * against every pattern.
+ *
+ * A message is encoded once per channel or pattern. When it has more than one receiver, the frame
+ * is copied into a single pooled direct buffer (a SharedFrame) that every receiver's output queue
+ * shares read-only, so fanning out to thousands of subscribers costs one small buffer reference
+ * each, not a copy, and the buffer goes back to the pool once the last receiver has sent it.
+ * Each receiver's output limits count the whole buffer it keeps alive, not just the message bytes.
+ * Subscribers on the publisher's reactor get the frame at once; those on other reactors have it
+ * queued, and their own reactor moves it to their output on its next pass.
+ *
+ * Subscribers are in the pubsub client-output-buffer-limit class: one that does not read its
+ * messages fast enough is disconnected once its pending output goes over the limits.
+ */
+public class PubSub {
+    private static final ClientConnection[] NONE = {};
+    private static final byte[] MESSAGE = bytes("message");
+    private static final byte[] PMESSAGE = bytes("pmessage");
+    private static final byte[] SUBSCRIBE = bytes("subscribe");
+    private static final byte[] UNSUBSCRIBE = bytes("unsubscribe");
+    private static final byte[] PSUBSCRIBE = bytes("psubscribe");
+    private static final byte[] PUNSUBSCRIBE = bytes("punsubscribe");
+    private static final byte[] ARRAY_TYPE = { '*' };
+    private static final byte[] PUSH_TYPE = { '>' };
+
+    /**
+     * A pattern with at least one subscriber.
+     */
+    private static final class Pattern {
+        // The pattern's key in the PrefixTree.
+        final long id;
+        final GlobPattern glob;
+        // The pattern as sent in pmessage frames.
+        final byte[] text;
+        ClientConnection[] subscribers = NONE;
+
+        Pattern(long id, GlobPattern glob) {
+            this.id = id;
+            this.glob = glob;
+            this.text = glob.pattern().getBytes(StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * One encoded message (a "message" or "pmessage" array), for the receivers of one channel or pattern.
+     * Only the publishing thread uses it; what it hands to other reactors are SharedFrames.
+     */
+    private static final class Frame {
+        private final SharedFrame.Pool pool;
+        private final RespBuffer encoded;
+        private final boolean shared;
+        // The RESP2 array and the RESP3 push, which differ only in their first byte; built when needed.
+        private SharedFrame resp2;
+        private SharedFrame resp3;
+
+        Frame(SharedFrame.Pool pool, RespBuffer encoded, int receivers) {
+            this.pool = pool;
+            this.encoded = encoded;
+            this.shared = receivers > 1;
+        }
+
+        /**
+         * Adds the frame to the output of a subscriber owned by the calling thread.
+         */
+        void writeTo(ClientConnection subscriber) {
+            if (shared) {
+                subscriber.queueShared(retained(subscriber.protocol));
+                return;
+            }
+            // A single receiver: copying the bytes into its output is the only copy made anyway.
+            RespWriter out = subscriber.replyWriter();
+            out.write(subscriber.protocol >= 3 ? PUSH_TYPE : ARRAY_TYPE);
+            out.write(encoded.array(), 1, encoded.length() - 1);
+        }
+
+        /**
+         * @return The frame for a client of the given protocol, with a reference for that client.
+         */
+        SharedFrame retained(int protocol) {
+            SharedFrame frame;
+            if (protocol >= 3) {
+                if (resp3 == null) {
+                    resp3 = new SharedFrame(pool, (byte) '>', encoded.array(), encoded.length());
+                }
+                frame = resp3;
+            } else {
+                if (resp2 == null) {
+                    resp2 = new SharedFrame(pool, (byte) '*', encoded.array(), encoded.length());
+                }
+                frame = resp2;
+            }
+            frame.retain();
+            return frame;
+        }
+
+        /**
+         * Drops the publisher's references, once every receiver has been given its own.
+         */
+        void release() {
+            if (resp2 != null) {
+                resp2.release();
+            }
+            if (resp3 != null) {
+                resp3.release();
+            }
+        }
+    }
+
+    // Idle buffers kept for frames, across all size classes.
+    private static final long MAX_POOLED_FRAME_BYTES = 4 * 1024 * 1024;
+
+    private final Config config;
+    // Guards channels, patterns, patternsById and patternIndex. PUBLISH only reads them.
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final HashMap<String, ClientConnection[]> channels = new HashMap<>();
+    private final HashMap<String, Pattern> patterns = new HashMap<>();
+    private final HashMap<Long, Pattern> patternsById = new HashMap<>();
+    private final PrefixTree patternIndex = new PrefixTree();
+    private long nextPatternId;
+    private final AtomicLong slowSubscribersClosed = new AtomicLong();
+    private final SharedFrame.Pool framePool = new SharedFrame.Pool(MAX_POOLED_FRAME_BYTES);
+
+    /**
+     * @param config Holds the pubsub client-output-buffer-limit.
+     */
+    public PubSub(Config config) {
+        this.config = config;
+    }
+
+    /**
+     * SUBSCRIBE channel [channel ...]: one confirmation per channel, with the client's new
+     * subscription count.
+     */
+    public void subscribe(ClientConnection client, RespArgs args, RespWriter out) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 1; i < args.count(); i++) {
+                String channel = args.string(i);
+                if (client.subscribedChannels.add(channel)) {
+                    channels.put(channel, added(channels.getOrDefault(channel, NONE), client));
+                }
+                confirm(client, out, SUBSCRIBE, channel);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        updateClientClass(client);
+    }
+
+    /**
+     * UNSUBSCRIBE [channel ...]: from the given channels, or from all of them.
+     */
+    public void unsubscribe(ClientConnection client, RespArgs args, RespWriter out) {
+        List<String> names = new ArrayList<>();
+        for (int i = 1; i < args.count(); i++) {
+            names.add(args.string(i));
+        }
+        if (names.isEmpty()) {
+            names.addAll(client.subscribedChannels);
+        }
+        lock.writeLock().lock();
+        try {
+            for (String channel : names) {
+                if (client.subscribedChannels.remove(channel)) {
+                    removeChannelSubscriber(channel, client);
+                }
+                confirm(client, out, UNSUBSCRIBE, channel);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (names.isEmpty()) {
+            confirm(client, out, UNSUBSCRIBE, null); // Subscribed to nothing: a single reply, as in Redis.
+        }
+        updateClientClass(client);
+    }
+
+    /**
+     * PSUBSCRIBE pattern [pattern ...].
+     */
+    public void psubscribe(ClientConnection client, RespArgs args, RespWriter out) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 1; i < args.count(); i++) {
+                String text = args.string(i);
+                if (client.subscribedPatterns.add(text)) {
+                    Pattern pattern = patterns.get(text);
+                    if (pattern == null) {
+                        pattern = new Pattern(nextPatternId++, new GlobPattern(text));
+                        patterns.put(text, pattern);
+                        patternsById.put(pattern.id, pattern);
+                        patternIndex.add(pattern.glob.literalPrefix(), pattern.id);
+                    }
+                    pattern.subscribers = added(pattern.subscribers, client);
+                }
+                confirm(client, out, PSUBSCRIBE, text);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        updateClientClass(client);
+    }
+
+    /**
+     * PUNSUBSCRIBE [pattern ...]: from the given patterns, or from all of them.
+     */
+    public void punsubscribe(ClientConnection client, RespArgs args, RespWriter out) {
+        List<String> names = new ArrayList<>();
+        for (int i = 1; i < args.count(); i++) {
+            names.add(args.string(i));
+        }
+        if (names.isEmpty()) {
+            names.addAll(client.subscribedPatterns);
+        }
+        lock.writeLock().lock();
+        try {
+            for (String text : names) {
+                if (client.subscribedPatterns.remove(text)) {
+                    removePatternSubscriber(text, client);
+                }
+                confirm(client, out, PUNSUBSCRIBE, text);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (names.isEmpty()) {
+            confirm(client, out, PUNSUBSCRIBE, null);
+        }
+        updateClientClass(client);
+    }
+
+    /**
+     * Drops every subscription of a client that disconnected.
+     */
+    public void unsubscribeAll(ClientConnection client) {
+        if (client.subscriptions() == 0) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            for (String channel : client.subscribedChannels) {
+                removeChannelSubscriber(channel, client);
+            }
+            for (String text : client.subscribedPatterns) {
+                removePatternSubscriber(text, client);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        client.subscribedChannels.clear();
+        client.subscribedPatterns.clear();
+    }
+
+    private void removeChannelSubscriber(String channel, ClientConnection client) {
+        ClientConnection[] remaining = removed(channels.getOrDefault(channel, NONE), client);
+        if (remaining.length == 0) {
+            channels.remove(channel);
+        } else {
+            channels.put(channel, remaining);
+        }
+    }
+
+    private void removePatternSubscriber(String text, ClientConnection client) {
+        Pattern pattern = patterns.get(text);
+        if (pattern == null) {
+            return;
+        }
+        pattern.subscribers = removed(pattern.subscribers, client);
+        if (pattern.subscribers.length == 0) {
+            patterns.remove(text);
+            patternsById.remove(pattern.id);
+            patternIndex.remove(pattern.glob.literalPrefix(), pattern.id);
+        }
+    }
+
+    /**
+     * PUBLISH channel message: delivers the message to the channel's subscribers and to those of
+     * every matching pattern.
+     * @param current The reactor running the command, whose subscribers are written to directly;
+     *                null when no reactor owns the caller (the master link applying a PUBLISH).
+     * @param args The PUBLISH command.
+     * @return The number of clients that received the message.
+     */
+    public int publish(Reactor current, RespArgs args) {
+        String channel = args.string(1);
+        long now = System.currentTimeMillis();
+        int receivers = 0;
+        lock.readLock().lock();
+        try {
+            ClientConnection[] subscribers = channels.getOrDefault(channel, NONE);
+            if (subscribers.length > 0) {
+                RespBuffer encoded = new RespBuffer(32 + args.length(1) + args.length(2));
+                encoded.arrayHeader(3);
+                encoded.bulk(MESSAGE);
+                args.writeBulk(1, encoded);
+                args.writeBulk(2, encoded);
+                deliver(current, subscribers, new Frame(framePool, encoded, subscribers.length), now);
+                receivers += subscribers.length;
+            }
+            if (!patterns.isEmpty()) {
+                List<Pattern> matched = new ArrayList<>();
+                patternIndex.forEachMatch(channel, id -> {
+                    Pattern pattern = patternsById.get(id);
+                    if (pattern.glob.matches(channel)) {
+                        matched.add(pattern);
+                    }
+                });
+                for (Pattern pattern : matched) {
+                    RespBuffer encoded = new RespBuffer(48 + pattern.text.length + args.length(1) + args.length(2));
+                    encoded.arrayHeader(4);
+                    encoded.bulk(PMESSAGE);
+                    encoded.bulk(pattern.text);
+                    args.writeBulk(1, encoded);
+                    args.writeBulk(2, encoded);
+                    deliver(current, pattern.subscribers, new Frame(framePool, encoded, pattern.subscribers.length),
+                            now);
+                    receivers += pattern.subscribers.length;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return receivers;
+    }
+
+    private void deliver(Reactor current, ClientConnection[] subscribers, Frame frame, long now) {
+        try {
+            for (ClientConnection subscriber : subscribers) {
+                if (subscriber.closing) {
+                    continue; // Over its output limit; about to be disconnected.
+                }
+                if (subscriber.reactor == current) {
+                    frame.writeTo(subscriber);
+                    afterDelivery(current, subscriber, now);
+                } else {
+                    subscriber.messages.add(frame.retained(subscriber.protocol));
+                    if (subscriber.messagesScheduled.compareAndSet(false, true)) {
+                        subscriber.reactor.messagesQueued(subscriber);
+                    }
+                }
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Moves the messages other threads queued for a subscriber to its output. Runs on its reactor.
+     */
+    void drain(Reactor reactor, ClientConnection subscriber) {
+        // Cleared first: a message queued after this is either moved now or scheduled again.
+        subscriber.messagesScheduled.set(false);
+        SharedFrame frame;
+        if (!subscriber.channel.isOpen() || subscriber.closing) {
+            while ((frame = subscriber.messages.poll()) != null) {
+                frame.release();
+            }
+            return;
+        }
+        while ((frame = subscriber.messages.poll()) != null) {
+            subscriber.queueShared(frame);
+        }
+        afterDelivery(reactor, subscriber, System.currentTimeMillis());
+    }
+
+    /**
+     * Schedules the subscriber's flush, or its disconnection if it is reading too slowly.
+     */
+    private void afterDelivery(Reactor reactor, ClientConnection subscriber, long now) {
+        if (subscriber.outputLimitReached(config, now)) {
+            // Closed on the next pass: this may run under the read lock, and closing unsubscribes.
+            subscriber.closing = true;
+            slowSubscribersClosed.incrementAndGet();
+            reactor.execute(() -> closeSlowSubscriber(reactor, subscriber));
+            return;
+        }
+        if (!subscriber.flushScheduled) {
+            subscriber.flushScheduled = true;
+            reactor.pendingWrites.add(subscriber);
+        }
+    }
+
+    private static void closeSlowSubscriber(Reactor reactor, ClientConnection subscriber) {
+        if (!subscriber.channel.isOpen()) {
+            return;
+        }
+        try {
+            Log.info("Client closed for overcoming of output buffer limits " + subscriber.address);
+            Main.closeClient(reactor, subscriber);
+        } catch (IOException e) {
+            // Closing anyway.
+        }
+    }
+
+    /**
+     * PUBSUB CHANNELS [pattern] | NUMSUB [channel ...] | NUMPAT.
+     */
+    public void pubsubCommand(RespArgs args, RespWriter out) {
+        lock.readLock().lock();
+        try {
+            if (args.equalsIgnoreCase(1, "CHANNELS") && args.count() <= 3) {
+                GlobPattern glob = args.count() == 3 ? new GlobPattern(args.string(2)) : null;
+                List<String> names = new ArrayList<>();
+                for (String channel : channels.keySet()) {
+                    if (glob == null || glob.matches(channel)) {
+                        names.add(channel);
+                    }
+                }
+                out.arrayHeader(names.size());
+                for (String name : names) {
+                    out.bulk(name);
+                }
+            } else if (args.equalsIgnoreCase(1, "NUMSUB")) {
+                out.arrayHeader((args.count() - 2) * 2);
+                for (int i = 2; i < args.count(); i++) {
+                    args.writeBulk(i, out);
+                    out.integer(channels.getOrDefault(args.string(i), NONE).length);
+                }
+            } else if (args.equalsIgnoreCase(1, "NUMPAT") && args.count() == 2) {
+                out.integer(patterns.size());
+            } else {
+                out.error("ERR unknown subcommand or wrong number of arguments for '" + args.string(1)
+                        + "'. Try PUBSUB HELP.");
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The pubsub_* fields of INFO stats.
+     */
+    public String info() {
+        lock.readLock().lock();
+        try {
+            return "pubsub_channels:" + channels.size() + "\r\n"
+                    + "pubsub_patterns:" + patterns.size() + "\r\n"
+                    + "pubsub_slow_subscribers_closed:" + slowSubscribersClosed.get() + "\r\n";
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes a (un)subscribe confirmation: [kind, name, subscription count], pushed under RESP3.
+     */
+    private static void confirm(ClientConnection client, RespWriter out, byte[] kind, String name) {
+        if (client.protocol >= 3) {
+            out.pushHeader(3);
+        } else {
+            out.arrayHeader(3);
+        }
+        out.bulk(kind);
+        if (name == null) {
+            out.nullBulk();
+        } else {
+            out.bulk(name);
+        }
+        out.integer(client.subscriptions());
+    }
+
+    /**
+     * Subscribers are held to the pubsub output limits; a client back to no subscriptions is normal again.
+     */
+    private static void updateClientClass(ClientConnection client) {
+        client.clientClass = client.subscriptions() > 0 ? Config.CLIENT_CLASS_PUBSUB : Config.CLIENT_CLASS_NORMAL;
+    }
+
+    private static ClientConnection[] added(ClientConnection[] subscribers, ClientConnection client) {
+        ClientConnection[] grown = new ClientConnection[subscribers.length + 1];
+        System.arraycopy(subscribers, 0, grown, 0, subscribers.length);
+        grown[subscribers.length] = client;
+        return grown;
+    }
+
+    private static ClientConnection[] removed(ClientConnection[] subscribers, ClientConnection client) {
+        for (int i = 0; i < subscribers.length; i++) {
+            if (subscribers[i] == client) {
+                ClientConnection[] shrunk = new ClientConnection[subscribers.length - 1];
+                System.arraycopy(subscribers, 0, shrunk, 0, i);
+                System.arraycopy(subscribers, i + 1, shrunk, i, shrunk.length - i);
+                return shrunk;
+            }
+        }
+        return subscribers;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.redisClone.server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.example.redisClone.Log;
+import com.example.redisClone.Main;
+
+/**
+ * One event loop: a Selector plus the connections it owns, their pending writes and a buffer pool.
+ * With --io-threads N the server runs N reactors, each on its own thread, and an acceptor
+ * hands new connections to them round-robin. With a single reactor, the reactor also
+ * accepts connections itself.
+ * A connection is only ever touched by the reactor that owns it.
+ */
+public class Reactor implements Runnable {
+    // How often the cron reactor runs background tasks, like Redis's hz 10.
+    public static final long CRON_INTERVAL_MS = 100;
+
+    public final Selector selector;
+    // Per-connection state (input buffer, parser and output queue).
+    public final HashMap<SocketChannel, ClientConnection> clients = new HashMap<>();
+    // Connections that produced replies during the current event-loop pass.
+    public final ArrayList<ClientConnection> pendingWrites = new ArrayList<>();
+    // Direct buffers shared by the output queues of this reactor's connections.
+    public final BufferPool bufferPool = new BufferPool(1024);
+    // Connections accepted by another thread, waiting to be registered with this selector.
+    private final ConcurrentLinkedQueue<SocketChannel> newConnections = new ConcurrentLinkedQueue<>();
+    // Work handed over by other threads that must run on this reactor (e.g. attaching the master link).
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // This reactor's subscribers that other threads published messages to.
+    private final ConcurrentLinkedQueue<ClientConnection> subscribersWithMessages = new ConcurrentLinkedQueue<>();
+    public final ServerContext server;
+    // Exactly one reactor runs Main.serverCron.
+    public boolean runsCron;
+    private long lastCron;
+
+    public Reactor(ServerContext server) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Lets this reactor accept connections itself (single-reactor mode).
+     */
+    public void listen(ServerSocketChannel serverSocket) throws ClosedChannelException {
+        serverSocket.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Hands over a connection accepted on another thread. Safe to call from any thread.
+     */
+    public void assign(SocketChannel client) {
+        newConnections.add(client);
+        selector.wakeup(); // Interrupt select() so the connection is registered right away.
+    }
+
+    /**
+     * Runs a task on this reactor's thread at the start of its next pass. Safe to call from any thread.
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Has the messages queued for one of this reactor's subscribers moved to its output on the next
+     * pass. Safe to call from any thread.
+     */
+    public void messagesQueued(ClientConnection subscriber) {
+        subscribersWithMessages.add(subscriber);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            eventLoop();
+        } catch (IOException e) {
+            Log.info("Event loop failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This loop continuously waits for and processes I/O events.
+     *
+     * Every step is guarded on its own: an exception from one client closes that client, and one
+     * from a background step (a task, the AOF, replication, the cron) is logged, and the loop goes
+     * on. Only a failing Selector ends it.
+     */
+    private void eventLoop() throws IOException {
+        while (true) {
+            // Blocks until a channel is ready, a connection is assigned, or it is time for the cron.
+            selector.select(CRON_INTERVAL_MS);
+            long passStart = System.nanoTime();
+
+            SocketChannel assigned;
+            while ((assigned = newConnections.poll()) != null) {
+                register(assigned);
+            }
+            // Only the tasks queued before this pass: a task that queues itself again (a KEYS walking
+            // the keyspace step by step) runs on the next pass, after the clients' I/O.
+            Runnable task;
+            for (int n = tasks.size(); n > 0 && (task = tasks.poll()) != null; n--) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.info("Reactor task failed: " + e);
+                }
+            }
+            ClientConnection subscriber;
+            while ((subscriber = subscribersWithMessages.poll()) != null) {
+                try {
+                    server.pubSub.drain(this, subscriber);
+                } catch (RuntimeException e) {
+                    Log.info("Delivering messages failed: " + e);
+                    Main.closeQuietly(this, subscriber);
+                }
+            }
+
+            Set<SelectionKey> selectedKeys = selector.selectedKeys(); // Get the set of ready keys.
+            for (SelectionKey key : selectedKeys) {
+                // Check if a new client is trying to connect.
+                if (key.isAcceptable()) {
+                    accept(key);
+                    continue;
+                }
+                try {
+                    // Check if a client that had a backlog of replies can take more output.
+                    if (key.isValid() && key.isWritable()) {
+                        Main.handleWritableKeys(this, key, server);
+                    }
+                    // Check if an existing client has sent data.
+                    if (key.isValid() && key.isReadable()) {
+                        Main.handleReadableKeys(this, key, server);
+                    }
+                } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                    // e.g. connection reset by peer: only this client is affected. Running out of
+                    // direct memory for its buffers must not end the loop that serves everyone else.
+                    if (!(e instanceof IOException)) {
+                        Log.info("Client failed: " + e);
+                    }
+                    ClientConnection connection = clients.get((SocketChannel) key.channel());
+                    if (connection != null) {
+                        Main.closeQuietly(this, connection);
+                    }
+                }
+            }
+            selectedKeys.clear(); // Keys must be removed by hand, or they are seen again next pass.
+
+            // --- Replication ---
+            // Move the write stream to this reactor's replicas and answer WAITs that are done. Runs
+            // before the AOF flush: a client a WAIT released runs the commands it pipelined after it,
+            // and their writes must reach the AOF before their replies go out too.
+            try {
+                Main.serviceReplication(this, server);
+            } catch (RuntimeException e) {
+                Log.info("Replication step failed: " + e);
+            }
+
+            // --- AOF Flush ---
+            // Commands executed in this pass reach the append-only file (one write for all of them)
+            // before any of their replies do. Writes with no reply to send (those a replica applies
+            // from its master) are flushed too. After a failed write, serverCron does the retries.
+            boolean aofPending = server.aof != null && server.aof.hasPending() && !server.aof.writeFailed();
+            if (!pendingWrites.isEmpty() || aofPending) {
+                try {
+                    Main.flushAppendOnlyFile(server);
+                } catch (RuntimeException e) {
+                    Log.info("AOF flush failed: " + e);
+                }
+            }
+
+            // --- Reply Flush ---
+            // One gathered write per connection for everything it got during this pass.
+            // Whatever the socket does not accept stays queued and OP_WRITE takes over.
+            for (ClientConnection connection : pendingWrites) {
+                connection.flushScheduled = false;
+                if (connection.channel.isOpen()) {
+                    try {
+                        server.metrics.netOutputBytes.add(connection.flush());
+                    } catch (IOException | RuntimeException e) {
+                        Main.closeQuietly(this, connection);
+                    }
+                }
+            }
+            pendingWrites.clear();
+            server.metrics.eventLoop.record(System.nanoTime() - passStart);
+
+            if (runsCron) {
+                long now = System.currentTimeMillis();
+                if (now - lastCron >= CRON_INTERVAL_MS) {
+                    lastCron = now;
+                    try {
+                        Main.serverCron(server);
+                    } catch (RuntimeException e) {
+                        Log.info("Server cron failed: " + e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers a connection accepted by the acceptor thread; closes it if that fails (the peer
+     * may already have reset it).
+     */
+    private void register(SocketChannel client) {
+        try {
+            Main.registerClient(this, client);
+        } catch (IOException | RuntimeException e) {
+            Log.info("Could not register client: " + e);
+            closeChannel(client);
+        }
+    }
+
+    /**
+     * Accepts and registers a connection (single-reactor mode); a failure costs only that connection.
+     */
+    private void accept(SelectionKey key) {
+        SocketChannel client;
+        try {
+            client = ((ServerSocketChannel) key.channel()).accept();
+        } catch (IOException e) {
+            Log.info("Accept failed: " + e.getMessage());
+            return;
+        }
+        if (client != null) {
+            register(client);
+        }
+    }
+
+    private static void closeChannel(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Nothing more to release.
+        }
+    }
+}
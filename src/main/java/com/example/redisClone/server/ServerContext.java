@@ -0,0 +1,85 @@
+package com.example.redisClone.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.example.redisClone.aof.AppendOnlyFile;
+import com.example.redisClone.cluster.ClusterState;
+import com.example.redisClone.config.Config;
+import com.example.redisClone.metrics.ServerMetrics;
+import com.example.redisClone.metrics.SlowLog;
+import com.example.redisClone.rdb.LoadProgress;
+import com.example.redisClone.rdb.RDBconfig;
+import com.example.redisClone.rdb.RdbSaver;
+import com.example.redisClone.replication.MasterLink;
+import com.example.redisClone.replication.Replication;
+import com.example.redisClone.scripting.ScriptEngine;
+import com.example.redisClone.store.Clock;
+import com.example.redisClone.store.Evictor;
+import com.example.redisClone.store.ExpiryEngine;
+import com.example.redisClone.store.Keyspace;
+import com.example.redisClone.store.TieredStorage;
+
+/**
+ * State shared by every reactor thread: the keyspace, configuration and replication info.
+ *
+ * Execution model: reactors read, parse and write in parallel. Single-key commands run
+ * concurrently under the read side of executionLock; they are atomic per key because the
+ * Keyspace locks the key's segment. Commands that look at the whole keyspace (such as KEYS)
+ * take the write side, so they run alone, as on Redis's single-threaded executor.
+ */
+public class ServerContext {
+    public final RDBconfig rdbConfig;
+    public final Config config;
+    public Keyspace keyspace;
+    // Time source for TTLs; replaceable for deterministic tests.
+    public Clock clock = Clock.SYSTEM;
+    // Background removal of expired keys, driven by Main.serverCron.
+    public ExpiryEngine expiryEngine;
+    // Enforces maxmemory before write commands.
+    public Evictor evictor;
+    // SAVE, BGSAVE and the automatic save policies.
+    public RdbSaver rdbSaver;
+    // Moves cold values to disk under a hot-tier budget, or null when tiered-storage is off.
+    public TieredStorage tiered;
+    // The append-only file, or null when appendonly is off.
+    public AppendOnlyFile aof;
+
+    // Replication: "master" or "slave", our replicas and write stream, and (on a replica) the master link.
+    public String role = "master";
+    public Replication replication;
+    public MasterLink masterLink;
+
+    // The cluster view (slots, nodes), or null when cluster mode is off.
+    public ClusterState cluster;
+
+    // The startup load of the RDB or AOF, which runs in the background while clients are served.
+    public final LoadProgress loadProgress = new LoadProgress();
+
+    // Command stats, latency histograms, the slow log and network counters, recorded by every reactor.
+    public final ServerMetrics metrics;
+
+    // Connected clients by CLIENT ID, on every reactor, and the next id to hand out.
+    public final ConcurrentHashMap<Long, ClientConnection> clients = new ConcurrentHashMap<>();
+    public final AtomicLong nextClientId = new AtomicLong(1);
+    // Client-side caching: the keys tracking clients read and the prefixes they broadcast on.
+    public final ClientTracking tracking;
+    // Pub/Sub channels and pattern subscriptions.
+    public final PubSub pubSub;
+    // The scripts cached for EVAL and EVALSHA.
+    public final ScriptEngine scripts;
+
+    // Held while commands execute; see the class comment.
+    public final ReentrantReadWriteLock executionLock = new ReentrantReadWriteLock();
+
+    public ServerContext(RDBconfig rdbConfig, Config config) {
+        this.rdbConfig = rdbConfig;
+        this.config = config;
+        this.metrics = new ServerMetrics(CommandTable.names(),
+                new SlowLog(config.slowlogLogSlowerThan, config.slowlogMaxLen));
+        this.tracking = new ClientTracking(clients, config.trackingTableMaxKeys);
+        this.pubSub = new PubSub(config);
+        this.scripts = new ScriptEngine(this);
+    }
+}
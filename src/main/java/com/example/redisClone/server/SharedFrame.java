@@ -0,0 +1,137 @@
+package com.example.redisClone.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An encoded Pub/Sub message that the output queues of all its receivers share read-only,
+ * possibly on several reactors.
+ *
+ * Frames are reference counted: the publisher holds one reference while it delivers, and every
+ * receiver's OutputBuffer holds one until the bytes are written or dropped. The last release
+ * returns the frame's direct buffer to its Pool, so a busy channel does not allocate (and leave to
+ * the GC) a direct buffer per PUBLISH. Pooled buffers come in power-of-two size classes from 64
+ * bytes to 16 KB, so a frame never holds more than twice its size; a larger frame gets a buffer
+ * of exactly its size. Receivers are charged for the whole buffer (see capacity()).
+ */
+public final class SharedFrame {
+    private static final int MIN_CLASS_SHIFT = 6; // 64 bytes.
+    private static final int MAX_CLASS_SHIFT = 14; // 16 KB, a BufferPool chunk.
+
+    private final Pool pool;
+    // The pooled buffer holding the bytes, or null if the frame has a buffer of its own.
+    private final ByteBuffer chunk;
+    private final ByteBuffer data;
+    private final int capacity;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    /**
+     * Free lists of direct buffers for frames, one per size class. Unlike BufferPool it is
+     * thread-safe: a frame published on one reactor is often released last by another.
+     */
+    public static final class Pool {
+        private final ConcurrentLinkedQueue<ByteBuffer>[] free;
+        private final AtomicLong freeBytes = new AtomicLong();
+        private final long maxPooledBytes;
+
+        /**
+         * @param maxPooledBytes How many bytes of idle buffers to keep; extra buffers are left to the GC.
+         */
+        public Pool(long maxPooledBytes) {
+            this.maxPooledBytes = maxPooledBytes;
+            @SuppressWarnings("unchecked")
+            ConcurrentLinkedQueue<ByteBuffer>[] lists =
+                    (ConcurrentLinkedQueue<ByteBuffer>[]) new ConcurrentLinkedQueue<?>[MAX_CLASS_SHIFT + 1];
+            free = lists;
+            for (int shift = MIN_CLASS_SHIFT; shift <= MAX_CLASS_SHIFT; shift++) {
+                free[shift] = new ConcurrentLinkedQueue<>();
+            }
+        }
+
+        /**
+         * @return The size class of a frame of length bytes, or -1 if it is too large to be pooled.
+         */
+        static int sizeClass(int length) {
+            int shift = Math.max(MIN_CLASS_SHIFT, 32 - Integer.numberOfLeadingZeros(length - 1));
+            return shift <= MAX_CLASS_SHIFT ? shift : -1;
+        }
+
+        ByteBuffer acquire(int shift) {
+            ByteBuffer chunk = free[shift].poll();
+            if (chunk == null) {
+                return ByteBuffer.allocateDirect(1 << shift);
+            }
+            freeBytes.addAndGet(-chunk.capacity());
+            return chunk;
+        }
+
+        void release(ByteBuffer chunk) {
+            int shift = Integer.numberOfTrailingZeros(chunk.capacity());
+            if (freeBytes.addAndGet(chunk.capacity()) <= maxPooledBytes) {
+                chunk.clear();
+                free[shift].add(chunk);
+            } else {
+                freeBytes.addAndGet(-chunk.capacity());
+            }
+        }
+    }
+
+    /**
+     * Copies a frame, with its first byte replaced by type, into a pooled buffer of its size class
+     * (or a buffer of its own if it is larger than a class). The caller holds the only reference.
+     * @param pool Where the buffer comes from and goes back to.
+     * @param type The RESP type of the frame: '*' for RESP2, '>' for a RESP3 push.
+     * @param encoded The encoded frame; its first byte is replaced.
+     * @param length The length of the frame.
+     */
+    SharedFrame(Pool pool, byte type, byte[] encoded, int length) {
+        this.pool = pool;
+        int shift = Pool.sizeClass(length);
+        ByteBuffer buffer;
+        try {
+            buffer = shift > 0 ? pool.acquire(shift) : ByteBuffer.allocateDirect(length);
+        } catch (OutOfMemoryError e) {
+            // Out of direct memory: the frame still goes out, from the heap (the socket write copies it).
+            shift = -1;
+            buffer = ByteBuffer.allocate(length);
+        }
+        this.chunk = shift > 0 ? buffer : null;
+        this.capacity = buffer.capacity();
+        buffer.put(type);
+        buffer.put(encoded, 1, length - 1);
+        buffer.flip();
+        this.data = buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return The bytes the frame keeps allocated while it is queued: its length rounded up to its size class.
+     */
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return A view of the frame with its own position, for one receiver's output queue.
+     */
+    ByteBuffer view() {
+        return data.duplicate();
+    }
+
+    /**
+     * Adds a reference, for a receiver about to queue the frame.
+     */
+    void retain() {
+        references.incrementAndGet();
+    }
+
+    /**
+     * Drops a reference; the last one returns the buffer to the pool.
+     */
+    void release() {
+        if (references.decrementAndGet() == 0 && chunk != null) {
+            pool.release(chunk);
+        }
+    }
+}
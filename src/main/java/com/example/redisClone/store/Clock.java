@@ -0,0 +1,30 @@
+package com.example.redisClone.store;
+
+/**
+ * Source of time for expiry decisions.
+ * Everything that compares TTLs or budgets CPU time goes through a Clock, so a test
+ * (or a simulation) can substitute a manual clock and get fully deterministic expiry.
+ */
+public interface Clock {
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long millis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long nanos() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * @return Wall-clock time in milliseconds, used for key expiration timestamps.
+     */
+    long millis();
+
+    /**
+     * @return A monotonic time in nanoseconds, used to bound background work.
+     */
+    long nanos();
+}
@@ -0,0 +1,371 @@
+package com.example.redisClone.store;
+
+import java.util.function.BiConsumer;
+
+/**
+ * A chained hash table with incremental rehashing, modelled on Redis's dict.
+ *
+ * When the table has to grow (or shrink), a second table is allocated and entries are
+ * moved over one bucket at a time, piggybacked on normal operations (and on idle-time
+ * calls to rehashSteps). No single operation ever pays for a full rehash, which is what
+ * causes the latency spikes of java.util.HashMap when it resizes with millions of keys.
+ * While rehashing, lookups check both tables and inserts go to the new one.
+ *
+ * Not thread-safe; Keyspace guards each Dict with its segment lock.
+ */
+public class Dict<K, V> {
+    private static final int INITIAL_SIZE = 4;
+    // How many empty buckets a single rehash step may skip before giving up.
+    private static final int EMPTY_VISITS_PER_STEP = 10;
+
+    /**
+     * One key/value pair in a bucket chain.
+     */
+    public static final class Entry<K, V> {
+        public final K key;
+        public V value;
+        final int hash;
+        Entry<K, V> next;
+
+        Entry(K key, V value, int hash, Entry<K, V> next) {
+            this.key = key;
+            this.value = value;
+            this.hash = hash;
+            this.next = next;
+        }
+    }
+
+    // tables[1] is only non-null while rehashing from tables[0] into it.
+    private final Entry<K, V>[][] tables = typed(new Entry<?, ?>[2][]);
+    private final int[] used = new int[2];
+    // Next bucket of tables[0] to move, or -1 when not rehashing.
+    private int rehashIndex = -1;
+    private long rehashedBuckets;
+    // Shrinks started so far: a scan that spans one may see some entries twice.
+    private long shrinks;
+
+    public Dict() {
+        tables[0] = typed(new Entry<?, ?>[INITIAL_SIZE]);
+    }
+
+    /**
+     * Java cannot create an array of Entry<K, V>: tables are created as Entry<?, ?> arrays and
+     * cast here, the one unchecked cast of the class.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T[] typed(Object[] array) {
+        return (T[]) array;
+    }
+
+    /**
+     * Spreads the hash so keys that differ only in high bits still land in different buckets.
+     */
+    public static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    public int size() {
+        return used[0] + used[1];
+    }
+
+    public boolean isRehashing() {
+        return rehashIndex != -1;
+    }
+
+    /**
+     * @return The total number of buckets in both tables.
+     */
+    public int bucketCount() {
+        return tables[0].length + (tables[1] != null ? tables[1].length : 0);
+    }
+
+    /**
+     * @return How many times the table has started shrinking (see the shrinks field).
+     */
+    public long shrinks() {
+        return shrinks;
+    }
+
+    /**
+     * @return How many buckets have been moved by incremental rehashing so far.
+     */
+    public long rehashedBuckets() {
+        return rehashedBuckets;
+    }
+
+    public V get(K key) {
+        Entry<K, V> entry = find(key, spread(key.hashCode()));
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Inserts or replaces a value.
+     * @return The previous value, or null if the key was new.
+     */
+    public V put(K key, V value) {
+        int hash = spread(key.hashCode());
+        Entry<K, V> existing = find(key, hash);
+        if (existing != null) {
+            V previous = existing.value;
+            existing.value = value;
+            return previous;
+        }
+        expandIfNeeded();
+        // While rehashing, new keys go straight to the new table.
+        int t = isRehashing() ? 1 : 0;
+        Entry<K, V>[] table = tables[t];
+        int index = hash & (table.length - 1);
+        table[index] = new Entry<>(key, value, hash, table[index]);
+        used[t]++;
+        return null;
+    }
+
+    /**
+     * Removes a key.
+     * @return The removed value, or null if the key was absent.
+     */
+    public V remove(K key) {
+        int hash = spread(key.hashCode());
+        if (isRehashing()) {
+            rehashStep();
+        }
+        for (int t = 0; t <= 1; t++) {
+            Entry<K, V>[] table = tables[t];
+            if (table == null) {
+                break;
+            }
+            int index = hash & (table.length - 1);
+            Entry<K, V> previous = null;
+            for (Entry<K, V> entry = table[index]; entry != null; entry = entry.next) {
+                if (entry.hash == hash && entry.key.equals(key)) {
+                    if (previous == null) {
+                        table[index] = entry.next;
+                    } else {
+                        previous.next = entry.next;
+                    }
+                    used[t]--;
+                    shrinkIfNeeded();
+                    return entry.value;
+                }
+                previous = entry;
+            }
+            if (!isRehashing()) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Calls the action for every entry. The action must not modify the dict.
+     */
+    public void forEach(BiConsumer<K, V> action) {
+        for (int t = 0; t <= 1; t++) {
+            Entry<K, V>[] table = tables[t];
+            if (table == null) {
+                break;
+            }
+            for (Entry<K, V> bucket : table) {
+                for (Entry<K, V> entry = bucket; entry != null; entry = entry.next) {
+                    action.accept(entry.key, entry.value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Visits the entries of one bucket position and returns the cursor of the next one,
+     * using Redis's reverse-binary cursor: the high bits of the cursor are incremented,
+     * so a full scan visits every entry that was present from start to end exactly once,
+     * even if the table grows, shrinks or is being rehashed between calls (entries can
+     * only be reported twice after a shrink).
+     * The action must not modify the dict.
+     * @param cursor 0 to start a scan, or the value returned by the previous call.
+     * @param action Called for each entry in the visited bucket(s).
+     * @return The next cursor, or 0 once the scan is complete.
+     */
+    public int scan(int cursor, BiConsumer<K, V> action) {
+        if (size() == 0) {
+            return 0;
+        }
+        Entry<K, V>[] small = tables[0];
+        Entry<K, V>[] large = tables[1];
+        if (!isRehashing()) {
+            int mask = small.length - 1;
+            visitBucket(small[cursor & mask], action);
+            return nextCursor(cursor, mask);
+        }
+        if (small.length > large.length) {
+            Entry<K, V>[] swap = small;
+            small = large;
+            large = swap;
+        }
+        int smallMask = small.length - 1;
+        int largeMask = large.length - 1;
+        visitBucket(small[cursor & smallMask], action);
+        // Then every bucket of the larger table that the small bucket expands into.
+        do {
+            visitBucket(large[cursor & largeMask], action);
+            cursor = nextCursor(cursor, largeMask);
+        } while ((cursor & (smallMask ^ largeMask)) != 0);
+        return cursor;
+    }
+
+    /**
+     * Visits up to count entries starting at a random bucket, walking consecutive buckets
+     * (like Redis's dictGetSomeKeys). Cheap, allocation-free sampling for eviction.
+     * The action must not modify the dict.
+     * @param count The number of entries wanted.
+     * @param start A random number used to pick the first bucket.
+     * @param action Called for each sampled entry.
+     * @return The number of entries visited.
+     */
+    public int sample(int count, int start, BiConsumer<K, V> action) {
+        if (size() == 0) {
+            return 0;
+        }
+        int largestMask = Math.max(tables[0].length, isRehashing() ? tables[1].length : 0) - 1;
+        int index = start & largestMask;
+        int visited = 0;
+        for (int steps = 0; visited < count && steps <= largestMask && steps < count * 10; steps++) {
+            for (int t = 0; t <= 1 && visited < count; t++) {
+                Entry<K, V>[] table = tables[t];
+                if (table == null || index >= table.length) {
+                    continue;
+                }
+                for (Entry<K, V> entry = table[index]; entry != null && visited < count; entry = entry.next) {
+                    action.accept(entry.key, entry.value);
+                    visited++;
+                }
+            }
+            index = (index + 1) & largestMask;
+        }
+        return visited;
+    }
+
+    private void visitBucket(Entry<K, V> bucket, BiConsumer<K, V> action) {
+        for (Entry<K, V> entry = bucket; entry != null; entry = entry.next) {
+            action.accept(entry.key, entry.value);
+        }
+    }
+
+    /**
+     * Increments the reversed cursor: set the unmasked bits, reverse, add one, reverse back.
+     */
+    private static int nextCursor(int cursor, int mask) {
+        cursor |= ~mask;
+        cursor = Integer.reverse(cursor);
+        cursor++;
+        return Integer.reverse(cursor);
+    }
+
+    /**
+     * Performs up to n rehash steps; used to make progress while the server is idle.
+     * @return true if there is still rehashing work left.
+     */
+    public boolean rehashSteps(int n) {
+        while (n-- > 0 && isRehashing()) {
+            rehashStep();
+        }
+        return isRehashing();
+    }
+
+    private Entry<K, V> find(K key, int hash) {
+        if (isRehashing()) {
+            rehashStep();
+        }
+        for (int t = 0; t <= 1; t++) {
+            Entry<K, V>[] table = tables[t];
+            if (table == null) {
+                break;
+            }
+            for (Entry<K, V> entry = table[hash & (table.length - 1)]; entry != null; entry = entry.next) {
+                if (entry.hash == hash && entry.key.equals(key)) {
+                    return entry;
+                }
+            }
+            if (!isRehashing()) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Moves one non-empty bucket from the old table to the new one.
+     */
+    private void rehashStep() {
+        Entry<K, V>[] from = tables[0];
+        Entry<K, V>[] to = tables[1];
+        int emptyVisits = EMPTY_VISITS_PER_STEP;
+        while (from[rehashIndex] == null) {
+            rehashIndex++;
+            if (rehashIndex == from.length) {
+                finishRehash();
+                return;
+            }
+            if (--emptyVisits == 0) {
+                return;
+            }
+        }
+        Entry<K, V> entry = from[rehashIndex];
+        while (entry != null) {
+            Entry<K, V> next = entry.next;
+            int index = entry.hash & (to.length - 1);
+            entry.next = to[index];
+            to[index] = entry;
+            used[0]--;
+            used[1]++;
+            entry = next;
+        }
+        from[rehashIndex] = null;
+        rehashIndex++;
+        rehashedBuckets++;
+        if (rehashIndex == from.length) {
+            finishRehash();
+        }
+    }
+
+    private void finishRehash() {
+        tables[0] = tables[1];
+        used[0] = used[1];
+        tables[1] = null;
+        used[1] = 0;
+        rehashIndex = -1;
+    }
+
+    /**
+     * Starts growing once the load factor reaches 1, like Redis.
+     */
+    private void expandIfNeeded() {
+        if (!isRehashing() && used[0] >= tables[0].length) {
+            startRehash(tableSizeFor(used[0] * 2));
+        }
+    }
+
+    /**
+     * Starts shrinking once fewer than 10% of the buckets are in use.
+     */
+    private void shrinkIfNeeded() {
+        if (!isRehashing() && tables[0].length > INITIAL_SIZE && used[0] * 10 < tables[0].length) {
+            startRehash(tableSizeFor(Math.max(used[0], INITIAL_SIZE)));
+            shrinks++;
+        }
+    }
+
+    private void startRehash(int size) {
+        if (size == tables[0].length) {
+            return;
+        }
+        tables[1] = typed(new Entry<?, ?>[size]);
+        rehashIndex = 0;
+    }
+
+    private static int tableSizeFor(int n) {
+        int size = INITIAL_SIZE;
+        while (size < n && size < (1 << 30)) {
+            size <<= 1;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,293 @@
+package com.example.redisClone.store;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+
+import com.example.redisClone.RedisStoreObject;
+
+/**
+ * Enforces maxmemory by evicting keys, using Redis's approximated algorithms.
+ *
+ * Keys are never kept in a global LRU list. Instead each object carries 24 bits of access
+ * metadata (RedisStoreObject.lru), updated in place on every access, and eviction samples a
+ * few keys per segment and feeds them into a small pool of the best candidates seen so far.
+ * The best candidate in the pool is evicted; the pool survives between calls, so the
+ * approximation improves with every sample.
+ */
+public class Evictor {
+    public static final String NOEVICTION = "noeviction";
+    public static final String ALLKEYS_LRU = "allkeys-lru";
+    public static final String ALLKEYS_LFU = "allkeys-lfu";
+    public static final String VOLATILE_LRU = "volatile-lru";
+    public static final String VOLATILE_TTL = "volatile-ttl";
+
+    // LRU clock: seconds, wrapping at 24 bits (about 194 days).
+    private static final int LRU_CLOCK_MAX = (1 << 24) - 1;
+    // LFU: initial counter for new keys, so they are not evicted before they get a chance.
+    private static final int LFU_INIT_VAL = 5;
+    // LFU: logarithmic increment factor and minutes of idleness per counter decrement.
+    private static final int LFU_LOG_FACTOR = 10;
+    private static final int LFU_DECAY_MINUTES = 1;
+    private static final int EVICTION_POOL_SIZE = 16;
+
+    private final Keyspace keyspace;
+    private final Clock clock;
+    // Volatile: read without the lock on every write command (see performEvictions).
+    private volatile long maxMemory;
+    private volatile String policy = NOEVICTION;
+    private int samples = 5;
+
+    // Candidate pool, sorted by ascending score (best candidate last).
+    private final String[] poolKeys = new String[EVICTION_POOL_SIZE];
+    private final long[] poolScores = new long[EVICTION_POOL_SIZE];
+    private int poolSize;
+
+    private long evictedKeys;
+
+    // Told about every evicted key, under its lock, so the deletion can be logged; null for nobody.
+    private volatile Consumer<String> evictionListener;
+
+    public Evictor(Keyspace keyspace, Clock clock) {
+        this.keyspace = keyspace;
+        this.clock = clock;
+    }
+
+    /**
+     * @param maxMemory The memory limit in bytes, or 0 for no limit.
+     * @param policy One of the policy names above.
+     * @param samples How many keys to sample per segment per eviction (maxmemory-samples).
+     */
+    public synchronized void configure(long maxMemory, String policy, int samples) {
+        if (!policy.equals(NOEVICTION) && !policy.equals(ALLKEYS_LRU) && !policy.equals(ALLKEYS_LFU)
+                && !policy.equals(VOLATILE_LRU) && !policy.equals(VOLATILE_TTL)) {
+            throw new IllegalArgumentException("Invalid maxmemory-policy: " + policy);
+        }
+        this.maxMemory = maxMemory;
+        this.policy = policy;
+        this.samples = Math.max(1, samples);
+        this.poolSize = 0;
+        keyspace.lfu = policy.equals(ALLKEYS_LFU);
+    }
+
+    /**
+     * Sets who is told about evicted keys. The listener runs under the key's segment lock, so a
+     * DEL it appends to the AOF is ordered with the writes to that key.
+     */
+    public void setEvictionListener(Consumer<String> listener) {
+        this.evictionListener = listener;
+    }
+
+    public long maxMemory() {
+        return maxMemory;
+    }
+
+    public String policy() {
+        return policy;
+    }
+
+    public synchronized long evictedKeys() {
+        return evictedKeys;
+    }
+
+    /**
+     * Evicts keys until used memory is back under maxmemory.
+     * Called before every command that may add data, so the common case (no limit, or under it)
+     * is decided without the lock; only a reactor that has something to evict takes it.
+     * @return false if memory is still over the limit (the command must be refused with OOM).
+     */
+    public boolean performEvictions() {
+        long limit = maxMemory;
+        if (limit == 0 || keyspace.usedMemory() <= limit) {
+            return true;
+        }
+        if (policy.equals(NOEVICTION)) {
+            return false;
+        }
+        return evictUntilUnderLimit();
+    }
+
+    /**
+     * The slow path of performEvictions. Checks again under the lock: another reactor may have
+     * evicted enough, or CONFIG SET changed the limit, while this one waited.
+     */
+    private synchronized boolean evictUntilUnderLimit() {
+        if (maxMemory == 0 || keyspace.usedMemory() <= maxMemory) {
+            return true;
+        }
+        if (policy.equals(NOEVICTION)) {
+            return false;
+        }
+        boolean volatileOnly = policy.startsWith("volatile-");
+        while (keyspace.usedMemory() > maxMemory) {
+            fillPool(volatileOnly);
+            boolean evicted = false;
+            // Take the best candidate; skip ones that were deleted or changed since being sampled.
+            while (poolSize > 0 && !evicted) {
+                String key = poolKeys[--poolSize];
+                poolKeys[poolSize] = null;
+                evicted = evict(key, volatileOnly);
+            }
+            if (!evicted) {
+                return false; // Nothing left that this policy may evict.
+            }
+            evictedKeys++;
+        }
+        return true;
+    }
+
+    /**
+     * Evicts one candidate and reports it to the listener in the same step.
+     */
+    private boolean evict(String key, boolean volatileOnly) {
+        Lock keyLock = keyspace.keyLock(key);
+        keyLock.lock();
+        try {
+            if (!keyspace.evict(key, volatileOnly)) {
+                return false;
+            }
+            Consumer<String> listener = evictionListener;
+            if (listener != null) {
+                listener.accept(key);
+            }
+            return true;
+        } finally {
+            keyLock.unlock();
+        }
+    }
+
+    /**
+     * Samples every segment and merges the samples into the candidate pool.
+     */
+    private void fillPool(boolean volatileOnly) {
+        long now = clock.millis();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (Keyspace.Segment segment : keyspace.segments) {
+            segment.lock.lock();
+            try {
+                if (volatileOnly) {
+                    // expires holds the TTLs; the access metadata is on the value, in dict.
+                    segment.expires.sample(samples, random.nextInt(),
+                            (key, expiration) -> offer(key, score(segment.dict.get(key), expiration, now)));
+                } else {
+                    segment.dict.sample(samples, random.nextInt(),
+                            (key, value) -> offer(key, score(value, Long.MAX_VALUE, now)));
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Inserts a candidate into the pool, keeping it sorted and dropping the worst when full.
+     */
+    private void offer(String key, long score) {
+        for (int i = 0; i < poolSize; i++) {
+            if (poolKeys[i].equals(key)) {
+                return; // Already a candidate.
+            }
+        }
+        int position = 0;
+        while (position < poolSize && poolScores[position] < score) {
+            position++;
+        }
+        if (poolSize == EVICTION_POOL_SIZE) {
+            if (position == 0) {
+                return; // Worse than everything in a full pool.
+            }
+            // Drop the worst candidate (index 0) to make room.
+            System.arraycopy(poolKeys, 1, poolKeys, 0, position - 1);
+            System.arraycopy(poolScores, 1, poolScores, 0, position - 1);
+            position--;
+        } else {
+            System.arraycopy(poolKeys, position, poolKeys, position + 1, poolSize - position);
+            System.arraycopy(poolScores, position, poolScores, position + 1, poolSize - position);
+            poolSize++;
+        }
+        poolKeys[position] = key;
+        poolScores[position] = score;
+    }
+
+    /**
+     * @param expiration The key's expiration time, if it was sampled from expires.
+     * @return How good a candidate the object is; higher means evict first.
+     */
+    private long score(RedisStoreObject value, long expiration, long now) {
+        switch (policy) {
+            case VOLATILE_TTL:
+                return Long.MAX_VALUE - expiration; // Sooner expiry first.
+            case ALLKEYS_LFU:
+                return 255 - lfuDecrAndReturn(value, now);
+            default:
+                return estimateIdleSeconds(value, now);
+        }
+    }
+
+    // --- Access metadata (kept allocation-free: everything lives in RedisStoreObject.lru) ---
+
+    /**
+     * Updates an object's access metadata. Caller holds the object's segment lock.
+     * @param lfu true to maintain an LFU counter, false for an LRU timestamp.
+     */
+    static void touch(RedisStoreObject value, long now, boolean lfu) {
+        if (!lfu) {
+            value.lru = lruClock(now);
+            return;
+        }
+        int counter = lfuDecrAndReturn(value, now);
+        // Morris counter: the higher the count, the less likely another increment.
+        if (counter < 255) {
+            double baseValue = Math.max(0, counter - LFU_INIT_VAL);
+            double probability = 1.0 / (baseValue * LFU_LOG_FACTOR + 1);
+            if (ThreadLocalRandom.current().nextDouble() < probability) {
+                counter++;
+            }
+        }
+        value.lru = (lfuTimeInMinutes(now) << 8) | counter;
+    }
+
+    /**
+     * Initial metadata for a newly written object.
+     */
+    static void initialize(RedisStoreObject value, long now, boolean lfu) {
+        value.lru = lfu ? (lfuTimeInMinutes(now) << 8) | LFU_INIT_VAL : lruClock(now);
+    }
+
+    /**
+     * @return How long an object has gone unused: idle seconds in LRU mode, 255 minus the decayed
+     *         counter in LFU mode. Higher is colder.
+     */
+    static long coldness(RedisStoreObject value, long now, boolean lfu) {
+        return lfu ? 255 - lfuDecrAndReturn(value, now) : estimateIdleSeconds(value, now);
+    }
+
+    static int lruClock(long now) {
+        return (int) ((now / 1000) & LRU_CLOCK_MAX);
+    }
+
+    private static long estimateIdleSeconds(RedisStoreObject value, long now) {
+        int clockNow = lruClock(now);
+        int lastAccess = value.lru & LRU_CLOCK_MAX;
+        return clockNow >= lastAccess ? clockNow - lastAccess : (LRU_CLOCK_MAX - lastAccess) + clockNow;
+    }
+
+    /**
+     * @return The 16-bit "minutes" clock stored in the upper bits of LFU metadata.
+     */
+    private static int lfuTimeInMinutes(long now) {
+        return (int) ((now / 60000) & 0xFFFF);
+    }
+
+    /**
+     * Returns the LFU counter after applying one decrement per decay period of idleness.
+     */
+    private static int lfuDecrAndReturn(RedisStoreObject value, long now) {
+        int lastDecrement = (value.lru >>> 8) & 0xFFFF;
+        int counter = value.lru & 0xFF;
+        int nowMinutes = lfuTimeInMinutes(now);
+        int elapsed = nowMinutes >= lastDecrement ? nowMinutes - lastDecrement : 65535 - lastDecrement + nowMinutes;
+        int periods = elapsed / LFU_DECAY_MINUTES;
+        return periods > counter ? 0 : counter - periods;
+    }
+}
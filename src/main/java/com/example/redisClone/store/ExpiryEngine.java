@@ -0,0 +1,137 @@
+package com.example.redisClone.store;
+
+import java.util.ArrayList;
+
+
+/**
+ * Active expiration: removes keys whose TTL has passed even if nobody reads them.
+ *
+ * This follows Redis's activeExpireCycle. Each call walks the segments' expires dicts
+ * with a resumable cursor, checking a small batch of keys at a time. A segment is
+ * revisited while more than the acceptable share of its batch turned out to be expired,
+ * and the whole cycle stops as soon as its CPU budget (a share of the cron period) is used.
+ * All time comes from the injected Clock, so with a manual clock the cycle is deterministic.
+ */
+public class ExpiryEngine {
+    private final Keyspace keyspace;
+    private final Clock clock;
+    private int keysPerLoop;
+    private int acceptableStalePercent;
+    private int cpuPercent;
+    // The segment the next cycle starts with, so a cut-short cycle does not favour segment 0.
+    private int nextSegment;
+
+    // Metrics.
+    private long cycles;
+    private long cycleNanos;
+    private long sampledKeys;
+    private long expiredByCycle;
+    private int lastStalePercent;
+
+    /**
+     * @param keyspace The keyspace to expire keys from.
+     * @param clock The time source for TTL comparisons and CPU budgeting.
+     * @param effort 1..10, like Redis's active-expire-effort: more effort means bigger
+     *               batches, more CPU and fewer stale keys left in memory.
+     */
+    public ExpiryEngine(Keyspace keyspace, Clock clock, int effort) {
+        this.keyspace = keyspace;
+        this.clock = clock;
+        setEffort(effort);
+    }
+
+    public void setEffort(int effort) {
+        int extra = Math.max(1, Math.min(10, effort)) - 1;
+        keysPerLoop = 20 + 5 * extra;
+        acceptableStalePercent = 10 - extra;
+        cpuPercent = 25 + 2 * extra;
+    }
+
+    /**
+     * Runs one expiry cycle.
+     * @param periodMillis How often the cycle is called; the cycle uses cpuPercent of it at most.
+     * @return The number of keys removed.
+     */
+    public int runCycle(long periodMillis) {
+        long start = clock.nanos();
+        long deadline = start + periodMillis * 1_000_000L * cpuPercent / 100;
+        long now = clock.millis();
+        Keyspace.Segment[] segments = keyspace.segments;
+        ArrayList<String> expired = new ArrayList<>();
+        int removed = 0;
+        long sampledThisCycle = 0;
+        long expiredThisCycle = 0;
+
+        for (int i = 0; i < segments.length; i++) {
+            Keyspace.Segment segment = segments[(nextSegment + i) % segments.length];
+            boolean outOfTime = false;
+            while (true) {
+                int[] sampled = { 0 };
+                expired.clear();
+                segment.lock.lock();
+                try {
+                    if (segment.expires.size() == 0) {
+                        break;
+                    }
+                    // Visit buckets until a batch of keys has been checked or the scan wraps.
+                    int cursor = segment.expireCursor;
+                    int buckets = 0;
+                    do {
+                        cursor = segment.expires.scan(cursor, (key, expiration) -> {
+                            sampled[0]++;
+                            if (expiration < now) {
+                                expired.add(key);
+                            }
+                        });
+                        buckets++;
+                    } while (cursor != 0 && sampled[0] < keysPerLoop && buckets < keysPerLoop * 10);
+                    segment.expireCursor = cursor;
+                    for (String key : expired) {
+                        if (segment.expired(key, now)) {
+                            segment.delete(key);
+                            segment.expiredKeys++;
+                            removed++;
+                        }
+                    }
+                } finally {
+                    segment.lock.unlock();
+                }
+                sampledThisCycle += sampled[0];
+                expiredThisCycle += expired.size();
+                if (clock.nanos() >= deadline) {
+                    outOfTime = true;
+                    break;
+                }
+                // Keep working on this segment only while it is dense with expired keys.
+                if (sampled[0] == 0 || expired.size() * 100 <= sampled[0] * acceptableStalePercent) {
+                    break;
+                }
+            }
+            if (outOfTime) {
+                nextSegment = (nextSegment + i) % segments.length;
+                break;
+            }
+        }
+
+        cycles++;
+        cycleNanos += clock.nanos() - start;
+        sampledKeys += sampledThisCycle;
+        expiredByCycle += removed;
+        if (sampledThisCycle > 0) {
+            lastStalePercent = (int) (expiredThisCycle * 100 / sampledThisCycle);
+        }
+        return removed;
+    }
+
+    /**
+     * Formats the engine's metrics as INFO stats lines.
+     */
+    public String stats() {
+        return "expired_keys:" + keyspace.expiredKeys() + "\r\n"
+                + "expired_keys_active:" + expiredByCycle + "\r\n"
+                + "expired_stale_perc:" + lastStalePercent + "\r\n"
+                + "expire_cycle_count:" + cycles + "\r\n"
+                + "expire_cycle_sampled_keys:" + sampledKeys + "\r\n"
+                + "expire_cycle_cpu_milliseconds:" + cycleNanos / 1_000_000 + "\r\n";
+    }
+}
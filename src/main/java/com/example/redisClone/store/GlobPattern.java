@@ -0,0 +1,137 @@
+package com.example.redisClone.store;
+
+/**
+ * Glob-style matching of keys, with the syntax of Redis's stringmatchlen():
+ * '*' matches any run of characters, '?' any single character, "[abc]", "[a-z]" and "[^a]"
+ * match character classes, and '\' escapes the next character.
+ * Patterns and keys are Strings of one char per byte, like keys everywhere else.
+ */
+public final class GlobPattern {
+    private final String pattern;
+    // "*" alone matches everything; it is by far the most common pattern, so it skips the matcher.
+    private final boolean matchesAll;
+
+    public GlobPattern(String pattern) {
+        this.pattern = pattern;
+        this.matchesAll = pattern.equals("*");
+    }
+
+    public boolean matchesAll() {
+        return matchesAll;
+    }
+
+    public boolean matches(String key) {
+        return matchesAll || match(pattern, 0, key, 0, 0);
+    }
+
+    /**
+     * @return The characters before the first special one: every matching key starts with them.
+     */
+    public String literalPrefix() {
+        int i = 0;
+        while (i < pattern.length() && "*?[\\".indexOf(pattern.charAt(i)) < 0) {
+            i++;
+        }
+        return pattern.substring(0, i);
+    }
+
+    public String pattern() {
+        return pattern;
+    }
+
+    /**
+     * Matches pattern[p..] against string[s..]. Stars recurse, but never more than a fixed
+     * depth: like Redis, a pattern with very many stars simply fails to match instead of
+     * exhausting the stack.
+     */
+    private static boolean match(String pattern, int p, String string, int s, int depth) {
+        if (depth > 1000) {
+            return false;
+        }
+        int patternLength = pattern.length();
+        int stringLength = string.length();
+        while (p < patternLength && s < stringLength) {
+            char c = pattern.charAt(p);
+            switch (c) {
+                case '*' -> {
+                    while (p + 1 < patternLength && pattern.charAt(p + 1) == '*') {
+                        p++; // Consecutive stars are one star.
+                    }
+                    if (p + 1 == patternLength) {
+                        return true; // A trailing star matches the rest.
+                    }
+                    for (int i = s; i < stringLength; i++) {
+                        if (match(pattern, p + 1, string, i, depth + 1)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+                case '?' -> s++;
+                case '[' -> {
+                    p++;
+                    boolean not = p < patternLength && pattern.charAt(p) == '^';
+                    if (not) {
+                        p++;
+                    }
+                    boolean matched = false;
+                    char sc = string.charAt(s);
+                    while (p < patternLength) {
+                        char pc = pattern.charAt(p);
+                        if (pc == '\\' && p + 1 < patternLength) {
+                            p++;
+                            if (pattern.charAt(p) == sc) {
+                                matched = true;
+                            }
+                        } else if (pc == ']') {
+                            break;
+                        } else if (p + 2 < patternLength && pattern.charAt(p + 1) == '-') {
+                            char start = pc;
+                            char end = pattern.charAt(p + 2);
+                            if (start > end) {
+                                char swap = start;
+                                start = end;
+                                end = swap;
+                            }
+                            p += 2;
+                            if (sc >= start && sc <= end) {
+                                matched = true;
+                            }
+                        } else if (pc == sc) {
+                            matched = true;
+                        }
+                        p++;
+                    }
+                    if (p >= patternLength) {
+                        p--; // Unterminated class: the last character closes it, as in Redis.
+                    }
+                    if (matched == not) {
+                        return false;
+                    }
+                    s++;
+                }
+                case '\\' -> {
+                    if (p + 1 < patternLength) {
+                        p++;
+                    }
+                    if (pattern.charAt(p) != string.charAt(s)) {
+                        return false;
+                    }
+                    s++;
+                }
+                default -> {
+                    if (c != string.charAt(s)) {
+                        return false;
+                    }
+                    s++;
+                }
+            }
+            p++;
+        }
+        // The string is used up: what is left of the pattern may only be stars.
+        while (p < patternLength && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == patternLength && s == stringLength;
+    }
+}
@@ -0,0 +1,853 @@
+package com.example.redisClone.store;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.example.redisClone.RedisStoreObject;
+import com.example.redisClone.WrongTypeException;
+import com.example.redisClone.types.CollectionValue;
+import com.example.redisClone.types.EncodingLimits;
+
+/**
+ * The server's key/value store, split into independently locked segments.
+ * A key always lives in the segment picked by its hash, so single-key commands on
+ * different segments never contend, and each segment rehashes incrementally on its own.
+ */
+public class Keyspace {
+    public static final int DEFAULT_SEGMENTS = 16;
+    // Estimated size of a key's entry in expires: the Dict entry and the boxed expiration time.
+    static final long EXPIRES_ENTRY_SIZE = 32 + 16;
+
+    /**
+     * One shard of the keyspace: a Dict plus its lock and counters.
+     * The expiration times of keys with a TTL are kept in expires, and only there, so active
+     * expiry samples only keys that can actually expire and keys without a TTL carry no expiry
+     * field (the same split as Redis's dict/expires).
+     */
+    static final class Segment {
+        final ReentrantLock lock = new ReentrantLock();
+        final Dict<String, RedisStoreObject> dict = new Dict<>();
+        final Dict<String, Long> expires = new Dict<>();
+        // Where the active expiry cycle resumes its scan of expires.
+        int expireCursor;
+        long reads;
+        long writes;
+        long expiredKeys;
+        // A snapshot that has not copied this segment yet; the first write copies it (copy-on-write).
+        KeyspaceSnapshot pendingSnapshot;
+        // The keyspace whose memory counter, dirty counter and slab arena this segment uses.
+        private final Keyspace owner;
+
+        Segment(Keyspace owner) {
+            this.owner = owner;
+        }
+
+        /**
+         * Must be called before any change to the segment's contents. Caller holds the lock.
+         * If a snapshot is still waiting for this segment, it gets its copy now, before the change.
+         */
+        void beforeWrite() {
+            if (pendingSnapshot != null) {
+                pendingSnapshot.capture(this);
+            }
+            owner.dirty.increment();
+        }
+
+        /**
+         * @return The expiration time of a key as a Unix timestamp in milliseconds, or
+         *         Long.MAX_VALUE if it has no TTL. Caller holds the lock.
+         */
+        long expiration(String key) {
+            if (expires.size() == 0) {
+                return Long.MAX_VALUE; // No second lookup while no key has a TTL.
+            }
+            Long expiration = expires.get(key);
+            return expiration != null ? expiration : Long.MAX_VALUE;
+        }
+
+        /**
+         * @return true if the key has a TTL that has passed. Caller holds the lock.
+         */
+        boolean expired(String key, long now) {
+            return expiration(key) < now;
+        }
+
+        /**
+         * Sets or clears (with Long.MAX_VALUE) a key's TTL. Caller holds the lock.
+         */
+        void setExpiration(String key, long expiration) {
+            if (expiration != Long.MAX_VALUE) {
+                if (expires.put(key, expiration) == null) {
+                    owner.usedMemory.addAndGet(EXPIRES_ENTRY_SIZE);
+                }
+            } else if (expires.size() > 0 && expires.remove(key) != null) {
+                owner.usedMemory.addAndGet(-EXPIRES_ENTRY_SIZE);
+            }
+        }
+
+        /**
+         * Deletes a key from both dicts. Caller holds the lock.
+         */
+        RedisStoreObject delete(String key) {
+            if (dict.get(key) == null) {
+                return null;
+            }
+            beforeWrite();
+            RedisStoreObject removed = dict.remove(key);
+            setExpiration(key, Long.MAX_VALUE);
+            if (owner.slotIndex != null) {
+                owner.slotIndex.remove(key);
+            }
+            owner.usedMemory.addAndGet(-entrySize(key, removed));
+            release(removed);
+            owner.keyModified(key);
+            return removed;
+        }
+
+        /**
+         * Frees the off-heap or on-disk storage of a value that left the dict. Caller holds the lock.
+         */
+        void release(RedisStoreObject value) {
+            if (value.encoding == RedisStoreObject.ENCODING_OFFHEAP) {
+                owner.arena.free((ByteBuffer) value.data);
+            } else if (value.encoding == RedisStoreObject.ENCODING_TIERED) {
+                owner.tiered.release(value);
+            }
+        }
+
+        /**
+         * Swaps the object holding a key's value for another encoding of the same bytes, when
+         * tiered storage moves it between memory and disk. This is not a write: readers and
+         * snapshots holding either object read the same value. Caller holds the lock.
+         */
+        void replace(String key, RedisStoreObject old, RedisStoreObject replacement) {
+            dict.put(key, replacement); // The TTL, kept in expires, stays as it is.
+            owner.usedMemory.addAndGet(entrySize(key, replacement) - entrySize(key, old));
+            release(old);
+        }
+    }
+
+    final Segment[] segments;
+    private final int segmentShift;
+    // Estimated bytes held by all keys and values; checked against maxmemory on every write.
+    private final AtomicLong usedMemory = new AtomicLong();
+    // Storage for values of at least offHeapThreshold bytes; 0 keeps every value on the heap.
+    private final SlabArena arena = new SlabArena();
+    private volatile int offHeapThreshold;
+    // Moves cold values to disk and back; null unless tiered storage is enabled.
+    private TieredStorage tiered;
+    // Writes since the last successful save (Redis's server.dirty).
+    private final LongAdder dirty = new LongAdder();
+    // The snapshot being written, if any; slab slices must not be recycled while it may read them.
+    private volatile KeyspaceSnapshot activeSnapshot;
+    // Numbers the snapshots, so a collection can tell whether the active one references it.
+    private int snapshotSequence;
+    // When collections convert from listpacks to their large encodings.
+    private volatile EncodingLimits encodingLimits = new EncodingLimits();
+    // Keys by cluster hash slot; null unless cluster mode is enabled.
+    private SlotIndex slotIndex;
+    // Told about every key that is written, expired or evicted (client-side caching); null for nobody.
+    private volatile Consumer<String> modifiedKeyListener;
+    // Time source for access metadata.
+    public Clock clock = Clock.SYSTEM;
+    // true when maxmemory-policy is LFU based: access metadata holds a counter instead of a timestamp.
+    public volatile boolean lfu;
+
+    public Keyspace() {
+        this(DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * @param segmentCount The number of segments; rounded up to a power of two.
+     */
+    public Keyspace(int segmentCount) {
+        int count = 1;
+        while (count < segmentCount) {
+            count <<= 1;
+        }
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(this);
+        }
+        // Segments are picked with the top bits, so they are independent of the bucket bits Dict uses.
+        segmentShift = 32 - Integer.numberOfTrailingZeros(count);
+    }
+
+    /**
+     * Stores values of at least this many bytes off-heap in the SlabArena.
+     * @param threshold The size threshold in bytes, or 0 to keep all values on the heap.
+     */
+    public void setOffHeapThreshold(int threshold) {
+        this.offHeapThreshold = threshold;
+    }
+
+    /**
+     * Lets tiered storage move values out of memory. Must be called before any key is added.
+     */
+    public void enableTieredStorage(TieredStorage tiered) {
+        this.tiered = tiered;
+    }
+
+    /**
+     * Sets who is told about changed keys. The listener runs under the key's segment lock, on the
+     * thread that changed it, so it must be quick and must not call back into the keyspace.
+     */
+    public void setModifiedKeyListener(Consumer<String> listener) {
+        this.modifiedKeyListener = listener;
+    }
+
+    private void keyModified(String key) {
+        Consumer<String> listener = modifiedKeyListener;
+        if (listener != null) {
+            listener.accept(key);
+        }
+    }
+
+    /**
+     * Starts indexing keys by cluster hash slot. Must be called before any key is added.
+     */
+    public void enableSlotIndex() {
+        slotIndex = new SlotIndex();
+    }
+
+    /**
+     * @return The keys by hash slot, or null outside cluster mode.
+     */
+    public SlotIndex slotIndex() {
+        return slotIndex;
+    }
+
+    public int offHeapThreshold() {
+        return offHeapThreshold;
+    }
+
+    /**
+     * Sets the collection encoding thresholds; existing collections convert on their next write.
+     */
+    public void setEncodingLimits(EncodingLimits limits) {
+        this.encodingLimits = limits;
+    }
+
+    public EncodingLimits encodingLimits() {
+        return encodingLimits;
+    }
+
+    /**
+     * Builds a value in the most compact encoding for its bytes: INT for canonical integers,
+     * OFFHEAP above the threshold, RAW otherwise.
+     * @param value The value bytes; the array is kept (not copied) when RAW is chosen.
+     */
+    public RedisStoreObject createValue(byte[] value) {
+        int threshold = offHeapThreshold;
+        if (threshold > 0 && value.length >= threshold) {
+            return new RedisStoreObject(arena.store(value));
+        }
+        return RedisStoreObject.of(value);
+    }
+
+    /**
+     * The lock of the segment holding key. Keyspace methods take it themselves; callers take it
+     * to make a command and its propagation (AOF, replicas) one step, so both see writes to a
+     * key in the same order.
+     */
+    public Lock keyLock(String key) {
+        return segmentFor(key).lock;
+    }
+
+    Segment segmentFor(String key) {
+        if (segments.length == 1) {
+            return segments[0];
+        }
+        return segments[(Dict.spread(key.hashCode()) * 0x9E3779B9) >>> segmentShift];
+    }
+
+    /**
+     * Gets a live value, lazily deleting it if it has expired. A value spilled by tiered storage
+     * is faulted back into memory first.
+     * @param key The key to look up.
+     * @param now The current time in milliseconds.
+     * @return The value, or null if the key is absent or expired.
+     */
+    public RedisStoreObject get(String key, long now) {
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            segment.reads++;
+            RedisStoreObject value = segment.dict.get(key);
+            if (value != null && segment.expired(key, now)) {
+                segment.delete(key); // Remove the expired key.
+                segment.expiredKeys++;
+                return null;
+            }
+            if (value != null) {
+                Evictor.touch(value, now, lfu); // Updated in place: no allocation per access.
+                if (value.encoding == RedisStoreObject.ENCODING_TIERED) {
+                    value = tiered.promote(segment, key, value);
+                }
+            }
+            return value;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Inserts or replaces a key, with its TTL: replacing a key without one clears the old TTL, like SET.
+     * @param expiration The expiration time as a Unix timestamp in milliseconds, or Long.MAX_VALUE for none.
+     * @return The previous value, or null if the key was new.
+     */
+    public RedisStoreObject put(String key, RedisStoreObject value, long expiration) {
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            segment.writes++;
+            segment.beforeWrite();
+            Evictor.initialize(value, clock.millis(), lfu);
+            RedisStoreObject previous = segment.dict.put(key, value);
+            usedMemory.addAndGet(entrySize(key, value) - (previous != null ? entrySize(key, previous) : 0));
+            if (previous != null) {
+                segment.release(previous);
+            } else if (slotIndex != null) {
+                slotIndex.add(key);
+            }
+            segment.setExpiration(key, expiration);
+            keyModified(key);
+            return previous;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Atomically adds delta to an integer value (INCRBY), creating the key at 0 if it is missing.
+     * INT values are updated in place; a RAW value holding an integer is replaced by an INT one.
+     * The TTL is kept either way.
+     * @param key The key.
+     * @param delta The amount to add.
+     * @param now The current time in milliseconds.
+     * @return The new value.
+     * @throws NumberFormatException If the value is not an integer.
+     * @throws ArithmeticException If the result would overflow.
+     */
+    public long incrementBy(String key, long delta, long now) {
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            segment.writes++;
+            RedisStoreObject value = segment.dict.get(key);
+            if (value != null && segment.expired(key, now)) {
+                segment.delete(key); // Expired: INCR starts again from 0.
+                segment.expiredKeys++;
+                value = null;
+            }
+            long result = value == null ? delta : Math.addExact(value.longValue(), delta);
+            segment.beforeWrite();
+            if (value == null) {
+                value = new RedisStoreObject.Numbered(delta);
+                Evictor.initialize(value, now, lfu);
+                segment.dict.put(key, value);
+                usedMemory.addAndGet(entrySize(key, value));
+                if (slotIndex != null) {
+                    slotIndex.add(key);
+                }
+                keyModified(key);
+                return delta;
+            }
+            if (value.encoding != RedisStoreObject.ENCODING_INT) {
+                // Readers may hold the old object outside the segment lock, so it is swapped, not mutated.
+                RedisStoreObject converted = new RedisStoreObject.Numbered(result);
+                converted.lru = value.lru;
+                segment.dict.put(key, converted); // The TTL, kept in expires, stays.
+                usedMemory.addAndGet(entrySize(key, converted) - entrySize(key, value));
+                value = converted;
+            }
+            ((RedisStoreObject.Numbered) value).number = result;
+            Evictor.touch(value, now, lfu);
+            keyModified(key);
+            return result;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the collection of a live key (HGET, LRANGE...). Collections change in place, so the
+     * caller holds the key's lock for as long as it reads the result.
+     * @param type The expected RedisStoreObject.TYPE_*.
+     * @return The collection, or null if the key is absent or expired.
+     * @throws WrongTypeException If the key holds another type.
+     */
+    public CollectionValue getCollection(String key, byte type, long now) {
+        RedisStoreObject value = get(key, now);
+        if (value == null) {
+            return null;
+        }
+        if (value.type != type) {
+            throw new WrongTypeException();
+        }
+        return value.collection();
+    }
+
+    /**
+     * Changes a collection in place (HSET, LPUSH...), creating the key if it is missing, and
+     * deleting it if the change leaves the collection empty.
+     *
+     * A collection referenced by the snapshot being written is copied first, and the copy
+     * replaces it in the dict, so the snapshot keeps seeing the old contents.
+     * @param type The expected RedisStoreObject.TYPE_*.
+     * @param now The current time in milliseconds.
+     * @param create Makes an empty collection for a missing key, or null to leave a missing key alone.
+     * @param change Applies the command to the collection and returns its result.
+     * @return The result of change, or null if the key was missing and create is null.
+     * @throws WrongTypeException If the key holds another type.
+     */
+    public <T> T modify(String key, byte type, long now, Supplier<CollectionValue> create,
+            Function<CollectionValue, T> change) {
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            RedisStoreObject value = segment.dict.get(key);
+            if (value != null && segment.expired(key, now)) {
+                segment.delete(key);
+                segment.expiredKeys++;
+                value = null;
+            }
+            if (value != null && value.type != type) {
+                throw new WrongTypeException();
+            }
+            if (value == null && create == null) {
+                return null;
+            }
+            segment.writes++;
+            segment.beforeWrite();
+            if (value == null) {
+                value = new RedisStoreObject(type, create.get());
+                Evictor.initialize(value, now, lfu);
+                segment.dict.put(key, value);
+                usedMemory.addAndGet(entrySize(key, value));
+                if (slotIndex != null) {
+                    slotIndex.add(key);
+                }
+            } else {
+                KeyspaceSnapshot snapshot = activeSnapshot;
+                if (snapshot != null && value.collection().snapshotId == snapshot.id) {
+                    RedisStoreObject copy = new RedisStoreObject(type, value.collection().copy());
+                    copy.lru = value.lru;
+                    copy.collection().version = value.collection().version;
+                    segment.dict.put(key, copy);
+                    value = copy;
+                }
+            }
+            long sizeBefore = entrySize(key, value);
+            T result = change.apply(value.collection());
+            value.collection().version++;
+            Evictor.touch(value, now, lfu);
+            usedMemory.addAndGet(entrySize(key, value) - sizeBefore);
+            if (value.collection().size() == 0) {
+                segment.delete(key); // Also reports the key.
+            } else {
+                keyModified(key);
+            }
+            return result;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the absolute expiry of an existing key (PEXPIREAT).
+     * @param expiration The expiration time as a Unix timestamp in milliseconds.
+     * @return false if the key does not exist.
+     */
+    public boolean setExpiration(String key, long expiration, long now) {
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            RedisStoreObject value = segment.dict.get(key);
+            if (value != null && segment.expired(key, now)) {
+                segment.delete(key);
+                segment.expiredKeys++;
+                value = null;
+            }
+            if (value == null) {
+                return false;
+            }
+            segment.writes++;
+            segment.beforeWrite();
+            if (expiration < now) {
+                segment.delete(key); // Already in the past: the key is gone now, as in Redis.
+                return true;
+            }
+            segment.setExpiration(key, expiration);
+            keyModified(key);
+            return true;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * @return The expiration time of a key as a Unix timestamp in milliseconds, or Long.MAX_VALUE
+     *         if it has no TTL or does not exist.
+     */
+    public long expiration(String key) {
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            return segment.expiration(key);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a key.
+     * @return The removed value, or null if the key was absent.
+     */
+    public RedisStoreObject remove(String key) {
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            segment.writes++;
+            return segment.delete(key);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a key only if it still holds the given value, unchanged (INT values are updated
+     * in place, so their number is compared too). Used after a key was copied elsewhere (MIGRATE).
+     * @return true if the key was removed.
+     */
+    public boolean removeIfSame(String key, RedisStoreObject expected, long expectedNumber) {
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            RedisStoreObject value = segment.dict.get(key);
+            // Collections bump their number on every change, so it detects those too.
+            if (value != expected || value.number() != expectedNumber) {
+                return false;
+            }
+            segment.writes++;
+            segment.delete(key);
+            return true;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes a key chosen by the Evictor, if it is still eligible.
+     * @param key The candidate key.
+     * @param volatileOnly true if only keys with a TTL may be evicted.
+     * @return true if the key was deleted.
+     */
+    boolean evict(String key, boolean volatileOnly) {
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            RedisStoreObject value = segment.dict.get(key);
+            if (value == null || (volatileOnly && segment.expiration(key) == Long.MAX_VALUE)) {
+                return false;
+            }
+            segment.delete(key);
+            return true;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * @return The estimated memory used by keys and values, in bytes.
+     */
+    public long usedMemory() {
+        return usedMemory.get();
+    }
+
+    /**
+     * Deletes every key (a replica does this before loading the master's dataset).
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                List<String> keys = new ArrayList<>(segment.dict.size());
+                segment.dict.forEach((key, value) -> keys.add(key));
+                for (String key : keys) {
+                    segment.delete(key);
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Makes the off-heap slices of deleted values reusable.
+     * The caller must hold the execution write lock, so no command is still copying one of them.
+     */
+    public void reclaimOffHeap() {
+        if (activeSnapshot == null) {
+            arena.reclaim();
+        }
+    }
+
+    /**
+     * Starts a point-in-time snapshot. No data is copied here: each segment is copied later,
+     * either by the snapshot's reader or by the first write to it, whichever comes first.
+     * The caller must hold the execution write lock, so that no write can slip in while
+     * the segments are being marked.
+     * @return The snapshot; call KeyspaceSnapshot.release() when done with it.
+     */
+    public KeyspaceSnapshot beginSnapshot() {
+        KeyspaceSnapshot snapshot = new KeyspaceSnapshot(this, ++snapshotSequence, segments.length, size(),
+                expiresSize(), dirty.sum());
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                segment.pendingSnapshot = snapshot;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        activeSnapshot = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * @return true while a snapshot (BGSAVE or AOF rewrite) is being written; only one runs at a time.
+     */
+    public boolean snapshotActive() {
+        return activeSnapshot != null;
+    }
+
+    /**
+     * Called by KeyspaceSnapshot.release(): drops any copies not taken yet.
+     */
+    void endSnapshot(KeyspaceSnapshot snapshot) {
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                if (segment.pendingSnapshot == snapshot) {
+                    segment.pendingSnapshot = null;
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        activeSnapshot = null;
+    }
+
+    /**
+     * @return The number of writes since the last successful save.
+     */
+    public long dirty() {
+        return dirty.sum();
+    }
+
+    /**
+     * Forgets the writes a successful save has made durable.
+     * @param saved The dirty count when the saved snapshot began.
+     */
+    public void clearDirty(long saved) {
+        dirty.add(-saved);
+    }
+
+    /**
+     * @return Off-heap bytes used by live values, rounded up to slab size classes.
+     */
+    public long offHeapUsed() {
+        return arena.usedBytes();
+    }
+
+    /**
+     * @return Off-heap bytes reserved from the OS by the slab arena.
+     */
+    public long offHeapReserved() {
+        return arena.reservedBytes();
+    }
+
+    /**
+     * Estimates the footprint of one key/value pair: the dict entry, the key String,
+     * the RedisStoreObject and its encoded data. An expires entry, for a key with a TTL, is
+     * counted separately (EXPIRES_ENTRY_SIZE).
+     * Compact Latin-1 Strings take one byte per character. INT values need no data at all;
+     * OFFHEAP values count their slab slice, so maxmemory also bounds off-heap memory.
+     * TIERED values count only their view object: the bytes are in a segment file.
+     * Collections report their own estimate, which they keep up to date as they change.
+     */
+    static long entrySize(String key, RedisStoreObject value) {
+        long size = 32 + 40 + key.length() + (value instanceof RedisStoreObject.Numbered ? 32 : 24);
+        switch (value.encoding) {
+            case RedisStoreObject.ENCODING_RAW -> size += 16 + ((byte[]) value.data).length;
+            case RedisStoreObject.ENCODING_OFFHEAP -> size += 64 + ((ByteBuffer) value.data).capacity();
+            case RedisStoreObject.ENCODING_TIERED -> size += 64;
+            case RedisStoreObject.ENCODING_COLLECTION -> size += 48 + value.collection().memoryUsage();
+            default -> {
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The number of keys, including expired keys not yet removed.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.dict.size();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The number of keys that have a TTL.
+     */
+    public int expiresSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.expires.size();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The total number of keys removed because their TTL passed (lazily or actively).
+     */
+    public long expiredKeys() {
+        long expired = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                expired += segment.expiredKeys;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * One step of SCAN over all segments. The cursor holds the segment index in its low bits
+     * and the segment's own reverse-binary Dict cursor above them, so it stays valid while
+     * segments grow, shrink or rehash between calls. Only one segment is locked at a time.
+     * @param cursor 0 to start, or the value returned by the previous call.
+     * @param count Roughly how many keys to visit; at most ten times as many buckets are
+     *              walked, so a sparse keyspace still returns promptly.
+     * @param now The current time in milliseconds; expired keys are skipped.
+     * @param action Called with each live key and its value. It must not modify the keyspace.
+     * @return The next cursor, or 0 once every segment has been scanned.
+     */
+    public long scan(long cursor, int count, long now, BiConsumer<String, RedisStoreObject> action) {
+        int segmentBits = Integer.numberOfTrailingZeros(segments.length);
+        int index = (int) (cursor & (segments.length - 1));
+        int dictCursor = (int) (cursor >>> segmentBits);
+        int[] visited = { 0 };
+        int buckets = 0;
+        int maxBuckets = Math.max(count, 1) * 10;
+        while (index < segments.length && visited[0] < count && buckets < maxBuckets) {
+            Segment segment = segments[index];
+            segment.lock.lock();
+            try {
+                do {
+                    dictCursor = segment.dict.scan(dictCursor, (key, value) -> {
+                        if (!segment.expired(key, now)) {
+                            action.accept(key, value);
+                            visited[0]++;
+                        }
+                    });
+                    buckets++;
+                } while (dictCursor != 0 && visited[0] < count && buckets < maxBuckets);
+            } finally {
+                segment.lock.unlock();
+            }
+            if (dictCursor == 0) {
+                index++; // This segment is done: the next one starts at its cursor 0.
+            }
+        }
+        if (index == segments.length) {
+            return 0;
+        }
+        return ((dictCursor & 0xFFFFFFFFL) << segmentBits) | index;
+    }
+
+    /**
+     * @return The number of dict shrinks so far, over all segments. A scan that spans a shrink
+     *         may have reported some keys twice.
+     */
+    public long shrinks() {
+        long shrinks = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                shrinks += segment.dict.shrinks();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return shrinks;
+    }
+
+    /**
+     * Spends a little idle time finishing incremental rehashes, like Redis's activerehashing.
+     * Segments that are busy are skipped rather than waited for.
+     * @param stepsPerSegment The maximum number of buckets to move in each segment.
+     */
+    public void rehashIdle(int stepsPerSegment) {
+        for (Segment segment : segments) {
+            if (segment.lock.tryLock()) {
+                try {
+                    segment.dict.rehashSteps(stepsPerSegment);
+                    segment.expires.rehashSteps(stepsPerSegment);
+                } finally {
+                    segment.lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Formats per-segment statistics, one line per segment, for INFO keyspace.
+     */
+    public String segmentStats() {
+        StringBuilder stats = new StringBuilder();
+        for (int i = 0; i < segments.length; i++) {
+            Segment segment = segments[i];
+            segment.lock.lock();
+            try {
+                stats.append("segment").append(i)
+                        .append(":keys=").append(segment.dict.size())
+                        .append(",expires=").append(segment.expires.size())
+                        .append(",buckets=").append(segment.dict.bucketCount())
+                        .append(",rehashing=").append(segment.dict.isRehashing() ? 1 : 0)
+                        .append(",rehashed_buckets=").append(segment.dict.rehashedBuckets())
+                        .append(",reads=").append(segment.reads)
+                        .append(",writes=").append(segment.writes)
+                        .append("\r\n");
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return stats.toString();
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.redisClone.store;
+
+import com.example.redisClone.RedisStoreObject;
+import com.example.redisClone.types.CollectionValue;
+
+/**
+ * A point-in-time view of the keyspace, for writing an RDB file while commands keep running.
+ *
+ * A JVM cannot fork, so this takes the place of the child's copy-on-write pages, at segment
+ * granularity: starting a snapshot only marks the segments, and each segment is copied exactly
+ * once, either when the snapshot reader asks for it or just before the first write that would
+ * change it. A copy is shallow (keys and value references), which is enough because values are
+ * replaced rather than modified, except for INT numbers (copied by value), off-heap slices
+ * (not recycled while a snapshot is active, see Keyspace.reclaimOffHeap) and collections,
+ * which are stamped with the snapshot's id and copied by Keyspace.modify before a change.
+ */
+public class KeyspaceSnapshot {
+    /**
+     * The contents of one segment at snapshot time.
+     */
+    public static final class Image {
+        public final String[] keys;
+        public final RedisStoreObject[] values;
+        // INT values can be incremented in place, so their number is copied.
+        public final long[] numbers;
+        public final long[] expirations;
+        public int size;
+
+        Image(int capacity) {
+            keys = new String[capacity];
+            values = new RedisStoreObject[capacity];
+            numbers = new long[capacity];
+            expirations = new long[capacity];
+        }
+    }
+
+    private final Keyspace keyspace;
+    private final Image[] images;
+    // Distinguishes this snapshot from earlier ones in CollectionValue.snapshotId.
+    final int id;
+    // Key counts and dirty counter when the snapshot began, for RESIZEDB and for clearing dirty.
+    public final int keys;
+    public final int expires;
+    public final long dirtyAtStart;
+    // Segments that writers had to copy before changing them.
+    private int copiedOnWrite;
+
+    KeyspaceSnapshot(Keyspace keyspace, int id, int segmentCount, int keys, int expires, long dirtyAtStart) {
+        this.keyspace = keyspace;
+        this.id = id;
+        this.images = new Image[segmentCount];
+        this.keys = keys;
+        this.expires = expires;
+        this.dirtyAtStart = dirtyAtStart;
+    }
+
+    public int segmentCount() {
+        return images.length;
+    }
+
+    /**
+     * Returns the image of segment i, copying the segment now if no writer has done it yet.
+     * The snapshot lets go of the image, so it can be collected once it has been written out.
+     */
+    public Image take(int i) {
+        Keyspace.Segment segment = keyspace.segments[i];
+        segment.lock.lock();
+        try {
+            if (segment.pendingSnapshot == this) {
+                Image image = copy(segment, id);
+                segment.pendingSnapshot = null;
+                synchronized (this) {
+                    images[i] = image;
+                }
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+        synchronized (this) {
+            Image image = images[i];
+            images[i] = null;
+            return image;
+        }
+    }
+
+    /**
+     * Ends the snapshot; segments not taken are no longer copied on write.
+     */
+    public void release() {
+        keyspace.endSnapshot(this);
+    }
+
+    /**
+     * @return How many segments were copied by a write rather than by the reader.
+     */
+    public synchronized int copiedOnWrite() {
+        return copiedOnWrite;
+    }
+
+    /**
+     * Copies a segment before a write changes it. Caller holds the segment lock.
+     */
+    void capture(Keyspace.Segment segment) {
+        Image image = copy(segment, id);
+        segment.pendingSnapshot = null;
+        synchronized (this) {
+            for (int i = 0; i < images.length; i++) {
+                if (keyspace.segments[i] == segment) {
+                    images[i] = image;
+                }
+            }
+            copiedOnWrite++;
+        }
+    }
+
+    private static Image copy(Keyspace.Segment segment, int id) {
+        Image image = new Image(segment.dict.size());
+        segment.dict.forEach((key, value) -> {
+            int n = image.size++;
+            image.keys[n] = key;
+            image.values[n] = value;
+            image.numbers[n] = value.number();
+            image.expirations[n] = segment.expiration(key);
+            if (value.encoding == RedisStoreObject.ENCODING_COLLECTION) {
+                ((CollectionValue) value.data).snapshotId = id;
+            }
+        });
+        return image;
+    }
+}
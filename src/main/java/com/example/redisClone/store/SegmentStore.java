@@ -0,0 +1,217 @@
+package com.example.redisClone.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+/**
+ * The cold tier of tiered storage: values moved out of memory, kept in append-only,
+ * memory-mapped segment files ("segment-<id>.dat" in the tiered directory).
+ *
+ * Each value is one record, [key length][value length][key][value] with 4-byte lengths, and is
+ * addressed by its location: the segment id in the high 32 bits, the record offset in the low 32.
+ * Records are never changed in place; a value that is overwritten, deleted or faulted back into
+ * memory leaves a dead record behind, counted as garbage, and compaction copies the live records
+ * of a mostly-dead segment to the active one and deletes the old file.
+ *
+ * Readers get read-only slices of the mapping, which stay valid after their segment is compacted:
+ * Linux keeps a deleted file's pages until the last mapping of it is garbage collected, so a
+ * command (or a snapshot) still reading an old slice never sees its bytes disappear.
+ *
+ * The files only back values that are also described in the keyspace; they are not a
+ * persistence format and are deleted when the store opens.
+ */
+public class SegmentStore {
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * One segment file and its mapping.
+     */
+    static final class Segment {
+        final int id;
+        final File file;
+        final MappedByteBuffer buffer;
+        // Where the next record goes; once the segment is sealed, the end of its records.
+        int writeOffset;
+        // Bytes of records still referenced by the keyspace, and how many records that is.
+        long liveBytes;
+        long liveRecords;
+
+        Segment(int id, File file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    // Every segment by id. Guarded by this, like the rest of the mutable state.
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    // The segment appends go to.
+    private Segment active;
+    private int nextId;
+    private long compactions;
+
+    /**
+     * Opens the store, deleting segment files left over from an earlier run.
+     * @param directory Where the segment files live; created if missing.
+     * @param segmentSize The size of each segment file, in bytes (at most 2GB).
+     * @throws IOException If the directory cannot be created.
+     */
+    public SegmentStore(File directory, long segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = (int) Math.min(segmentSize, Integer.MAX_VALUE);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        File[] stale = directory.listFiles((dir, name) -> name.startsWith("segment-") && name.endsWith(".dat"));
+        if (stale != null) {
+            for (File file : stale) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Appends a record to the active segment, starting a new segment when it is full.
+     * @param key The key, stored so compaction can find the entry that owns the record.
+     * @param value The value bytes, from position to limit; the buffer itself is not changed.
+     * @return The record's location, or -1 if the value can never fit in a segment.
+     * @throws IOException If a new segment file cannot be created.
+     */
+    public synchronized long append(String key, ByteBuffer value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.ISO_8859_1);
+        int length = value.remaining();
+        long recordSize = (long) HEADER_SIZE + keyBytes.length + length;
+        if (recordSize > segmentSize) {
+            return -1;
+        }
+        if (active == null || segmentSize - active.writeOffset < recordSize) {
+            active = openSegment();
+        }
+        int offset = active.writeOffset;
+        MappedByteBuffer buffer = active.buffer;
+        buffer.putInt(offset, keyBytes.length);
+        buffer.putInt(offset + 4, length);
+        buffer.put(offset + HEADER_SIZE, keyBytes);
+        buffer.put(offset + HEADER_SIZE + keyBytes.length, value, value.position(), length);
+        active.writeOffset += (int) recordSize;
+        active.liveBytes += recordSize;
+        active.liveRecords++;
+        return ((long) active.id << 32) | offset;
+    }
+
+    private Segment openSegment() throws IOException {
+        int id = nextId++;
+        File file = new File(directory, "segment-" + id + ".dat");
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping outlives the channel; the file grows (sparsely) to the full segment size.
+            Segment segment = new Segment(id, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+            segments.put(id, segment);
+            return segment;
+        }
+    }
+
+    /**
+     * @param location A location returned by append() whose record is still live.
+     * @return A read-only buffer holding exactly the record's value (position 0, limit = length).
+     */
+    public synchronized ByteBuffer view(long location) {
+        Segment segment = segments.get((int) (location >>> 32));
+        int offset = (int) location;
+        int valueOffset = offset + HEADER_SIZE + segment.buffer.getInt(offset);
+        return segment.buffer.slice(valueOffset, segment.buffer.getInt(offset + 4)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Marks a record dead: its value left the cold tier.
+     */
+    public synchronized void free(long location) {
+        Segment segment = segments.get((int) (location >>> 32));
+        if (segment == null) {
+            return; // Already compacted away.
+        }
+        int offset = (int) location;
+        segment.liveBytes -= HEADER_SIZE + segment.buffer.getInt(offset) + segment.buffer.getInt(offset + 4);
+        segment.liveRecords--;
+    }
+
+    /**
+     * Picks the sealed segment with the most garbage, if it has enough to be worth compacting.
+     * @param garbagePercent The share of a segment's written bytes that must be dead.
+     * @return The segment, or null if none qualifies.
+     */
+    synchronized Segment compactionCandidate(int garbagePercent) {
+        Segment best = null;
+        long bestGarbage = 0;
+        for (Segment segment : segments.values()) {
+            long garbage = segment.writeOffset - segment.liveBytes;
+            if (segment != active && garbage * 100 >= (long) segment.writeOffset * garbagePercent
+                    && garbage >= bestGarbage) {
+                best = segment;
+                bestGarbage = garbage;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Calls action with the key and location of every record of a sealed segment, dead or alive.
+     * Sealed segments never change, so this runs without the store's lock, and the action may append.
+     */
+    void forEachRecord(Segment segment, BiConsumer<String, Long> action) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int end;
+        synchronized (this) {
+            end = segment.writeOffset;
+        }
+        byte[] keyBytes = new byte[64];
+        for (int offset = 0; offset < end;) {
+            int keyLength = buffer.getInt(offset);
+            int valueLength = buffer.getInt(offset + 4);
+            if (keyBytes.length < keyLength) {
+                keyBytes = new byte[keyLength];
+            }
+            buffer.get(offset + HEADER_SIZE, keyBytes, 0, keyLength);
+            action.accept(new String(keyBytes, 0, keyLength, StandardCharsets.ISO_8859_1),
+                    ((long) segment.id << 32) | offset);
+            offset += HEADER_SIZE + keyLength + valueLength;
+        }
+    }
+
+    /**
+     * Deletes a compacted segment, whose live records have all been moved elsewhere.
+     */
+    synchronized void remove(Segment segment) {
+        segments.remove(segment.id);
+        segment.file.delete(); // Its disk space is released when the last slice of it is collected.
+        compactions++;
+    }
+
+    /**
+     * @return The fields of INFO memory kept here.
+     */
+    public synchronized String info() {
+        long written = 0;
+        long live = 0;
+        long records = 0;
+        for (Segment segment : segments.values()) {
+            written += segment.writeOffset;
+            live += segment.liveBytes;
+            records += segment.liveRecords;
+        }
+        return "tiered_segments:" + segments.size() + "\r\n"
+                + "tiered_disk_bytes:" + written + "\r\n"
+                + "tiered_live_bytes:" + live + "\r\n"
+                + "tiered_values:" + records + "\r\n"
+                + "tiered_compactions:" + compactions + "\r\n";
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.redisClone.store;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Off-heap storage for large values, so big strings stay out of the garbage-collected heap.
+ *
+ * Memory is taken from the OS in 1MB direct slabs and carved into power-of-two size classes
+ * (64B up to 512KB), like a simple slab allocator; freed slices go to a per-class free list.
+ * Values larger than half a slab get a dedicated direct buffer.
+ *
+ * Freed slices are not reused immediately: a command on another reactor may still be copying
+ * the old value into its reply. They are retired first, and reclaim() makes them reusable once
+ * no command can be running (the caller holds the execution write lock).
+ */
+public class SlabArena {
+    public static final int SLAB_SIZE = 1024 * 1024;
+    private static final int MIN_CLASS_SHIFT = 6; // 64 bytes.
+    private static final int MAX_CLASS_SHIFT = 19; // 512KB, half a slab.
+
+    private final ArrayDeque<ByteBuffer>[] freeLists;
+    private final List<ByteBuffer> retired = new ArrayList<>();
+    // The slab currently being carved, and where its unused space starts.
+    private ByteBuffer slab;
+    private int slabOffset;
+    private int slabCount;
+    private long dedicatedBytes;
+    private long usedBytes;
+
+    public SlabArena() {
+        // Java cannot create an array of ArrayDeque<ByteBuffer>: cast an ArrayDeque<?> array, the one unchecked cast.
+        @SuppressWarnings("unchecked")
+        ArrayDeque<ByteBuffer>[] lists = (ArrayDeque<ByteBuffer>[]) new ArrayDeque<?>[MAX_CLASS_SHIFT + 1];
+        freeLists = lists;
+        for (int i = MIN_CLASS_SHIFT; i <= MAX_CLASS_SHIFT; i++) {
+            freeLists[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Allocates space for a value and copies it in.
+     * @param value The value bytes.
+     * @return A direct buffer with position 0 and limit = value.length.
+     */
+    public synchronized ByteBuffer store(byte[] value) {
+        ByteBuffer buffer = allocate(value.length);
+        buffer.put(value);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Retires a buffer returned by store(); it becomes reusable after the next reclaim().
+     */
+    public synchronized void free(ByteBuffer buffer) {
+        usedBytes -= buffer.capacity();
+        if (buffer.capacity() > (1 << MAX_CLASS_SHIFT)) {
+            dedicatedBytes -= buffer.capacity(); // Released by the GC once unreachable.
+            return;
+        }
+        retired.add(buffer);
+    }
+
+    /**
+     * Moves retired slices to the free lists. Only call while no command can be reading values.
+     */
+    public synchronized void reclaim() {
+        for (ByteBuffer buffer : retired) {
+            buffer.clear();
+            freeLists[Integer.numberOfTrailingZeros(buffer.capacity())].push(buffer);
+        }
+        retired.clear();
+    }
+
+    /**
+     * @return Bytes handed out for live values, rounded up to their size classes.
+     */
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return Bytes reserved from the OS: all slabs plus dedicated buffers.
+     */
+    public synchronized long reservedBytes() {
+        return (long) slabCount * SLAB_SIZE + dedicatedBytes;
+    }
+
+    /**
+     * @return The capacity used for a value of this length (its size class).
+     */
+    static int sizeClass(int length) {
+        if (length > (1 << MAX_CLASS_SHIFT)) {
+            return length;
+        }
+        int shift = Math.max(MIN_CLASS_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(length - 1, 1)));
+        return 1 << shift;
+    }
+
+    private ByteBuffer allocate(int length) {
+        int capacity = sizeClass(length);
+        ByteBuffer buffer;
+        if (capacity > (1 << MAX_CLASS_SHIFT)) {
+            buffer = ByteBuffer.allocateDirect(capacity);
+            dedicatedBytes += capacity;
+        } else {
+            buffer = freeLists[Integer.numberOfTrailingZeros(capacity)].poll();
+            if (buffer == null) {
+                if (slab == null || SLAB_SIZE - slabOffset < capacity) {
+                    retireSlabTail();
+                    slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+                    slabOffset = 0;
+                    slabCount++;
+                }
+                buffer = slab.duplicate().position(slabOffset).limit(slabOffset + capacity).slice();
+                slabOffset += capacity;
+            }
+        }
+        usedBytes += capacity;
+        buffer.limit(length);
+        return buffer;
+    }
+
+    /**
+     * Cuts the unused end of the current slab into the largest size classes that fit
+     * and puts them on the free lists, so switching to a new slab wastes nothing.
+     */
+    private void retireSlabTail() {
+        if (slab == null) {
+            return;
+        }
+        while (SLAB_SIZE - slabOffset >= (1 << MIN_CLASS_SHIFT)) {
+            int piece = Math.min(Integer.highestOneBit(SLAB_SIZE - slabOffset), 1 << MAX_CLASS_SHIFT);
+            freeLists[Integer.numberOfTrailingZeros(piece)].push(
+                    slab.duplicate().position(slabOffset).limit(slabOffset + piece).slice());
+            slabOffset += piece;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.redisClone.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.example.redisClone.cluster.HashSlot;
+
+/**
+ * The keys of each cluster hash slot, for CLUSTER COUNTKEYSINSLOT / GETKEYSINSLOT and slot
+ * migration. Only kept in cluster mode. Keys of one slot live in many keyspace segments, so the
+ * per-slot sets are concurrent rather than guarded by a segment lock.
+ */
+public class SlotIndex {
+    private final Set<String>[] slots;
+
+    public SlotIndex() {
+        // Java cannot create an array of Set<String>: cast a Set<?> array, the one unchecked cast.
+        @SuppressWarnings("unchecked")
+        Set<String>[] sets = (Set<String>[]) new Set<?>[HashSlot.SLOTS];
+        slots = sets;
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = ConcurrentHashMap.newKeySet(); // Allocates its table on the first key only.
+        }
+    }
+
+    void add(String key) {
+        slots[HashSlot.of(key)].add(key);
+    }
+
+    void remove(String key) {
+        slots[HashSlot.of(key)].remove(key);
+    }
+
+    public int count(int slot) {
+        return slots[slot].size();
+    }
+
+    /**
+     * @return Up to count keys of the slot.
+     */
+    public List<String> keys(int slot, int count) {
+        List<String> keys = new ArrayList<>(Math.min(count, slots[slot].size()));
+        for (String key : slots[slot]) {
+            if (keys.size() == count) {
+                break;
+            }
+            keys.add(key);
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.redisClone.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.example.redisClone.Log;
+import com.example.redisClone.RedisStoreObject;
+
+/**
+ * Tiered storage: keeps the keyspace's memory under a hot-tier budget by moving cold string
+ * values to a SegmentStore on disk. Keys, TTLs and access metadata always stay in the dict;
+ * only the value bytes move, and the entry is swapped for a TIERED object that reads them
+ * through the segment file's mapping.
+ *
+ * A background thread does the moving. While used memory is over the budget it samples each
+ * segment, like the Evictor, and spills the coldest string it sampled (by LRU idle time or LFU
+ * counter, the larger value first among equally cold ones) of at least the minimum size.
+ * When a command reads a spilled value through Keyspace.get, the value is faulted back into
+ * memory; the next spill pass makes room by pushing out something colder. The same thread
+ * compacts segments whose records are mostly dead.
+ *
+ * Moving a value between tiers is not a write: the dirty counter, AOF and replicas are not
+ * involved, and a snapshot sees the same bytes whichever object it copies.
+ */
+public class TieredStorage implements Runnable {
+    // Keys sampled per segment for each spill, and how often the thread looks for work when idle.
+    private static final int SAMPLES = 16;
+    private static final long PERIOD_MS = 100;
+
+    private final Keyspace keyspace;
+    private final SegmentStore store;
+    private final Clock clock;
+    private final long hotBudget;
+    private final int minValueSize;
+    private final int compactPercent;
+
+    // The best spill candidate of the current sample; only used by the tiering thread.
+    private String candidateKey;
+    private RedisStoreObject candidate;
+    private long candidateScore;
+    // Set when a move during compaction failed, so the segment is kept.
+    private IOException moveError;
+
+    // Written by the tiering thread only.
+    private volatile long spills;
+    private volatile long movedRecords;
+    // Counted by every reactor.
+    private final LongAdder promotions = new LongAdder();
+
+    /**
+     * @param keyspace The keyspace whose values are tiered.
+     * @param store Where spilled values go.
+     * @param clock The time source for access metadata.
+     * @param hotBudget The used memory, in bytes, above which values are spilled.
+     * @param minValueSize Values smaller than this many bytes always stay in memory.
+     * @param compactPercent A sealed segment is compacted once this share of its bytes is dead.
+     */
+    public TieredStorage(Keyspace keyspace, SegmentStore store, Clock clock, long hotBudget, int minValueSize,
+            int compactPercent) {
+        this.keyspace = keyspace;
+        this.store = store;
+        this.clock = clock;
+        this.hotBudget = hotBudget;
+        this.minValueSize = Math.max(1, minValueSize);
+        this.compactPercent = Math.max(1, Math.min(100, compactPercent));
+    }
+
+    /**
+     * The tiering thread: spills while over budget, compacts, and sleeps when there is nothing to do.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                boolean behind = spill();
+                compact();
+                if (!behind) {
+                    Thread.sleep(PERIOD_MS);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                Log.info("Tiered storage: " + e.getMessage());
+                try {
+                    Thread.sleep(PERIOD_MS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Spills values, one per segment per round, until used memory is under the budget, nothing
+     * more can be spilled, or half a period has passed (so compaction gets its turn).
+     * @return true if memory is still over the budget and spilling should continue right away.
+     */
+    boolean spill() throws IOException {
+        long deadline = clock.nanos() + PERIOD_MS * 1_000_000L / 2;
+        while (keyspace.usedMemory() > hotBudget) {
+            boolean spilled = false;
+            for (Keyspace.Segment segment : keyspace.segments) {
+                if (keyspace.usedMemory() <= hotBudget) {
+                    return false;
+                }
+                spilled |= spillColdest(segment);
+            }
+            if (!spilled) {
+                return false; // Every sampled value is small, or already spilled.
+            }
+            if (clock.nanos() > deadline) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Samples a segment and moves the coldest eligible value to the store.
+     * @return true if a value was spilled.
+     */
+    private boolean spillColdest(Keyspace.Segment segment) throws IOException {
+        long now = clock.millis();
+        boolean lfu = keyspace.lfu;
+        segment.lock.lock();
+        try {
+            candidateScore = -1;
+            segment.dict.sample(SAMPLES, ThreadLocalRandom.current().nextInt(), (key, value) -> {
+                if (value.encoding != RedisStoreObject.ENCODING_RAW
+                        && value.encoding != RedisStoreObject.ENCODING_OFFHEAP) {
+                    return; // INT values are smaller than any record, collections are not tiered.
+                }
+                int length = value.length();
+                if (length < minValueSize) {
+                    return;
+                }
+                long score = (Evictor.coldness(value, now, lfu) << 32) | length;
+                if (score > candidateScore) {
+                    candidateKey = key;
+                    candidate = value;
+                    candidateScore = score;
+                }
+            });
+            if (candidate == null) {
+                return false;
+            }
+            ByteBuffer data = candidate.encoding == RedisStoreObject.ENCODING_OFFHEAP ? (ByteBuffer) candidate.data
+                    : ByteBuffer.wrap((byte[]) candidate.data);
+            long location = store.append(candidateKey, data);
+            if (location < 0) {
+                return false; // Larger than a segment: it stays in memory.
+            }
+            RedisStoreObject spilled = new RedisStoreObject.Numbered(store.view(location), location);
+            spilled.lru = candidate.lru;
+            segment.replace(candidateKey, candidate, spilled);
+            spills++;
+            return true;
+        } finally {
+            candidateKey = null;
+            candidate = null;
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Brings a spilled value back into memory, because a command is reading it.
+     * Caller holds the segment lock.
+     * @return The in-memory object that now holds the value.
+     */
+    RedisStoreObject promote(Keyspace.Segment segment, String key, RedisStoreObject value) {
+        RedisStoreObject hot = keyspace.createValue(value.bytes());
+        hot.lru = value.lru;
+        segment.replace(key, value, hot);
+        promotions.increment();
+        return hot;
+    }
+
+    /**
+     * Marks the record of a TIERED value that left the keyspace (or the cold tier) dead.
+     */
+    void release(RedisStoreObject value) {
+        store.free(value.number());
+    }
+
+    /**
+     * Compacts the segment with the most garbage, if one is over the threshold: its live records
+     * are appended to the active segment, their entries are pointed at the copies, and the file
+     * is deleted.
+     */
+    void compact() throws IOException {
+        SegmentStore.Segment victim = store.compactionCandidate(compactPercent);
+        if (victim == null) {
+            return;
+        }
+        moveError = null;
+        store.forEachRecord(victim, this::move);
+        if (moveError != null) {
+            throw moveError; // Some records are still live in the segment: keep it.
+        }
+        store.remove(victim);
+    }
+
+    /**
+     * Moves one record of a segment being compacted, if the keyspace still points at it.
+     */
+    private void move(String key, long location) {
+        Keyspace.Segment segment = keyspace.segmentFor(key);
+        segment.lock.lock();
+        try {
+            RedisStoreObject value = segment.dict.get(key);
+            if (value == null || value.encoding != RedisStoreObject.ENCODING_TIERED || value.number() != location) {
+                return; // A dead record.
+            }
+            long moved = store.append(key, (ByteBuffer) value.data);
+            RedisStoreObject copy = new RedisStoreObject.Numbered(store.view(moved), moved);
+            copy.lru = value.lru;
+            segment.replace(key, value, copy);
+            movedRecords++;
+        } catch (IOException e) {
+            moveError = e;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * @return The tiered_* fields of INFO memory.
+     */
+    public String info() {
+        return "tiered_storage:1\r\n"
+                + "tiered_hot_budget:" + hotBudget + "\r\n"
+                + "tiered_min_value_size:" + minValueSize + "\r\n"
+                + "tiered_spills:" + spills + "\r\n"
+                + "tiered_promotions:" + promotions.sum() + "\r\n"
+                + "tiered_compacted_records:" + movedRecords + "\r\n"
+                + store.info();
+    }
+}
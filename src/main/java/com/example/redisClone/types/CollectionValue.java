@@ -0,0 +1,69 @@
+package com.example.redisClone.types;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Common part of the collection values (list, set, hash, sorted set). Each keeps a compact
+ * listpack while it is small and converts itself to a larger structure past the limits in
+ * EncodingLimits, like Redis's OBJ_ENCODING_LISTPACK and its upgrades.
+ *
+ * Collections are changed in place, so they are only ever touched under their key's lock.
+ */
+public abstract class CollectionValue {
+    // Elements per command when a collection is rebuilt from commands (AOF_REWRITE_ITEMS_PER_CMD).
+    static final int ITEMS_PER_COMMAND = 64;
+
+    // The id of the last snapshot whose image references this object. While that snapshot is
+    // being written, the keyspace copies the collection before changing it (see Keyspace.modify).
+    public int snapshotId;
+    // Bumped on every change (see Keyspace.modify), so a MIGRATE can tell whether the collection
+    // it sent was modified meanwhile.
+    public long version;
+
+    /**
+     * @return The number of elements (fields for a hash).
+     */
+    public abstract int size();
+
+    /**
+     * @return The encoding name reported by OBJECT ENCODING.
+     */
+    public abstract String encoding();
+
+    /**
+     * @return Estimated bytes used by the elements, kept up to date without scanning them.
+     */
+    public abstract long memoryUsage();
+
+    /**
+     * @return A deep copy, which shares nothing mutable with this value.
+     */
+    public abstract CollectionValue copy();
+
+    /**
+     * @param key The key holding the value.
+     * @return Commands that rebuild the value on an empty key (for AOF rewrites and MIGRATE).
+     */
+    public abstract List<byte[][]> rewriteCommands(byte[] key);
+
+    /**
+     * Builds "COMMAND key item..." commands of at most ITEMS_PER_COMMAND items each.
+     * @param itemWidth The arguments per item (2 for field/value and score/member pairs).
+     */
+    static List<byte[][]> batchCommands(byte[] command, byte[] key, List<byte[]> arguments, int itemWidth) {
+        List<byte[][]> commands = new ArrayList<>();
+        int perCommand = ITEMS_PER_COMMAND * itemWidth;
+        for (int start = 0; start < arguments.size(); start += perCommand) {
+            int end = Math.min(start + perCommand, arguments.size());
+            byte[][] argv = new byte[2 + end - start][];
+            argv[0] = command;
+            argv[1] = key;
+            for (int i = start; i < end; i++) {
+                argv[2 + i - start] = arguments.get(i);
+            }
+            commands.add(argv);
+        }
+        return commands;
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.redisClone.types;
+
+/**
+ * When collections leave their compact listpack encoding (the *-max-listpack-* settings).
+ * A collection converts once it has more elements than the entries limit, or once an element
+ * is longer than the value limit. The defaults are those of redis.conf.
+ */
+public class EncodingLimits {
+    public int hashMaxListpackEntries = 128;
+    public int hashMaxListpackValue = 64;
+    public int setMaxListpackEntries = 128;
+    public int setMaxListpackValue = 64;
+    public int zsetMaxListpackEntries = 128;
+    public int zsetMaxListpackValue = 64;
+    // Size of one list node: a positive number of entries, or -1..-5 for 4, 8, 16, 32 or 64 kb.
+    public int listMaxListpackSize = -2;
+
+    /**
+     * @return true if a list node holding entries elements in bytes bytes cannot take another
+     *         element of the given length.
+     */
+    public boolean listNodeFull(int entries, int bytes, int valueLength) {
+        if (listMaxListpackSize >= 0) {
+            return entries >= Math.max(listMaxListpackSize, 1);
+        }
+        int limit = 4096 << (Math.min(-listMaxListpackSize, 5) - 1);
+        return entries > 0 && bytes + valueLength + 11 > limit; // 11: the largest entry header and backlen overhead.
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.redisClone.types;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A hash: a listpack of field, value, field, value... while small, then a hash table.
+ */
+public final class HashValue extends CollectionValue {
+    private static final byte[] HSET = "HSET".getBytes(StandardCharsets.US_ASCII);
+    // Estimated bytes per hash table entry beyond the field and value bytes.
+    private static final int ENTRY_OVERHEAD = 96;
+
+    // Exactly one of the two is set. Fields of the hash table are one char per byte, like keys.
+    private Listpack listpack = new Listpack();
+    private Map<String, byte[]> table;
+    private long tableBytes;
+
+    @Override
+    public int size() {
+        return listpack != null ? listpack.size() / 2 : table.size();
+    }
+
+    @Override
+    public String encoding() {
+        return listpack != null ? "listpack" : "hashtable";
+    }
+
+    @Override
+    public long memoryUsage() {
+        return listpack != null ? listpack.bytes() : tableBytes;
+    }
+
+    /**
+     * Sets a field (HSET).
+     * @return true if the field is new, false if an existing value was replaced.
+     */
+    public boolean set(byte[] field, byte[] value, EncodingLimits limits) {
+        if (listpack != null) {
+            int p = listpack.find(listpack.first(), field, 2);
+            if (p != -1) {
+                if (value.length <= limits.hashMaxListpackValue) {
+                    listpack.replace(listpack.next(p), value);
+                    return false;
+                }
+            } else if (size() < limits.hashMaxListpackEntries && field.length <= limits.hashMaxListpackValue
+                    && value.length <= limits.hashMaxListpackValue) {
+                listpack.append(field);
+                listpack.append(value);
+                return true;
+            }
+            convertToTable();
+        }
+        byte[] previous = table.put(new String(field, StandardCharsets.ISO_8859_1), value);
+        if (previous == null) {
+            tableBytes += ENTRY_OVERHEAD + field.length + value.length;
+            return true;
+        }
+        tableBytes += value.length - previous.length;
+        return false;
+    }
+
+    /**
+     * @return The field's value, or null if the field does not exist.
+     */
+    public byte[] get(byte[] field) {
+        if (listpack != null) {
+            int p = listpack.find(listpack.first(), field, 2);
+            return p == -1 ? null : listpack.get(listpack.next(p));
+        }
+        return table.get(new String(field, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * @return Fields and values, interleaved (HGETALL).
+     */
+    public List<byte[]> entries() {
+        List<byte[]> entries = new ArrayList<>(size() * 2);
+        if (listpack != null) {
+            for (int p = listpack.first(); p != -1; p = listpack.next(p)) {
+                entries.add(listpack.get(p));
+            }
+        } else {
+            for (Map.Entry<String, byte[]> entry : table.entrySet()) {
+                entries.add(entry.getKey().getBytes(StandardCharsets.ISO_8859_1));
+                entries.add(entry.getValue());
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return The listpack, or null once the hash is a hash table.
+     */
+    public Listpack listpack() {
+        return listpack;
+    }
+
+    private void convertToTable() {
+        table = new HashMap<>(listpack.size());
+        for (int p = listpack.first(); p != -1; p = listpack.next(listpack.next(p))) {
+            byte[] field = listpack.get(p);
+            byte[] value = listpack.get(listpack.next(p));
+            table.put(new String(field, StandardCharsets.ISO_8859_1), value);
+            tableBytes += ENTRY_OVERHEAD + field.length + value.length;
+        }
+        listpack = null;
+    }
+
+    @Override
+    public CollectionValue copy() {
+        HashValue copy = new HashValue();
+        // Values are never modified in place, so the arrays can be shared.
+        copy.listpack = listpack != null ? listpack.copy() : null;
+        copy.table = table != null ? new HashMap<>(table) : null;
+        copy.tableBytes = tableBytes;
+        return copy;
+    }
+
+    @Override
+    public List<byte[][]> rewriteCommands(byte[] key) {
+        return batchCommands(HSET, key, entries(), 2);
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.redisClone.types;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A list: one listpack while it fits in a single node (list-max-listpack-size), then a quicklist.
+ * It converts back to a listpack when a quicklist shrinks to half a node, as Redis 7.2 does,
+ * so a list that oscillates around the limit does not convert on every push and pop.
+ */
+public final class ListValue extends CollectionValue {
+    private static final byte[] RPUSH = "RPUSH".getBytes(StandardCharsets.US_ASCII);
+
+    // Exactly one of the two is set.
+    private Listpack listpack = new Listpack();
+    private Quicklist quicklist;
+
+    @Override
+    public int size() {
+        return listpack != null ? listpack.size() : quicklist.count;
+    }
+
+    @Override
+    public String encoding() {
+        return listpack != null ? "listpack" : "quicklist";
+    }
+
+    @Override
+    public long memoryUsage() {
+        return listpack != null ? listpack.bytes() : quicklist.memoryUsage();
+    }
+
+    /**
+     * Adds an element at the head (LPUSH) or the tail (RPUSH).
+     */
+    public void push(byte[] value, boolean atHead, EncodingLimits limits) {
+        if (listpack != null) {
+            if (!limits.listNodeFull(listpack.size(), listpack.bytes(), value.length)) {
+                if (atHead) {
+                    listpack.prepend(value);
+                } else {
+                    listpack.append(value);
+                }
+                return;
+            }
+            quicklist = Quicklist.of(listpack);
+            listpack = null;
+        }
+        quicklist.push(value, atHead, limits);
+    }
+
+    /**
+     * Removes an element from the head (LPOP) or the tail (RPOP).
+     * @return The element, or null if the list is empty.
+     */
+    public byte[] pop(boolean atHead, EncodingLimits limits) {
+        if (listpack != null) {
+            int p = atHead ? listpack.first() : listpack.last();
+            if (p == -1) {
+                return null;
+            }
+            byte[] value = listpack.get(p);
+            listpack.delete(p);
+            return value;
+        }
+        byte[] value = quicklist.pop(atHead);
+        if (quicklist.nodes == 1) {
+            Listpack only = quicklist.head.entries;
+            // Half a node: entries for a count limit, bytes for a size limit.
+            if (limits.listMaxListpackSize >= 0 ? only.size() * 2 <= limits.listMaxListpackSize
+                    : !limits.listNodeFull(only.size(), only.bytes() * 2, 0)) {
+                listpack = only;
+                quicklist = null;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @return The elements at indexes start..stop, inclusive (0 <= start <= stop < size()).
+     */
+    public List<byte[]> range(long start, long stop) {
+        List<byte[]> elements = new ArrayList<>((int) Math.min(stop - start + 1, 1024));
+        if (listpack != null) {
+            int p = listpack.seek(start);
+            for (long i = start; i <= stop; i++) {
+                elements.add(listpack.get(p));
+                p = listpack.next(p);
+            }
+        } else {
+            quicklist.range(start, stop, elements);
+        }
+        return elements;
+    }
+
+    /**
+     * @return The listpack nodes in order (a single one while the list is small), for RDB files.
+     */
+    public List<Listpack> nodes() {
+        List<Listpack> nodes = new ArrayList<>();
+        if (listpack != null) {
+            nodes.add(listpack);
+        } else {
+            for (Quicklist.Node node = quicklist.head; node != null; node = node.next) {
+                nodes.add(node.entries);
+            }
+        }
+        return nodes;
+    }
+
+    @Override
+    public CollectionValue copy() {
+        ListValue copy = new ListValue();
+        copy.listpack = listpack != null ? listpack.copy() : null;
+        copy.quicklist = quicklist != null ? quicklist.copy() : null;
+        return copy;
+    }
+
+    @Override
+    public List<byte[][]> rewriteCommands(byte[] key) {
+        return batchCommands(RPUSH, key, range(0, size() - 1), 1);
+    }
+}
@@ -0,0 +1,406 @@
+package com.example.redisClone.types;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.example.redisClone.RedisStoreObject;
+
+/**
+ * A listpack: a sequence of strings and integers packed into one byte array, in exactly the
+ * format Redis uses (so it is written to RDB files as-is).
+ *
+ * Layout: total bytes (4, little-endian), element count (2, 65535 = unknown), the entries, and a
+ * 0xFF terminator. Each entry is an encoding byte, its data, and a "backlen" holding the entry's
+ * length, which lets the list be walked backwards. Integers take 1 to 9 bytes, and strings cost
+ * only 2 to 3 bytes of overhead, against ~50 bytes per element for a Java object graph.
+ *
+ * Entries are addressed by their byte offset ("p"). Any insert or delete may move the entries
+ * after it, so offsets are only valid until the next change.
+ */
+public final class Listpack {
+    public static final int HEADER_SIZE = 6;
+    private static final int EOF = 0xFF;
+
+    // The array may be larger than used; the slack absorbs appends without a copy each time.
+    private byte[] buf;
+    private int used;
+    private int count;
+
+    public Listpack() {
+        buf = new byte[32];
+        used = HEADER_SIZE + 1;
+        buf[HEADER_SIZE] = (byte) EOF;
+        writeHeader();
+    }
+
+    /**
+     * Adopts a serialized listpack (as stored in an RDB file).
+     * @throws IllegalArgumentException If the header does not describe the blob.
+     */
+    public Listpack(byte[] blob) {
+        if (blob.length < HEADER_SIZE + 1 || readLittleEndian(blob, 0, 4) != blob.length
+                || (blob[blob.length - 1] & 0xFF) != EOF) {
+            throw new IllegalArgumentException("Corrupt listpack");
+        }
+        buf = blob;
+        used = blob.length;
+        for (int p = HEADER_SIZE; (buf[p] & 0xFF) != EOF; ) {
+            int length = encodedLength(p);
+            p += length + backlenSize(length);
+            count++;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return The serialized size in bytes.
+     */
+    public int bytes() {
+        return used;
+    }
+
+    /**
+     * @return The serialized listpack, for RDB files.
+     */
+    public byte[] toBytes() {
+        return Arrays.copyOf(buf, used);
+    }
+
+    public Listpack copy() {
+        return new Listpack(toBytes());
+    }
+
+    // --- Navigation ---
+
+    /**
+     * @return The offset of the first entry, or -1 if the listpack is empty.
+     */
+    public int first() {
+        return count == 0 ? -1 : HEADER_SIZE;
+    }
+
+    /**
+     * @return The offset of the last entry, or -1 if the listpack is empty.
+     */
+    public int last() {
+        return count == 0 ? -1 : prev(used - 1);
+    }
+
+    /**
+     * @return The offset of the entry after p, or -1 if p is the last one.
+     */
+    public int next(int p) {
+        int length = encodedLength(p);
+        int q = p + length + backlenSize(length);
+        return (buf[q] & 0xFF) == EOF ? -1 : q;
+    }
+
+    /**
+     * @param p An entry offset, or the offset of the terminator (used - 1).
+     * @return The offset of the entry before p, or -1 if p is the first one.
+     */
+    public int prev(int p) {
+        if (p == HEADER_SIZE) {
+            return -1;
+        }
+        // Decode the backlen of the previous entry, reading right to left.
+        int q = p - 1;
+        long length = 0;
+        int shift = 0;
+        while (true) {
+            length |= (long) (buf[q] & 127) << shift;
+            if ((buf[q] & 128) == 0) {
+                break;
+            }
+            shift += 7;
+            q--;
+        }
+        return (int) (q - length);
+    }
+
+    /**
+     * @return The offset of the entry at index (negative counts from the end), or -1.
+     */
+    public int seek(long index) {
+        if (index < 0) {
+            index += count;
+        }
+        if (index < 0 || index >= count) {
+            return -1;
+        }
+        if (index < count / 2) {
+            int p = first();
+            for (long i = 0; i < index; i++) {
+                p = next(p);
+            }
+            return p;
+        }
+        int p = last();
+        for (long i = count - 1; i > index; i--) {
+            p = prev(p);
+        }
+        return p;
+    }
+
+    // --- Reading ---
+
+    /**
+     * @return The entry at p as bytes; integers are returned in decimal.
+     */
+    public byte[] get(int p) {
+        int encoding = buf[p] & 0xFF;
+        if ((encoding & 0xC0) == 0x80) {
+            return Arrays.copyOfRange(buf, p + 1, p + 1 + (encoding & 0x3F));
+        } else if ((encoding & 0xF0) == 0xE0) {
+            int length = ((encoding & 0x0F) << 8) | (buf[p + 1] & 0xFF);
+            return Arrays.copyOfRange(buf, p + 2, p + 2 + length);
+        } else if (encoding == 0xF0) {
+            int length = (int) readLittleEndian(buf, p + 1, 4);
+            return Arrays.copyOfRange(buf, p + 5, p + 5 + length);
+        }
+        return Long.toString(integerAt(p)).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return The entry at p as a String of one char per byte, like keys.
+     */
+    public String getString(int p) {
+        return new String(get(p), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Finds an entry equal to value, comparing every skip-th entry starting at p
+     * (skip 2 searches the fields of field/value pairs).
+     * @return The offset of the matching entry, or -1.
+     */
+    public int find(int p, byte[] value, int skip) {
+        boolean integer = RedisStoreObject.isCanonicalLong(value);
+        long number = integer ? Long.parseLong(new String(value, StandardCharsets.US_ASCII)) : 0;
+        while (p != -1) {
+            if (isInteger(p) ? integer && integerAt(p) == number : stringEquals(p, value)) {
+                return p;
+            }
+            for (int i = 0; i < skip && p != -1; i++) {
+                p = next(p);
+            }
+        }
+        return -1;
+    }
+
+    private boolean isInteger(int p) {
+        int encoding = buf[p] & 0xFF;
+        return (encoding & 0x80) == 0 || (encoding & 0xE0) == 0xC0 || (encoding >= 0xF1 && encoding <= 0xF4);
+    }
+
+    private boolean stringEquals(int p, byte[] value) {
+        int encoding = buf[p] & 0xFF;
+        int start;
+        int length;
+        if ((encoding & 0xC0) == 0x80) {
+            start = p + 1;
+            length = encoding & 0x3F;
+        } else if ((encoding & 0xF0) == 0xE0) {
+            start = p + 2;
+            length = ((encoding & 0x0F) << 8) | (buf[p + 1] & 0xFF);
+        } else {
+            start = p + 5;
+            length = (int) readLittleEndian(buf, p + 1, 4);
+        }
+        return Arrays.equals(buf, start, start + length, value, 0, value.length);
+    }
+
+    private long integerAt(int p) {
+        int encoding = buf[p] & 0xFF;
+        if ((encoding & 0x80) == 0) {
+            return encoding;
+        }
+        if ((encoding & 0xE0) == 0xC0) {
+            int number = ((encoding & 0x1F) << 8) | (buf[p + 1] & 0xFF);
+            return number >= 1 << 12 ? number - (1 << 13) : number;
+        }
+        return switch (encoding) {
+            case 0xF1 -> (short) readLittleEndian(buf, p + 1, 2);
+            case 0xF2 -> ((int) readLittleEndian(buf, p + 1, 3) << 8) >> 8;
+            case 0xF3 -> (int) readLittleEndian(buf, p + 1, 4);
+            case 0xF4 -> readLittleEndian(buf, p + 1, 8);
+            default -> throw new IllegalStateException("Invalid listpack encoding " + encoding);
+        };
+    }
+
+    // --- Writing ---
+
+    public void append(byte[] value) {
+        insert(used - 1, value);
+    }
+
+    public void prepend(byte[] value) {
+        insert(HEADER_SIZE, value);
+    }
+
+    /**
+     * Inserts value before the entry at p (or at the end if p is the terminator, used - 1).
+     * Canonical integers are stored in the integer encodings.
+     */
+    public void insert(int p, byte[] value) {
+        byte[] entry = encode(value);
+        ensureCapacity(used + entry.length);
+        System.arraycopy(buf, p, buf, p + entry.length, used - p);
+        System.arraycopy(entry, 0, buf, p, entry.length);
+        used += entry.length;
+        count++;
+        writeHeader();
+    }
+
+    /**
+     * Removes the entry at p.
+     */
+    public void delete(int p) {
+        int length = encodedLength(p);
+        int size = length + backlenSize(length);
+        System.arraycopy(buf, p + size, buf, p, used - p - size);
+        used -= size;
+        count--;
+        writeHeader();
+        if (buf.length > 64 && used < buf.length / 4) {
+            buf = Arrays.copyOf(buf, used * 2); // Give back memory after many deletions.
+        }
+    }
+
+    /**
+     * Replaces the entry at p.
+     */
+    public void replace(int p, byte[] value) {
+        delete(p);
+        insert(p, value);
+    }
+
+    /**
+     * @return The offset of the terminator, which insert() accepts to append.
+     */
+    public int end() {
+        return used - 1;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(needed, buf.length + (buf.length >> 1)));
+        }
+    }
+
+    private void writeHeader() {
+        writeLittleEndian(buf, 0, used, 4);
+        writeLittleEndian(buf, 4, Math.min(count, 65535), 2);
+    }
+
+    /**
+     * Encodes one entry: encoding byte, data and backlen.
+     */
+    private static byte[] encode(byte[] value) {
+        byte[] head;
+        int dataLength;
+        if (RedisStoreObject.isCanonicalLong(value)) {
+            long v = Long.parseLong(new String(value, StandardCharsets.US_ASCII));
+            if (v >= 0 && v <= 127) {
+                head = new byte[] { (byte) v };
+            } else if (v >= -4096 && v <= 4095) {
+                int u = (int) (v < 0 ? v + (1 << 13) : v);
+                head = new byte[] { (byte) (0xC0 | (u >> 8)), (byte) u };
+            } else if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) {
+                head = integerEntry(0xF1, v, 2);
+            } else if (v >= -(1 << 23) && v < (1 << 23)) {
+                head = integerEntry(0xF2, v, 3);
+            } else if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) {
+                head = integerEntry(0xF3, v, 4);
+            } else {
+                head = integerEntry(0xF4, v, 8);
+            }
+            dataLength = 0;
+        } else if (value.length < 64) {
+            head = new byte[] { (byte) (0x80 | value.length) };
+            dataLength = value.length;
+        } else if (value.length < 4096) {
+            head = new byte[] { (byte) (0xE0 | (value.length >> 8)), (byte) value.length };
+            dataLength = value.length;
+        } else {
+            head = new byte[5];
+            head[0] = (byte) 0xF0;
+            writeLittleEndian(head, 1, value.length, 4);
+            dataLength = value.length;
+        }
+        int length = head.length + dataLength;
+        int backlen = backlenSize(length);
+        byte[] entry = new byte[length + backlen];
+        System.arraycopy(head, 0, entry, 0, head.length);
+        System.arraycopy(value, 0, entry, head.length, dataLength);
+        // Backlen, most significant group first; every byte but the first has its high bit set.
+        for (int i = 0; i < backlen; i++) {
+            int shift = 7 * (backlen - 1 - i);
+            entry[length + i] = (byte) (((length >>> shift) & 127) | (i > 0 ? 128 : 0));
+        }
+        return entry;
+    }
+
+    private static byte[] integerEntry(int encoding, long v, int width) {
+        byte[] head = new byte[1 + width];
+        head[0] = (byte) encoding;
+        writeLittleEndian(head, 1, v, width);
+        return head;
+    }
+
+    /**
+     * @return The length of the entry at p without its backlen.
+     */
+    private int encodedLength(int p) {
+        int encoding = buf[p] & 0xFF;
+        if ((encoding & 0x80) == 0) {
+            return 1;
+        } else if ((encoding & 0xC0) == 0x80) {
+            return 1 + (encoding & 0x3F);
+        } else if ((encoding & 0xE0) == 0xC0) {
+            return 2;
+        } else if ((encoding & 0xF0) == 0xE0) {
+            return 2 + (((encoding & 0x0F) << 8) | (buf[p + 1] & 0xFF));
+        }
+        return switch (encoding) {
+            case 0xF0 -> 5 + (int) readLittleEndian(buf, p + 1, 4);
+            case 0xF1 -> 3;
+            case 0xF2 -> 4;
+            case 0xF3 -> 5;
+            case 0xF4 -> 9;
+            default -> throw new IllegalStateException("Invalid listpack encoding " + encoding);
+        };
+    }
+
+    /**
+     * Same boundaries as Redis's lpEncodeBacklen.
+     */
+    private static int backlenSize(int length) {
+        if (length <= 127) {
+            return 1;
+        } else if (length < 16383) {
+            return 2;
+        } else if (length < 2097151) {
+            return 3;
+        } else if (length < 268435455) {
+            return 4;
+        }
+        return 5;
+    }
+
+    private static long readLittleEndian(byte[] data, int offset, int bytes) {
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value |= (long) (data[offset + i] & 0xFF) << (8 * i);
+        }
+        return value;
+    }
+
+    private static void writeLittleEndian(byte[] data, int offset, long value, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            data[offset + i] = (byte) (value >> (8 * i));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.redisClone.types;
+
+import java.util.List;
+
+/**
+ * The large list encoding: a doubly linked list of listpack nodes, each bounded by
+ * list-max-listpack-size, so pushes and pops at either end touch one small node and a long
+ * list costs a few bytes per element instead of a node object per element.
+ */
+final class Quicklist {
+    // Estimated bytes of one node beyond its listpack (node object, pointers, array header).
+    private static final int NODE_OVERHEAD = 48;
+
+    static final class Node {
+        Listpack entries;
+        Node prev;
+        Node next;
+
+        Node(Listpack entries) {
+            this.entries = entries;
+        }
+    }
+
+    Node head;
+    Node tail;
+    int nodes;
+    int count;
+    // Sum of the nodes' listpack sizes.
+    long bytes;
+
+    /**
+     * Builds a quicklist from a listpack that outgrew a single node.
+     */
+    static Quicklist of(Listpack listpack) {
+        Quicklist quicklist = new Quicklist();
+        quicklist.linkNode(new Node(listpack), false);
+        return quicklist;
+    }
+
+    void push(byte[] value, boolean atHead, EncodingLimits limits) {
+        Node node = atHead ? head : tail;
+        if (node == null || limits.listNodeFull(node.entries.size(), node.entries.bytes(), value.length)) {
+            node = new Node(new Listpack());
+            linkNode(node, atHead);
+        }
+        bytes -= node.entries.bytes();
+        if (atHead) {
+            node.entries.prepend(value);
+        } else {
+            node.entries.append(value);
+        }
+        bytes += node.entries.bytes();
+        count++;
+    }
+
+    /**
+     * @return The removed element, or null if the list is empty.
+     */
+    byte[] pop(boolean atHead) {
+        Node node = atHead ? head : tail;
+        if (node == null) {
+            return null;
+        }
+        int p = atHead ? node.entries.first() : node.entries.last();
+        byte[] value = node.entries.get(p);
+        bytes -= node.entries.bytes();
+        node.entries.delete(p);
+        bytes += node.entries.bytes();
+        count--;
+        if (node.entries.size() == 0) {
+            unlinkNode(node);
+        }
+        return value;
+    }
+
+    /**
+     * Appends the elements at indexes start..stop (inclusive, 0 <= start <= stop < count) to out.
+     */
+    void range(long start, long stop, List<byte[]> out) {
+        Node node = head;
+        long index = 0;
+        // Skip whole nodes before start.
+        while (index + node.entries.size() <= start) {
+            index += node.entries.size();
+            node = node.next;
+        }
+        int p = node.entries.seek(start - index);
+        for (long i = start; i <= stop; i++) {
+            out.add(node.entries.get(p));
+            p = node.entries.next(p);
+            if (p == -1 && i < stop) {
+                node = node.next;
+                p = node.entries.first();
+            }
+        }
+    }
+
+    Quicklist copy() {
+        Quicklist copy = new Quicklist();
+        for (Node node = head; node != null; node = node.next) {
+            copy.linkNode(new Node(node.entries.copy()), false);
+        }
+        return copy;
+    }
+
+    long memoryUsage() {
+        return bytes + (long) nodes * NODE_OVERHEAD;
+    }
+
+    private void linkNode(Node node, boolean atHead) {
+        if (head == null) {
+            head = tail = node;
+        } else if (atHead) {
+            node.next = head;
+            head.prev = node;
+            head = node;
+        } else {
+            node.prev = tail;
+            tail.next = node;
+            tail = node;
+        }
+        nodes++;
+        count += node.entries.size();
+        bytes += node.entries.bytes();
+    }
+
+    private void unlinkNode(Node node) {
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            head = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        } else {
+            tail = node.prev;
+        }
+        nodes--;
+        count -= node.entries.size();
+        bytes -= node.entries.bytes();
+    }
+}
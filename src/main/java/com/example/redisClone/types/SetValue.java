@@ -0,0 +1,115 @@
+package com.example.redisClone.types;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A set: an unordered listpack while small, then a hash table of members.
+ * Small integer members are stored in the listpack's integer encodings, which keeps sets of IDs
+ * nearly as compact as Redis's intset.
+ */
+public final class SetValue extends CollectionValue {
+    private static final byte[] SADD = "SADD".getBytes(StandardCharsets.US_ASCII);
+    // Estimated bytes per hash table member beyond its characters (node, String, array headers).
+    private static final int MEMBER_OVERHEAD = 80;
+
+    // Exactly one of the two is set. Members of the hash table are one char per byte, like keys.
+    private Listpack listpack = new Listpack();
+    private Set<String> table;
+    private long tableBytes;
+
+    @Override
+    public int size() {
+        return listpack != null ? listpack.size() : table.size();
+    }
+
+    @Override
+    public String encoding() {
+        return listpack != null ? "listpack" : "hashtable";
+    }
+
+    @Override
+    public long memoryUsage() {
+        return listpack != null ? listpack.bytes() : tableBytes;
+    }
+
+    /**
+     * @return true if the member was added, false if it was already there.
+     */
+    public boolean add(byte[] member, EncodingLimits limits) {
+        if (listpack != null) {
+            if (listpack.find(listpack.first(), member, 1) != -1) {
+                return false;
+            }
+            if (listpack.size() < limits.setMaxListpackEntries && member.length <= limits.setMaxListpackValue) {
+                listpack.append(member);
+                return true;
+            }
+            convertToTable();
+        }
+        String key = new String(member, StandardCharsets.ISO_8859_1);
+        if (!table.add(key)) {
+            return false;
+        }
+        tableBytes += MEMBER_OVERHEAD + member.length;
+        return true;
+    }
+
+    public boolean contains(byte[] member) {
+        if (listpack != null) {
+            return listpack.find(listpack.first(), member, 1) != -1;
+        }
+        return table.contains(new String(member, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * @return Every member, in no particular order.
+     */
+    public List<byte[]> members() {
+        List<byte[]> members = new ArrayList<>(size());
+        if (listpack != null) {
+            for (int p = listpack.first(); p != -1; p = listpack.next(p)) {
+                members.add(listpack.get(p));
+            }
+        } else {
+            for (String member : table) {
+                members.add(member.getBytes(StandardCharsets.ISO_8859_1));
+            }
+        }
+        return members;
+    }
+
+    /**
+     * @return The listpack, or null once the set is a hash table (RDB files write the two differently).
+     */
+    public Listpack listpack() {
+        return listpack;
+    }
+
+    private void convertToTable() {
+        table = new HashSet<>(listpack.size() * 2);
+        for (int p = listpack.first(); p != -1; p = listpack.next(p)) {
+            byte[] member = listpack.get(p);
+            table.add(new String(member, StandardCharsets.ISO_8859_1));
+            tableBytes += MEMBER_OVERHEAD + member.length;
+        }
+        listpack = null;
+    }
+
+    @Override
+    public CollectionValue copy() {
+        SetValue copy = new SetValue();
+        copy.listpack = listpack != null ? listpack.copy() : null;
+        copy.table = table != null ? new HashSet<>(table) : null;
+        copy.tableBytes = tableBytes;
+        return copy;
+    }
+
+    @Override
+    public List<byte[][]> rewriteCommands(byte[] key) {
+        return batchCommands(SADD, key, members(), 1);
+    }
+}
@@ -0,0 +1,391 @@
+package com.example.redisClone.types;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sorted set: a listpack of member, score, member, score... kept in score order while small,
+ * then a skiplist for the order plus a hash table from member to score, like Redis's zset.
+ * Members with equal scores are ordered by their bytes.
+ */
+public final class ZSetValue extends CollectionValue {
+    private static final byte[] ZADD = "ZADD".getBytes(StandardCharsets.US_ASCII);
+    // Estimated bytes per skiplist element beyond the member (node, levels, String, map entry).
+    private static final int ELEMENT_OVERHEAD = 160;
+
+    // ZADD options, combined in the flags argument of add().
+    public static final int NX = 1;
+    public static final int XX = 2;
+    public static final int GT = 4;
+    public static final int LT = 8;
+    public static final int INCR = 16;
+
+    // Results of add().
+    public static final int NOP = 0;
+    public static final int ADDED = 1;
+    public static final int UPDATED = 2;
+    public static final int NAN = 3;
+
+    /**
+     * A member and its score, as returned by the range queries.
+     */
+    public static final class Entry {
+        public final byte[] member;
+        public final double score;
+
+        public Entry(byte[] member, double score) {
+            this.member = member;
+            this.score = score;
+        }
+    }
+
+    /**
+     * A score interval as given to ZRANGEBYSCORE: "(" before a bound excludes it.
+     */
+    public static final class ScoreRange {
+        public final double min;
+        public final double max;
+        public final boolean minExclusive;
+        public final boolean maxExclusive;
+
+        public ScoreRange(double min, boolean minExclusive, double max, boolean maxExclusive) {
+            this.min = min;
+            this.max = max;
+            this.minExclusive = minExclusive;
+            this.maxExclusive = maxExclusive;
+        }
+
+        /**
+         * Parses "min" and "max" bounds such as "1.5", "(2", "-inf" or "+inf".
+         * @throws NumberFormatException If a bound is not a float.
+         */
+        public static ScoreRange parse(byte[] min, byte[] max) {
+            boolean minExclusive = min.length > 0 && min[0] == '(';
+            boolean maxExclusive = max.length > 0 && max[0] == '(';
+            double minScore = parseScore(minExclusive ? Arrays.copyOfRange(min, 1, min.length) : min);
+            double maxScore = parseScore(maxExclusive ? Arrays.copyOfRange(max, 1, max.length) : max);
+            return new ScoreRange(minScore, minExclusive, maxScore, maxExclusive);
+        }
+
+        public boolean aboveMin(double score) {
+            return minExclusive ? score > min : score >= min;
+        }
+
+        public boolean belowMax(double score) {
+            return maxExclusive ? score < max : score <= max;
+        }
+
+        /**
+         * @return true if no score can be in the range.
+         */
+        public boolean isEmpty() {
+            return min > max || (min == max && (minExclusive || maxExclusive));
+        }
+    }
+
+    // Either the listpack is set, or both the skiplist and the dict.
+    private Listpack listpack = new Listpack();
+    private ZSkipList skiplist;
+    private Map<String, Double> dict;
+    private long tableBytes;
+
+    @Override
+    public int size() {
+        return listpack != null ? listpack.size() / 2 : dict.size();
+    }
+
+    @Override
+    public String encoding() {
+        return listpack != null ? "listpack" : "skiplist";
+    }
+
+    @Override
+    public long memoryUsage() {
+        return listpack != null ? listpack.bytes() : tableBytes;
+    }
+
+    /**
+     * Adds a member or updates its score (ZADD).
+     * @param flags NX, XX, GT, LT and INCR, or'ed together.
+     * @param newScore Receives the member's score afterwards in newScore[0] (for INCR).
+     * @return ADDED, UPDATED, NOP if nothing changed, or NAN if INCR produced a NaN score.
+     */
+    public int add(byte[] member, double score, int flags, double[] newScore, EncodingLimits limits) {
+        Double current = score(member);
+        if (current != null) {
+            if ((flags & NX) != 0) {
+                newScore[0] = current;
+                return NOP;
+            }
+            if ((flags & INCR) != 0) {
+                score += current;
+                if (Double.isNaN(score)) {
+                    return NAN;
+                }
+            }
+            newScore[0] = current;
+            if (((flags & GT) != 0 && score <= current) || ((flags & LT) != 0 && score >= current)
+                    || score == current) {
+                return NOP;
+            }
+            newScore[0] = score;
+            remove(member, current);
+            insert(member, score, limits);
+            return UPDATED;
+        }
+        if ((flags & XX) != 0) {
+            return NOP;
+        }
+        newScore[0] = score;
+        insert(member, score, limits);
+        return ADDED;
+    }
+
+    /**
+     * @return The member's score, or null if it is not in the set.
+     */
+    public Double score(byte[] member) {
+        if (listpack != null) {
+            int p = listpack.find(listpack.first(), member, 2);
+            return p == -1 ? null : parseScore(listpack.get(listpack.next(p)));
+        }
+        return dict.get(new String(member, StandardCharsets.ISO_8859_1));
+    }
+
+    private void insert(byte[] member, double score, EncodingLimits limits) {
+        if (listpack != null) {
+            if (size() < limits.zsetMaxListpackEntries && member.length <= limits.zsetMaxListpackValue) {
+                String name = new String(member, StandardCharsets.ISO_8859_1);
+                int p = listpack.first();
+                while (p != -1) {
+                    double s = parseScore(listpack.get(listpack.next(p)));
+                    if (s > score || (s == score && listpack.getString(p).compareTo(name) > 0)) {
+                        break;
+                    }
+                    p = listpack.next(listpack.next(p));
+                }
+                if (p == -1) {
+                    listpack.append(member);
+                    listpack.append(formatScore(score).getBytes(StandardCharsets.US_ASCII));
+                } else {
+                    listpack.insert(p, member);
+                    listpack.insert(listpack.next(p), formatScore(score).getBytes(StandardCharsets.US_ASCII));
+                }
+                return;
+            }
+            convertToSkiplist();
+        }
+        String name = new String(member, StandardCharsets.ISO_8859_1);
+        skiplist.insert(score, name);
+        dict.put(name, score);
+        tableBytes += ELEMENT_OVERHEAD + member.length;
+    }
+
+    private void remove(byte[] member, double score) {
+        if (listpack != null) {
+            int p = listpack.find(listpack.first(), member, 2);
+            listpack.delete(p); // The score moves to p.
+            listpack.delete(p);
+            return;
+        }
+        String name = new String(member, StandardCharsets.ISO_8859_1);
+        skiplist.delete(score, name);
+        dict.remove(name);
+        tableBytes -= ELEMENT_OVERHEAD + member.length;
+    }
+
+    private void convertToSkiplist() {
+        skiplist = new ZSkipList();
+        dict = new HashMap<>(listpack.size());
+        for (int p = listpack.first(); p != -1; p = listpack.next(listpack.next(p))) {
+            String name = listpack.getString(p);
+            double score = parseScore(listpack.get(listpack.next(p)));
+            skiplist.insert(score, name);
+            dict.put(name, score);
+            tableBytes += ELEMENT_OVERHEAD + name.length();
+        }
+        listpack = null;
+    }
+
+    /**
+     * @return The elements at ranks start..stop, inclusive (0 <= start <= stop < size()),
+     *         counting from the highest score if reverse is set.
+     */
+    public List<Entry> rangeByRank(long start, long stop, boolean reverse) {
+        List<Entry> entries = new ArrayList<>((int) Math.min(stop - start + 1, 1024));
+        int size = size();
+        if (listpack != null) {
+            if (!reverse) {
+                int p = listpack.seek(2 * start);
+                for (long i = start; i <= stop; i++) {
+                    entries.add(entryAt(p));
+                    p = listpack.next(listpack.next(p));
+                }
+            } else {
+                int p = listpack.seek(2 * (size - 1 - start));
+                for (long i = start; i <= stop; i++) {
+                    entries.add(entryAt(p));
+                    p = listpack.prev(listpack.prev(p));
+                }
+            }
+            return entries;
+        }
+        ZSkipList.Node node = skiplist.byRank(reverse ? size - start : start + 1);
+        for (long i = start; i <= stop; i++) {
+            entries.add(new Entry(node.member.getBytes(StandardCharsets.ISO_8859_1), node.score));
+            node = reverse ? node.backward : node.forward[0];
+        }
+        return entries;
+    }
+
+    /**
+     * @param offset Elements in range to skip first.
+     * @param limit The most elements to return, or -1 for all.
+     * @return The elements whose scores are in range, from the highest if reverse is set.
+     */
+    public List<Entry> rangeByScore(ScoreRange range, boolean reverse, long offset, long limit) {
+        List<Entry> entries = new ArrayList<>();
+        if (range.isEmpty()) {
+            return entries;
+        }
+        if (listpack != null) {
+            int p = reverse ? listpack.seek(-2) : listpack.first();
+            while (p != -1 && limit != 0) {
+                Entry entry = entryAt(p);
+                p = reverse ? listpack.prev(p) : listpack.next(listpack.next(p));
+                if (reverse && p != -1) {
+                    p = listpack.prev(p);
+                }
+                if (!(reverse ? range.belowMax(entry.score) : range.aboveMin(entry.score))) {
+                    continue; // Not in range yet.
+                }
+                if (!(reverse ? range.aboveMin(entry.score) : range.belowMax(entry.score))) {
+                    break; // Past the range.
+                }
+                if (offset > 0) {
+                    offset--;
+                    continue;
+                }
+                entries.add(entry);
+                limit--;
+            }
+            return entries;
+        }
+        ZSkipList.Node node = reverse ? skiplist.lastInRange(range) : skiplist.firstInRange(range);
+        while (node != null && offset > 0) {
+            node = reverse ? node.backward : node.forward[0];
+            offset--;
+        }
+        while (node != null && limit != 0) {
+            if (!(reverse ? range.aboveMin(node.score) : range.belowMax(node.score))) {
+                break;
+            }
+            entries.add(new Entry(node.member.getBytes(StandardCharsets.ISO_8859_1), node.score));
+            node = reverse ? node.backward : node.forward[0];
+            limit--;
+        }
+        return entries;
+    }
+
+    private Entry entryAt(int p) {
+        return new Entry(listpack.get(p), parseScore(listpack.get(listpack.next(p))));
+    }
+
+    /**
+     * @return The listpack, or null once the set is a skiplist.
+     */
+    public Listpack listpack() {
+        return listpack;
+    }
+
+    @Override
+    public CollectionValue copy() {
+        ZSetValue copy = new ZSetValue();
+        if (listpack != null) {
+            copy.listpack = listpack.copy();
+            return copy;
+        }
+        copy.listpack = null;
+        copy.skiplist = new ZSkipList();
+        copy.dict = new HashMap<>(dict);
+        for (ZSkipList.Node node = skiplist.header.forward[0]; node != null; node = node.forward[0]) {
+            copy.skiplist.insert(node.score, node.member);
+        }
+        copy.tableBytes = tableBytes;
+        return copy;
+    }
+
+    @Override
+    public List<byte[][]> rewriteCommands(byte[] key) {
+        List<byte[]> arguments = new ArrayList<>(size() * 2);
+        for (Entry entry : rangeByRank(0, size() - 1, false)) {
+            arguments.add(formatScore(entry.score).getBytes(StandardCharsets.US_ASCII));
+            arguments.add(entry.member);
+        }
+        return batchCommands(ZADD, key, arguments, 2);
+    }
+
+    /**
+     * Formats a score like Redis: integral values without a decimal point, "inf" and "-inf"
+     * for the infinities, otherwise the shortest form that parses back to the same double.
+     */
+    public static String formatScore(double score) {
+        if (Double.isInfinite(score)) {
+            return score > 0 ? "inf" : "-inf";
+        }
+        if (score == Math.rint(score) && Math.abs(score) < 1e17) {
+            return Long.toString((long) score);
+        }
+        BigDecimal decimal = new BigDecimal(Double.toString(score)).stripTrailingZeros();
+        int exponent = decimal.precision() - decimal.scale() - 1;
+        if (exponent >= -5 && exponent < 21) {
+            return decimal.toPlainString();
+        }
+        // Scientific notation, as in "1.5e+21" or "1e-07".
+        String digits = decimal.unscaledValue().abs().toString();
+        StringBuilder text = new StringBuilder();
+        if (score < 0) {
+            text.append('-');
+        }
+        text.append(digits.charAt(0));
+        if (digits.length() > 1) {
+            text.append('.').append(digits, 1, digits.length());
+        }
+        text.append(exponent < 0 ? "e-" : "e+");
+        int magnitude = Math.abs(exponent);
+        if (magnitude < 10) {
+            text.append('0');
+        }
+        return text.append(magnitude).toString();
+    }
+
+    /**
+     * Parses a score: a decimal float, or "inf", "+inf" and "-inf" in any case.
+     * @throws NumberFormatException If the text is not a float, or is NaN.
+     */
+    public static double parseScore(byte[] text) {
+        String s = new String(text, StandardCharsets.ISO_8859_1);
+        if (s.equalsIgnoreCase("inf") || s.equalsIgnoreCase("+inf")) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (s.equalsIgnoreCase("-inf")) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        if (s.isEmpty()) {
+            throw new NumberFormatException("empty score");
+        }
+        // Double.parseDouble also accepts "NaN", "Infinity", hex and "1d", which Redis does not.
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!(c >= '0' && c <= '9') && c != '.' && c != '-' && c != '+' && c != 'e' && c != 'E') {
+                throw new NumberFormatException("not a float: " + s);
+            }
+        }
+        return Double.parseDouble(s);
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.redisClone;
+
+import java.util.Objects;
+
+/**
+ * The few assertions the tests need. The build has no test framework dependency: Surefire runs
+ * every public void test*() method of the *Test classes, and a thrown AssertionError fails it.
+ */
+public final class Assertions {
+    private Assertions() {
+    }
+
+    public static void assertEquals(Object expected, Object actual) {
+        if (!Objects.equals(expected, actual)) {
+            throw new AssertionError("expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+
+    public static void assertEquals(long expected, long actual) {
+        if (expected != actual) {
+            throw new AssertionError("expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+
+    public static void assertTrue(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * @return The exception the code threw, which must be of the given type.
+     */
+    public static <T extends Throwable> T assertThrows(Class<T> type, Runnable code) {
+        try {
+            code.run();
+        } catch (Throwable e) {
+            if (type.isInstance(e)) {
+                return type.cast(e);
+            }
+            throw new AssertionError("expected " + type.getSimpleName() + " but got " + e, e);
+        }
+        throw new AssertionError("expected " + type.getSimpleName() + " but nothing was thrown");
+    }
+}
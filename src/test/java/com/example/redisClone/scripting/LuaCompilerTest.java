@@ -0,0 +1,146 @@
+package com.example.redisClone.scripting;
+
+import static com.example.redisClone.Assertions.assertEquals;
+import static com.example.redisClone.Assertions.assertThrows;
+import static com.example.redisClone.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The parser and evaluator, through scripts run with the standard library and no redis table.
+ */
+public class LuaCompilerTest {
+    private static Object[] run(String script) {
+        return run(script, 0);
+    }
+
+    private static Object[] run(String script, long budgetNanos) {
+        Map<String, Object> globals = new HashMap<>();
+        LuaLibrary.install(globals);
+        return LuaCompiler.compile(script).run(new LuaCompiler.Environment(globals, budgetNanos));
+    }
+
+    private static void assertValues(String script, Object... expected) {
+        Object[] actual = run(script);
+        assertTrue(Arrays.equals(expected, actual),
+                script + ": expected " + Arrays.toString(expected) + " but was " + Arrays.toString(actual));
+    }
+
+    public void testOperatorPrecedence() {
+        assertValues("return 2 + 3 * 4 ^ 2 / 8", 8.0);
+        assertValues("return -2 ^ 2, 2 ^ 3 ^ 2", -4.0, 512.0);
+        assertValues("return 1 .. 2 .. 3, 'a' .. 10 / 4", "123", "a2.5");
+        assertValues("return 1 < 2 and 2 <= 2 and not (3 > 4), nil or 'x', false and 1", true, "x", false);
+        assertValues("return -7 % 3, 7 % -3, #'abc' + 1", 2.0, -2.0, 4.0);
+        assertValues("return '10' + 5, 1 == 1.0, 'a' ~= 'b'", 15.0, true, true);
+    }
+
+    public void testNumberFormatting() {
+        assertValues("return tostring(1e15), tostring(0.1), tostring(1/0), tostring(-0.5)", "1e+15", "0.1", "inf",
+                "-0.5");
+        assertValues("return tonumber('0x1F'), tonumber('  12 '), tonumber('1e2'), tonumber('12abc')", 31.0, 12.0,
+                100.0, null);
+    }
+
+    public void testLocalsScopesAndClosures() {
+        assertValues("local x = 1 do local x = 2 end return x", 1.0);
+        assertValues("local x = 1 local x = x + 1 return x", 2.0);
+        assertValues("local function counter() local n = 0 return function() n = n + 1 return n end end "
+                + "local c = counter() c() c() local d = counter() return c(), d()", 3.0, 1.0);
+        assertValues("local a, b, c = 1, 2 return a, b, c", 1.0, 2.0, null);
+        assertValues("local a, b = 1, 2 a, b = b, a return a, b", 2.0, 1.0);
+    }
+
+    public void testControlFlow() {
+        assertValues("local n = 0 while n < 10 do n = n + 1 if n == 5 then break end end return n", 5.0);
+        assertValues("local n = 0 repeat local m = n n = n + 1 until m >= 3 return n", 4.0);
+        assertValues("local s = 0 for i = 10, 1, -3 do s = s + i end return s", 22.0);
+        assertValues("local s = '' for i, v in ipairs({'a', 'b', nil, 'c'}) do s = s .. i .. v end return s", "1a2b");
+        assertValues("local s = 0 for k, v in pairs({x = 1, y = 2, 3}) do s = s + v end return s", 6.0);
+        assertValues("local function f(x) if x > 0 then return 'pos' elseif x < 0 then return 'neg' else "
+                + "return 'zero' end end return f(1), f(-1), f(0)", "pos", "neg", "zero");
+        assertValues("local function fib(n) if n < 2 then return n end return fib(n - 1) + fib(n - 2) end "
+                + "return fib(20)", 6765.0);
+    }
+
+    public void testTablesAndMultipleValues() {
+        assertValues("local function f() return 1, 2, 3 end local t = {f()} local u = {f(), f()} "
+                + "return #t, #u, (f())", 3.0, 4.0, 1.0);
+        assertValues("local t = {x = 1, ['y'] = 2, [10] = 3; 'a'} return t.x, t.y, t[10], t[1]", 1.0, 2.0, 3.0,
+                "a");
+        assertValues("local function f(...) return select('#', ...), ... end return f(nil, 2)", 2.0, null, 2.0);
+        assertValues("return unpack({1, 2, 3}, 2)", 2.0, 3.0);
+        assertValues("local t = {} t.a = {} t.a.b = 5 function t.a.get(self) return self.b end "
+                + "function t.a:twice() return self.b * 2 end return t.a:get(), t.a:twice()", 5.0, 10.0);
+        assertValues("local t = {3, 1, 2} table.sort(t) table.insert(t, 1, 0) table.remove(t) "
+                + "return table.concat(t, ',')", "0,1,2");
+    }
+
+    public void testStrings() {
+        assertValues("return ('abc'):upper(), string.sub('hello', 2, -2), string.rep('ab', 3)", "ABC", "ell",
+                "ababab");
+        assertValues("return string.format('%d|%5.2f|%s|%x|%%', 42, 3.14159, 'x', 255)", "42| 3.14|x|ff|%");
+        assertValues("return 'a\\tb\\65\\n', [[long\nstring]], [==[x]]==]", "a\tbA\n", "long\nstring", "x]");
+        assertValues("return string.find('hello world', 'o w', 1, true)", 5.0, 7.0);
+        assertValues("-- comment\n--[[ long\ncomment ]] return 1", 1.0);
+    }
+
+    public void testSyntaxErrorsNameTheLine() {
+        LuaError error = assertThrows(LuaError.class, () -> LuaCompiler.compile("local x = 1\n\nreturn x +"));
+        assertEquals(3, error.line);
+        assertEquals("unexpected symbol near '<eof>'", error.getMessage());
+        error = assertThrows(LuaError.class, () -> LuaCompiler.compile("if x then\nreturn 1\n"));
+        assertEquals("'end' expected (to close 'if' at line 1) near '<eof>'", error.getMessage());
+        assertThrows(LuaError.class, () -> LuaCompiler.compile("x ="));
+        assertThrows(LuaError.class, () -> LuaCompiler.compile("return 'unfinished"));
+        assertThrows(LuaError.class, () -> LuaCompiler.compile("f() = 1"));
+    }
+
+    public void testRuntimeErrors() {
+        LuaError error = assertThrows(LuaError.class, () -> run("local t = nil\n\nreturn t.x"));
+        assertEquals(3, error.line);
+        assertEquals("attempt to index a nil value", error.getMessage());
+        error = assertThrows(LuaError.class, () -> run("return missing"));
+        assertEquals("Script attempted to access nonexistent global variable 'missing'", error.getMessage());
+        error = assertThrows(LuaError.class, () -> run("x = 1"));
+        assertEquals("Attempt to modify a readonly table", error.getMessage());
+        assertThrows(LuaError.class, () -> run("string.len = nil"));
+        assertThrows(LuaError.class, () -> run("return {} + 1"));
+        assertThrows(LuaError.class, () -> run("return 1 < 'a'"));
+        error = assertThrows(LuaError.class, () -> run("error({code = 7})"));
+        assertEquals(7.0, ((LuaTable) error.value).get("code"));
+    }
+
+    public void testPcall() {
+        assertValues("return pcall(function(a) return a * 2 end, 21)", true, 42.0);
+        assertValues("local ok, err = pcall(function()\nerror('boom')\nend) return ok, err", false,
+                "user_script:2: boom");
+        assertValues("local ok, err = pcall(error, {1}) return ok, type(err)", false, "table");
+    }
+
+    public void testLimits() {
+        assertEquals("too many results to unpack",
+                assertThrows(LuaError.class, () -> run("return unpack({}, -2147483648, 2147483647)")).getMessage());
+        assertThrows(LuaError.class, () -> run("return unpack({}, 1, 1e300)"));
+        assertEquals("resulting string too large",
+                assertThrows(LuaError.class, () -> run("return string.rep('x', 1e12)")).getMessage());
+        assertThrows(LuaError.class, () -> run("local s = 'x' for i = 1, 40 do s = s .. s end"));
+        assertValues("return string.rep('x', -1), string.rep('', 1e12)", "", "");
+    }
+
+    public void testBudgetStopsLoopsAndPcallCannotCatchIt() {
+        long budget = TimeUnit.MILLISECONDS.toNanos(20);
+        long start = System.nanoTime();
+        assertThrows(LuaCompiler.BudgetExceeded.class, () -> run("while true do end", budget));
+        assertThrows(LuaCompiler.BudgetExceeded.class,
+                () -> run("local function f() return f() + 1 end while true do pcall(function() "
+                        + "local n = 0 for i = 1, 1e9 do n = n + i end end) end", budget));
+        assertThrows(LuaCompiler.BudgetExceeded.class,
+                () -> run("local function spin() repeat until false end spin()", budget));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsed < 2000, "the budget stopped the scripts only after " + elapsed + " ms");
+    }
+}
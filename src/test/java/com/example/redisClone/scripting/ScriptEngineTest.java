@@ -0,0 +1,150 @@
+package com.example.redisClone.scripting;
+
+import static com.example.redisClone.Assertions.assertEquals;
+import static com.example.redisClone.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import com.example.redisClone.Main;
+import com.example.redisClone.config.Config;
+import com.example.redisClone.rdb.RDBconfig;
+import com.example.redisClone.replication.Replication;
+import com.example.redisClone.resp.RespArgs;
+import com.example.redisClone.resp.RespBuffer;
+import com.example.redisClone.server.CommandTable;
+import com.example.redisClone.server.ServerContext;
+import com.example.redisClone.store.Evictor;
+import com.example.redisClone.store.Keyspace;
+
+/**
+ * EVAL, EVALSHA and SCRIPT through Main.executeCommand, the path client commands take.
+ */
+public class ScriptEngineTest {
+    private final ServerContext server;
+
+    public ScriptEngineTest() {
+        String directory = System.getProperty("java.io.tmpdir");
+        server = new ServerContext(new RDBconfig(directory, "script-test.rdb"), new Config());
+        server.keyspace = new Keyspace();
+        server.evictor = new Evictor(server.keyspace, server.clock);
+        server.replication = new Replication(server.keyspace, server.config, directory);
+    }
+
+    /**
+     * @return The RESP reply, with CRLFs shown as spaces.
+     */
+    private String execute(String... argv) {
+        byte[][] bytes = new byte[argv.length][];
+        for (int i = 0; i < argv.length; i++) {
+            bytes[i] = argv[i].getBytes(StandardCharsets.ISO_8859_1);
+        }
+        RespArgs args = RespArgs.of(bytes);
+        RespBuffer out = new RespBuffer(64);
+        Main.executeCommand(CommandTable.lookup(args), args, server, out, false);
+        return new String(out.array(), 0, out.length(), StandardCharsets.ISO_8859_1).replace("\r\n", " ").trim();
+    }
+
+    public void testRateLimiter() {
+        String script = "local current = redis.call('INCR', KEYS[1])\n"
+                + "if current == 1 then redis.call('PEXPIREAT', KEYS[1], ARGV[2]) end\n"
+                + "if current > tonumber(ARGV[1]) then return 0 end\n"
+                + "return current";
+        String expireAt = Long.toString(System.currentTimeMillis() + 60_000);
+        assertEquals(":1", execute("EVAL", script, "1", "limit", "2", expireAt));
+        assertEquals(":2", execute("EVAL", script, "1", "limit", "2", expireAt));
+        assertEquals(":0", execute("EVAL", script, "1", "limit", "2", expireAt));
+        assertEquals("$1 3", execute("GET", "limit"));
+    }
+
+    public void testReplyConversion() {
+        assertEquals(":3", execute("EVAL", "return 3.99", "0"));
+        assertEquals("*3 :1 $1 x :1", execute("EVAL", "return {1, 'x', true, nil, 5}", "0"));
+        assertEquals("$-1", execute("EVAL", "return false", "0"));
+        assertEquals("+FINE", execute("EVAL", "return redis.status_reply('FINE')", "0"));
+        assertEquals("-MYERR custom", execute("EVAL", "return redis.error_reply('MYERR custom')", "0"));
+        execute("SET", "k", "v");
+        assertEquals("*2 $1 v :1", execute("EVAL", "return {redis.call('GET', KEYS[1]), "
+                + "redis.call('GET', 'missing') == false}", "1", "k"));
+        assertEquals("+OK", execute("EVAL", "return redis.call('SET', 'n', 12)", "0"));
+        assertEquals(":13", execute("EVAL", "return redis.call('INCR', 'n')", "0"));
+    }
+
+    public void testCallErrors() {
+        execute("SET", "text", "abc");
+        String reply = execute("EVAL", "return redis.call('INCR', 'text')", "0");
+        assertTrue(reply.startsWith("-ERR value is not an integer or out of range script: ")
+                && reply.endsWith(", on @user_script:1."), reply);
+        assertEquals("-ERR value is not an integer or out of range",
+                execute("EVAL", "return redis.pcall('INCR', 'text')", "0"));
+        assertEquals(":1", execute("EVAL", "local r = redis.pcall('INCR', 'text') return type(r.err) == 'string' "
+                + "and 1 or 0", "0"));
+        assertTrue(execute("EVAL", "return redis.call('NOSUCHCOMMAND')", "0")
+                .startsWith("-ERR Unknown Redis command called from script"), "unknown command");
+        assertTrue(execute("EVAL", "return redis.call('EVAL', 'return 1', 0)", "0")
+                .startsWith("-ERR This Redis command is not allowed from script"), "nested EVAL");
+        assertTrue(execute("EVAL", "return redis.call('SUBSCRIBE', 'c')", "0")
+                .startsWith("-ERR This Redis command is not allowed from script"), "connection command");
+        assertTrue(execute("EVAL", "return redis.call('SET', {}, 1)", "0")
+                .startsWith("-ERR Lua redis lib command arguments must be strings or integers"), "table argument");
+        assertTrue(execute("EVAL", "return redis.call()", "0")
+                .startsWith("-ERR Please specify at least one argument"), "no arguments");
+        assertTrue(execute("EVAL", "\nreturn nope", "0").startsWith(
+                "-ERR user_script:2: Script attempted to access nonexistent global variable 'nope' script: "),
+                "runtime error");
+        assertTrue(execute("EVAL", "return 1 +", "0").startsWith("-ERR Error compiling script"), "syntax error");
+        assertEquals("-ERR Number of keys can't be negative", execute("EVAL", "return 1", "-1"));
+        assertEquals("-ERR Number of keys can't be greater than number of args", execute("EVAL", "return 1", "2",
+                "a"));
+    }
+
+    public void testFailuresBecomeErrorReplies() {
+        assertTrue(execute("EVAL", "return unpack({}, -2147483648, 2147483647)", "0")
+                .startsWith("-ERR user_script:1: too many results to unpack"), "unpack");
+        assertTrue(execute("EVAL", "local function f() return f() end return f()", "0")
+                .startsWith("-ERR Error running script: stack overflow"), "recursion");
+        assertTrue(execute("EVAL", "return string.format('%2000000000d', 1)", "0")
+                .startsWith("-ERR Error running script"), "huge format");
+        assertEquals("+PONG", execute("PING"));
+    }
+
+    public void testBudgetStopsAScriptThatHasNotWritten() {
+        server.config.busyReplyThreshold = 5;
+        long start = System.nanoTime();
+        String reply = execute("EVAL", "redis.call('GET', 'before') while true do end", "0");
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(reply.startsWith("-ERR Script killed after running for more than busy-reply-threshold (5 ms)"),
+                reply);
+        assertTrue(elapsedMillis < 1000, "stopped after " + elapsedMillis + " ms");
+        assertEquals(":1", execute("EVAL", "return 1", "0"));
+    }
+
+    public void testScriptThatHasWrittenIsNotStoppedHalfway() {
+        server.config.busyReplyThreshold = 5;
+        long start = System.nanoTime();
+        String reply = execute("EVAL", "redis.call('SET', 'first', 1) "
+                + "local n = 0 while n < 3000000 do n = n + 1 end "
+                + "redis.call('SET', 'second', n) return n", "0");
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(elapsedMillis > 5, "the loop took only " + elapsedMillis + " ms");
+        assertEquals(":3000000", reply);
+        assertEquals("$1 1", execute("GET", "first"));
+        assertEquals("$7 3000000", execute("GET", "second"));
+    }
+
+    public void testScriptLoadExistsFlush() {
+        String sha = execute("SCRIPT", "LOAD", "return ARGV[1] .. KEYS[1]").split(" ")[1];
+        assertEquals(ScriptEngine.sha1("return ARGV[1] .. KEYS[1]"), sha);
+        assertEquals("$2 ba", execute("EVALSHA", sha, "1", "a", "b"));
+        assertEquals("$2 ba", execute("EVALSHA", sha.toUpperCase(), "1", "a", "b"));
+        assertEquals("*2 :1 :0", execute("SCRIPT", "EXISTS", sha, "0000"));
+        assertTrue(server.scripts.info().contains("number_of_cached_scripts:1"), server.scripts.info());
+        assertEquals("+OK", execute("SCRIPT", "FLUSH"));
+        assertEquals("*1 :0", execute("SCRIPT", "EXISTS", sha));
+        assertEquals("-NOSCRIPT No matching script. Please use EVAL.", execute("EVALSHA", sha, "0"));
+        assertTrue(execute("SCRIPT", "LOAD", "return +").startsWith("-ERR Error compiling script"), "bad script");
+        assertEquals("-NOTBUSY No scripts in execution right now.", execute("SCRIPT", "KILL"));
+        // EVAL caches what it compiles.
+        execute("EVAL", "return 7", "0");
+        assertEquals("*1 :1", execute("SCRIPT", "EXISTS", ScriptEngine.sha1("return 7")));
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.redisClone.types;
+
+import static com.example.redisClone.Assertions.assertEquals;
+import static com.example.redisClone.Assertions.assertThrows;
+import static com.example.redisClone.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Listpack encodings, navigation in both directions, and changes in the middle of the pack.
+ */
+public class ListpackTest {
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static List<String> forward(Listpack listpack) {
+        List<String> values = new ArrayList<>();
+        for (int p = listpack.first(); p != -1; p = listpack.next(p)) {
+            values.add(listpack.getString(p));
+        }
+        return values;
+    }
+
+    private static List<String> backward(Listpack listpack) {
+        List<String> values = new ArrayList<>();
+        for (int p = listpack.last(); p != -1; p = listpack.prev(p)) {
+            values.add(0, listpack.getString(p));
+        }
+        return values;
+    }
+
+    public void testEveryEncodingRoundTrips() {
+        // Each boundary of the integer encodings (7-bit, 13-bit, 16, 24, 32 and 64-bit), strings
+        // that only look like integers, and each string length encoding (6-bit, 12-bit and 32-bit).
+        List<String> values = List.of("0", "127", "128", "-1", "4095", "-4096", "4096", "32767", "-32768", "32768",
+                "8388607", "-8388608", "8388608", "2147483647", "-2147483648", "2147483648",
+                "9223372036854775807", "-9223372036854775808", "9223372036854775808", "007", "-0", "+1", "1.5",
+                "", "x".repeat(63), "y".repeat(64), "z".repeat(4095), "w".repeat(4096), "ÿ\u0000binary");
+        Listpack listpack = new Listpack();
+        for (String value : values) {
+            listpack.append(bytes(value));
+        }
+        assertEquals(values.size(), listpack.size());
+        assertEquals(values, forward(listpack));
+        assertEquals(values, backward(listpack));
+        Listpack loaded = new Listpack(listpack.toBytes());
+        assertEquals(values, forward(loaded));
+        assertEquals(listpack.bytes(), loaded.bytes());
+    }
+
+    public void testSmallIntegersAreCompact() {
+        Listpack listpack = new Listpack();
+        listpack.append(bytes("100"));
+        // A 7-bit integer is one byte plus a one-byte backlen; the terminator is the last byte.
+        assertEquals(Listpack.HEADER_SIZE + 2 + 1, listpack.bytes());
+        listpack.append(bytes("-4096")); // 13-bit: two bytes plus the backlen.
+        assertEquals(Listpack.HEADER_SIZE + 2 + 3 + 1, listpack.bytes());
+    }
+
+    public void testInsertDeleteAndReplaceInTheMiddle() {
+        Listpack listpack = new Listpack();
+        for (String value : List.of("b", "d", "e")) {
+            listpack.append(bytes(value));
+        }
+        listpack.prepend(bytes("a"));
+        listpack.insert(listpack.seek(2), bytes("c"));
+        assertEquals(List.of("a", "b", "c", "d", "e"), forward(listpack));
+        assertEquals("e", listpack.getString(listpack.seek(-1)));
+        assertEquals(-1, listpack.seek(5));
+        assertEquals(-1, listpack.seek(-6));
+
+        listpack.delete(listpack.seek(1));
+        listpack.replace(listpack.seek(-1), bytes("long value ".repeat(10)));
+        assertEquals(List.of("a", "c", "d", "long value ".repeat(10)), backward(listpack));
+        listpack.insert(listpack.end(), bytes("12345"));
+        assertEquals("12345", listpack.getString(listpack.last()));
+        assertEquals(5, listpack.size());
+    }
+
+    public void testFindComparesIntegersByValue() {
+        Listpack listpack = new Listpack();
+        for (String value : List.of("f1", "10", "f2", "v2", "10", "v3")) {
+            listpack.append(bytes(value));
+        }
+        assertEquals(listpack.seek(4), listpack.find(listpack.seek(2), bytes("10"), 2));
+        assertEquals(listpack.seek(1), listpack.find(listpack.first(), bytes("10"), 1));
+        assertEquals(-1, listpack.find(listpack.first(), bytes("010"), 1));
+        assertEquals(-1, listpack.find(listpack.first(), bytes("v2"), 2)); // Only fields are compared.
+    }
+
+    public void testDeletingEveryEntry() {
+        Listpack listpack = new Listpack();
+        for (int i = 0; i < 1000; i++) {
+            listpack.append(bytes("value-" + i));
+        }
+        int full = listpack.bytes();
+        while (listpack.size() > 0) {
+            listpack.delete(listpack.first());
+        }
+        assertEquals(-1, listpack.first());
+        assertEquals(-1, listpack.last());
+        assertEquals(Listpack.HEADER_SIZE + 1, listpack.bytes());
+        assertTrue(full > 10_000, "full listpack was " + full + " bytes");
+    }
+
+    public void testCorruptBlobsAreRejected() {
+        byte[] valid = new Listpack().toBytes();
+        assertThrows(IllegalArgumentException.class, () -> new Listpack(new byte[3]));
+        byte[] wrongLength = valid.clone();
+        wrongLength[0]++;
+        assertThrows(IllegalArgumentException.class, () -> new Listpack(wrongLength));
+        byte[] noTerminator = valid.clone();
+        noTerminator[noTerminator.length - 1] = 0;
+        assertThrows(IllegalArgumentException.class, () -> new Listpack(noTerminator));
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.redisClone.types;
+
+import static com.example.redisClone.Assertions.assertEquals;
+import static com.example.redisClone.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Quicklist nodes, and the list's conversions between one listpack and a quicklist.
+ */
+public class QuicklistTest {
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static List<String> strings(List<byte[]> values) {
+        List<String> strings = new ArrayList<>();
+        for (byte[] value : values) {
+            strings.add(new String(value, StandardCharsets.ISO_8859_1));
+        }
+        return strings;
+    }
+
+    private static EncodingLimits entriesPerNode(int entries) {
+        EncodingLimits limits = new EncodingLimits();
+        limits.listMaxListpackSize = entries;
+        return limits;
+    }
+
+    public void testNodesFillUpToTheLimit() {
+        EncodingLimits limits = entriesPerNode(4);
+        Quicklist quicklist = new Quicklist();
+        for (int i = 0; i < 10; i++) {
+            quicklist.push(bytes("v" + i), false, limits);
+        }
+        assertEquals(3, quicklist.nodes);
+        assertEquals(10, quicklist.count);
+        assertEquals(4, quicklist.head.entries.size());
+        assertEquals(2, quicklist.tail.entries.size());
+        quicklist.push(bytes("h"), true, limits); // The head node is full: a new one is linked.
+        assertEquals(4, quicklist.nodes);
+
+        List<byte[]> range = new ArrayList<>();
+        quicklist.range(2, 9, range);
+        assertEquals(List.of("v1", "v2", "v3", "v4", "v5", "v6", "v7", "v8"), strings(range));
+        long bytes = 0;
+        for (Quicklist.Node node = quicklist.head; node != null; node = node.next) {
+            bytes += node.entries.bytes();
+        }
+        assertEquals(bytes, quicklist.bytes);
+    }
+
+    public void testPopsUnlinkEmptyNodes() {
+        EncodingLimits limits = entriesPerNode(2);
+        Quicklist quicklist = new Quicklist();
+        for (int i = 0; i < 5; i++) {
+            quicklist.push(bytes(Integer.toString(i)), false, limits);
+        }
+        assertEquals("0", new String(quicklist.pop(true), StandardCharsets.ISO_8859_1));
+        assertEquals("4", new String(quicklist.pop(false), StandardCharsets.ISO_8859_1));
+        assertEquals(2, quicklist.nodes);
+        assertEquals(3, quicklist.count);
+        while (quicklist.pop(true) != null) {
+            // Drain it.
+        }
+        assertEquals(0, quicklist.nodes);
+        assertEquals(0, quicklist.count);
+        assertEquals(0L, quicklist.bytes);
+        assertTrue(quicklist.head == null && quicklist.tail == null, "nodes left after draining");
+    }
+
+    public void testCopyIsIndependent() {
+        EncodingLimits limits = entriesPerNode(2);
+        Quicklist quicklist = new Quicklist();
+        for (int i = 0; i < 5; i++) {
+            quicklist.push(bytes(Integer.toString(i)), false, limits);
+        }
+        Quicklist copy = quicklist.copy();
+        quicklist.pop(true);
+        assertEquals(5, copy.count);
+        assertEquals(3, copy.nodes);
+        List<byte[]> range = new ArrayList<>();
+        copy.range(0, 4, range);
+        assertEquals(List.of("0", "1", "2", "3", "4"), strings(range));
+    }
+
+    public void testListConvertsAtTheEntryLimitAndBackAtHalf() {
+        EncodingLimits limits = entriesPerNode(4);
+        ListValue list = new ListValue();
+        for (int i = 0; i < 4; i++) {
+            list.push(bytes("e" + i), false, limits);
+        }
+        assertEquals("listpack", list.encoding());
+        list.push(bytes("e4"), false, limits);
+        assertEquals("quicklist", list.encoding());
+        list.pop(false, limits); // Back to one full node: still a quicklist.
+        list.pop(false, limits);
+        assertEquals("quicklist", list.encoding());
+        list.pop(false, limits); // Half a node.
+        assertEquals("listpack", list.encoding());
+        assertEquals(List.of("e0", "e1"), strings(list.range(0, 1)));
+    }
+
+    public void testListConvertsAtTheByteLimit() {
+        EncodingLimits limits = new EncodingLimits();
+        limits.listMaxListpackSize = -1; // 4 KB nodes.
+        ListValue list = new ListValue();
+        byte[] value = bytes("x".repeat(100));
+        int pushed = 0;
+        while (list.encoding().equals("listpack")) {
+            list.push(value, true, limits);
+            pushed++;
+        }
+        // 103 bytes an entry (header, data, backlen): the 40th no longer fits in 4096 bytes.
+        assertEquals(40, pushed);
+        assertTrue(list.memoryUsage() > 4096, "memory usage " + list.memoryUsage());
+        for (Listpack node : list.nodes()) {
+            assertTrue(node.bytes() <= 4096, "node of " + node.bytes() + " bytes");
+        }
+    }
+
+    public void testMatchesADequeUnderRandomPushesAndPops() {
+        EncodingLimits limits = entriesPerNode(8);
+        ListValue list = new ListValue();
+        Deque<String> expected = new ArrayDeque<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            boolean atHead = random.nextBoolean();
+            if (random.nextInt(10) < 6) {
+                String value = random.nextInt(3) == 0 ? Integer.toString(random.nextInt()) : "s" + i;
+                list.push(bytes(value), atHead, limits);
+                if (atHead) {
+                    expected.addFirst(value);
+                } else {
+                    expected.addLast(value);
+                }
+            } else {
+                byte[] popped = list.pop(atHead, limits);
+                String value = atHead ? expected.pollFirst() : expected.pollLast();
+                assertEquals(value, popped == null ? null : new String(popped, StandardCharsets.ISO_8859_1));
+            }
+            assertEquals(expected.size(), list.size());
+        }
+        assertTrue(list.size() > 0, "the list ended empty");
+        assertEquals(new ArrayList<>(expected), strings(list.range(0, list.size() - 1)));
+    }
+}
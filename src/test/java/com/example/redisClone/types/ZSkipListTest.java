@@ -0,0 +1,175 @@
+package com.example.redisClone.types;
+
+import static com.example.redisClone.Assertions.assertEquals;
+import static com.example.redisClone.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * The skiplist's order, spans and range lookups, and the switches of sorted sets (to a skiplist)
+ * and hashes and sets (to a hash table) out of their listpacks.
+ */
+public class ZSkipListTest {
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static List<String> members(ZSkipList list) {
+        List<String> members = new ArrayList<>();
+        for (ZSkipList.Node node = list.header.forward[0]; node != null; node = node.forward[0]) {
+            members.add(node.member);
+        }
+        return members;
+    }
+
+    private static List<String> members(List<ZSetValue.Entry> entries) {
+        List<String> members = new ArrayList<>();
+        for (ZSetValue.Entry entry : entries) {
+            members.add(new String(entry.member, StandardCharsets.ISO_8859_1) + "=" + entry.score);
+        }
+        return members;
+    }
+
+    public void testOrdersByScoreThenMember() {
+        ZSkipList list = new ZSkipList();
+        list.insert(2, "b");
+        list.insert(1, "z");
+        list.insert(2, "a");
+        list.insert(Double.NEGATIVE_INFINITY, "low");
+        list.insert(Double.POSITIVE_INFINITY, "high");
+        assertEquals(List.of("low", "z", "a", "b", "high"), members(list));
+        assertEquals(5L, list.length);
+        assertEquals("high", list.tail.member);
+        assertEquals("b", list.tail.backward.member);
+        assertEquals(null, list.header.forward[0].backward);
+    }
+
+    public void testDeleteNeedsTheExactScore() {
+        ZSkipList list = new ZSkipList();
+        list.insert(1, "a");
+        list.insert(2, "b");
+        assertTrue(!list.delete(2, "a"), "deleted with the wrong score");
+        assertTrue(list.delete(2, "b"), "not deleted");
+        assertTrue(!list.delete(2, "b"), "deleted twice");
+        assertEquals("a", list.tail.member);
+        assertEquals(1L, list.length);
+        assertTrue(list.delete(1, "a"), "not deleted");
+        assertEquals(null, list.tail);
+        assertEquals(1, list.level);
+    }
+
+    public void testRanksStayRightUnderRandomChanges() {
+        Comparator<ZSkipList.Node> order = Comparator.<ZSkipList.Node>comparingDouble(node -> node.score)
+                .thenComparing(node -> node.member);
+        TreeSet<ZSkipList.Node> expected = new TreeSet<>(order);
+        ZSkipList list = new ZSkipList();
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            if (expected.isEmpty() || random.nextInt(3) > 0) {
+                ZSkipList.Node node = list.insert(random.nextInt(100), "m" + i);
+                expected.add(node);
+            } else {
+                ZSkipList.Node victim = expected.ceiling(new ZSkipList.Node(1, random.nextInt(100), ""));
+                if (victim == null) {
+                    victim = expected.first();
+                }
+                expected.remove(victim);
+                assertTrue(list.delete(victim.score, victim.member), "missing " + victim.member);
+            }
+        }
+        assertEquals((long) expected.size(), list.length);
+        long rank = 1;
+        for (ZSkipList.Node node : expected) {
+            assertEquals(node.member, list.byRank(rank++).member);
+        }
+        assertEquals(null, list.byRank(rank));
+    }
+
+    public void testScoreRangeBounds() {
+        ZSkipList list = new ZSkipList();
+        for (int i = 1; i <= 10; i++) {
+            list.insert(i, "m" + i);
+        }
+        assertEquals("m3", list.firstInRange(new ZSetValue.ScoreRange(3, false, 5, false)).member);
+        assertEquals("m5", list.lastInRange(new ZSetValue.ScoreRange(3, false, 5, false)).member);
+        assertEquals("m4", list.firstInRange(new ZSetValue.ScoreRange(3, true, 5, true)).member);
+        assertEquals("m4", list.lastInRange(new ZSetValue.ScoreRange(3, true, 5, true)).member);
+        assertEquals("m1", list.firstInRange(ZSetValue.ScoreRange.parse(bytes("-inf"), bytes("+inf"))).member);
+        assertEquals("m10", list.lastInRange(ZSetValue.ScoreRange.parse(bytes("-inf"), bytes("+inf"))).member);
+        assertEquals(null, list.firstInRange(new ZSetValue.ScoreRange(10, true, 20, false)));
+        assertEquals(null, list.lastInRange(new ZSetValue.ScoreRange(-5, false, 1, true)));
+        assertEquals(null, list.firstInRange(new ZSetValue.ScoreRange(4.5, false, 4.9, false)));
+    }
+
+    public void testSortedSetSwitchesToASkiplistAtTheEntryLimit() {
+        EncodingLimits limits = new EncodingLimits();
+        limits.zsetMaxListpackEntries = 4;
+        ZSetValue zset = new ZSetValue();
+        double[] score = new double[1];
+        for (String member : List.of("d", "b", "a", "c")) {
+            zset.add(bytes(member), member.charAt(0) % 2, 0, score, limits);
+        }
+        assertEquals("listpack", zset.encoding());
+        List<String> before = members(zset.rangeByRank(0, 3, false));
+        assertEquals(List.of("b=0.0", "d=0.0", "a=1.0", "c=1.0"), before);
+        assertEquals(ZSetValue.UPDATED, zset.add(bytes("a"), 5, 0, score, limits));
+        assertEquals("listpack", zset.encoding());
+
+        assertEquals(ZSetValue.ADDED, zset.add(bytes("e"), 0.5, 0, score, limits));
+        assertEquals("skiplist", zset.encoding());
+        assertEquals(List.of("b=0.0", "d=0.0", "e=0.5", "c=1.0", "a=5.0"), members(zset.rangeByRank(0, 4, false)));
+        assertEquals(List.of("a=5.0", "c=1.0"), members(zset.rangeByRank(0, 1, true)));
+        assertEquals(List.of("e=0.5", "c=1.0"),
+                members(zset.rangeByScore(new ZSetValue.ScoreRange(0, true, 5, true), false, 0, -1)));
+        assertEquals(5.0, zset.score(bytes("a")));
+    }
+
+    public void testSortedSetSwitchesToASkiplistForALongMember() {
+        EncodingLimits limits = new EncodingLimits();
+        ZSetValue zset = new ZSetValue();
+        double[] score = new double[1];
+        zset.add(bytes("short"), 1, 0, score, limits);
+        zset.add(bytes("x".repeat(limits.zsetMaxListpackValue)), 2, 0, score, limits);
+        assertEquals("listpack", zset.encoding());
+        zset.add(bytes("x".repeat(limits.zsetMaxListpackValue + 1)), 3, 0, score, limits);
+        assertEquals("skiplist", zset.encoding());
+        assertEquals(3, zset.size());
+        assertEquals(1.0, zset.score(bytes("short")));
+    }
+
+    public void testHashAndSetSwitchToAHashTable() {
+        EncodingLimits limits = new EncodingLimits();
+        limits.hashMaxListpackEntries = 2;
+        HashValue hash = new HashValue();
+        assertTrue(hash.set(bytes("f1"), bytes("1"), limits), "new field");
+        assertTrue(hash.set(bytes("f2"), bytes("2"), limits), "new field");
+        assertTrue(!hash.set(bytes("f2"), bytes("two"), limits), "replaced field");
+        assertEquals("listpack", hash.encoding());
+        hash.set(bytes("f3"), bytes("3"), limits);
+        assertEquals("hashtable", hash.encoding());
+        assertEquals("two", new String(hash.get(bytes("f2")), StandardCharsets.ISO_8859_1));
+        assertEquals(3, hash.size());
+
+        HashValue longValue = new HashValue();
+        longValue.set(bytes("f"), bytes("v"), limits);
+        longValue.set(bytes("f"), bytes("v".repeat(limits.hashMaxListpackValue + 1)), limits);
+        assertEquals("hashtable", longValue.encoding());
+        assertEquals(1, longValue.size());
+
+        limits.setMaxListpackEntries = 3;
+        SetValue set = new SetValue();
+        for (String member : List.of("a", "b", "c", "a")) {
+            set.add(bytes(member), limits);
+        }
+        assertEquals("listpack", set.encoding());
+        assertTrue(set.add(bytes("d"), limits), "new member");
+        assertEquals("hashtable", set.encoding());
+        assertTrue(set.contains(bytes("a")) && set.contains(bytes("d")), "members lost in the switch");
+        assertEquals(4, set.size());
+    }
+}